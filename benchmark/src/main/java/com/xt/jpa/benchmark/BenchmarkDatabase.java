@@ -0,0 +1,107 @@
+package com.xt.jpa.benchmark;
+
+import com.xt.jpa.batch.BulkPersistService;
+import com.xt.jpa.helloworld.Customer;
+import com.xt.jpa.helloworld.Order;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author xt
+ * @date 2019/2/20 - 10:00
+ * @description 基准测试使用的数据库：内存中的 H2，持久化单元仍然使用 persistence.xml 中的 jpa-1
+ *
+ * 每个 Customer 的 lastName 为 xt + 序号，各不相同（testSubQuery 的子查询只能返回一行），
+ * 序号除以 3 的余数即为其 Order 的个数，testGroupBy 的 having count(o.id) >= 2 能查询到三分之一的 Customer。
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+    /**
+     * 数据量：Customer 的个数
+     */
+    @Param({"100", "1000", "10000"})
+    private int customers;
+
+    private EntityManagerFactory entityManagerFactory;
+    private int[] customerIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", h2Properties("benchmark"));
+
+        List<Customer> list = new ArrayList<>(customers);
+        for (int i = 0; i < customers; i++) {
+            Customer customer = new Customer("xt" + i, 18 + i % 50);
+            customer.setEmail("xt" + i + "@163.com");
+            customer.setBirth(new Date());
+            customer.setCreatedTime(new Date());
+            for (int j = 0; j < i % 3; j++) {
+                Order order = new Order();
+                order.setOrderName("O-" + i + "-" + j);
+                customer.getOrders().add(order);
+            }
+            list.add(customer);
+        }
+        new BulkPersistService(entityManagerFactory).persistAll(list);
+
+        customerIds = new int[customers];
+        for (int i = 0; i < customers; i++) {
+            customerIds[i] = list.get(i).getId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    /**
+     * 使用内存中的 H2 数据库时覆盖 persistence.xml 的配置，src/test 中的测试也使用这些配置
+     *
+     * @param database 内存数据库的名字，同一个 JVM 中名字相同的是同一个数据库
+     */
+    public static Map<String, Object> h2Properties(String database) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("javax.persistence.jdbc.driver", "org.h2.Driver");
+        properties.put("javax.persistence.jdbc.url", "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1");
+        properties.put("javax.persistence.jdbc.user", "sa");
+        properties.put("javax.persistence.jdbc.password", "");
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.hbm2ddl.auto", "create-drop");
+        properties.put("hibernate.show_sql", "false");
+        properties.put("hibernate.format_sql", "false");
+        // 持久化类已经在 persistence.xml 中列出，不需要扫描 jar 包
+        properties.put("hibernate.archive.autodetection", "hbm");
+        return properties;
+    }
+
+    public EntityManager createEntityManager() {
+        return entityManagerFactory.createEntityManager();
+    }
+
+    /**
+     * 随机选择一个 Customer 的序号
+     */
+    public int randomIndex() {
+        return ThreadLocalRandom.current().nextInt(customers);
+    }
+
+    public int customerId(int index) {
+        return customerIds[index];
+    }
+}
@@ -0,0 +1,115 @@
+package com.xt.jpa.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author xt
+ * @date 2019/2/20 - 11:00
+ * @description 运行基准测试，参数与 JMH 的命令行相同（例如 -p customers=1000、-f 2）
+ *
+ * 在 JMH 默认行为的基础上：
+ * 1. 没有指定要运行的基准测试时，运行 JpaOperationsBenchmark；
+ * 2. 没有指定 -prof 时，使用 GC profiler 统计分配速率；
+ * 3. 没有指定 -rf 时，结果以 JSON 格式保存到 jmh-result.json，可以和上一次的结果比较；
+ * 4. 最后按 操作 + 数据量 汇总吞吐量、p99 延迟和每次操作分配的内存。
+ */
+public class BenchmarkMain {
+
+    private static final String ALLOCATION_RATE = "·gc.alloc.rate";
+    private static final String ALLOCATION_PER_OP = "·gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(JpaOperationsBenchmark.class.getSimpleName());
+        }
+        if (commandLine.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        if (!commandLine.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON).result("jmh-result.json");
+        }
+        // javassist 3.15 创建代理类时需要访问 ClassLoader.defineClass
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            List<String> jvmArgs = new ArrayList<>();
+            if (commandLine.getJvmArgsAppend().hasValue()) {
+                jvmArgs.addAll(commandLine.getJvmArgsAppend().get());
+            }
+            jvmArgs.add("--add-opens=java.base/java.lang=ALL-UNNAMED");
+            builder.jvmArgsAppend(jvmArgs.toArray(new String[jvmArgs.size()]));
+        }
+
+        Collection<RunResult> results = new Runner(builder.build()).run();
+        printSummary(results);
+    }
+
+    private static void printSummary(Collection<RunResult> results) {
+        Map<String, Summary> summaries = new LinkedHashMap<>();
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            String key = benchmark.substring(benchmark.lastIndexOf('.') + 1)
+                    + " customers=" + result.getParams().getParam("customers");
+            Summary summary = summaries.get(key);
+            if (summary == null) {
+                summary = new Summary();
+                summaries.put(key, summary);
+            }
+
+            Result primary = result.getPrimaryResult();
+            switch (result.getParams().getMode()) {
+                case Throughput:
+                    summary.throughput = primary.getScore();
+                    summary.throughputUnit = primary.getScoreUnit();
+                    break;
+                case SampleTime:
+                    summary.p99 = primary.getStatistics().getPercentile(99);
+                    summary.latencyUnit = primary.getScoreUnit();
+                    break;
+                default:
+                    break;
+            }
+            Result allocationRate = result.getSecondaryResults().get(ALLOCATION_RATE);
+            if (allocationRate != null) {
+                summary.allocationRate = allocationRate.getScore();
+            }
+            Result allocationPerOp = result.getSecondaryResults().get(ALLOCATION_PER_OP);
+            if (allocationPerOp != null) {
+                summary.allocationPerOp = allocationPerOp.getScore();
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-40s %16s %16s %16s %16s", "Benchmark", "Throughput",
+                "p99", "Alloc MB/sec", "Alloc B/op"));
+        for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+            Summary summary = entry.getValue();
+            System.out.println(String.format("%-40s %16s %16s %16.1f %16.0f", entry.getKey(),
+                    String.format("%.3f %s", summary.throughput, summary.throughputUnit),
+                    String.format("%.3f %s", summary.p99, summary.latencyUnit),
+                    summary.allocationRate, summary.allocationPerOp));
+        }
+    }
+
+    private static final class Summary {
+        private double throughput = Double.NaN;
+        private String throughputUnit = "";
+        private double p99 = Double.NaN;
+        private String latencyUnit = "";
+        private double allocationRate = Double.NaN;
+        private double allocationPerOp = Double.NaN;
+    }
+}
@@ -0,0 +1,220 @@
+package com.xt.jpa.benchmark;
+
+import com.xt.jpa.helloworld.Customer;
+import com.xt.jpa.helloworld.Order;
+import com.xt.jpa.query.CustomerOrderCount;
+import com.xt.jpa.query.Projections;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.persistence.EntityManager;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author xt
+ * @date 2019/2/20 - 10:30
+ * @description JPATest 中各种操作的基准测试
+ *
+ * 每次操作都使用新的 EntityManager（与 JPATest 的 init / destroy 相同），二级缓存和查询缓存按 persistence.xml 的配置启用。
+ * Throughput 模式给出吞吐量，SampleTime 模式给出 p99 等延迟的分位数，分配速率由 BenchmarkMain 添加的 GC profiler 给出。
+ * persist 会不断增加数据，因此每次 fork 都重新建表。
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JpaOperationsBenchmark {
+
+    @Benchmark
+    public Integer persist(BenchmarkDatabase database) {
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            Customer customer = new Customer("persist", 20);
+            customer.setEmail("persist@163.com");
+            customer.setBirth(new Date());
+            customer.setCreatedTime(new Date());
+            entityManager.persist(customer);
+
+            Order order = new Order();
+            order.setOrderName("persist");
+            order.setCustomer(customer);
+            entityManager.persist(order);
+            entityManager.getTransaction().commit();
+            return customer.getId();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public Customer find(BenchmarkDatabase database) {
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            return entityManager.find(Customer.class, database.customerId(database.randomIndex()));
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * 与 testMerger3 相同：游离对象的 id 在数据库中存在，先查询再复制属性并 update
+     */
+    @Benchmark
+    public Customer merge(BenchmarkDatabase database) {
+        int index = database.randomIndex();
+        Customer customer = new Customer("xt" + index, 18 + database.randomIndex() % 50);
+        customer.setId(database.customerId(index));
+        customer.setEmail("xt" + index + "@163.com");
+        customer.setBirth(new Date());
+        customer.setCreatedTime(new Date());
+
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            Customer merged = entityManager.merge(customer);
+            entityManager.getTransaction().commit();
+            return merged;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * 与 testGetReference 相同：访问属性时初始化代理对象
+     */
+    @Benchmark
+    public String getReference(BenchmarkDatabase database) {
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            Customer customer = entityManager.getReference(Customer.class, database.customerId(database.randomIndex()));
+            return customer.getLastName();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * testGroupBy
+     */
+    @Benchmark
+    public List<?> jpqlGroupBy(BenchmarkDatabase database) {
+        String jpql = "select o.customer from Order o group by o.customer having count(o.id)>=2";
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            return entityManager.createQuery(jpql).getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * testGroupBy 的报表版本：只查询需要的列，映射为 DTO
+     */
+    @Benchmark
+    public List<CustomerOrderCount> jpqlGroupByProjection(BenchmarkDatabase database) {
+        String jpql = "select c.id, c.lastName, count(o.id) from Order o join o.customer c "
+                + "group by c.id, c.lastName having count(o.id)>=2";
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            return Projections.list(entityManager.createQuery(jpql), CustomerOrderCount.class);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * testPartlyProperties：select new 创建的仍然是完整的 Customer 对象
+     */
+    @Benchmark
+    public List<?> jpqlPartlyProperties(BenchmarkDatabase database) {
+        String jpql = "SELECT new Customer(c.lastName, c.age) FROM Customer c where c.id>?";
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            return entityManager.createQuery(jpql).setParameter(1, database.customerId(0)).getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * testPartlyProperties 的投影版本：每一行是列的数组
+     */
+    @Benchmark
+    public List<Object[]> jpqlPartlyPropertiesProjection(BenchmarkDatabase database) {
+        String jpql = "SELECT c.lastName, c.age FROM Customer c where c.id>?";
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            return Projections.rows(entityManager.createQuery(jpql).setParameter(1, database.customerId(0)));
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * testSubQuery
+     */
+    @Benchmark
+    public List<?> jpqlSubQuery(BenchmarkDatabase database) {
+        String jpql = "select o from Order o where o.customer = (select c from Customer c where c.lastName=?)";
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            return entityManager.createQuery(jpql).setParameter(1, "xt" + database.randomIndex()).getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * testLeftOuterJoin
+     */
+    @Benchmark
+    public int jpqlJoinFetch(BenchmarkDatabase database) {
+        String jpql = "from Customer c left outer join fetch c.orders where c.id=?";
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            Customer customer = (Customer) entityManager.createQuery(jpql)
+                    .setParameter(1, database.customerId(database.randomIndex())).getSingleResult();
+            return customer.getOrders().size();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * testNamedQuery
+     */
+    @Benchmark
+    public Object namedQuery(BenchmarkDatabase database) {
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            return entityManager.createNamedQuery("testNamedQuery")
+                    .setParameter(1, database.customerId(database.randomIndex())).getSingleResult();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * testNativeQuery
+     */
+    @Benchmark
+    public Object nativeQuery(BenchmarkDatabase database) {
+        String sql = "select age from jpa_customers where id=?";
+        EntityManager entityManager = database.createEntityManager();
+        try {
+            return entityManager.createNativeQuery(sql)
+                    .setParameter(1, database.customerId(database.randomIndex())).getSingleResult();
+        } finally {
+            entityManager.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.xt.jpa.cache;
+
+import com.xt.jpa.benchmark.BenchmarkDatabase;
+import com.xt.jpa.helloworld.Customer;
+import com.xt.jpa.query.QueryPlanCacheIntegrator;
+import org.hibernate.annotations.QueryHints;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 17:00
+ * @description 本地 SQL 修改数据之后，查询缓存不能返回旧的结果
+ */
+public class DependencyTrackingQueryCacheTest {
+
+    private static final String QUERY = "select c.lastName from Customer c where c.age = :age";
+
+    private EntityManagerFactory entityManagerFactory;
+
+    @After
+    public void tearDown() {
+        if (entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    /**
+     * 本地 SQL 由 DependencyTrackingNativeQueryPlan 通知，按修改了整张表处理
+     */
+    @Test
+    public void nativeUpdateInvalidatesCachedQuery() {
+        setUp(BenchmarkDatabase.h2Properties("query_cache_native"));
+        assertNativeUpdateVisible();
+    }
+
+    /**
+     * 没有替换查询计划缓存时无法得知本地 SQL 的修改，按 UpdateTimestampsCache 判断
+     */
+    @Test
+    public void nativeUpdateInvalidatesCachedQueryWithoutPlanCache() {
+        Map<String, Object> properties = BenchmarkDatabase.h2Properties("query_cache_timestamps");
+        properties.put(QueryPlanCacheIntegrator.ENABLED, "false");
+        setUp(properties);
+        assertNativeUpdateVisible();
+    }
+
+    /**
+     * 与本地 SQL 不同，JPQL 的 update 只使用到被修改的列的条目失效
+     */
+    @Test
+    public void jpqlUpdateOfOtherColumnKeepsCachedQuery() {
+        setUp(BenchmarkDatabase.h2Properties("query_cache_jpql"));
+        assertEquals(Collections.singletonList("xt"), cachedLastNames(20));
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createQuery("update Customer c set c.email = :email")
+                .setParameter("email", "xt@163.com").executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        long hits = hits();
+        assertEquals(Collections.singletonList("xt"), cachedLastNames(20));
+        assertEquals(hits + 1, hits());
+    }
+
+    private void setUp(Map<String, Object> properties) {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.persist(new Customer("xt", 20));
+        entityManager.persist(new Customer("lh", 30));
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    private void assertNativeUpdateVisible() {
+        assertEquals(Collections.singletonList("xt"), cachedLastNames(20));
+        long hits = hits();
+        assertEquals(Collections.singletonList("xt"), cachedLastNames(20));
+        assertEquals("第二次查询应该命中查询缓存", hits + 1, hits());
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        int updated = entityManager.createNativeQuery("update JPA_CUSTOMERS set LAST_NAME = 'xt2' where AGE = 20")
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        assertEquals(1, updated);
+
+        assertEquals(Collections.singletonList("xt2"), cachedLastNames(20));
+    }
+
+    private List<?> cachedLastNames(int age) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.createQuery(QUERY)
+                    .setParameter("age", age)
+                    .setHint(QueryHints.CACHEABLE, true)
+                    .getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private long hits() {
+        for (QueryStatistics statistics : DependencyTrackingQueryCacheFactory.of(entityManagerFactory).getStatistics()) {
+            if (statistics.getQuery().contains("jpa_customers") || statistics.getQuery().contains("JPA_CUSTOMERS")) {
+                return statistics.getHits();
+            }
+        }
+        return 0;
+    }
+}
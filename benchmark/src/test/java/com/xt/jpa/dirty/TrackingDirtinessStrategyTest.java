@@ -0,0 +1,132 @@
+package com.xt.jpa.dirty;
+
+import com.xt.jpa.benchmark.BenchmarkDatabase;
+import com.xt.jpa.helloworld.Customer;
+import com.xt.jpa.index.PredicateRecordingInterceptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author xt
+ * @date 2019/2/22 - 16:00
+ * @description update 语句只包含 setter 记录的、确实被修改的列
+ *
+ * 用 PredicateRecordingInterceptor 记录执行过的 SQL。
+ */
+public class TrackingDirtinessStrategyTest {
+
+    private EntityManagerFactory entityManagerFactory;
+    private PredicateRecordingInterceptor recorder;
+    private Integer id;
+
+    @Before
+    public void setUp() {
+        Map<String, Object> properties = BenchmarkDatabase.h2Properties("dirty_tracking");
+        properties.putAll(PredicateRecordingInterceptor.properties());
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        recorder = PredicateRecordingInterceptor.of(entityManagerFactory);
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Customer customer = new Customer("xt", 20);
+        customer.setEmail("xt@163.com");
+        entityManager.persist(customer);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        id = customer.getId();
+    }
+
+    @After
+    public void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void updateContainsOnlyChangedColumns() {
+        EntityManager entityManager = begin();
+        Customer customer = entityManager.find(Customer.class, id);
+        customer.setAge(21);
+        customer.setEmail("xt@126.com");
+        commit(entityManager);
+
+        assertEquals(Collections.singletonList(Arrays.asList("age", "email")), updatedColumns());
+        assertEquals(21, find().getAge());
+    }
+
+    @Test
+    public void revertedChangeIsNotUpdated() {
+        EntityManager entityManager = begin();
+        Customer customer = entityManager.find(Customer.class, id);
+        customer.setLastName("lh");
+        customer.setLastName("xt");
+        commit(entityManager);
+
+        assertEquals(Collections.emptyList(), updatedColumns());
+    }
+
+    @Test
+    public void revertedChangeIsNotUpdatedWithOtherChange() {
+        EntityManager entityManager = begin();
+        Customer customer = entityManager.find(Customer.class, id);
+        customer.setLastName("lh");
+        customer.setLastName("xt");
+        customer.setAge(22);
+        commit(entityManager);
+
+        assertEquals(Collections.singletonList(Collections.singletonList("age")), updatedColumns());
+    }
+
+    private EntityManager begin() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        recorder.reset();
+        return entityManager;
+    }
+
+    private void commit(EntityManager entityManager) {
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    private Customer find() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.find(Customer.class, id);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * @return 每条 update 语句 set 子句中的列名（按字母排序）
+     */
+    private List<List<String>> updatedColumns() {
+        List<List<String>> updates = new ArrayList<>();
+        for (String sql : recorder.getExecutions().keySet()) {
+            String lower = sql.toLowerCase(Locale.ROOT);
+            if (!lower.startsWith("update ")) {
+                continue;
+            }
+            List<String> columns = new ArrayList<>();
+            for (String assignment : lower.substring(lower.indexOf(" set ") + 5, lower.indexOf(" where ")).split(",")) {
+                columns.add(assignment.substring(0, assignment.indexOf('=')).trim());
+            }
+            Collections.sort(columns);
+            updates.add(columns);
+        }
+        return updates;
+    }
+}
@@ -0,0 +1,48 @@
+package com.xt.jpa.proxy;
+
+import com.xt.jpa.helloworld.Customer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author xt
+ * @date 2019/2/26 - 16:00
+ * @description 生成的代理没有覆盖实体的方法时，GeneratedProxyIntegrator 和 GeneratedProxyTuplizer 改用 javassist 代理
+ */
+public class GeneratedProxyTuplizerTest {
+
+    @Test
+    public void generatedProxyOverridesAllMethods() {
+        assertNull(GeneratedProxyTuplizer.missingOverride(Customer.class, CustomerProxy.class));
+    }
+
+    @Test
+    public void staleProxyMissesNewMethod() throws NoSuchMethodException {
+        assertEquals(Entity.class.getMethod("getName"),
+                GeneratedProxyTuplizer.missingOverride(Entity.class, StaleProxy.class));
+    }
+
+    public static class Entity {
+
+        public Integer getId() {
+            return null;
+        }
+
+        public String getName() {
+            return null;
+        }
+    }
+
+    /**
+     * 实体增加 getName 以前生成的代理
+     */
+    public static class StaleProxy extends Entity {
+
+        @Override
+        public Integer getId() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.xt.jpa.query;
+
+import com.xt.jpa.benchmark.BenchmarkDatabase;
+import com.xt.jpa.helloworld.Customer;
+import com.xt.jpa.helloworld.Order;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * @author xt
+ * @date 2019/2/25 - 11:30
+ * @description 替换字面量前后的语句在 H2 上返回相同的结果
+ *
+ * 每个用例同时检查替换后的语句：应该替换的字面量被替换，其它的（日期、算术运算、order by 等）保持不变。
+ */
+public class NormalizedQueriesTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+
+    private EntityManager entityManager;
+
+    @BeforeClass
+    public static void setUpDatabase() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                BenchmarkDatabase.h2Properties("normalized_queries"));
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < 10; i++) {
+            // 年龄 18 ~ 45，生日 1990-01-01 ~ 1990-01-10
+            persist(entityManager, "xt" + i, 18 + i * 3, date(1990, 1, 1 + i), i % 3);
+        }
+        persist(entityManager, "O'Brien", 33, date(2001, 6, 1), 1);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @AfterClass
+    public static void tearDownDatabase() {
+        entityManagerFactory.close();
+    }
+
+    @Before
+    public void setUp() {
+        entityManager = entityManagerFactory.createEntityManager();
+    }
+
+    @After
+    public void tearDown() {
+        entityManager.close();
+    }
+
+    @Test
+    public void between() {
+        assertSameRows("select c from Customer c where c.age between 20 and 30 order by c.id",
+                "select c from Customer c where c.age between :xt_literal_0 and :xt_literal_1 order by c.id",
+                20, 30);
+    }
+
+    @Test
+    public void negativeNumber() {
+        assertSameRows("select c from Customer c where c.age > -1 and c.age <= 24 order by c.id",
+                "select c from Customer c where c.age > :xt_literal_0 and c.age <= :xt_literal_1 order by c.id",
+                -1, 24);
+    }
+
+    @Test
+    public void arithmetic() {
+        // c.age - 1 中的 1 不是比较的值，保持不变
+        assertSameRows("select c from Customer c where c.age - 1 > 35 order by c.id",
+                "select c from Customer c where c.age - 1 > :xt_literal_0 order by c.id",
+                35);
+        assertSameRows("select c from Customer c where c.age-1 > 35 order by c.id",
+                "select c from Customer c where c.age-1 > :xt_literal_0 order by c.id",
+                35);
+    }
+
+    @Test
+    public void inList() {
+        assertSameRows("select c from Customer c where c.lastName in ('xt1', 'xt2', 'O''Brien') order by c.id",
+                "select c from Customer c where c.lastName in (:xt_literal_0) order by c.id",
+                Arrays.asList("xt1", "xt2", "O'Brien"));
+        assertSameRows("select c from Customer c where c.age in (18, 21) or c.age > 40 order by c.id",
+                "select c from Customer c where c.age in (:xt_literal_0) or c.age > :xt_literal_1 order by c.id",
+                Arrays.asList(18, 21), 40);
+    }
+
+    @Test
+    public void dateLiteral() {
+        // {d '...'} 保持不变；hibernate 4.2 的 JPQL 不支持这种写法，替换前后都应该报同样的错
+        String jpql = "select c from Customer c where c.birth < {d '1990-01-05'} and c.age > 18 order by c.id";
+        JpqlLiterals.Normalized normalized = JpqlLiterals.normalize(jpql);
+        assertEquals("select c from Customer c where c.birth < {d '1990-01-05'} and c.age > :xt_literal_0 order by c.id",
+                normalized.jpql);
+        assertEquals(Collections.<Object>singletonList(18), normalized.values);
+        assertEquals(errorOf(jpql, false), errorOf(jpql, true));
+
+        // 与日期比较的字符串无法转换为 Date 参数，使用原来的语句，由数据库转换类型
+        assertSameRows("select c from Customer c where c.birth < '1990-01-05' and c.age > 18 order by c.id",
+                "select c from Customer c where c.birth < :xt_literal_0 and c.age > :xt_literal_1 order by c.id",
+                "1990-01-05", 18);
+    }
+
+    @Test
+    public void orderEntityAndOrderBy() {
+        // from Order 中的 Order 是实体的名字，不是 order by 子句
+        assertSameRows("select o from Order o where o.orderName like 'O-1%' order by o.orderName",
+                "select o from Order o where o.orderName like :xt_literal_0 order by o.orderName",
+                "O-1%");
+        assertSameRows("select c from Customer c where exists (select o from Order o where o.customer = c"
+                        + " and o.orderName like 'O-%') and c.age < 30 order by c.id",
+                "select c from Customer c where exists (select o from Order o where o.customer = c"
+                        + " and o.orderName like :xt_literal_0) and c.age < :xt_literal_1 order by c.id",
+                "O-%", 30);
+    }
+
+    @Test
+    public void escapedQuote() {
+        assertSameRows("select c from Customer c where c.lastName = 'O''Brien'",
+                "select c from Customer c where c.lastName = :xt_literal_0",
+                "O'Brien");
+    }
+
+    private void assertSameRows(String jpql, String expectedJpql, Object... expectedValues) {
+        JpqlLiterals.Normalized normalized = JpqlLiterals.normalize(jpql);
+        assertEquals(expectedJpql, normalized.jpql);
+        assertEquals(Arrays.asList(expectedValues), normalized.values);
+
+        List<?> raw = entityManager.createQuery(jpql).getResultList();
+        List<?> parameterized = NormalizedQueries.createQuery(entityManager, jpql).getResultList();
+        assertFalse("用例应该能查询到数据: " + jpql, raw.isEmpty());
+        assertEquals(jpql, raw, parameterized);
+    }
+
+    private Class<?> errorOf(String jpql, boolean normalize) {
+        try {
+            if (normalize) {
+                NormalizedQueries.createQuery(entityManager, jpql).getResultList();
+            } else {
+                entityManager.createQuery(jpql).getResultList();
+            }
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+        fail("应该报错: " + jpql);
+        return null;
+    }
+
+    private static void persist(EntityManager entityManager, String lastName, int age, Date birth, int orders) {
+        Customer customer = new Customer(lastName, age);
+        customer.setEmail(lastName + "@163.com");
+        customer.setBirth(birth);
+        customer.setCreatedTime(new Date());
+        for (int j = 0; j < orders; j++) {
+            Order order = new Order();
+            order.setOrderName("O-" + lastName.substring(lastName.length() - 1) + "-" + j);
+            order.setCustomer(customer);
+            customer.getOrders().add(order);
+        }
+        entityManager.persist(customer);
+        for (Order order : customer.getOrders()) {
+            entityManager.persist(order);
+        }
+    }
+
+    private static Date date(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTime();
+    }
+}
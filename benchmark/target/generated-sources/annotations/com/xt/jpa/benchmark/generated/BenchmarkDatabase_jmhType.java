@@ -0,0 +1,4 @@
+package com.xt.jpa.benchmark.generated;
+public class BenchmarkDatabase_jmhType extends BenchmarkDatabase_jmhType_B3 {
+}
+
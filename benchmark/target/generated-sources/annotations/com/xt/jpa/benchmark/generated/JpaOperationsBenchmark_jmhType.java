@@ -0,0 +1,4 @@
+package com.xt.jpa.benchmark.generated;
+public class JpaOperationsBenchmark_jmhType extends JpaOperationsBenchmark_jmhType_B3 {
+}
+
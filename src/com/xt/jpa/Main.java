@@ -1,5 +1,6 @@
 package com.xt.jpa;
 
+import com.xt.jpa.context.EntityManagerFactoryHolder;
 import com.xt.jpa.helloworld.Customer;
 
 import javax.persistence.EntityManager;
@@ -17,12 +18,12 @@ import java.util.Map;
  */
 public class Main {
     public static void main(String[] args) {
-        // 1. 创建 EntityManagerFactory
+        // 1. 创建 EntityManagerFactory（整个应用共享一个，不要每次请求都创建）
         String persistenceUnitName = "jpa-1";
         Map<String, Object> properties = new HashMap<>();
         properties.put("hibernate.show_sql", true);
         EntityManagerFactory entityManagerFactory =
-                Persistence.createEntityManagerFactory(persistenceUnitName);
+                EntityManagerFactoryHolder.getEntityManagerFactory(persistenceUnitName);
 //                Persistence.createEntityManagerFactory(persistenceUnitName, properties);
         
         // 2. 创建 EntityManager 类似于 Hibernate 的 SessionFactory
@@ -50,6 +51,6 @@ public class Main {
         entityManager.close();
 
         // 7. 关闭 EntityManagerFactory
-        entityManagerFactory.close();
+        EntityManagerFactoryHolder.close(persistenceUnitName);
     }
 }
@@ -0,0 +1,78 @@
+package com.xt.jpa.batch;
+
+/**
+ * @author xt
+ * @date 2019/2/27 - 10:40
+ * @description AssociationWriter 的统计结果
+ */
+public class AssociationWriteResult {
+
+    private int inserted;
+    private int deleted;
+    private int owners;
+    private int statements;
+    private long elapsedNanos;
+
+    void addInserted(int rows) {
+        inserted += rows;
+    }
+
+    void addDeleted(int rows) {
+        deleted += rows;
+    }
+
+    void addOwner() {
+        owners++;
+    }
+
+    void addStatement() {
+        statements++;
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * 插入中间表的行数
+     */
+    public int getInserted() {
+        return inserted;
+    }
+
+    /**
+     * 从中间表删除的行数
+     */
+    public int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * 关联关系发生了变化的 owner 个数
+     */
+    public int getOwners() {
+        return owners;
+    }
+
+    /**
+     * 与数据库的交互次数：查询现有关联的 select 语句，以及每次执行的 insert/delete 批处理
+     */
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        return "AssociationWriteResult{" +
+                "inserted=" + inserted +
+                ", deleted=" + deleted +
+                ", owners=" + owners +
+                ", statements=" + statements +
+                ", elapsedMillis=" + getElapsedMillis() +
+                '}';
+    }
+}
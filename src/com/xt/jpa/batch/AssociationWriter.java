@@ -0,0 +1,437 @@
+package com.xt.jpa.batch;
+
+import com.xt.jpa.cache.DependencyTrackingQueryCacheFactory;
+import org.hibernate.Cache;
+import org.hibernate.MappingException;
+import org.hibernate.Session;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.CollectionEntry;
+import org.hibernate.engine.spi.CollectionKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.Type;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TransactionRequiredException;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author xt
+ * @date 2019/2/27 - 11:00
+ * @description 按差异批量写入 n-n 关联关系的中间表（例如 Item.categories 对应的 item_category）
+ *
+ * 通过集合维护 n-n 关联关系时，hibernate 需要先加载 owner 和它的集合，flush 时每一行中间表数据执行一次 insert/delete，
+ * 替换了整个集合（setCategories(new HashSet<>(...))）时还会先删除 owner 的所有行再全部重新插入。
+ * 这里直接按 owner 的 id 和元素的 id 写中间表：
+ * 1. owner 按 inListSize 分批，每批用一条 select 查询现有的关联，与目标关联比较得到需要插入和删除的行；
+ * 2. 需要插入和删除的行使用 JDBC 批处理执行，每 batchSize（默认为 hibernate.jdbc.batch_size）行执行一次；
+ * 3. 持久化上下文中已经初始化的集合（包括 mappedBy 的集合，例如 Category.items）同步修改，并重置快照，flush 时不会重复执行；
+ * 4. 只清除发生变化的 owner 集合和 mappedBy 集合的缓存条目，事务结束后再清除一次，
+ *    并通知 DependencyTrackingQueryCacheFactory 中间表已经被修改。
+ *
+ * 限制：只支持维护关联关系的一端、单列外键、没有索引列（@OrderColumn、Map）的 n-n 集合；owner 不能带有 @Version。
+ * 不检查元素是否存在，元素的 id 不存在时由外键约束报错。
+ *
+ * 必须在事务中调用，执行前会先 flush。用法：
+ *    Map<Integer, Set<Integer>> categoryIds = ...; // item 的 id -> category 的 id
+ *    AssociationWriteResult result = new AssociationWriter(entityManager).sync(Item.class, "categories", categoryIds);
+ */
+public class AssociationWriter {
+
+    private final EntityManager entityManager;
+    private final int batchSize;
+    private final int inListSize;
+
+    /**
+     * 批处理的大小使用 hibernate.jdbc.batch_size，没有配置时为 BulkPersistService.DEFAULT_BATCH_SIZE
+     */
+    public AssociationWriter(EntityManager entityManager) {
+        this(entityManager, defaultBatchSize(entityManager), BulkOperations.DEFAULT_IN_LIST_SIZE);
+    }
+
+    /**
+     * @param batchSize  每次执行的 insert/delete 批处理包含的行数
+     * @param inListSize 查询现有关联时 in (...) 中最多包含的 owner 个数
+     */
+    public AssociationWriter(EntityManager entityManager, int batchSize, int inListSize) {
+        if (batchSize < 1 || inListSize < 1) {
+            throw new IllegalArgumentException("batchSize 和 inListSize 必须大于 0");
+        }
+        this.entityManager = entityManager;
+        this.batchSize = batchSize;
+        this.inListSize = inListSize;
+    }
+
+    private static int defaultBatchSize(EntityManager entityManager) {
+        int batchSize = ((SessionImplementor) entityManager.unwrap(Session.class)).getFactory()
+                .getSettings().getJdbcBatchSize();
+        return batchSize > 1 ? batchSize : BulkPersistService.DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * 把每个 owner 的关联替换为指定的元素：插入缺少的行，删除多余的行。没有出现在 elementIds 中的 owner 不受影响
+     *
+     * @param elementIds owner 的 id -> 关联的全部元素的 id（为空时删除 owner 的所有关联）
+     */
+    public AssociationWriteResult sync(Class<?> ownerClass, String property,
+                                       Map<? extends Serializable, ? extends Collection<? extends Serializable>> elementIds) {
+        return new Operation(ownerClass, property).write(elementIds, true, true);
+    }
+
+    /**
+     * 增加关联，已经存在的关联被忽略
+     *
+     * @param elementIds owner 的 id -> 要增加的元素的 id
+     */
+    public AssociationWriteResult link(Class<?> ownerClass, String property,
+                                       Map<? extends Serializable, ? extends Collection<? extends Serializable>> elementIds) {
+        return new Operation(ownerClass, property).write(elementIds, true, false);
+    }
+
+    /**
+     * 删除关联，不存在的关联被忽略
+     *
+     * @param elementIds owner 的 id -> 要删除的元素的 id
+     */
+    public AssociationWriteResult unlink(Class<?> ownerClass, String property,
+                                         Map<? extends Serializable, ? extends Collection<? extends Serializable>> elementIds) {
+        return new Operation(ownerClass, property).write(elementIds, false, true);
+    }
+
+    /**
+     * 一次写入：一个 n-n 集合，任意多个 owner
+     */
+    private final class Operation {
+
+        private final long start = System.nanoTime();
+        private final EventSource session;
+        private final SessionFactoryImplementor factory;
+        private final AssociationWriteResult result = new AssociationWriteResult();
+        private final QueryableCollection collection;
+        private final QueryableCollection inverse;
+        private final EntityPersister elementPersister;
+        private final Type keyType;
+        private final Type elementIdType;
+        private final Set<Serializable> changedOwners = new LinkedHashSet<>();
+        private final Set<Serializable> changedElements = new LinkedHashSet<>();
+
+        Operation(Class<?> ownerClass, String property) {
+            session = (EventSource) entityManager.unwrap(Session.class);
+            if (!session.isTransactionInProgress()) {
+                throw new TransactionRequiredException("批量写入关联关系必须在事务中执行");
+            }
+            factory = session.getFactory();
+            EntityPersister owner = factory.getEntityPersister(ownerClass.getName());
+            try {
+                collection = (QueryableCollection) factory.getCollectionPersister(owner.getEntityName() + "." + property);
+            } catch (MappingException e) {
+                throw new IllegalArgumentException(owner.getEntityName() + " 没有集合属性 " + property, e);
+            }
+            if (!collection.isManyToMany() || collection.isInverse() || collection.hasIndex()
+                    || collection.getKeyColumnNames().length != 1 || collection.getElementColumnNames().length != 1) {
+                throw new UnsupportedOperationException("只支持维护关联关系的一端、单列外键、没有索引列的 n-n 集合: "
+                        + collection.getRole());
+            }
+            if (owner.isVersioned()) {
+                throw new UnsupportedOperationException("不支持带有 @Version 的 owner: " + owner.getEntityName());
+            }
+            inverse = inverseManyToMany(collection);
+            elementPersister = collection.getElementPersister();
+            keyType = collection.getKeyType();
+            elementIdType = elementPersister.getIdentifierType();
+            // 先把持久化上下文中未执行的修改写入数据库
+            session.flush();
+        }
+
+        AssociationWriteResult write(Map<? extends Serializable, ? extends Collection<? extends Serializable>> elementIds,
+                                     boolean insert, boolean delete) {
+            List<Serializable> owners = new ArrayList<Serializable>(elementIds.keySet());
+            for (int from = 0; from < owners.size(); from += inListSize) {
+                List<Serializable> chunk = owners.subList(from, Math.min(from + inListSize, owners.size()));
+                Map<Serializable, Set<Serializable>> existing = select(chunk);
+
+                Map<Serializable, Set<Serializable>> added = new LinkedHashMap<>();
+                Map<Serializable, Set<Serializable>> removed = new LinkedHashMap<>();
+                for (Serializable owner : chunk) {
+                    Set<Serializable> target = new LinkedHashSet<>();
+                    Collection<? extends Serializable> ids = elementIds.get(owner);
+                    if (ids != null) {
+                        target.addAll(ids);
+                    }
+                    Set<Serializable> current = existing.containsKey(owner)
+                            ? existing.get(owner) : Collections.<Serializable>emptySet();
+                    if (insert) {
+                        for (Serializable element : target) {
+                            if (!current.contains(element)) {
+                                put(added, owner, element);
+                            }
+                        }
+                    }
+                    if (delete) {
+                        // sync 删除目标中没有的元素，unlink 删除目标中的元素
+                        for (Serializable element : current) {
+                            if (insert ? !target.contains(element) : target.contains(element)) {
+                                put(removed, owner, element);
+                            }
+                        }
+                    }
+                }
+
+                result.addDeleted(executeBatch("delete from " + collection.getTableName() + " where "
+                        + collection.getKeyColumnNames()[0] + " = ? and " + collection.getElementColumnNames()[0] + " = ?", removed));
+                result.addInserted(executeBatch("insert into " + collection.getTableName() + " ("
+                        + collection.getKeyColumnNames()[0] + ", " + collection.getElementColumnNames()[0] + ") values (?, ?)", added));
+                synchronize(added, removed);
+            }
+            return finish();
+        }
+
+        /**
+         * 查询 owner 现有的关联：owner 的 id -> 元素的 id
+         */
+        private Map<Serializable, Set<Serializable>> select(List<Serializable> owners) {
+            Map<Serializable, Set<Serializable>> existing = new LinkedHashMap<>();
+            StringBuilder sql = new StringBuilder("select ").append(collection.getKeyColumnNames()[0]).append(" as k0_, ")
+                    .append(collection.getElementColumnNames()[0]).append(" as e0_ from ").append(collection.getTableName())
+                    .append(" where ").append(collection.getKeyColumnNames()[0]).append(" in (");
+            for (int i = 0; i < owners.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(")");
+
+            JdbcCoordinator jdbcCoordinator = session.getTransactionCoordinator().getJdbcCoordinator();
+            PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement(sql.toString());
+            try {
+                int index = 1;
+                for (Serializable owner : owners) {
+                    keyType.nullSafeSet(statement, owner, index, session);
+                    index += keyType.getColumnSpan(factory);
+                }
+                ResultSet resultSet = jdbcCoordinator.getResultSetReturn().extract(statement);
+                result.addStatement();
+                while (resultSet.next()) {
+                    Serializable owner = (Serializable) keyType.nullSafeGet(resultSet, new String[]{"k0_"}, session, null);
+                    Serializable element = (Serializable) elementIdType.nullSafeGet(resultSet, new String[]{"e0_"}, session, null);
+                    put(existing, owner, element);
+                }
+            } catch (SQLException e) {
+                throw factory.getSQLExceptionHelper().convert(e, "查询关联关系失败", sql.toString());
+            } finally {
+                jdbcCoordinator.release(statement);
+            }
+            return existing;
+        }
+
+        /**
+         * 每一对 (owner, 元素) 执行一次 sql，每 batchSize 行执行一次批处理
+         *
+         * @return 影响的行数
+         */
+        private int executeBatch(String sql, Map<Serializable, Set<Serializable>> pairs) {
+            if (pairs.isEmpty()) {
+                return 0;
+            }
+            int rows = 0;
+            JdbcCoordinator jdbcCoordinator = session.getTransactionCoordinator().getJdbcCoordinator();
+            PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement(sql);
+            try {
+                int pending = 0;
+                for (Map.Entry<Serializable, Set<Serializable>> entry : pairs.entrySet()) {
+                    for (Serializable element : entry.getValue()) {
+                        keyType.nullSafeSet(statement, entry.getKey(), 1, session);
+                        elementIdType.nullSafeSet(statement, element, 1 + keyType.getColumnSpan(factory), session);
+                        statement.addBatch();
+                        if (++pending == batchSize) {
+                            rows += rows(statement.executeBatch());
+                            pending = 0;
+                        }
+                    }
+                }
+                if (pending > 0) {
+                    rows += rows(statement.executeBatch());
+                }
+            } catch (SQLException e) {
+                throw factory.getSQLExceptionHelper().convert(e, "批量写入关联关系失败", sql);
+            } finally {
+                jdbcCoordinator.release(statement);
+            }
+            return rows;
+        }
+
+        private int rows(int[] counts) {
+            result.addStatement();
+            int rows = 0;
+            for (int count : counts) {
+                // 有的驱动只返回 SUCCESS_NO_INFO
+                rows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+            }
+            return rows;
+        }
+
+        /**
+         * 修改持久化上下文中已经初始化的集合，记录需要清除的缓存条目
+         */
+        private void synchronize(Map<Serializable, Set<Serializable>> added, Map<Serializable, Set<Serializable>> removed) {
+            Map<Serializable, Set<Serializable>> inverseAdded = new LinkedHashMap<>();
+            Map<Serializable, Set<Serializable>> inverseRemoved = new LinkedHashMap<>();
+            Set<Serializable> owners = new LinkedHashSet<>(added.keySet());
+            owners.addAll(removed.keySet());
+            for (Serializable owner : owners) {
+                Set<Serializable> ownerAdded = get(added, owner);
+                Set<Serializable> ownerRemoved = get(removed, owner);
+                synchronize(collection, owner, elementPersister, ownerAdded, ownerRemoved);
+                for (Serializable element : ownerAdded) {
+                    put(inverseAdded, element, owner);
+                }
+                for (Serializable element : ownerRemoved) {
+                    put(inverseRemoved, element, owner);
+                }
+                changedOwners.add(owner);
+                result.addOwner();
+            }
+
+            Set<Serializable> elements = new LinkedHashSet<>(inverseAdded.keySet());
+            elements.addAll(inverseRemoved.keySet());
+            changedElements.addAll(elements);
+            if (inverse != null) {
+                for (Serializable element : elements) {
+                    synchronize(inverse, element, inverse.getElementPersister(),
+                            get(inverseAdded, element), get(inverseRemoved, element));
+                }
+            }
+        }
+
+        /**
+         * 修改一个已经初始化的集合，然后重置快照，flush 时不再认为集合被修改
+         */
+        @SuppressWarnings("unchecked")
+        private void synchronize(QueryableCollection persister, Serializable key, EntityPersister elementPersister,
+                                 Set<Serializable> added, Set<Serializable> removed) {
+            PersistenceContext persistenceContext = session.getPersistenceContext();
+            PersistentCollection persistentCollection = persistenceContext.getCollection(new CollectionKey(persister, key));
+            if (persistentCollection == null || !persistentCollection.wasInitialized()) {
+                // 没有初始化的集合下次访问时从数据库（缓存已经清除）加载
+                return;
+            }
+            Collection<Object> elements = (Collection<Object>) persistentCollection;
+            if (!removed.isEmpty()) {
+                for (Iterator<Object> iterator = elements.iterator(); iterator.hasNext(); ) {
+                    if (removed.contains(identifier(elementPersister, iterator.next()))) {
+                        iterator.remove();
+                    }
+                }
+            }
+            for (Serializable id : added) {
+                // 不在持久化上下文中的元素使用代理，不会查询数据库
+                elements.add(session.load(elementPersister.getEntityName(), id));
+            }
+            CollectionEntry entry = persistenceContext.getCollectionEntry(persistentCollection);
+            persistentCollection.clearDirty();
+            entry.postInitialize(persistentCollection);
+        }
+
+        private AssociationWriteResult finish() {
+            if (collection.hasCache()) {
+                evict(collection.getRole(), changedOwners);
+            }
+            if (inverse != null && inverse.hasCache()) {
+                evict(inverse.getRole(), changedElements);
+            }
+            if (!changedOwners.isEmpty()) {
+                publishUpdate(collection.getTableName());
+            }
+            result.setElapsedNanos(System.nanoTime() - start);
+            return result;
+        }
+
+        private void evict(String role, Set<Serializable> ids) {
+            if (ids.isEmpty()) {
+                return;
+            }
+            final BulkOperations.CacheEviction eviction = new BulkOperations.CacheEviction(role, true,
+                    new ArrayList<>(ids));
+            eviction.apply(factory.getCache());
+            // 其他事务可能在提交之前把旧的数据重新放入缓存
+            session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+                @Override
+                public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+                    Cache cache = session.getFactory().getCache();
+                    eviction.apply(cache);
+                }
+            });
+        }
+
+        private void publishUpdate(String table) {
+            DependencyTrackingQueryCacheFactory queryCaches = DependencyTrackingQueryCacheFactory.of(factory);
+            if (queryCaches != null) {
+                queryCaches.publishUpdate(session, Collections.singletonList(table), null);
+            } else if (factory.getSettings().isQueryCacheEnabled()) {
+                final Serializable[] spaces = new Serializable[]{table};
+                factory.getUpdateTimestampsCache().preinvalidate(spaces);
+                session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+                    @Override
+                    public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+                        session.getFactory().getUpdateTimestampsCache().invalidate(spaces);
+                    }
+                });
+            }
+        }
+
+        /**
+         * 使用同一张中间表的 mappedBy 集合（例如 Item.categories -> Category.items）
+         */
+        private QueryableCollection inverseManyToMany(QueryableCollection owning) {
+            for (Object role : factory.getAllCollectionMetadata().keySet()) {
+                QueryableCollection candidate = (QueryableCollection) factory.getCollectionPersister((String) role);
+                if (candidate.isInverse() && candidate.isManyToMany()
+                        && candidate.getTableName().equalsIgnoreCase(owning.getTableName())
+                        && Arrays.equals(candidate.getKeyColumnNames(), owning.getElementColumnNames())) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        private Serializable identifier(EntityPersister persister, Object entity) {
+            if (entity instanceof HibernateProxy) {
+                return ((HibernateProxy) entity).getHibernateLazyInitializer().getIdentifier();
+            }
+            return persister.getIdentifier(entity, session);
+        }
+    }
+
+    private static void put(Map<Serializable, Set<Serializable>> pairs, Serializable key, Serializable value) {
+        Set<Serializable> values = pairs.get(key);
+        if (values == null) {
+            values = new LinkedHashSet<>();
+            pairs.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static Set<Serializable> get(Map<Serializable, Set<Serializable>> pairs, Serializable key) {
+        Set<Serializable> values = pairs.get(key);
+        return values == null ? Collections.<Serializable>emptySet() : values;
+    }
+}
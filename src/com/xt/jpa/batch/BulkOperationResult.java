@@ -0,0 +1,62 @@
+package com.xt.jpa.batch;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author xt
+ * @date 2019/2/22 - 16:00
+ * @description 批量更新、删除的统计结果
+ */
+public class BulkOperationResult {
+
+    private final Map<String, Integer> rowsByTable = new LinkedHashMap<>();
+    private int statements;
+    private long elapsedNanos;
+
+    void addRows(String table, int rows) {
+        Integer previous = rowsByTable.get(table);
+        rowsByTable.put(table, previous == null ? rows : previous + rows);
+    }
+
+    void addStatement() {
+        statements++;
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * 每张表被更新或删除的行数（包括级联删除的表和中间表）
+     */
+    public Map<String, Integer> getRowsByTable() {
+        return Collections.unmodifiableMap(rowsByTable);
+    }
+
+    public int getRows(String table) {
+        Integer rows = rowsByTable.get(table);
+        return rows == null ? 0 : rows;
+    }
+
+    /**
+     * 执行的 SQL 语句数（包括查询 id 的 select 语句）
+     */
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkOperationResult{" +
+                "rowsByTable=" + rowsByTable +
+                ", statements=" + statements +
+                ", elapsedMillis=" + getElapsedMillis() +
+                '}';
+    }
+}
@@ -0,0 +1,661 @@
+package com.xt.jpa.batch;
+
+import com.xt.jpa.cache.DependencyTrackingQueryCacheFactory;
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.CascadeStyle;
+import org.hibernate.engine.spi.CascadingAction;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.TypedValue;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.Type;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TransactionRequiredException;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author xt
+ * @date 2019/2/22 - 16:30
+ * @description 基于集合的批量更新和删除，同时维护二级缓存、查询缓存和持久化上下文
+ *
+ * JPQL 的 update/delete 语句不经过持久化上下文，hibernate 执行后会清空所涉及实体的整个缓存区域，
+ * 也不会级联删除：删除一个有 10000 个 Order 的 Customer，只能先加载全部 Order，再一条一条地 delete。
+ * 这里直接执行 SQL：
+ * 1. 按 id 或者外键分批使用 in (...) 条件，每批最多 inListSize 个值。
+ *    例如删除 Customer 时，orders 使用 delete from JPA_ORDERS where customer_id in (...) 一次删除；
+ * 2. 级联删除 cascade 包含 REMOVE 的 1-n 和 n-n 集合，删除中间表和 @ElementCollection 的行，
+ *    以及其他实体维护关联关系的 n-n 集合中引用了被删除实体的行；
+ * 3. 只清除受影响的实体和集合的缓存条目（包括 mappedBy 的集合），事务结束后再清除一次，
+ *    并通知 DependencyTrackingQueryCacheFactory 使受影响的查询缓存条目失效；
+ * 4. 持久化上下文中被删除的实体变为游离状态，被更新的实体重新从数据库加载。
+ *
+ * 限制：只支持单表映射、单列主键的实体；不支持 cascade 包含 REMOVE 的 n-1、1-1 关联关系；
+ * 不支持更新带有 @Version 的实体。持久化上下文中其他实体已经初始化的 mappedBy 集合不会被刷新。
+ *
+ * 必须在事务中调用，执行前会先 flush。用法：
+ *    BulkOperationResult result = new BulkOperations(entityManager).delete(Customer.class, "e.lastName = ?1", "AA");
+ */
+public class BulkOperations {
+
+    public static final int DEFAULT_IN_LIST_SIZE = 1000;
+
+    private final EntityManager entityManager;
+    private final int inListSize;
+
+    public BulkOperations(EntityManager entityManager) {
+        this(entityManager, DEFAULT_IN_LIST_SIZE);
+    }
+
+    /**
+     * @param inListSize in (...) 中最多包含的值的个数（例如 Oracle 最多为 1000）
+     */
+    public BulkOperations(EntityManager entityManager, int inListSize) {
+        if (inListSize < 1) {
+            throw new IllegalArgumentException("inListSize 必须大于 0");
+        }
+        this.entityManager = entityManager;
+        this.inListSize = inListSize;
+    }
+
+    /**
+     * 更新指定 id 的实体
+     *
+     * @param assignments 属性名 -> 新的值。只能是基本属性或者 n-1 关联关系（值为关联的实体）
+     */
+    public BulkOperationResult update(Class<?> entityClass, Map<String, ?> assignments,
+                                      Collection<? extends Serializable> ids) {
+        Operation operation = new Operation();
+        operation.update(operation.persister(entityClass), assignments, distinct(ids));
+        return operation.finish();
+    }
+
+    /**
+     * 更新满足条件的实体
+     *
+     * @param where      JPQL 的条件，实体的别名为 e，参数使用 ?1、?2 ...
+     * @param parameters 按顺序对应 ?1、?2 ...
+     */
+    public BulkOperationResult update(Class<?> entityClass, Map<String, ?> assignments, String where,
+                                      Object... parameters) {
+        Operation operation = new Operation();
+        AbstractEntityPersister persister = operation.persister(entityClass);
+        operation.update(persister, assignments, operation.selectIds(persister, where, parameters));
+        return operation.finish();
+    }
+
+    /**
+     * 删除指定 id 的实体，并级联删除 cascade 包含 REMOVE 的集合中的实体
+     */
+    public BulkOperationResult delete(Class<?> entityClass, Collection<? extends Serializable> ids) {
+        Operation operation = new Operation();
+        operation.delete(operation.persister(entityClass), distinct(ids));
+        return operation.finish();
+    }
+
+    /**
+     * 删除满足条件的实体，并级联删除 cascade 包含 REMOVE 的集合中的实体
+     *
+     * @param where      JPQL 的条件，实体的别名为 e，参数使用 ?1、?2 ...
+     * @param parameters 按顺序对应 ?1、?2 ...
+     */
+    public BulkOperationResult delete(Class<?> entityClass, String where, Object... parameters) {
+        Operation operation = new Operation();
+        AbstractEntityPersister persister = operation.persister(entityClass);
+        operation.delete(persister, operation.selectIds(persister, where, parameters));
+        return operation.finish();
+    }
+
+    private static List<Serializable> distinct(Collection<? extends Serializable> ids) {
+        return new ArrayList<Serializable>(new LinkedHashSet<>(ids));
+    }
+
+    /**
+     * 一次 update 或 delete：执行 SQL，记录需要清除的缓存条目
+     */
+    private final class Operation {
+
+        private final long start = System.nanoTime();
+        private final EventSource session;
+        private final SessionFactoryImplementor factory;
+        private final BulkOperationResult result = new BulkOperationResult();
+        private final List<CacheEviction> evictions = new ArrayList<>();
+
+        Operation() {
+            session = (EventSource) entityManager.unwrap(Session.class);
+            if (!session.isTransactionInProgress()) {
+                throw new TransactionRequiredException("批量更新和删除必须在事务中执行");
+            }
+            factory = session.getFactory();
+            // 先把持久化上下文中未执行的修改写入数据库
+            session.flush();
+        }
+
+        AbstractEntityPersister persister(Class<?> entityClass) {
+            EntityPersister persister = factory.getEntityPersister(entityClass.getName());
+            checkSupported(persister);
+            return (AbstractEntityPersister) persister;
+        }
+
+        List<Serializable> selectIds(AbstractEntityPersister persister, String where, Object... parameters) {
+            Query query = entityManager.createQuery("select e." + persister.getIdentifierPropertyName()
+                    + " from " + persister.getEntityName() + " e where " + where);
+            for (int i = 0; i < parameters.length; i++) {
+                query.setParameter(i + 1, parameters[i]);
+            }
+            result.addStatement();
+            @SuppressWarnings("unchecked")
+            List<Serializable> ids = query.getResultList();
+            return distinct(ids);
+        }
+
+        void update(AbstractEntityPersister persister, Map<String, ?> assignments, List<Serializable> ids) {
+            if (persister.isVersioned()) {
+                throw new UnsupportedOperationException("不支持批量更新带有 @Version 的实体: " + persister.getEntityName());
+            }
+            if (assignments.isEmpty()) {
+                throw new IllegalArgumentException("没有指定要更新的属性");
+            }
+
+            StringBuilder set = new StringBuilder();
+            List<String> columns = new ArrayList<>();
+            List<TypedValue> values = new ArrayList<>();
+            Map<QueryableCollection, Object> newOwners = new LinkedHashMap<>();
+            for (Map.Entry<String, ?> assignment : assignments.entrySet()) {
+                String property = assignment.getKey();
+                Integer index = persister.getEntityMetamodel().getPropertyIndexOrNull(property);
+                if (index == null) {
+                    throw new IllegalArgumentException(persister.getEntityName() + " 没有属性 " + property);
+                }
+                Type type = persister.getPropertyTypes()[index];
+                String[] propertyColumns = persister.getPropertyColumnNames(index);
+                if (type.isCollectionType() || propertyColumns.length == 0 || !persister.getPropertyUpdateability()[index]) {
+                    throw new IllegalArgumentException("属性 " + property + " 不能批量更新");
+                }
+                for (String column : propertyColumns) {
+                    set.append(set.length() == 0 ? "" : ", ").append(column).append(" = ?");
+                    columns.add(column);
+                }
+                values.add(new TypedValue(type, assignment.getValue()));
+                if (type.isEntityType()) {
+                    for (QueryableCollection inverse : inverseOneToManies(persister, null)) {
+                        if (Arrays.equals(inverse.getKeyColumnNames(), propertyColumns)) {
+                            newOwners.put(inverse, assignment.getValue());
+                        }
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                return;
+            }
+
+            // 修改了外键时，新旧两个 1 的一端的 mappedBy 集合缓存都要清除
+            String idColumn = persister.getIdentifierColumnNames()[0];
+            for (Map.Entry<QueryableCollection, Object> entry : newOwners.entrySet()) {
+                QueryableCollection inverse = entry.getKey();
+                List<Serializable> owners = select(inverse.getTableName(), inverse.getKeyColumnNames()[0],
+                        inverse.getKeyType(), idColumn, persister.getIdentifierType(), ids);
+                Serializable newOwner = identifier(inverse.getOwnerEntityPersister(), entry.getValue());
+                if (newOwner != null) {
+                    owners.add(newOwner);
+                }
+                evictCollections(inverse.getRole(), owners);
+            }
+
+            String sql = "update " + persister.getTableName() + " set " + set + " where " + idColumn + " in (";
+            for (List<Serializable> chunk : chunks(ids)) {
+                List<TypedValue> parameters = new ArrayList<>(values);
+                for (Serializable id : chunk) {
+                    parameters.add(new TypedValue(persister.getIdentifierType(), id));
+                }
+                result.addRows(persister.getTableName(), executeUpdate(sql + placeholders(chunk.size()) + ")", parameters));
+            }
+
+            evictEntities(persister, ids);
+            DependencyTrackingQueryCacheFactory queryCaches = DependencyTrackingQueryCacheFactory.of(factory);
+            if (queryCaches != null) {
+                queryCaches.publishUpdate(session, spaces(persister.getPropertySpaces()), columns);
+            } else {
+                invalidateTimestamps(spaces(persister.getPropertySpaces()));
+            }
+
+            // 持久化上下文中的实体重新从数据库加载
+            PersistenceContext persistenceContext = session.getPersistenceContext();
+            for (Serializable id : ids) {
+                Object entity = persistenceContext.getEntity(session.generateEntityKey(id, persister));
+                if (entity != null) {
+                    session.refresh(entity);
+                }
+            }
+        }
+
+        void delete(AbstractEntityPersister persister, List<Serializable> ids) {
+            checkDeletable(persister, new HashSet<String>());
+            delete(persister, ids, null, null);
+        }
+
+        /**
+         * @param via      通过哪个 1-n 集合级联删除，为 null 时表示直接删除
+         * @param ownerIds 级联删除时被删除的 1 的一端的 id
+         */
+        private void delete(AbstractEntityPersister persister, List<Serializable> ids, QueryableCollection via,
+                            List<Serializable> ownerIds) {
+            if (ids.isEmpty()) {
+                return;
+            }
+            String idColumn = persister.getIdentifierColumnNames()[0];
+            Type idType = persister.getIdentifierType();
+
+            // 1. 级联删除集合中的实体
+            Type[] types = persister.getPropertyTypes();
+            CascadeStyle[] cascadeStyles = persister.getPropertyCascadeStyles();
+            for (int i = 0; i < types.length; i++) {
+                if (!types[i].isCollectionType() || !cascadeStyles[i].doCascade(CascadingAction.DELETE)) {
+                    continue;
+                }
+                QueryableCollection collection = collection((CollectionType) types[i]);
+                if (!collection.getElementType().isEntityType()) {
+                    continue;
+                }
+                AbstractEntityPersister child = (AbstractEntityPersister) collection.getElementPersister();
+                if (collection.isOneToMany()) {
+                    List<Serializable> childIds = select(child.getTableName(), child.getIdentifierColumnNames()[0],
+                            child.getIdentifierType(), collection.getKeyColumnNames()[0], collection.getKeyType(), ids);
+                    delete(child, childIds, collection, ids);
+                } else {
+                    List<Serializable> childIds = select(collection.getTableName(), collection.getElementColumnNames()[0],
+                            child.getIdentifierType(), collection.getKeyColumnNames()[0], collection.getKeyType(), ids);
+                    delete(child, childIds, null, null);
+                }
+            }
+
+            // 2. 实体自身的集合：删除中间表和 @ElementCollection 的行，1-n 的外键设置为 null
+            for (int i = 0; i < types.length; i++) {
+                if (!types[i].isCollectionType()) {
+                    continue;
+                }
+                QueryableCollection collection = collection((CollectionType) types[i]);
+                if (collection.isInverse()) {
+                    continue;
+                }
+                String keyColumn = collection.getKeyColumnNames()[0];
+                if (collection.isOneToMany()) {
+                    if (!cascadeStyles[i].doCascade(CascadingAction.DELETE)) {
+                        executeUpdate(collection.getTableName(), "update " + collection.getTableName() + " set "
+                                + keyColumn + " = null where " + keyColumn + " in (", idType, ids);
+                        publishUpdate(collection.getTableName(), Collections.singletonList(keyColumn));
+                    }
+                    continue;
+                }
+                QueryableCollection inverse = inverseManyToMany(collection);
+                if (inverse != null && inverse.hasCache()) {
+                    evictCollections(inverse.getRole(), select(collection.getTableName(),
+                            collection.getElementColumnNames()[0], inverse.getKeyType(), keyColumn, idType, ids));
+                }
+                executeUpdate(collection.getTableName(),
+                        "delete from " + collection.getTableName() + " where " + keyColumn + " in (", idType, ids);
+                publishUpdate(collection.getTableName(), null);
+            }
+
+            // 3. 其他实体维护关联关系的 n-n 集合中引用了被删除实体的行
+            for (QueryableCollection collection : collections()) {
+                if (collection.isOneToMany() || collection.isInverse() || !references(collection, persister)) {
+                    continue;
+                }
+                String elementColumn = collection.getElementColumnNames()[0];
+                if (collection.hasCache()) {
+                    evictCollections(collection.getRole(), select(collection.getTableName(),
+                            collection.getKeyColumnNames()[0], collection.getKeyType(), elementColumn, idType, ids));
+                }
+                executeUpdate(collection.getTableName(),
+                        "delete from " + collection.getTableName() + " where " + elementColumn + " in (", idType, ids);
+                publishUpdate(collection.getTableName(), null);
+            }
+
+            // 4. 不是通过级联删除时，1 的一端的 mappedBy 集合缓存需要清除
+            for (QueryableCollection inverse : inverseOneToManies(persister, via)) {
+                evictCollections(inverse.getRole(), select(persister.getTableName(), inverse.getKeyColumnNames()[0],
+                        inverse.getKeyType(), idColumn, idType, ids));
+            }
+
+            // 5. 级联删除时按外键删除，语句的个数取决于 1 的一端的个数
+            if (via != null) {
+                String keyColumn = via.getKeyColumnNames()[0];
+                executeUpdate(persister.getTableName(),
+                        "delete from " + persister.getTableName() + " where " + keyColumn + " in (", via.getKeyType(), ownerIds);
+            } else {
+                executeUpdate(persister.getTableName(),
+                        "delete from " + persister.getTableName() + " where " + idColumn + " in (", idType, ids);
+            }
+
+            // 6. 清除实体和实体自身集合的缓存，持久化上下文中的实体变为游离状态
+            evictEntities(persister, ids);
+            for (Type type : types) {
+                if (type.isCollectionType()) {
+                    QueryableCollection collection = collection((CollectionType) type);
+                    if (collection.hasCache()) {
+                        evictCollections(collection.getRole(), ids);
+                    }
+                }
+            }
+            PersistenceContext persistenceContext = session.getPersistenceContext();
+            for (Serializable id : ids) {
+                EntityKey key = session.generateEntityKey(id, persister);
+                Object entity = persistenceContext.getEntity(key);
+                if (entity == null) {
+                    entity = persistenceContext.getProxy(key);
+                }
+                if (entity != null) {
+                    session.evict(entity);
+                }
+            }
+
+            DependencyTrackingQueryCacheFactory queryCaches = DependencyTrackingQueryCacheFactory.of(factory);
+            if (queryCaches != null) {
+                queryCaches.publishDelete(session, spaces(persister.getPropertySpaces()), persister.getRootEntityName(), ids);
+            } else {
+                invalidateTimestamps(spaces(persister.getPropertySpaces()));
+            }
+        }
+
+        BulkOperationResult finish() {
+            if (!evictions.isEmpty()) {
+                // 其他事务可能在提交之前把旧的数据重新放入缓存
+                final List<CacheEviction> pending = new ArrayList<>(evictions);
+                session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+                    @Override
+                    public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+                        Cache cache = session.getFactory().getCache();
+                        for (CacheEviction eviction : pending) {
+                            eviction.apply(cache);
+                        }
+                    }
+                });
+            }
+            result.setElapsedNanos(System.nanoTime() - start);
+            return result;
+        }
+
+        private void checkSupported(EntityPersister persister) {
+            if (!(persister instanceof AbstractEntityPersister) || ((AbstractEntityPersister) persister).isMultiTable()) {
+                throw new UnsupportedOperationException("只支持映射到一张表的实体: " + persister.getEntityName());
+            }
+            if (((AbstractEntityPersister) persister).getIdentifierColumnNames().length != 1) {
+                throw new UnsupportedOperationException("不支持复合主键: " + persister.getEntityName());
+            }
+        }
+
+        /**
+         * 在执行任何语句之前检查级联删除涉及的所有实体
+         */
+        private void checkDeletable(AbstractEntityPersister persister, Set<String> checked) {
+            if (!checked.add(persister.getEntityName())) {
+                return;
+            }
+            checkSupported(persister);
+            Type[] types = persister.getPropertyTypes();
+            CascadeStyle[] cascadeStyles = persister.getPropertyCascadeStyles();
+            for (int i = 0; i < types.length; i++) {
+                if (!cascadeStyles[i].doCascade(CascadingAction.DELETE)) {
+                    continue;
+                }
+                if (types[i].isEntityType()) {
+                    throw new UnsupportedOperationException("不支持级联删除 n-1、1-1 关联关系: "
+                            + persister.getEntityName() + "." + persister.getPropertyNames()[i]);
+                }
+                if (types[i].isCollectionType()) {
+                    QueryableCollection collection = collection((CollectionType) types[i]);
+                    if (collection.getElementType().isEntityType()) {
+                        EntityPersister child = collection.getElementPersister();
+                        checkSupported(child);
+                        checkDeletable((AbstractEntityPersister) child, checked);
+                    }
+                }
+            }
+        }
+
+        private QueryableCollection collection(CollectionType type) {
+            return (QueryableCollection) factory.getCollectionPersister(type.getRole());
+        }
+
+        private List<QueryableCollection> collections() {
+            List<QueryableCollection> collections = new ArrayList<>();
+            for (Object role : factory.getAllCollectionMetadata().keySet()) {
+                collections.add((QueryableCollection) factory.getCollectionPersister((String) role));
+            }
+            return collections;
+        }
+
+        /**
+         * 集合的元素是否可能是 persister 对应的实体
+         */
+        private boolean references(QueryableCollection collection, EntityPersister persister) {
+            return collection.getElementType().isEntityType()
+                    && collection.getElementPersister().isSubclassEntityName(persister.getEntityName());
+        }
+
+        /**
+         * 元素为 persister 对应的实体、启用了缓存的 1-n 集合（例如 Order -> Customer.orders）
+         */
+        private List<QueryableCollection> inverseOneToManies(EntityPersister persister, QueryableCollection excluded) {
+            List<QueryableCollection> inverses = new ArrayList<>();
+            for (QueryableCollection collection : collections()) {
+                if (collection.isOneToMany() && collection.hasCache() && collection != excluded
+                        && references(collection, persister)) {
+                    inverses.add(collection);
+                }
+            }
+            return inverses;
+        }
+
+        /**
+         * 使用同一张中间表的 mappedBy 集合（例如 Item.categories -> Category.items）
+         */
+        private QueryableCollection inverseManyToMany(QueryableCollection owning) {
+            for (QueryableCollection collection : collections()) {
+                if (collection.isInverse() && collection.isManyToMany()
+                        && collection.getTableName().equalsIgnoreCase(owning.getTableName())
+                        && Arrays.equals(collection.getKeyColumnNames(), owning.getElementColumnNames())) {
+                    return collection;
+                }
+            }
+            return null;
+        }
+
+        private Serializable identifier(EntityPersister persister, Object entity) {
+            if (entity == null) {
+                return null;
+            }
+            if (entity instanceof HibernateProxy) {
+                return ((HibernateProxy) entity).getHibernateLazyInitializer().getIdentifier();
+            }
+            return persister.getIdentifier(entity, session);
+        }
+
+        /**
+         * select distinct selectColumn from table where whereColumn in (...)
+         */
+        private List<Serializable> select(String table, String selectColumn, Type selectType, String whereColumn,
+                                          Type whereType, List<Serializable> values) {
+            Set<Serializable> selected = new LinkedHashSet<>();
+            String sql = "select distinct " + selectColumn + " as k0_ from " + table + " where " + whereColumn + " in (";
+            JdbcCoordinator jdbcCoordinator = session.getTransactionCoordinator().getJdbcCoordinator();
+            for (List<Serializable> chunk : chunks(values)) {
+                String chunkSql = sql + placeholders(chunk.size()) + ")";
+                PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement(chunkSql);
+                try {
+                    bind(statement, whereType, chunk);
+                    ResultSet resultSet = jdbcCoordinator.getResultSetReturn().extract(statement);
+                    result.addStatement();
+                    while (resultSet.next()) {
+                        Serializable value = (Serializable) selectType.nullSafeGet(resultSet, new String[]{"k0_"}, session, null);
+                        if (value != null) {
+                            selected.add(value);
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw factory.getSQLExceptionHelper().convert(e, "批量操作查询失败", chunkSql);
+                } finally {
+                    jdbcCoordinator.release(statement);
+                }
+            }
+            return new ArrayList<>(selected);
+        }
+
+        /**
+         * 执行 sqlPrefix + "?, ?, ...)"，values 按 inListSize 分批
+         */
+        private void executeUpdate(String table, String sqlPrefix, Type type, List<Serializable> values) {
+            for (List<Serializable> chunk : chunks(values)) {
+                List<TypedValue> parameters = new ArrayList<>();
+                for (Serializable value : chunk) {
+                    parameters.add(new TypedValue(type, value));
+                }
+                result.addRows(table, executeUpdate(sqlPrefix + placeholders(chunk.size()) + ")", parameters));
+            }
+        }
+
+        private int executeUpdate(String sql, List<TypedValue> parameters) {
+            JdbcCoordinator jdbcCoordinator = session.getTransactionCoordinator().getJdbcCoordinator();
+            PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement(sql);
+            try {
+                int index = 1;
+                for (TypedValue parameter : parameters) {
+                    parameter.getType().nullSafeSet(statement, parameter.getValue(), index, session);
+                    index += parameter.getType().getColumnSpan(factory);
+                }
+                result.addStatement();
+                return jdbcCoordinator.getResultSetReturn().executeUpdate(statement);
+            } catch (SQLException e) {
+                throw factory.getSQLExceptionHelper().convert(e, "批量操作执行失败", sql);
+            } finally {
+                jdbcCoordinator.release(statement);
+            }
+        }
+
+        private void bind(PreparedStatement statement, Type type, List<Serializable> values) throws SQLException {
+            int index = 1;
+            for (Serializable value : values) {
+                type.nullSafeSet(statement, value, index, session);
+                index += type.getColumnSpan(factory);
+            }
+        }
+
+        private void evictEntities(EntityPersister persister, List<Serializable> ids) {
+            if (persister.hasCache() && !ids.isEmpty()) {
+                addEviction(new CacheEviction(persister.getEntityName(), false, ids));
+            }
+        }
+
+        private void evictCollections(String role, List<Serializable> ownerIds) {
+            if (!ownerIds.isEmpty()) {
+                addEviction(new CacheEviction(role, true, ownerIds));
+            }
+        }
+
+        private void addEviction(CacheEviction eviction) {
+            eviction.apply(factory.getCache());
+            evictions.add(eviction);
+        }
+
+        private void publishUpdate(String table, List<String> columns) {
+            DependencyTrackingQueryCacheFactory queryCaches = DependencyTrackingQueryCacheFactory.of(factory);
+            if (queryCaches != null) {
+                queryCaches.publishUpdate(session, Collections.singletonList(table), columns);
+            } else {
+                invalidateTimestamps(Collections.singletonList(table));
+            }
+        }
+
+        /**
+         * 没有使用 DependencyTrackingQueryCacheFactory 时，与 hibernate 执行 update/delete 语句时相同，更新表的时间戳
+         */
+        private void invalidateTimestamps(List<String> tables) {
+            if (!factory.getSettings().isQueryCacheEnabled()) {
+                return;
+            }
+            final Serializable[] spaces = tables.toArray(new Serializable[tables.size()]);
+            factory.getUpdateTimestampsCache().preinvalidate(spaces);
+            session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+                @Override
+                public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+                    session.getFactory().getUpdateTimestampsCache().invalidate(spaces);
+                }
+            });
+        }
+    }
+
+    private List<List<Serializable>> chunks(List<Serializable> values) {
+        List<List<Serializable>> chunks = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += inListSize) {
+            chunks.add(values.subList(from, Math.min(from + inListSize, values.size())));
+        }
+        return chunks;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sql = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.toString();
+    }
+
+    private static List<String> spaces(Serializable[] spaces) {
+        List<String> tables = new ArrayList<>(spaces.length);
+        for (Serializable space : spaces) {
+            tables.add(String.valueOf(space));
+        }
+        return tables;
+    }
+
+    /**
+     * 需要清除的实体或集合的缓存条目
+     */
+    static final class CacheEviction {
+
+        private final String name;
+        private final boolean collection;
+        private final List<Serializable> ids;
+
+        CacheEviction(String name, boolean collection, List<Serializable> ids) {
+            this.name = name;
+            this.collection = collection;
+            this.ids = new ArrayList<>(ids);
+        }
+
+        void apply(Cache cache) {
+            for (Serializable id : ids) {
+                if (collection) {
+                    cache.evictCollection(name, id);
+                } else {
+                    cache.evictEntity(name, id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.xt.jpa.batch;
+
+/**
+ * @author xt
+ * @date 2019/2/17 - 14:05
+ * @description 批量保存的统计结果
+ */
+public class BulkPersistResult {
+
+    private final long customers;
+    private final long orders;
+    private final long elapsedNanos;
+
+    public BulkPersistResult(long customers, long orders, long elapsedNanos) {
+        this.customers = customers;
+        this.orders = orders;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getCustomers() {
+        return customers;
+    }
+
+    public long getOrders() {
+        return orders;
+    }
+
+    /**
+     * 插入的总行数
+     */
+    public long getRows() {
+        return customers + orders;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1000000L;
+    }
+
+    /**
+     * 每秒插入的行数
+     */
+    public double getRowsPerSecond() {
+        if (elapsedNanos == 0) {
+            return 0;
+        }
+        return getRows() * 1000000000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkPersistResult{" +
+                "customers=" + customers +
+                ", orders=" + orders +
+                ", elapsedMillis=" + getElapsedMillis() +
+                ", rowsPerSecond=" + String.format("%.1f", getRowsPerSecond()) +
+                '}';
+    }
+}
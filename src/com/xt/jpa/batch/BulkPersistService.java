@@ -0,0 +1,109 @@
+package com.xt.jpa.batch;
+
+import com.xt.jpa.helloworld.Customer;
+import com.xt.jpa.helloworld.Order;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.util.Iterator;
+
+/**
+ * @author xt
+ * @date 2019/2/17 - 14:10
+ * @description 批量保存 Customer 及其 orders
+ *
+ * 1. 先保存 1 的一端 Customer，再保存 n 的一端 Order，并且由 Order 维护关联关系（mappedBy），
+ *    这样 insert Order 时会同时插入外键列，不会多出 update 语句。
+ * 2. 主键由 PooledTableIdGenerator 预先分配，配合 hibernate.order_inserts 按表对 insert 语句排序，
+ *    同一张表的 insert 语句会放到同一个 JDBC 批处理中。
+ * 3. 每保存 batchSize 个实体执行一次 flush 和 clear，持久化上下文的大小不会随着数据量增长。
+ * 4. 每保存 commitInterval 个 Customer 提交一次事务，避免事务过大。
+ */
+public class BulkPersistService {
+
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final int DEFAULT_COMMIT_INTERVAL = 1000;
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final int batchSize;
+    private final int commitInterval;
+
+    public BulkPersistService(EntityManagerFactory entityManagerFactory) {
+        this(entityManagerFactory, DEFAULT_BATCH_SIZE, DEFAULT_COMMIT_INTERVAL);
+    }
+
+    /**
+     * @param batchSize      flush 和 clear 的间隔（实体个数），应与 hibernate.jdbc.batch_size 保持一致
+     * @param commitInterval 提交事务的间隔（Customer 个数）
+     */
+    public BulkPersistService(EntityManagerFactory entityManagerFactory, int batchSize, int commitInterval) {
+        if (batchSize < 1 || commitInterval < 1) {
+            throw new IllegalArgumentException("batchSize 和 commitInterval 必须大于 0");
+        }
+        this.entityManagerFactory = entityManagerFactory;
+        this.batchSize = batchSize;
+        this.commitInterval = commitInterval;
+    }
+
+    public BulkPersistResult persistAll(Iterable<Customer> customers) {
+        return persistAll(customers.iterator());
+    }
+
+    /**
+     * 保存所有的 Customer 及其 orders。保存之后的对象均为游离状态，但已经有了 id。
+     */
+    public BulkPersistResult persistAll(Iterator<Customer> customers) {
+        long start = System.nanoTime();
+        long customerCount = 0;
+        long orderCount = 0;
+        int pending = 0;
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            while (customers.hasNext()) {
+                Customer customer = customers.next();
+
+                entityManager.persist(customer);
+                customerCount++;
+                pending++;
+
+                for (Order order : customer.getOrders()) {
+                    // 由 n 的一端维护关联关系
+                    if (order.getCustomer() != customer) {
+                        order.setCustomer(customer);
+                    }
+                    entityManager.persist(order);
+                    orderCount++;
+                    pending++;
+                }
+
+                if (pending >= batchSize) {
+                    entityManager.flush();
+                    entityManager.clear();
+                    pending = 0;
+                }
+
+                if (customerCount % commitInterval == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                    pending = 0;
+                    transaction.commit();
+                    transaction.begin();
+                }
+            }
+            transaction.commit();
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+
+        return new BulkPersistResult(customerCount, orderCount, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,532 @@
+package com.xt.jpa.batch;
+
+import com.xt.jpa.pool.LatencyHistogram;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.proxy.HibernateProxyHelper;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author xt
+ * @date 2019/2/26 - 9:30
+ * @description 异步写入（write-behind）：调用者把 Customer、Order 等实体的 persist/merge 放入有界队列后立即返回 future，
+ * 由后台线程把多个写操作合并到一个事务中批量提交，请求的延迟不再受每次提交的延迟限制。
+ *
+ * 1. 写线程取到第一个写操作后继续收集，直到收集了 maxBatchSize（xt.write_behind.max_batch_size，默认 1000）个，
+ *    或者第一个写操作已经在内存中停留了 durabilityWindowMillis（xt.write_behind.durability_window_ms，默认 100），
+ *    然后在一个事务中执行，每 hibernate.jdbc.batch_size 个实体 flush 和 clear 一次；
+ * 2. 同一个批次中对同一个实体的多次写操作合并为一次：同一个对象的 persist 只执行一次，
+ *    同一个 id 的 merge 只执行最后一次，被合并的写操作的 future 得到相同的结果；
+ * 3. 批次的事务失败时回滚，再把每个写操作放到单独的事务中重试，只有失败的写操作的 future 以异常结束；
+ *    不是实体的对象在 persist/merge 时直接抛出 IllegalArgumentException，写线程中的其他异常只使当前批次的 future 失败；
+ * 4. 队列中的写操作达到 capacity（xt.write_behind.capacity，默认 10000）时，persist/merge 阻塞调用者（背压），
+ *    超过 offerTimeoutMillis（xt.write_behind.offer_timeout_ms，默认 5000）时抛出 RejectedExecutionException；
+ * 5. flush 等待之前放入的写操作全部提交；close 不再接受新的写操作，提交队列中剩余的写操作后返回。
+ *    EntityManagerFactoryHolder 在关闭 EntityManagerFactory（包括 JVM 退出时）之前先关闭它创建的 WriteBehindQueue。
+ *
+ * 注意：
+ * 1. future 完成之前写操作只在内存中，进程崩溃时最多丢失 durabilityWindowMillis 加上一次提交时间内的写操作，
+ *    需要确认已经写入数据库的调用者应该等待 future；
+ * 2. 放入队列之后、future 完成之前不要再修改实体，写线程读取的是提交时的状态；
+ * 3. 写操作按放入的顺序执行，Order 引用的 Customer 应该先放入队列（或者已经保存过）。
+ */
+public class WriteBehindQueue implements Closeable {
+
+    public static final String CAPACITY = "xt.write_behind.capacity";
+    public static final String MAX_BATCH_SIZE = "xt.write_behind.max_batch_size";
+    public static final String DURABILITY_WINDOW = "xt.write_behind.durability_window_ms";
+    public static final String OFFER_TIMEOUT = "xt.write_behind.offer_timeout_ms";
+    public static final String JDBC_BATCH_SIZE = "hibernate.jdbc.batch_size";
+
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    public static final long DEFAULT_DURABILITY_WINDOW_MILLIS = 100;
+    public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 5000;
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final long durabilityWindowNanos;
+    private final long offerTimeoutMillis;
+    private final int flushInterval;
+
+    private final BlockingQueue<Write> queue;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLag = new LatencyHistogram();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong retriedBatches = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    /**
+     * 参数取 EntityManagerFactory 的 xt.write_behind.* 属性
+     */
+    public WriteBehindQueue(EntityManagerFactory entityManagerFactory) {
+        this(entityManagerFactory,
+                ConfigurationHelper.getInt(CAPACITY, entityManagerFactory.getProperties(), DEFAULT_CAPACITY),
+                ConfigurationHelper.getInt(MAX_BATCH_SIZE, entityManagerFactory.getProperties(), DEFAULT_MAX_BATCH_SIZE),
+                longProperty(entityManagerFactory, DURABILITY_WINDOW, DEFAULT_DURABILITY_WINDOW_MILLIS),
+                longProperty(entityManagerFactory, OFFER_TIMEOUT, DEFAULT_OFFER_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * @param capacity               队列中等待写入的写操作个数的上限
+     * @param maxBatchSize           一个事务中最多执行的写操作个数
+     * @param durabilityWindowMillis 写操作在内存中停留的最长时间（不包括提交的时间）
+     * @param offerTimeoutMillis     队列已满时调用者最多等待的时间
+     */
+    public WriteBehindQueue(EntityManagerFactory entityManagerFactory, int capacity, int maxBatchSize,
+                            long durabilityWindowMillis, long offerTimeoutMillis) {
+        if (capacity < 1 || maxBatchSize < 1 || durabilityWindowMillis < 0 || offerTimeoutMillis < 0) {
+            throw new IllegalArgumentException("capacity 和 maxBatchSize 必须大于 0，"
+                    + "durabilityWindowMillis 和 offerTimeoutMillis 不能小于 0");
+        }
+        this.entityManagerFactory = entityManagerFactory;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.durabilityWindowNanos = TimeUnit.MILLISECONDS.toNanos(durabilityWindowMillis);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.flushInterval = ConfigurationHelper.getInt(JDBC_BATCH_SIZE, entityManagerFactory.getProperties(),
+                BulkPersistService.DEFAULT_BATCH_SIZE);
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.writer = new Thread("write-behind-writer") {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 异步保存新的实体，future 在提交以后得到该实体（已经有了 id，处于游离状态）
+     *
+     * @throws RejectedExecutionException 已经关闭，队列已满并且等待超时，或者等待时被中断
+     */
+    public <T> CompletableFuture<T> persist(T entity) {
+        return enqueue(Kind.PERSIST, entity);
+    }
+
+    /**
+     * 异步合并游离实体的状态，future 在提交以后得到 merge 返回的实体（游离状态）
+     *
+     * @throws RejectedExecutionException 已经关闭，队列已满并且等待超时，或者等待时被中断
+     */
+    public <T> CompletableFuture<T> merge(T entity) {
+        return enqueue(Kind.MERGE, entity);
+    }
+
+    /**
+     * 立即提交之前放入的写操作，不等待 durabilityWindowMillis。返回的 future 在它们全部执行完（包括失败）以后完成。
+     */
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                // close 已经提交了所有的写操作
+                future.complete(null);
+            } else {
+                putControl(new Write(Kind.FLUSH, null, future, false));
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return cast(future);
+    }
+
+    public WriteBehindStatistics getStatistics() {
+        return new WriteBehindStatistics(queue.size(), capacity, enqueued.get(), coalesced.get(), written.get(),
+                failed.get(), transactions.get(), retriedBatches.get(), throttled.get(), throttledNanos.get() / 1e6,
+                commitLatency.getMeanMillis(), commitLatency.getPercentileMillis(99),
+                writeLag.getMeanMillis(), writeLag.getPercentileMillis(99), writeLag.getMaxMillis());
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 不再接受新的写操作，等待队列中的写操作全部提交
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            putControl(new Write(Kind.SHUTDOWN, null, new CompletableFuture<>(), false));
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> CompletableFuture<T> enqueue(Kind kind, T entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("entity 不能为 null");
+        }
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        // 不是实体时在调用者的线程中抛出 IllegalArgumentException，不会进入写线程
+        Object id = entityManagerFactory.getPersistenceUnitUtil().getIdentifier(entity);
+        boolean transientIdentifier = kind == Kind.PERSIST && id == null;
+        Write write = new Write(kind, entity, future, transientIdentifier);
+        // 持有读锁期间 close 不能放入结束标记，写操作不会排在结束标记之后
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new RejectedExecutionException("WriteBehindQueue 已经关闭");
+            }
+            if (!queue.offer(write)) {
+                long start = System.nanoTime();
+                boolean accepted;
+                try {
+                    accepted = queue.offer(write, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("等待写入队列时被中断", e);
+                }
+                throttled.incrementAndGet();
+                throttledNanos.addAndGet(System.nanoTime() - start);
+                if (!accepted) {
+                    throw new RejectedExecutionException("WriteBehindQueue 已满（" + capacity + "），等待了 "
+                            + offerTimeoutMillis + "ms");
+                }
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        enqueued.incrementAndGet();
+        return cast(future);
+    }
+
+    /**
+     * 控制标记一定要放入队列，写线程一直在取出写操作，队列满时等待的时间不会太长
+     */
+    private void putControl(Write control) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(control);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Write> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            Write first;
+            try {
+                first = queue.take();
+            } catch (InterruptedException e) {
+                // 只有 close 能结束写线程
+                continue;
+            }
+            batch.add(first);
+            long deadline = first.enqueued + durabilityWindowNanos;
+            while (batch.size() < maxBatchSize && !batch.get(batch.size() - 1).kind.isControl()) {
+                long remaining = deadline - System.nanoTime();
+                Write next;
+                try {
+                    next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                } catch (InterruptedException e) {
+                    next = null;
+                }
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+            try {
+                running = write(batch);
+            } catch (RuntimeException | Error e) {
+                // 写线程不能退出，否则队列中的写操作和 flush 的 future 永远不会完成
+                for (Write write : batch) {
+                    fail(write, e);
+                    running &= write.kind != Kind.SHUTDOWN;
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return 是否继续运行（遇到结束标记时返回 false）
+     */
+    private boolean write(List<Write> batch) {
+        boolean running = true;
+        List<Write> controls = new ArrayList<>();
+        Map<WriteKey, Write> writes = new LinkedHashMap<>();
+        for (Write write : batch) {
+            if (write.kind.isControl()) {
+                controls.add(write);
+                running &= write.kind != Kind.SHUTDOWN;
+                continue;
+            }
+            WriteKey key;
+            try {
+                key = key(write.entity);
+            } catch (RuntimeException e) {
+                fail(write, e);
+                continue;
+            }
+            Write previous = writes.get(key);
+            if (previous == null) {
+                writes.put(key, write);
+            } else {
+                // 同一个对象的 persist 只执行一次；同一个 id 的 merge 执行最后一次（位置不变）
+                if (previous.kind == Kind.PERSIST) {
+                    previous.coalesce(write);
+                } else {
+                    write.coalesce(previous);
+                    writes.put(key, write);
+                }
+                coalesced.incrementAndGet();
+            }
+        }
+        if (!writes.isEmpty()) {
+            List<Write> list = new ArrayList<>(writes.values());
+            try {
+                commit(list);
+            } catch (RuntimeException | Error e) {
+                if (list.size() == 1) {
+                    fail(list.get(0), e);
+                } else {
+                    // 找出失败的写操作，其余的写操作不受影响
+                    retriedBatches.incrementAndGet();
+                    for (Write write : list) {
+                        try {
+                            commit(Collections.singletonList(write));
+                        } catch (RuntimeException | Error retryFailure) {
+                            fail(write, retryFailure);
+                        }
+                    }
+                }
+            }
+        }
+        for (Write control : controls) {
+            control.future.complete(null);
+        }
+        return running;
+    }
+
+    private void commit(List<Write> writes) {
+        long start = System.nanoTime();
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        List<Object> results = new ArrayList<>(writes.size());
+        try {
+            transaction.begin();
+            int pending = 0;
+            for (Write write : writes) {
+                if (write.kind == Kind.PERSIST) {
+                    entityManager.persist(write.entity);
+                    results.add(write.entity);
+                } else {
+                    results.add(entityManager.merge(write.entity));
+                }
+                if (++pending >= flushInterval) {
+                    entityManager.flush();
+                    entityManager.clear();
+                    pending = 0;
+                }
+            }
+            transaction.commit();
+        } catch (RuntimeException | Error e) {
+            if (transaction.isActive()) {
+                try {
+                    transaction.rollback();
+                } catch (RuntimeException rollbackFailure) {
+                    // 保留原来的异常
+                }
+            }
+            resetIdentifiers(entityManager, writes);
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+        long now = System.nanoTime();
+        commitLatency.record(now - start);
+        transactions.incrementAndGet();
+        for (int i = 0; i < writes.size(); i++) {
+            Write write = writes.get(i);
+            written.incrementAndGet();
+            write.complete(results.get(i), now, writeLag);
+        }
+    }
+
+    /**
+     * 回滚以后，persist 时生成的 id 已经无效，清除它们以便重试时重新 persist
+     */
+    private void resetIdentifiers(EntityManager entityManager, List<Write> writes) {
+        SessionImplementor session = (SessionImplementor) entityManager.unwrap(Session.class);
+        SessionFactoryImplementor factory = session.getFactory();
+        for (Write write : writes) {
+            if (write.kind == Kind.PERSIST && write.transientIdentifier) {
+                factory.getEntityPersister(write.entity.getClass().getName())
+                        .setIdentifier(write.entity, null, session);
+            }
+        }
+    }
+
+    private void fail(Write write, Throwable e) {
+        if (write.kind.isControl()) {
+            write.future.completeExceptionally(e);
+            return;
+        }
+        if (!write.future.isDone()) {
+            failed.incrementAndGet();
+        }
+        write.completeExceptionally(e);
+    }
+
+    private WriteKey key(Object entity) {
+        Object id = entityManagerFactory.getPersistenceUnitUtil().getIdentifier(entity);
+        return new WriteKey(HibernateProxyHelper.getClassWithoutInitializingProxy(entity), id, entity);
+    }
+
+    private static long longProperty(EntityManagerFactory entityManagerFactory, String name, long defaultValue) {
+        Object value = entityManagerFactory.getProperties().get(name);
+        return value == null ? defaultValue : Long.parseLong(value.toString().trim());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<T> cast(CompletableFuture<Object> future) {
+        return (CompletableFuture<T>) (CompletableFuture<?>) future;
+    }
+
+    private enum Kind {
+        PERSIST, MERGE, FLUSH, SHUTDOWN;
+
+        private boolean isControl() {
+            return this == FLUSH || this == SHUTDOWN;
+        }
+    }
+
+    private static final class Write {
+        private final Kind kind;
+        private final Object entity;
+        private final CompletableFuture<Object> future;
+        private final long enqueued = System.nanoTime();
+        private final boolean transientIdentifier;
+        private List<Write> coalesced;
+
+        /**
+         * @param transientIdentifier persist 之前没有 id，回滚以后需要清除生成的 id
+         */
+        private Write(Kind kind, Object entity, CompletableFuture<Object> future, boolean transientIdentifier) {
+            this.kind = kind;
+            this.entity = entity;
+            this.future = future;
+            this.transientIdentifier = transientIdentifier;
+        }
+
+        /**
+         * other 不再执行，它的 future 与当前的写操作一起完成
+         */
+        private void coalesce(Write other) {
+            if (coalesced == null) {
+                coalesced = new ArrayList<>(2);
+            }
+            coalesced.add(other);
+            if (other.coalesced != null) {
+                coalesced.addAll(other.coalesced);
+                other.coalesced = null;
+            }
+        }
+
+        private void complete(Object result, long now, LatencyHistogram lag) {
+            lag.record(now - enqueued);
+            future.complete(result);
+            if (coalesced != null) {
+                for (Write write : coalesced) {
+                    lag.record(now - write.enqueued);
+                    write.future.complete(result);
+                }
+            }
+        }
+
+        private void completeExceptionally(Throwable e) {
+            future.completeExceptionally(e);
+            if (coalesced != null) {
+                for (Write write : coalesced) {
+                    write.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 还没有 id 的实体按对象本身区分，已经有 id 的实体按类型和 id 区分
+     */
+    private static final class WriteKey {
+        private final Class<?> entityClass;
+        private final Object id;
+        private final Object entity;
+
+        private WriteKey(Class<?> entityClass, Object id, Object entity) {
+            this.entityClass = entityClass;
+            this.id = id;
+            this.entity = id == null ? entity : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof WriteKey)) {
+                return false;
+            }
+            WriteKey that = (WriteKey) o;
+            return entityClass == that.entityClass && entity == that.entity
+                    && (id == null ? that.id == null : id.equals(that.id));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * entityClass.hashCode() + (id == null ? System.identityHashCode(entity) : id.hashCode());
+        }
+    }
+}
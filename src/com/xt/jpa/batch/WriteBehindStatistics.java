@@ -0,0 +1,159 @@
+package com.xt.jpa.batch;
+
+/**
+ * @author xt
+ * @date 2019/2/26 - 9:20
+ * @description WriteBehindQueue 的统计信息（快照）
+ */
+public class WriteBehindStatistics {
+
+    private final int queued;
+    private final int capacity;
+    private final long enqueued;
+    private final long coalesced;
+    private final long written;
+    private final long failed;
+    private final long transactions;
+    private final long retriedBatches;
+    private final long throttled;
+    private final double throttledMillis;
+    private final double commitMeanMillis;
+    private final double commitP99Millis;
+    private final double lagMeanMillis;
+    private final double lagP99Millis;
+    private final double lagMaxMillis;
+
+    public WriteBehindStatistics(int queued, int capacity, long enqueued, long coalesced, long written, long failed,
+                                 long transactions, long retriedBatches, long throttled, double throttledMillis,
+                                 double commitMeanMillis, double commitP99Millis,
+                                 double lagMeanMillis, double lagP99Millis, double lagMaxMillis) {
+        this.queued = queued;
+        this.capacity = capacity;
+        this.enqueued = enqueued;
+        this.coalesced = coalesced;
+        this.written = written;
+        this.failed = failed;
+        this.transactions = transactions;
+        this.retriedBatches = retriedBatches;
+        this.throttled = throttled;
+        this.throttledMillis = throttledMillis;
+        this.commitMeanMillis = commitMeanMillis;
+        this.commitP99Millis = commitP99Millis;
+        this.lagMeanMillis = lagMeanMillis;
+        this.lagP99Millis = lagP99Millis;
+        this.lagMaxMillis = lagMaxMillis;
+    }
+
+    /**
+     * 队列中还没有被写线程取出的写操作个数
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    /**
+     * 与同一个批次中的其它写操作合并、没有单独执行的写操作个数
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * 已经提交的写操作个数（不包括被合并的）
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * 提交成功的事务个数
+     */
+    public long getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * 每个事务平均的写操作个数
+     */
+    public double getMeanBatchSize() {
+        return transactions == 0 ? 0 : (double) written / transactions;
+    }
+
+    /**
+     * 事务失败以后，逐个重试其中的写操作的次数
+     */
+    public long getRetriedBatches() {
+        return retriedBatches;
+    }
+
+    /**
+     * 因为队列已满，persist/merge 被阻塞的次数
+     */
+    public long getThrottled() {
+        return throttled;
+    }
+
+    public double getThrottledMillis() {
+        return throttledMillis;
+    }
+
+    /**
+     * 执行一个批次的时间，包括开启、提交事务
+     */
+    public double getCommitMeanMillis() {
+        return commitMeanMillis;
+    }
+
+    public double getCommitP99Millis() {
+        return commitP99Millis;
+    }
+
+    /**
+     * 从放入队列到提交的时间，即写操作只在内存中的时间
+     */
+    public double getLagMeanMillis() {
+        return lagMeanMillis;
+    }
+
+    public double getLagP99Millis() {
+        return lagP99Millis;
+    }
+
+    public double getLagMaxMillis() {
+        return lagMaxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindStatistics{" +
+                "queued=" + queued +
+                ", capacity=" + capacity +
+                ", enqueued=" + enqueued +
+                ", coalesced=" + coalesced +
+                ", written=" + written +
+                ", failed=" + failed +
+                ", transactions=" + transactions +
+                ", meanBatchSize=" + String.format("%.1f", getMeanBatchSize()) +
+                ", retriedBatches=" + retriedBatches +
+                ", throttled=" + throttled +
+                ", throttledTime=" + String.format("%.3f", throttledMillis) + "ms" +
+                ", commitMean=" + String.format("%.3f", commitMeanMillis) + "ms" +
+                ", commitP99=" + String.format("%.3f", commitP99Millis) + "ms" +
+                ", lagMean=" + String.format("%.3f", lagMeanMillis) + "ms" +
+                ", lagP99=" + String.format("%.3f", lagP99Millis) + "ms" +
+                ", lagMax=" + String.format("%.3f", lagMaxMillis) + "ms" +
+                '}';
+    }
+}
@@ -0,0 +1,122 @@
+package com.xt.jpa.bootstrap;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.ForeignKey;
+import org.hibernate.mapping.Index;
+import org.hibernate.mapping.SimpleValue;
+import org.hibernate.mapping.Table;
+import org.hibernate.mapping.UniqueKey;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * @author xt
+ * @date 2019/2/20 - 14:00
+ * @description 映射的表结构的摘要（SHA-256）
+ *
+ * 包括所有的表、列（类型、长度、精度、是否可以为空、是否唯一）、主键、外键、唯一约束和索引，
+ * 与数据库方言无关。摘要不变时 schema update 不会修改数据库，可以跳过（见 SchemaUpdateIntegrator）。
+ */
+public final class SchemaFingerprint {
+
+    private SchemaFingerprint() {
+    }
+
+    /**
+     * @param configuration 已经调用过 buildMappings 的配置
+     */
+    public static String of(Configuration configuration) {
+        List<String> tables = new ArrayList<>();
+        Iterator<Table> iterator = configuration.getTableMappings();
+        while (iterator.hasNext()) {
+            Table table = iterator.next();
+            if (table.isPhysicalTable()) {
+                tables.add(describe(table));
+            }
+        }
+        // 表的顺序与扫描类的顺序有关
+        Collections.sort(tables);
+
+        StringBuilder text = new StringBuilder();
+        for (String table : tables) {
+            text.append(table).append('\n');
+        }
+        return sha256(text.toString());
+    }
+
+    private static String describe(Table table) {
+        StringBuilder text = new StringBuilder();
+        text.append(table.getCatalog()).append('.').append(table.getSchema()).append('.').append(table.getName());
+
+        Iterator<?> columns = table.getColumnIterator();
+        while (columns.hasNext()) {
+            Column column = (Column) columns.next();
+            text.append("|").append(column.getName())
+                    .append(':').append(column.getValue() instanceof SimpleValue
+                            ? ((SimpleValue) column.getValue()).getTypeName() : null)
+                    .append(':').append(column.getSqlType())
+                    .append(':').append(column.getLength())
+                    .append(':').append(column.getPrecision())
+                    .append(':').append(column.getScale())
+                    .append(':').append(column.isNullable())
+                    .append(':').append(column.isUnique());
+        }
+        if (table.getPrimaryKey() != null) {
+            text.append("|pk").append(columnNames(table.getPrimaryKey().getColumnIterator()));
+        }
+
+        List<String> constraints = new ArrayList<>();
+        Iterator<?> foreignKeys = table.getForeignKeyIterator();
+        while (foreignKeys.hasNext()) {
+            ForeignKey foreignKey = (ForeignKey) foreignKeys.next();
+            constraints.add("fk:" + foreignKey.getName() + columnNames(foreignKey.getColumnIterator())
+                    + "->" + foreignKey.getReferencedEntityName());
+        }
+        Iterator<?> uniqueKeys = table.getUniqueKeyIterator();
+        while (uniqueKeys.hasNext()) {
+            UniqueKey uniqueKey = (UniqueKey) uniqueKeys.next();
+            constraints.add("uk:" + uniqueKey.getName() + columnNames(uniqueKey.getColumnIterator()));
+        }
+        Iterator<?> indexes = table.getIndexIterator();
+        while (indexes.hasNext()) {
+            Index index = (Index) indexes.next();
+            constraints.add("ix:" + index.getName() + columnNames(index.getColumnIterator()));
+        }
+        Collections.sort(constraints);
+        for (String constraint : constraints) {
+            text.append('|').append(constraint);
+        }
+        return text.toString();
+    }
+
+    private static String columnNames(Iterator<?> columns) {
+        StringBuilder names = new StringBuilder("(");
+        while (columns.hasNext()) {
+            names.append(((Column) columns.next()).getName());
+            if (columns.hasNext()) {
+                names.append(',');
+            }
+        }
+        return names.append(')').toString();
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.xt.jpa.bootstrap;
+
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+
+/**
+ * @author xt
+ * @date 2019/2/20 - 15:00
+ * @description 数据库中记录的表结构摘要：上一次 schema update 成功时的 SchemaFingerprint
+ *
+ * 使用 hibernate 的连接池（ConnectionProvider）访问数据库。
+ */
+class SchemaFingerprintTable {
+
+    static final String TABLE_NAME = "JPA_SCHEMA_FINGERPRINT";
+
+    private final ConnectionProvider connectionProvider;
+
+    SchemaFingerprintTable(ConnectionProvider connectionProvider) {
+        this.connectionProvider = connectionProvider;
+    }
+
+    /**
+     * @return 表不存在或者没有记录时返回 null
+     */
+    String read(String unitName) throws SQLException {
+        Connection connection = connectionProvider.getConnection();
+        try {
+            if (!exists(connection)) {
+                return null;
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "select FINGERPRINT from " + TABLE_NAME + " where UNIT_NAME = ?")) {
+                statement.setString(1, unitName);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getString(1) : null;
+                }
+            }
+        } finally {
+            connectionProvider.closeConnection(connection);
+        }
+    }
+
+    void write(String unitName, String fingerprint) throws SQLException {
+        Connection connection = connectionProvider.getConnection();
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            if (!exists(connection)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("create table " + TABLE_NAME + " (UNIT_NAME varchar(255) not null,"
+                            + " FINGERPRINT varchar(64) not null, primary key (UNIT_NAME))");
+                }
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement delete = connection.prepareStatement(
+                    "delete from " + TABLE_NAME + " where UNIT_NAME = ?");
+                 PreparedStatement insert = connection.prepareStatement(
+                         "insert into " + TABLE_NAME + " (UNIT_NAME, FINGERPRINT) values (?, ?)")) {
+                delete.setString(1, unitName);
+                delete.executeUpdate();
+                insert.setString(1, unitName);
+                insert.setString(2, fingerprint);
+                insert.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            connectionProvider.closeConnection(connection);
+        }
+    }
+
+    private static boolean exists(Connection connection) throws SQLException {
+        // 不同的数据库保存的表名大小写不同
+        for (String name : new String[]{TABLE_NAME, TABLE_NAME.toLowerCase(Locale.ROOT)}) {
+            try (ResultSet tables = connection.getMetaData().getTables(connection.getCatalog(), null, name, null)) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,87 @@
+package com.xt.jpa.bootstrap;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author xt
+ * @date 2019/2/20 - 15:30
+ * @description 映射的表结构没有变化时跳过 schema update，减少创建 EntityManagerFactory 的时间
+ *
+ * hibernate.hbm2ddl.auto=update 每次启动都要读取所有表的元数据。这里代替它：
+ * 数据库中记录了上一次 update 成功时的表结构摘要（SchemaFingerprint），摘要不变时不执行 update。
+ * 通过 META-INF/services/org.hibernate.integrator.spi.Integrator 被 hibernate 自动加载，
+ * 在创建 persister 之前执行，使用 hibernate 的连接池。
+ *
+ * 1. xt.schema.auto_update：为 true 时启用，默认 false；此时不要再配置 hibernate.hbm2ddl.auto；
+ * 2. 配置了 hibernate.hbm2ddl.auto（例如测试使用的 create-drop）时不执行，由 hibernate 负责；
+ * 3. update 出错时不记录摘要，下次启动时再执行；
+ * 4. 不经过映射直接修改了数据库（例如手工删除了列）时，摘要仍然不变，需要删除 JPA_SCHEMA_FINGERPRINT 中的记录。
+ */
+public class SchemaUpdateIntegrator implements Integrator {
+
+    public static final String AUTO_UPDATE = "xt.schema.auto_update";
+
+    private static final Logger LOG = Logger.getLogger(SchemaUpdateIntegrator.class);
+    private static final String PERSISTENCE_UNIT_NAME = "hibernate.ejb.persistenceUnitName";
+
+    @Override
+    public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        Map properties = sessionFactory.getProperties();
+        if (!ConfigurationHelper.getBoolean(AUTO_UPDATE, properties, false)) {
+            return;
+        }
+        if (ConfigurationHelper.getString(AvailableSettings.HBM2DDL_AUTO, properties) != null) {
+            LOG.infof("已经配置了 %s，忽略 %s", AvailableSettings.HBM2DDL_AUTO, AUTO_UPDATE);
+            return;
+        }
+        String unitName = ConfigurationHelper.getString(PERSISTENCE_UNIT_NAME, properties, "default");
+        String fingerprint = SchemaFingerprint.of(configuration);
+        SchemaFingerprintTable table = new SchemaFingerprintTable(serviceRegistry.getService(ConnectionProvider.class));
+        try {
+            if (fingerprint.equals(table.read(unitName))) {
+                LOG.debugf("表结构没有变化，跳过 schema update: %s", unitName);
+                return;
+            }
+        } catch (SQLException e) {
+            LOG.warnf(e, "无法读取 %s，执行 schema update", SchemaFingerprintTable.TABLE_NAME);
+        }
+
+        SchemaUpdate schemaUpdate = new SchemaUpdate(serviceRegistry, configuration);
+        schemaUpdate.execute(false, true);
+        List<?> exceptions = schemaUpdate.getExceptions();
+        if (!exceptions.isEmpty()) {
+            // 出错的语句已经由 SchemaUpdate 输出
+            LOG.warnf("schema update 有 %d 个语句执行失败，下次启动时重新执行", exceptions.size());
+            return;
+        }
+        try {
+            table.write(unitName, fingerprint);
+        } catch (SQLException e) {
+            LOG.warnf(e, "无法写入 %s，下次启动时重新执行 schema update", SchemaFingerprintTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        // 新的 metamodel 在 hibernate 4.2 中尚未启用
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
@@ -0,0 +1,75 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.access.RegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 16:40
+ * @description RegionAccessStrategy 的公共部分，全部委托给 AccessPolicy
+ */
+abstract class AbstractLocalAccessStrategy implements RegionAccessStrategy {
+
+    protected final AccessPolicy policy;
+
+    protected AbstractLocalAccessStrategy(AccessPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public Object get(Object key, long txTimestamp) throws CacheException {
+        return policy.get(key, txTimestamp);
+    }
+
+    @Override
+    public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version) throws CacheException {
+        return policy.putFromLoad(key, value, txTimestamp, version, false);
+    }
+
+    @Override
+    public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version,
+                               boolean minimalPutOverride) throws CacheException {
+        return policy.putFromLoad(key, value, txTimestamp, version, minimalPutOverride);
+    }
+
+    @Override
+    public SoftLock lockItem(Object key, Object version) throws CacheException {
+        return policy.lockItem(key, version);
+    }
+
+    @Override
+    public SoftLock lockRegion() throws CacheException {
+        return policy.lockRegion();
+    }
+
+    @Override
+    public void unlockItem(Object key, SoftLock lock) throws CacheException {
+        policy.unlockItem(key, lock);
+    }
+
+    @Override
+    public void unlockRegion(SoftLock lock) throws CacheException {
+        policy.unlockRegion(lock);
+    }
+
+    @Override
+    public void remove(Object key) throws CacheException {
+        policy.remove(key);
+    }
+
+    @Override
+    public void removeAll() throws CacheException {
+        policy.removeAll();
+    }
+
+    @Override
+    public void evict(Object key) throws CacheException {
+        policy.evict(key);
+    }
+
+    @Override
+    public void evictAll() throws CacheException {
+        policy.evictAll();
+    }
+}
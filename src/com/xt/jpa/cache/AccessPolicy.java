@@ -0,0 +1,60 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 15:20
+ * @description 缓存的并发访问策略
+ *
+ * 实体、集合、自然主键的 RegionAccessStrategy 都委托给 AccessPolicy，
+ * 不同的并发访问策略（read-only、read-write、nonstrict-read-write）只需要实现一次。
+ */
+abstract class AccessPolicy {
+
+    protected final LocalTransactionalRegion region;
+    protected final BoundedCache cache;
+
+    protected AccessPolicy(LocalTransactionalRegion region) {
+        this.region = region;
+        this.cache = region.cache;
+    }
+
+    abstract Object get(Object key, long txTimestamp);
+
+    abstract boolean putFromLoad(Object key, Object value, long txTimestamp, Object version, boolean minimalPutOverride);
+
+    abstract SoftLock lockItem(Object key, Object version);
+
+    abstract void unlockItem(Object key, SoftLock lock);
+
+    abstract boolean insert(Object key, Object value, Object version);
+
+    abstract boolean afterInsert(Object key, Object value, Object version);
+
+    abstract boolean update(Object key, Object value, Object currentVersion, Object previousVersion);
+
+    abstract boolean afterUpdate(Object key, Object value, Object currentVersion, Object previousVersion, SoftLock lock);
+
+    abstract void remove(Object key);
+
+    SoftLock lockRegion() {
+        return null;
+    }
+
+    void unlockRegion(SoftLock lock) {
+        cache.clear();
+    }
+
+    void removeAll() {
+        cache.clear();
+    }
+
+    void evict(Object key) {
+        cache.remove(key);
+    }
+
+    void evictAll() {
+        cache.clear();
+    }
+}
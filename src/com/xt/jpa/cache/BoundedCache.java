@@ -0,0 +1,198 @@
+package com.xt.jpa.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 14:40
+ * @description 有容量上限、支持存活时间的内存缓存
+ *
+ * 1. 条目按访问顺序保存在 LinkedHashMap 中，超出容量时淘汰最近最少使用的条目。
+ * 2. 淘汰策略为 W-TinyLFU 时，新条目先进入容量为 1% 的窗口区域，被挤出窗口的条目
+ *    只有在访问频率高于主区域中将被淘汰的条目时才能进入主区域。
+ * 3. 过期的条目在被访问时移除。
+ * 所有方法都使用同一把锁，是线程安全的。
+ */
+class BoundedCache {
+
+    private final String name;
+    private final long ttlMillis;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final FrequencySketch sketch;
+
+    private final LinkedHashMap<Object, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Object, Entry> main = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long puts;
+    private long evictions;
+    private long expirations;
+
+    BoundedCache(String name, RegionSettings settings) {
+        this.name = name;
+        this.ttlMillis = settings.getTtlMillis();
+
+        int maxEntries = settings.getMaxEntries();
+        if (maxEntries == 0) {
+            this.windowCapacity = Integer.MAX_VALUE;
+            this.mainCapacity = 0;
+            this.sketch = null;
+        } else if (settings.getEvictionPolicy() == EvictionPolicy.LRU || maxEntries < 100) {
+            this.windowCapacity = maxEntries;
+            this.mainCapacity = 0;
+            this.sketch = null;
+        } else {
+            this.windowCapacity = Math.max(1, maxEntries / 100);
+            this.mainCapacity = maxEntries - windowCapacity;
+            this.sketch = new FrequencySketch(maxEntries);
+        }
+    }
+
+    synchronized Object get(Object key) {
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+        Entry entry = window.get(key);
+        if (entry == null) {
+            entry = main.get(key);
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.isExpired()) {
+            window.remove(key);
+            main.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * 条目存在但不可读（例如被软锁锁定）时，把上一次 get 记为未命中
+     */
+    synchronized void markMiss() {
+        hits--;
+        misses++;
+    }
+
+    /**
+     * 读取条目，但不计入统计信息和访问频率，供并发访问策略内部使用
+     */
+    synchronized Object peek(Object key) {
+        Entry entry = window.get(key);
+        if (entry == null) {
+            entry = main.get(key);
+        }
+        return entry == null || entry.isExpired() ? null : entry.value;
+    }
+
+    synchronized boolean containsKey(Object key) {
+        Entry entry = window.get(key);
+        if (entry == null) {
+            entry = main.get(key);
+        }
+        return entry != null && !entry.isExpired();
+    }
+
+    synchronized void put(Object key, Object value) {
+        puts++;
+        Entry entry = new Entry(value, ttlMillis == 0 ? 0 : System.currentTimeMillis() + ttlMillis);
+
+        // 已经存在的条目原地更新
+        if (main.containsKey(key)) {
+            main.put(key, entry);
+            return;
+        }
+        if (window.put(key, entry) != null) {
+            return;
+        }
+
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+        if (window.size() > windowCapacity) {
+            Map.Entry<Object, Entry> candidate = removeEldest(window);
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    /**
+     * 被挤出窗口区域的条目尝试进入主区域
+     */
+    private void admit(Object key, Entry entry) {
+        if (main.size() < mainCapacity) {
+            main.put(key, entry);
+            return;
+        }
+        if (main.isEmpty()) {
+            evictions++;
+            return;
+        }
+        Object victimKey = main.keySet().iterator().next();
+        if (sketch.frequency(key) > sketch.frequency(victimKey)) {
+            main.remove(victimKey);
+            main.put(key, entry);
+        }
+        evictions++;
+    }
+
+    private static Map.Entry<Object, Entry> removeEldest(LinkedHashMap<Object, Entry> map) {
+        Iterator<Map.Entry<Object, Entry>> iterator = map.entrySet().iterator();
+        Map.Entry<Object, Entry> eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    synchronized void remove(Object key) {
+        if (window.remove(key) == null) {
+            main.remove(key);
+        }
+    }
+
+    synchronized void clear() {
+        window.clear();
+        main.clear();
+    }
+
+    synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    synchronized Map<Object, Object> toMap() {
+        Map<Object, Object> map = new HashMap<>();
+        for (Map.Entry<Object, Entry> entry : window.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().value);
+        }
+        for (Map.Entry<Object, Entry> entry : main.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().value);
+        }
+        return map;
+    }
+
+    synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(name, size(), hits, misses, puts, evictions, expirations);
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long expiresAt;
+
+        Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return expiresAt != 0 && System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
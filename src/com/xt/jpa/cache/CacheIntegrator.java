@@ -0,0 +1,137 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.ManyToOne;
+import org.hibernate.mapping.OneToMany;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.mapping.Value;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 11:00
+ * @description 注册 InverseCollectionCacheInvalidator 和 QueryCacheInvalidator，把 SessionFactory 绑定到 LocalRegionFactory
+ *
+ * 通过 META-INF/services/org.hibernate.integrator.spi.Integrator 被 hibernate 自动加载。
+ * 根据映射信息找出所有使用了二级缓存的 mappedBy 集合：
+ * 1. 1-n：n 的一端中外键列与集合的外键列相同的 @ManyToOne 属性即为维护关联关系的属性；
+ * 2. n-n：与集合使用同一张中间表、并且维护关联关系的集合即为维护关联关系的一方。
+ * 查询缓存使用 DependencyTrackingQueryCacheFactory 时，注册 QueryCacheInvalidator。
+ */
+public class CacheIntegrator implements Integrator {
+
+    @Override
+    public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        if (!sessionFactory.getSettings().isSecondLevelCacheEnabled()) {
+            return;
+        }
+        RegionFactory regionFactory = sessionFactory.getSettings().getRegionFactory();
+        if (regionFactory instanceof LocalRegionFactory) {
+            ((LocalRegionFactory) regionFactory).setSessionFactory(sessionFactory);
+        }
+        EventListenerRegistry registry = serviceRegistry.getService(EventListenerRegistry.class);
+
+        DependencyTrackingQueryCacheFactory queryCacheFactory = DependencyTrackingQueryCacheFactory.of(sessionFactory);
+        if (queryCacheFactory != null) {
+            QueryCacheInvalidator queryCacheInvalidator = new QueryCacheInvalidator(queryCacheFactory);
+            registry.appendListeners(EventType.POST_INSERT, queryCacheInvalidator);
+            registry.appendListeners(EventType.POST_UPDATE, queryCacheInvalidator);
+            registry.appendListeners(EventType.POST_DELETE, queryCacheInvalidator);
+            registry.appendListeners(EventType.POST_COLLECTION_RECREATE, queryCacheInvalidator);
+            registry.appendListeners(EventType.POST_COLLECTION_UPDATE, queryCacheInvalidator);
+            registry.appendListeners(EventType.POST_COLLECTION_REMOVE, queryCacheInvalidator);
+        }
+
+        InverseCollectionCacheInvalidator invalidator = new InverseCollectionCacheInvalidator(sessionFactory.getCache());
+
+        Iterator<?> collections = configuration.getCollectionMappings();
+        while (collections.hasNext()) {
+            Collection collection = (Collection) collections.next();
+            if (!collection.isInverse() || collection.getCacheConcurrencyStrategy() == null) {
+                continue;
+            }
+            if (collection.isOneToMany()) {
+                registerOneToMany(configuration, collection, invalidator);
+            } else {
+                registerManyToMany(configuration, collection, invalidator);
+            }
+        }
+
+        if (invalidator.isEmpty()) {
+            return;
+        }
+        registry.appendListeners(EventType.POST_INSERT, invalidator);
+        registry.appendListeners(EventType.POST_UPDATE, invalidator);
+        registry.appendListeners(EventType.POST_DELETE, invalidator);
+        registry.appendListeners(EventType.POST_COLLECTION_RECREATE, invalidator);
+        registry.appendListeners(EventType.POST_COLLECTION_UPDATE, invalidator);
+        registry.appendListeners(EventType.POST_COLLECTION_REMOVE, invalidator);
+    }
+
+    private void registerOneToMany(Configuration configuration, Collection collection,
+                                   InverseCollectionCacheInvalidator invalidator) {
+        String elementEntityName = ((OneToMany) collection.getElement()).getReferencedEntityName();
+        PersistentClass element = configuration.getClassMapping(elementEntityName);
+        List<String> keyColumns = columnNames(collection.getKey());
+
+        Iterator<?> properties = element.getPropertyClosureIterator();
+        while (properties.hasNext()) {
+            Property property = (Property) properties.next();
+            if (property.getValue() instanceof ManyToOne && columnNames(property.getValue()).equals(keyColumns)) {
+                invalidator.addOneToMany(elementEntityName, property.getName(), collection.getRole(),
+                        collection.getOwnerEntityName());
+                return;
+            }
+        }
+    }
+
+    private void registerManyToMany(Configuration configuration, Collection collection,
+                                    InverseCollectionCacheInvalidator invalidator) {
+        Iterator<?> collections = configuration.getCollectionMappings();
+        while (collections.hasNext()) {
+            Collection owning = (Collection) collections.next();
+            if (!owning.isInverse() && !owning.isOneToMany()
+                    && owning.getCollectionTable() == collection.getCollectionTable()) {
+                invalidator.addManyToMany(owning.getRole(), collection.getRole(),
+                        ((ManyToOne) owning.getElement()).getReferencedEntityName());
+                return;
+            }
+        }
+    }
+
+    private static List<String> columnNames(Value value) {
+        List<String> names = new ArrayList<>();
+        Iterator<?> columns = value.getColumnIterator();
+        while (columns.hasNext()) {
+            Object column = columns.next();
+            if (column instanceof Column) {
+                names.add(((Column) column).getName());
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        // 新的 metamodel 在 hibernate 4.2 中尚未启用
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
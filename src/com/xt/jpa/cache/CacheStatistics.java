@@ -0,0 +1,81 @@
+package com.xt.jpa.cache;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 14:30
+ * @description 缓存区域的统计信息（快照）
+ */
+public class CacheStatistics {
+
+    private final String regionName;
+    private final long size;
+    private final long hits;
+    private final long misses;
+    private final long puts;
+    private final long evictions;
+    private final long expirations;
+
+    public CacheStatistics(String regionName, long size, long hits, long misses, long puts,
+                           long evictions, long expirations) {
+        this.regionName = regionName;
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.puts = puts;
+        this.evictions = evictions;
+        this.expirations = expirations;
+    }
+
+    public String getRegionName() {
+        return regionName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getPuts() {
+        return puts;
+    }
+
+    /**
+     * 因为容量不足被淘汰的条目数
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * 因为超过存活时间被移除的条目数
+     */
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{" +
+                "regionName='" + regionName + '\'' +
+                ", size=" + size +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", puts=" + puts +
+                ", evictions=" + evictions +
+                ", expirations=" + expirations +
+                ", hitRatio=" + String.format("%.3f", getHitRatio()) +
+                '}';
+    }
+}
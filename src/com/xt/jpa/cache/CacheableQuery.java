@@ -0,0 +1,61 @@
+package com.xt.jpa.cache;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 16:10
+ * @description 当前线程正在执行的可缓存 JPQL 查询
+ *
+ * QueryKey 没有提供访问 SQL 和分页参数的方法，由 DependencyTrackingQueryTranslatorFactory 在执行查询期间设置，
+ * DependencyTrackingQueryCache 据此得到该查询的 SQL 及其解析结果。
+ * 本地 SQL 和 Criteria 查询不经过 JPQL 的翻译器，执行期间没有设置，其依赖关系无法分析。
+ */
+final class CacheableQuery {
+
+    private static final ThreadLocal<CacheableQuery> CURRENT = new ThreadLocal<>();
+
+    private final String sql;
+    private final QueryDependency.SqlShape shape;
+    private final boolean firstPage;
+
+    private CacheableQuery(String sql, QueryDependency.SqlShape shape, boolean firstPage) {
+        this.sql = sql;
+        this.shape = shape;
+        this.firstPage = firstPage;
+    }
+
+    /**
+     * @return 之前正在执行的查询，执行结束后传给 end
+     */
+    static CacheableQuery begin(String sql, QueryDependency.SqlShape shape, boolean firstPage) {
+        CacheableQuery previous = CURRENT.get();
+        CURRENT.set(new CacheableQuery(sql, shape, firstPage));
+        return previous;
+    }
+
+    static void end(CacheableQuery previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return 当前线程没有在执行 JPQL 查询时返回 null
+     */
+    static CacheableQuery current() {
+        return CURRENT.get();
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    QueryDependency.SqlShape getShape() {
+        return shape;
+    }
+
+    boolean isFirstPage() {
+        return firstPage;
+    }
+}
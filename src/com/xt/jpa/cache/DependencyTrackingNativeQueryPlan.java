@@ -0,0 +1,44 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.engine.query.spi.NativeSQLQueryPlan;
+import org.hibernate.engine.query.spi.sql.NativeSQLQuerySpecification;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 16:40
+ * @description 把本地 SQL 的 update/delete 通知给 DependencyTrackingQueryCache，由 InstrumentedQueryPlanCache 创建
+ *
+ * 本地 SQL 无法得知修改了哪些行和列，按修改了整张表处理：
+ * 查询空间（SQLQuery.addSynchronizedQuerySpace 等）中的表，没有指定时为所有的表，与 hibernate 清除二级缓存的范围相同。
+ */
+public class DependencyTrackingNativeQueryPlan extends NativeSQLQueryPlan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient DependencyTrackingQueryCacheFactory queryCacheFactory;
+
+    public DependencyTrackingNativeQueryPlan(NativeSQLQuerySpecification specification,
+                                             SessionFactoryImplementor factory,
+                                             DependencyTrackingQueryCacheFactory queryCacheFactory) {
+        super(specification, factory);
+        this.queryCacheFactory = queryCacheFactory;
+    }
+
+    /**
+     * 只在执行 update/delete 之前被调用
+     */
+    @Override
+    protected void coordinateSharedCacheCleanup(SessionImplementor session) {
+        super.coordinateSharedCacheCleanup(session);
+        Set<String> spaces = new HashSet<>();
+        for (Object space : getCustomQuery().getQuerySpaces()) {
+            spaces.add(space.toString());
+        }
+        queryCacheFactory.publishNativeUpdate(session, spaces);
+    }
+}
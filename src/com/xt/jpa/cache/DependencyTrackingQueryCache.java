@@ -0,0 +1,342 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.HibernateException;
+import org.hibernate.UnresolvableObjectException;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.QueryCache;
+import org.hibernate.cache.spi.QueryKey;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.type.Type;
+import org.hibernate.type.TypeHelper;
+
+import javax.persistence.EntityNotFoundException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 15:00
+ * @description 按依赖关系失效的查询缓存
+ *
+ * hibernate 的 StandardQueryCache 使用 UpdateTimestampsCache：表中的任何一行被修改，
+ * 所有查询过该表的缓存条目都会失效。这里为每个条目记录它依赖的表、列和实体 ID（见 QueryDependency），
+ * 数据被修改时（见 TableChange）只移除可能受影响的条目。例如缓存了 from Customer where age > ? 之后，
+ * update Customer c set c.lastName = ?1 where c.id = ?2 不会使其失效。
+ *
+ * 1. 数据修改由 QueryCacheInvalidator（实体和集合的修改）、
+ *    DependencyTrackingQueryTranslatorFactory（JPQL 的 update/delete）和
+ *    DependencyTrackingNativeQueryPlan（本地 SQL 的 update/delete，按修改了整张表处理）通知，
+ *    flush 时和事务结束后各通知一次。
+ * 2. 最近的修改记录在 recentChanges 中：会话开始之后发生了影响该条目的修改时，
+ *    查询结果可能是旧的数据，不放入缓存。
+ * 3. 条目对应的 SQL 由 DependencyTrackingQueryTranslatorFactory 在执行 JPQL 查询期间提供（见 CacheableQuery）。
+ *    本地 SQL 和 Criteria 查询的依赖关系无法分析，与 StandardQueryCache 一样，
+ *    按 UpdateTimestampsCache 中查询空间的修改时间判断条目是否过期；
+ *    没有通知本地 SQL 修改的配置下（见 DependencyTrackingQueryCacheFactory），所有的条目都这样判断。
+ */
+public class DependencyTrackingQueryCache implements QueryCache {
+
+    /**
+     * 保留的最近修改记录的个数
+     */
+    private static final int MAX_RECENT_CHANGES = 1024;
+
+    /**
+     * 分别统计命中率的查询语句的个数上限，超出后计入 OTHER_QUERIES
+     */
+    private static final int MAX_COUNTED_QUERIES = 1000;
+    private static final String OTHER_QUERIES = "<other>";
+    /**
+     * 本地 SQL 和 Criteria 查询合并统计
+     */
+    private static final String UNANALYZED_QUERIES = "<native SQL/criteria>";
+
+    private final QueryResultsRegion region;
+    private final int maxTracked;
+    private final UpdateTimestampsCache updateTimestampsCache;
+    private final DependencyTrackingQueryCacheFactory queryCacheFactory;
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * 以下字段由 this 保护
+     */
+    private final LinkedHashMap<QueryKey, Tracked> tracked = new LinkedHashMap<>();
+    private final Map<String, Set<QueryKey>> keysByTable = new HashMap<>();
+    private final ArrayDeque<TableChange> recentChanges = new ArrayDeque<>();
+    private long forgottenBefore;
+
+    /**
+     * @param maxTracked 记录依赖关系的条目数上限，为 0 时不限制
+     */
+    public DependencyTrackingQueryCache(QueryResultsRegion region, int maxTracked,
+                                        UpdateTimestampsCache updateTimestampsCache,
+                                        DependencyTrackingQueryCacheFactory queryCacheFactory) {
+        this.region = region;
+        this.maxTracked = maxTracked;
+        this.updateTimestampsCache = updateTimestampsCache;
+        this.queryCacheFactory = queryCacheFactory;
+    }
+
+    @Override
+    public boolean put(QueryKey key, Type[] returnTypes, List result, boolean isNaturalKeyLookup,
+                       SessionImplementor session) throws HibernateException {
+        if (isNaturalKeyLookup && result.isEmpty()) {
+            return false;
+        }
+
+        List<Serializable> rows = new ArrayList<>(result.size());
+        for (Object row : result) {
+            if (returnTypes.length == 1) {
+                rows.add(returnTypes[0].disassemble(row, session, null));
+            } else {
+                rows.add(TypeHelper.disassemble((Object[]) row, returnTypes, null, session, null));
+            }
+        }
+
+        CacheableQuery query = CacheableQuery.current();
+        String sql = query == null ? UNANALYZED_QUERIES : query.getSql();
+        QueryDependency dependency = query == null ? null : QueryDependency.of(query.getShape(), returnTypes, rows,
+                query.isFirstPage(), session.getFactory());
+
+        synchronized (this) {
+            if (dependency != null && isStale(dependency, session.getTimestamp())) {
+                return false;
+            }
+            untrack(key);
+            track(key, new Tracked(sql, dependency, session.getTimestamp()));
+            region.put(key, rows);
+        }
+        counterOf(sql).puts.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public List get(QueryKey key, Type[] returnTypes, boolean isNaturalKeyLookup, Set spaces,
+                    SessionImplementor session) throws HibernateException {
+        Tracked entry = trackedEntry(key);
+        CacheableQuery query = CacheableQuery.current();
+        Counter counter = counterOf(entry != null ? entry.sql : query != null ? query.getSql() : UNANALYZED_QUERIES);
+        List cached = (List) region.get(key);
+        if (cached == null || entry == null) {
+            counter.misses.incrementAndGet();
+            return null;
+        }
+        if ((entry.dependency == null || !queryCacheFactory.isTrackingNativeUpdates())
+                && !updateTimestampsCache.isUpToDate(spaces, entry.timestamp)) {
+            // 无法分析依赖关系：查询空间在放入缓存之后被修改过
+            synchronized (this) {
+                untrack(key);
+                region.evict(key);
+            }
+            counter.invalidations.incrementAndGet();
+            counter.misses.incrementAndGet();
+            return null;
+        }
+
+        boolean singleResult = returnTypes.length == 1;
+        for (Object row : cached) {
+            if (singleResult) {
+                returnTypes[0].beforeAssemble((Serializable) row, session);
+            } else {
+                TypeHelper.beforeAssemble((Serializable[]) row, returnTypes, session);
+            }
+        }
+        List<Object> result = new ArrayList<>(cached.size());
+        try {
+            for (Object row : cached) {
+                if (singleResult) {
+                    result.add(returnTypes[0].assemble((Serializable) row, session, null));
+                } else {
+                    result.add(TypeHelper.assemble((Serializable[]) row, returnTypes, session, null));
+                }
+            }
+        } catch (UnresolvableObjectException | EntityNotFoundException e) {
+            // 结果中的实体已经被删除
+            synchronized (this) {
+                untrack(key);
+                region.evict(key);
+            }
+            counter.misses.incrementAndGet();
+            return null;
+        }
+        counter.hits.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * 数据被修改：移除可能受影响的条目，并记录该修改
+     */
+    synchronized void invalidate(TableChange change) {
+        Set<QueryKey> candidates = new HashSet<>();
+        for (String table : change.getTables()) {
+            Set<QueryKey> keys = keysByTable.get(table);
+            if (keys != null) {
+                candidates.addAll(keys);
+            }
+        }
+        for (QueryKey key : candidates) {
+            Tracked entry = tracked.get(key);
+            if (change.affects(entry.dependency)) {
+                untrack(key);
+                region.evict(key);
+                counterOf(entry.sql).invalidations.incrementAndGet();
+            }
+        }
+
+        recentChanges.addLast(change);
+        if (recentChanges.size() > MAX_RECENT_CHANGES) {
+            forgottenBefore = recentChanges.removeFirst().getTimestamp();
+        }
+    }
+
+    /**
+     * 会话开始之后是否有影响该条目的修改
+     */
+    private boolean isStale(QueryDependency dependency, long sessionTimestamp) {
+        if (sessionTimestamp < forgottenBefore) {
+            return true;
+        }
+        Iterator<TableChange> changes = recentChanges.descendingIterator();
+        while (changes.hasNext()) {
+            TableChange change = changes.next();
+            if (change.getTimestamp() < sessionTimestamp) {
+                break;
+            }
+            if (change.affects(dependency)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized Tracked trackedEntry(QueryKey key) {
+        return tracked.get(key);
+    }
+
+    private void track(QueryKey key, Tracked entry) {
+        tracked.put(key, entry);
+        if (entry.dependency == null) {
+            return;
+        }
+        for (String table : entry.dependency.getTables()) {
+            Set<QueryKey> keys = keysByTable.get(table);
+            if (keys == null) {
+                keys = new HashSet<>();
+                keysByTable.put(table, keys);
+            }
+            keys.add(key);
+        }
+        if (maxTracked > 0 && tracked.size() > maxTracked) {
+            QueryKey eldest = tracked.keySet().iterator().next();
+            untrack(eldest);
+            region.evict(eldest);
+        }
+    }
+
+    private void untrack(QueryKey key) {
+        Tracked entry = tracked.remove(key);
+        if (entry == null || entry.dependency == null) {
+            return;
+        }
+        for (String table : entry.dependency.getTables()) {
+            Set<QueryKey> keys = keysByTable.get(table);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                keysByTable.remove(table);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void clear() throws CacheException {
+        region.evictAll();
+        tracked.clear();
+        keysByTable.clear();
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            region.destroy();
+        } catch (Exception e) {
+            // 关闭 SessionFactory 时忽略
+        }
+    }
+
+    @Override
+    public QueryResultsRegion getRegion() {
+        return region;
+    }
+
+    /**
+     * 每条查询语句的统计信息，按请求次数从多到少排列
+     */
+    public List<QueryStatistics> getStatistics() {
+        List<QueryStatistics> statistics = new ArrayList<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            statistics.add(new QueryStatistics(entry.getKey(), counter.hits.get(), counter.misses.get(),
+                    counter.puts.get(), counter.invalidations.get()));
+        }
+        Collections.sort(statistics, new Comparator<QueryStatistics>() {
+            @Override
+            public int compare(QueryStatistics a, QueryStatistics b) {
+                return Long.compare(b.getHits() + b.getMisses(), a.getHits() + a.getMisses());
+            }
+        });
+        return statistics;
+    }
+
+    private Counter counterOf(String sql) {
+        Counter counter = counters.get(sql);
+        if (counter != null) {
+            return counter;
+        }
+        if (counters.size() >= MAX_COUNTED_QUERIES) {
+            sql = OTHER_QUERIES;
+        }
+        counter = new Counter();
+        Counter previous = counters.putIfAbsent(sql, counter);
+        return previous == null ? counter : previous;
+    }
+
+    private static final class Tracked {
+        private final String sql;
+        /**
+         * 为 null 时表示无法分析依赖关系
+         */
+        private final QueryDependency dependency;
+        /**
+         * 放入缓存的会话的开始时间
+         */
+        private final long timestamp;
+
+        Tracked(String sql, QueryDependency dependency, long timestamp) {
+            this.sql = sql;
+            this.dependency = dependency;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static final class Counter {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong puts = new AtomicLong();
+        private final AtomicLong invalidations = new AtomicLong();
+    }
+}
@@ -0,0 +1,213 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.HibernateException;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.internal.StandardQueryCache;
+import org.hibernate.cache.spi.QueryCache;
+import org.hibernate.cache.spi.QueryCacheFactory;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.cfg.Settings;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 15:40
+ * @description 创建 DependencyTrackingQueryCache，并把数据修改通知给所有的查询缓存
+ *
+ * 在 persistence.xml 中配置：
+ *    hibernate.cache.query_cache_factory = com.xt.jpa.cache.DependencyTrackingQueryCacheFactory
+ *    hibernate.query.factory_class = com.xt.jpa.cache.DependencyTrackingQueryTranslatorFactory
+ * 查询缓存区域的容量等配置见 RegionSettings，区域名为 org.hibernate.cache.internal.StandardQueryCache。
+ *
+ * 本地 SQL 的 update/delete 由 InstrumentedQueryPlanCache 创建的 DependencyTrackingNativeQueryPlan 通知，
+ * 按修改了其查询空间（没有指定时为所有的表）中所有的列处理。没有替换查询计划缓存时（xt.query.plan_cache.enabled=false）
+ * 无法得知本地 SQL 的修改，查询缓存按 UpdateTimestampsCache 判断条目是否过期，与 StandardQueryCache 相同。
+ */
+public class DependencyTrackingQueryCacheFactory implements QueryCacheFactory {
+
+    /**
+     * 不经过 hibernate 删除的行超过该数量时，按修改了表中所有的列处理，而不是逐个 id 通知
+     */
+    private static final int MAX_TRACKED_DELETES = 64;
+
+    private final List<DependencyTrackingQueryCache> caches = new CopyOnWriteArrayList<>();
+    private volatile RegionFactory regionFactory;
+    private volatile Set<String> knownTables;
+    private volatile boolean nativeUpdatesTracked;
+
+    /**
+     * 获取 EntityManagerFactory 使用的 DependencyTrackingQueryCacheFactory，用于查看查询缓存的统计信息
+     */
+    public static DependencyTrackingQueryCacheFactory of(EntityManagerFactory entityManagerFactory) {
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor)
+                ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+        DependencyTrackingQueryCacheFactory factory = of(sessionFactory);
+        if (factory == null) {
+            throw new IllegalStateException("查询缓存没有使用 DependencyTrackingQueryCacheFactory: "
+                    + sessionFactory.getSettings().getQueryCacheFactory());
+        }
+        return factory;
+    }
+
+    /**
+     * @return 没有启用查询缓存或者没有使用 DependencyTrackingQueryCacheFactory 时返回 null
+     */
+    public static DependencyTrackingQueryCacheFactory of(SessionFactoryImplementor sessionFactory) {
+        Settings settings = sessionFactory.getSettings();
+        QueryCacheFactory factory = settings.getQueryCacheFactory();
+        if (!settings.isQueryCacheEnabled() || !(factory instanceof DependencyTrackingQueryCacheFactory)) {
+            return null;
+        }
+        return (DependencyTrackingQueryCacheFactory) factory;
+    }
+
+    @Override
+    public QueryCache getQueryCache(String regionName, UpdateTimestampsCache updateTimestampsCache, Settings settings,
+                                    Properties props) throws HibernateException {
+        // 与 StandardQueryCache 相同：默认区域名为 StandardQueryCache 的类名，并加上 hibernate.cache.region_prefix
+        if (regionName == null) {
+            regionName = StandardQueryCache.class.getName();
+        }
+        String prefix = settings.getCacheRegionPrefix();
+        if (prefix != null) {
+            regionName = prefix + '.' + regionName;
+        }
+        int maxEntries;
+        try {
+            maxEntries = RegionSettings.forRegion(regionName, props).getMaxEntries();
+        } catch (IllegalArgumentException e) {
+            throw new CacheException("缓存区域 " + regionName + " 的配置有误", e);
+        }
+
+        regionFactory = settings.getRegionFactory();
+        QueryResultsRegion region = regionFactory.buildQueryResultsRegion(regionName, props);
+        DependencyTrackingQueryCache cache = new DependencyTrackingQueryCache(region, maxEntries, updateTimestampsCache,
+                this);
+        caches.add(cache);
+        return cache;
+    }
+
+    /**
+     * 通知数据修改：立即使受影响的条目失效，事务结束后再通知一次，
+     * 移除其他事务在此期间放入缓存的、可能是旧数据的条目。
+     */
+    void publish(EventSource session, final TableChange change) {
+        invalidate(change);
+        session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+            @Override
+            public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+                invalidate(change);
+            }
+        });
+    }
+
+    /**
+     * 通知不经过 hibernate 执行的 update 语句（例如 BulkOperations），columns 为 null 表示所有的列
+     */
+    public void publishUpdate(EventSource session, Collection<String> tables, Collection<String> columns) {
+        publish(session, TableChange.update(tables, columns));
+    }
+
+    /**
+     * 通知不经过 hibernate 执行的 delete 语句
+     */
+    public void publishDelete(EventSource session, Collection<String> tables, String rootEntityName,
+                              Collection<? extends Serializable> ids) {
+        if (ids.size() > MAX_TRACKED_DELETES) {
+            publish(session, TableChange.update(tables, null));
+            return;
+        }
+        for (Serializable id : ids) {
+            publish(session, TableChange.delete(tables, rootEntityName, id));
+        }
+    }
+
+    /**
+     * 通知本地 SQL 的 update/delete/insert：不知道修改了哪些行和列
+     *
+     * @param querySpaces 本地查询指定的查询空间，为空时表示可能修改了所有的表
+     */
+    void publishNativeUpdate(SessionImplementor session, Set<String> querySpaces) {
+        TableChange change = TableChange.rowsAdded(querySpaces.isEmpty()
+                ? knownTables(session.getFactory()) : querySpaces);
+        if (session instanceof EventSource) {
+            publish((EventSource) session, change);
+        } else {
+            // StatelessSession 没有 ActionQueue
+            invalidate(change);
+        }
+    }
+
+    /**
+     * 由 InstrumentedQueryPlanCache 调用：本地 SQL 的修改会通知到查询缓存
+     */
+    public void trackNativeUpdates() {
+        nativeUpdatesTracked = true;
+    }
+
+    boolean isTrackingNativeUpdates() {
+        return nativeUpdatesTracked;
+    }
+
+    /**
+     * 所有实体和集合映射到的表，小写
+     */
+    Set<String> knownTables(SessionFactoryImplementor factory) {
+        Set<String> tables = knownTables;
+        if (tables == null) {
+            tables = new HashSet<>();
+            for (EntityPersister persister : factory.getEntityPersisters().values()) {
+                for (Serializable space : persister.getQuerySpaces()) {
+                    tables.add(space.toString().toLowerCase(Locale.ROOT));
+                }
+            }
+            for (CollectionPersister persister : factory.getCollectionPersisters().values()) {
+                for (Serializable space : persister.getCollectionSpaces()) {
+                    tables.add(space.toString().toLowerCase(Locale.ROOT));
+                }
+            }
+            knownTables = tables;
+        }
+        return tables;
+    }
+
+    private void invalidate(TableChange change) {
+        if (caches.isEmpty()) {
+            return;
+        }
+        TableChange stamped = change.at(regionFactory.nextTimestamp());
+        for (DependencyTrackingQueryCache cache : caches) {
+            cache.invalidate(stamped);
+        }
+    }
+
+    /**
+     * 所有查询缓存区域中每条查询语句的统计信息
+     */
+    public List<QueryStatistics> getStatistics() {
+        List<QueryStatistics> statistics = new ArrayList<>();
+        for (DependencyTrackingQueryCache cache : caches) {
+            statistics.addAll(cache.getStatistics());
+        }
+        return statistics;
+    }
+}
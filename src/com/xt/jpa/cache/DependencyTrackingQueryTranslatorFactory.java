@@ -0,0 +1,108 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.RowSelection;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.hql.internal.ast.ASTQueryTranslatorFactory;
+import org.hibernate.hql.internal.ast.QueryTranslatorImpl;
+import org.hibernate.hql.internal.ast.tree.AssignmentSpecification;
+import org.hibernate.hql.internal.ast.tree.Statement;
+import org.hibernate.hql.internal.ast.tree.UpdateStatement;
+import org.hibernate.hql.spi.QueryTranslator;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 16:20
+ * @description 把 JPQL 的 update/delete 修改的表和列通知给 DependencyTrackingQueryCache
+ *
+ * 例如 update Customer c set c.lastName = ?1 where c.id = ?2 只修改了 JPA_CUSTOMERS 表的 LAST_NAME 列，
+ * 没有用到该列的查询缓存条目不会失效。
+ * 执行可缓存的查询时，把翻译得到的 SQL 及其解析结果提供给 DependencyTrackingQueryCache（见 CacheableQuery），
+ * 同一条 JPQL 只解析一次 SQL。
+ */
+public class DependencyTrackingQueryTranslatorFactory extends ASTQueryTranslatorFactory {
+
+    @Override
+    public QueryTranslator createQueryTranslator(String queryIdentifier, String queryString, Map filters,
+                                                 SessionFactoryImplementor factory) {
+        DependencyTrackingQueryCacheFactory queryCacheFactory = DependencyTrackingQueryCacheFactory.of(factory);
+        if (queryCacheFactory == null) {
+            return super.createQueryTranslator(queryIdentifier, queryString, filters, factory);
+        }
+        return new DependencyTrackingQueryTranslator(queryIdentifier, queryString, filters, factory,
+                queryCacheFactory);
+    }
+
+    private static final class DependencyTrackingQueryTranslator extends QueryTranslatorImpl {
+
+        private final DependencyTrackingQueryCacheFactory queryCacheFactory;
+        private volatile QueryDependency.SqlShape shape;
+
+        DependencyTrackingQueryTranslator(String queryIdentifier, String queryString, Map enabledFilters,
+                                          SessionFactoryImplementor factory,
+                                          DependencyTrackingQueryCacheFactory queryCacheFactory) {
+            super(queryIdentifier, queryString, enabledFilters, factory);
+            this.queryCacheFactory = queryCacheFactory;
+        }
+
+        @Override
+        public List list(SessionImplementor session, QueryParameters queryParameters) throws HibernateException {
+            if (!queryParameters.isCacheable()) {
+                return super.list(session, queryParameters);
+            }
+            RowSelection selection = queryParameters.getRowSelection();
+            boolean firstPage = selection == null || selection.getFirstRow() == null || selection.getFirstRow() == 0;
+            CacheableQuery previous = CacheableQuery.begin(getSQLString(), shape(session), firstPage);
+            try {
+                return super.list(session, queryParameters);
+            } finally {
+                CacheableQuery.end(previous);
+            }
+        }
+
+        private QueryDependency.SqlShape shape(SessionImplementor session) {
+            QueryDependency.SqlShape current = shape;
+            if (current == null) {
+                current = QueryDependency.SqlShape.parse(getSQLString(),
+                        queryCacheFactory.knownTables(session.getFactory()));
+                shape = current;
+            }
+            return current;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int executeUpdate(QueryParameters queryParameters, SessionImplementor session)
+                throws HibernateException {
+            int result = super.executeUpdate(queryParameters, session);
+
+            Set<Serializable> tables = getQuerySpaces();
+            Statement statement = getSqlAST();
+            TableChange change;
+            if (statement instanceof UpdateStatement) {
+                List<String> columns = new ArrayList<>();
+                for (Object assignment : statement.getWalker().getAssignmentSpecifications()) {
+                    // 形如 LAST_NAME=?
+                    String fragment = ((AssignmentSpecification) assignment).getSqlAssignmentFragment();
+                    String column = fragment.substring(0, fragment.indexOf('=')).trim();
+                    columns.add(column.substring(column.lastIndexOf('.') + 1));
+                }
+                change = TableChange.update(tables, columns);
+            } else {
+                // delete 和 insert ... select 不知道涉及到哪些行
+                change = TableChange.rowsAdded(tables);
+            }
+            queryCacheFactory.publish((EventSource) session, change);
+            return result;
+        }
+    }
+}
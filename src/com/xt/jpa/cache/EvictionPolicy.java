@@ -0,0 +1,33 @@
+package com.xt.jpa.cache;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 14:00
+ * @description 缓存区域的淘汰策略
+ */
+public enum EvictionPolicy {
+
+    /**
+     * 淘汰最近最少使用的条目
+     */
+    LRU,
+
+    /**
+     * W-TinyLFU：新条目先进入一个小的 LRU 窗口，被挤出窗口时与主区域中将被淘汰的条目比较访问频率，
+     * 频率更高的留下。偶尔被访问一次的条目不会把热点数据挤出缓存。
+     */
+    W_TINY_LFU;
+
+    /**
+     * 配置中的名称不区分大小写，并且忽略 '-' 和 '_'，例如 lru、w-tinylfu、W_TINY_LFU
+     */
+    public static EvictionPolicy fromExternalName(String name) {
+        String normalized = name.trim().replace("-", "").replace("_", "");
+        for (EvictionPolicy policy : values()) {
+            if (policy.name().replace("_", "").equalsIgnoreCase(normalized)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("不支持的淘汰策略: " + name);
+    }
+}
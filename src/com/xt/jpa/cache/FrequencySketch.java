@@ -0,0 +1,72 @@
+package com.xt.jpa.cache;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 14:10
+ * @description 用于估计 key 访问频率的 Count-Min Sketch，供 W-TinyLFU 使用
+ *
+ * 1. 每个 key 通过 4 个哈希函数映射到 4 个计数器，估计值取其中的最小值，计数器最大为 15。
+ *    计数器的个数为容量的 16 倍（每个计数器占 1 个字节），以减少哈希冲突。
+ * 2. 累计记录 sampleSize 次之后，所有计数器减半，使得过去的热点数据逐渐"冷却"。
+ * 该类不是线程安全的，由 BoundedCache 负责加锁。
+ */
+class FrequencySketch {
+
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xb7cb3127, 0x3d4d51cb, 0x7bf5d3c5};
+
+    private final byte[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int capacity) {
+        int size = (Integer.highestOneBit(Math.max(capacity, 8) - 1) << 1) * 16;
+        this.table = new byte[size];
+        this.mask = size - 1;
+        this.sampleSize = capacity * 10;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int seed : SEEDS) {
+            int index = indexOf(hash, seed);
+            if (table[index] < MAX_COUNT) {
+                table[index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int seed : SEEDS) {
+            frequency = Math.min(frequency, table[indexOf(hash, seed)]);
+        }
+        return frequency;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+        additions >>>= 1;
+    }
+
+    private int indexOf(int hash, int seed) {
+        int h = hash * seed;
+        h ^= h >>> 17;
+        return h & mask;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+}
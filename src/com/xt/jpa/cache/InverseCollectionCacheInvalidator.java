@@ -0,0 +1,260 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.Cache;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.CollectionEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.AbstractCollectionEvent;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 10:30
+ * @description 维护关联关系的一方发生变化时，清除不维护关联关系一方（mappedBy）的集合缓存
+ *
+ * hibernate 只在集合本身被修改时才会更新集合缓存。而 mappedBy 的集合不维护关联关系，例如：
+ * 1. 修改 Order 的 customer，或者保存、删除 Order 时，Customer.orders 的集合缓存不会失效；
+ * 2. 修改 Item 的 categories 时，Category.items 的集合缓存不会失效。
+ * 这里监听实体和集合的变化，清除受影响的那些集合缓存条目。由 CacheIntegrator 负责注册。
+ *
+ * 这些监听器在 flush 时执行，早于事务提交。在此之后、提交之前，其他事务仍然可能读取数据库中旧的数据
+ * 并把它重新放入集合缓存，所以在事务结束后还会再清除一次。
+ */
+public class InverseCollectionCacheInvalidator implements PostInsertEventListener, PostUpdateEventListener,
+        PostDeleteEventListener, PostCollectionRecreateEventListener, PostCollectionUpdateEventListener,
+        PostCollectionRemoveEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * n 的一端的实体名 -> 对应的 1-n 反向集合（例如 Order -> Customer.orders）
+     */
+    private final Map<String, List<InverseOneToMany>> oneToManyByElement = new HashMap<>();
+
+    /**
+     * 维护关联关系的集合角色 -> 对应的 n-n 反向集合角色（例如 Item.categories -> Category.items）
+     */
+    private final Map<String, InverseManyToMany> manyToManyByOwningRole = new HashMap<>();
+
+    private final Cache cache;
+
+    public InverseCollectionCacheInvalidator(Cache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param elementEntityName n 的一端的实体名
+     * @param propertyName      n 的一端中指向 1 的一端的属性名（mappedBy 的值）
+     * @param inverseRole       1 的一端的集合角色
+     * @param ownerEntityName   1 的一端的实体名
+     */
+    public void addOneToMany(String elementEntityName, String propertyName, String inverseRole, String ownerEntityName) {
+        List<InverseOneToMany> list = oneToManyByElement.get(elementEntityName);
+        if (list == null) {
+            list = new ArrayList<>();
+            oneToManyByElement.put(elementEntityName, list);
+        }
+        list.add(new InverseOneToMany(propertyName, inverseRole, ownerEntityName));
+    }
+
+    /**
+     * @param owningRole        维护关联关系的集合角色
+     * @param inverseRole       mappedBy 的集合角色
+     * @param elementEntityName 维护关联关系的集合中元素的实体名，即 mappedBy 集合的所有者
+     */
+    public void addManyToMany(String owningRole, String inverseRole, String elementEntityName) {
+        manyToManyByOwningRole.put(owningRole, new InverseManyToMany(inverseRole, elementEntityName));
+    }
+
+    public boolean isEmpty() {
+        return oneToManyByElement.isEmpty() && manyToManyByOwningRole.isEmpty();
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        evictOwners(event.getPersister(), event.getSession(), null, event.getState());
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        List<InverseOneToMany> inverses = oneToManyByElement.get(event.getPersister().getEntityName());
+        if (inverses == null) {
+            return;
+        }
+        if (event.getOldState() == null) {
+            // 更新游离对象时没有旧的状态，无法确定受影响的集合，只能清除整个区域
+            for (InverseOneToMany inverse : inverses) {
+                evictRegion(inverse.role, event.getSession());
+            }
+            return;
+        }
+        evictOwners(event.getPersister(), event.getSession(), event.getOldState(), event.getState());
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        evictOwners(event.getPersister(), event.getSession(), event.getDeletedState(), null);
+    }
+
+    private void evictOwners(EntityPersister persister, EventSource session, Object[] oldState, Object[] state) {
+        List<InverseOneToMany> inverses = oneToManyByElement.get(persister.getEntityName());
+        if (inverses == null) {
+            return;
+        }
+        for (InverseOneToMany inverse : inverses) {
+            int index = persister.getEntityMetamodel().getPropertyIndex(inverse.propertyName);
+            Object oldOwner = oldState == null ? null : oldState[index];
+            Object newOwner = state == null ? null : state[index];
+            if (oldOwner == newOwner) {
+                continue;
+            }
+            evictCollection(inverse.role, inverse.ownerEntityName, oldOwner, session);
+            evictCollection(inverse.role, inverse.ownerEntityName, newOwner, session);
+        }
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+        evictInverseElements(event);
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+        evictInverseElements(event);
+    }
+
+    @Override
+    public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+        evictInverseElements(event);
+    }
+
+    /**
+     * 维护关联关系的 n-n 集合变化时，清除新旧元素对应的反向集合缓存
+     */
+    private void evictInverseElements(AbstractCollectionEvent event) {
+        // 新创建的集合在此时还没有设置 role，需要从持久化上下文的 CollectionEntry 中获取
+        CollectionEntry entry = event.getSession().getPersistenceContext().getCollectionEntry(event.getCollection());
+        if (entry == null) {
+            return;
+        }
+        CollectionPersister persister = entry.getCurrentPersister() != null
+                ? entry.getCurrentPersister() : entry.getLoadedPersister();
+        InverseManyToMany inverse = persister == null ? null : manyToManyByOwningRole.get(persister.getRole());
+        if (inverse == null) {
+            return;
+        }
+
+        Serializable snapshot = event.getCollection().getStoredSnapshot();
+        if (snapshot != null && !(snapshot instanceof Map) && !(snapshot instanceof Collection)) {
+            evictRegion(inverse.role, event.getSession());
+            return;
+        }
+
+        Set<Object> elements = new HashSet<>();
+        if (snapshot instanceof Map) {
+            elements.addAll(((Map<?, ?>) snapshot).values());
+        } else if (snapshot instanceof Collection) {
+            elements.addAll((Collection<?>) snapshot);
+        }
+        if (event.getCollection().wasInitialized()) {
+            Object value = event.getCollection().getValue();
+            if (value instanceof Collection) {
+                elements.addAll((Collection<?>) value);
+            }
+        }
+
+        for (Object element : elements) {
+            evictCollection(inverse.role, inverse.elementEntityName, element, event.getSession());
+        }
+    }
+
+    private void evictCollection(String role, String ownerEntityName, Object owner, EventSource session) {
+        if (owner == null) {
+            return;
+        }
+        Serializable id;
+        if (owner instanceof HibernateProxy) {
+            id = ((HibernateProxy) owner).getHibernateLazyInitializer().getIdentifier();
+        } else {
+            id = session.getEntityPersister(ownerEntityName, owner).getIdentifier(owner, session);
+        }
+        if (id != null) {
+            evict(role, id, session);
+        }
+    }
+
+    /**
+     * 立即清除集合缓存条目，并在事务结束后再清除一次
+     */
+    private void evict(final String role, final Serializable id, EventSource session) {
+        cache.evictCollection(role, id);
+        session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+            @Override
+            public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+                cache.evictCollection(role, id);
+            }
+        });
+    }
+
+    private void evictRegion(final String role, EventSource session) {
+        cache.evictCollectionRegion(role);
+        session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+            @Override
+            public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+                cache.evictCollectionRegion(role);
+            }
+        });
+    }
+
+    private static final class InverseManyToMany implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String role;
+        private final String elementEntityName;
+
+        InverseManyToMany(String role, String elementEntityName) {
+            this.role = role;
+            this.elementEntityName = elementEntityName;
+        }
+    }
+
+    private static final class InverseOneToMany implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String propertyName;
+        private final String role;
+        private final String ownerEntityName;
+
+        InverseOneToMany(String propertyName, String role, String ownerEntityName) {
+            this.propertyName = propertyName;
+            this.role = role;
+            this.ownerEntityName = ownerEntityName;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 16:25
+ * @description 集合的缓存区域，缓存的是集合中元素的 id
+ */
+public class LocalCollectionRegion extends LocalTransactionalRegion implements CollectionRegion {
+
+    public LocalCollectionRegion(String name, LocalRegionFactory regionFactory, RegionSettings settings,
+                                 CacheDataDescription metadata) {
+        super(name, regionFactory, settings, metadata);
+    }
+
+    @Override
+    public CollectionRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+        return new LocalCollectionRegionAccessStrategy(this, buildPolicy(accessType));
+    }
+}
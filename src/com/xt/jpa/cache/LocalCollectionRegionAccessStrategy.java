@@ -0,0 +1,24 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 16:50
+ * @description 集合缓存区域的访问策略
+ */
+class LocalCollectionRegionAccessStrategy extends AbstractLocalAccessStrategy implements CollectionRegionAccessStrategy {
+
+    private final LocalCollectionRegion region;
+
+    LocalCollectionRegionAccessStrategy(LocalCollectionRegion region, AccessPolicy policy) {
+        super(policy);
+        this.region = region;
+    }
+
+    @Override
+    public CollectionRegion getRegion() {
+        return region;
+    }
+}
@@ -0,0 +1,30 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 16:20
+ * @description 实体的缓存区域
+ */
+public class LocalEntityRegion extends LocalTransactionalRegion implements EntityRegion {
+
+    public LocalEntityRegion(String name, LocalRegionFactory regionFactory, RegionSettings settings,
+                             CacheDataDescription metadata) {
+        super(name, regionFactory, settings, metadata);
+    }
+
+    LocalEntityRegion(String name, LocalRegionFactory regionFactory, BoundedCache cache,
+                      CacheDataDescription metadata) {
+        super(name, regionFactory, cache, metadata);
+    }
+
+    @Override
+    public EntityRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+        return new LocalEntityRegionAccessStrategy(this, buildPolicy(accessType));
+    }
+}
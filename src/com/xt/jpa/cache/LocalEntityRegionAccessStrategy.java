@@ -0,0 +1,47 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 16:45
+ * @description 实体缓存区域的访问策略
+ */
+class LocalEntityRegionAccessStrategy extends AbstractLocalAccessStrategy implements EntityRegionAccessStrategy {
+
+    private final LocalEntityRegion region;
+
+    LocalEntityRegionAccessStrategy(LocalEntityRegion region, AccessPolicy policy) {
+        super(policy);
+        this.region = region;
+    }
+
+    @Override
+    public EntityRegion getRegion() {
+        return region;
+    }
+
+    @Override
+    public boolean insert(Object key, Object value, Object version) throws CacheException {
+        return policy.insert(key, value, version);
+    }
+
+    @Override
+    public boolean afterInsert(Object key, Object value, Object version) throws CacheException {
+        return policy.afterInsert(key, value, version);
+    }
+
+    @Override
+    public boolean update(Object key, Object value, Object currentVersion, Object previousVersion) throws CacheException {
+        return policy.update(key, value, currentVersion, previousVersion);
+    }
+
+    @Override
+    public boolean afterUpdate(Object key, Object value, Object currentVersion, Object previousVersion,
+                               SoftLock lock) throws CacheException {
+        return policy.afterUpdate(key, value, currentVersion, previousVersion, lock);
+    }
+}
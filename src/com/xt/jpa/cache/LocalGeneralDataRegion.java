@@ -0,0 +1,37 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.TimestampsRegion;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 16:35
+ * @description 查询缓存和 UpdateTimestampsCache 使用的缓存区域
+ */
+public class LocalGeneralDataRegion extends LocalRegion implements QueryResultsRegion, TimestampsRegion {
+
+    public LocalGeneralDataRegion(String name, LocalRegionFactory regionFactory, RegionSettings settings) {
+        super(name, regionFactory, settings);
+    }
+
+    @Override
+    public Object get(Object key) throws CacheException {
+        return cache.get(key);
+    }
+
+    @Override
+    public void put(Object key, Object value) throws CacheException {
+        cache.put(key, value);
+    }
+
+    @Override
+    public void evict(Object key) throws CacheException {
+        cache.remove(key);
+    }
+
+    @Override
+    public void evictAll() throws CacheException {
+        cache.clear();
+    }
+}
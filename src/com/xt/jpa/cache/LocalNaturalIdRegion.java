@@ -0,0 +1,25 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.NaturalIdRegionAccessStrategy;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 16:30
+ * @description 自然主键的缓存区域
+ */
+public class LocalNaturalIdRegion extends LocalTransactionalRegion implements NaturalIdRegion {
+
+    public LocalNaturalIdRegion(String name, LocalRegionFactory regionFactory, RegionSettings settings,
+                                CacheDataDescription metadata) {
+        super(name, regionFactory, settings, metadata);
+    }
+
+    @Override
+    public NaturalIdRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+        return new LocalNaturalIdRegionAccessStrategy(this, buildPolicy(accessType));
+    }
+}
@@ -0,0 +1,46 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.access.NaturalIdRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 16:55
+ * @description 自然主键缓存区域的访问策略，自然主键没有版本号
+ */
+class LocalNaturalIdRegionAccessStrategy extends AbstractLocalAccessStrategy implements NaturalIdRegionAccessStrategy {
+
+    private final LocalNaturalIdRegion region;
+
+    LocalNaturalIdRegionAccessStrategy(LocalNaturalIdRegion region, AccessPolicy policy) {
+        super(policy);
+        this.region = region;
+    }
+
+    @Override
+    public NaturalIdRegion getRegion() {
+        return region;
+    }
+
+    @Override
+    public boolean insert(Object key, Object value) throws CacheException {
+        return policy.insert(key, value, null);
+    }
+
+    @Override
+    public boolean afterInsert(Object key, Object value) throws CacheException {
+        return policy.afterInsert(key, value, null);
+    }
+
+    @Override
+    public boolean update(Object key, Object value) throws CacheException {
+        return policy.update(key, value, null, null);
+    }
+
+    @Override
+    public boolean afterUpdate(Object key, Object value, SoftLock lock) throws CacheException {
+        return policy.afterUpdate(key, value, null, null, lock);
+    }
+}
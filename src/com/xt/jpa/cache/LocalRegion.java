@@ -0,0 +1,85 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.Region;
+
+import java.util.Map;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 15:00
+ * @description 缓存区域的基类，数据保存在 BoundedCache 中
+ */
+public abstract class LocalRegion implements Region {
+
+    /**
+     * 软锁的超时时间：60 秒
+     */
+    static final int LOCK_TIMEOUT = 60000 * LocalRegionFactory.ONE_MS;
+
+    private final String name;
+    private final LocalRegionFactory regionFactory;
+    protected final BoundedCache cache;
+
+    protected LocalRegion(String name, LocalRegionFactory regionFactory, RegionSettings settings) {
+        this(name, regionFactory, new BoundedCache(name, settings));
+    }
+
+    LocalRegion(String name, LocalRegionFactory regionFactory, BoundedCache cache) {
+        this.name = name;
+        this.regionFactory = regionFactory;
+        this.cache = cache;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void destroy() throws CacheException {
+        cache.clear();
+    }
+
+    @Override
+    public boolean contains(Object key) {
+        return cache.containsKey(key);
+    }
+
+    /**
+     * 只有保存在堆外的区域才能统计占用的内存
+     */
+    @Override
+    public long getSizeInMemory() {
+        return cache instanceof OffHeapCache ? ((OffHeapCache) cache).getOffHeapBytes() : -1;
+    }
+
+    @Override
+    public long getElementCountInMemory() {
+        return cache.size();
+    }
+
+    @Override
+    public long getElementCountOnDisk() {
+        return 0;
+    }
+
+    @Override
+    public Map<Object, Object> toMap() {
+        return cache.toMap();
+    }
+
+    @Override
+    public long nextTimestamp() {
+        return regionFactory.nextTimestamp();
+    }
+
+    @Override
+    public int getTimeout() {
+        return LOCK_TIMEOUT;
+    }
+
+    public CacheStatistics getStatistics() {
+        return cache.getStatistics();
+    }
+}
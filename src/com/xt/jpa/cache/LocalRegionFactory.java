@@ -0,0 +1,183 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cache.spi.TimestampsRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cfg.Settings;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 17:00
+ * @description 进程内的二级缓存实现（hibernate 4.2 的 RegionFactory SPI）
+ *
+ * 在 persistence.xml 中配置：
+ *    hibernate.cache.region.factory_class = com.xt.jpa.cache.LocalRegionFactory
+ * 每个缓存区域的容量、存活时间、淘汰策略见 RegionSettings。配置了 off_heap_mb 的实体区域保存在堆外内存中（见 OffHeapCache）。
+ * 实体和集合的并发访问策略由 @Cache(usage = ...) 指定，
+ * 未指定时使用 hibernate.cache.default_cache_concurrency_strategy，默认为 read-write。
+ */
+public class LocalRegionFactory implements RegionFactory {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * nextTimestamp 返回的时间戳中 1 毫秒对应的值，同一毫秒内最多可以产生 4096 个不同的时间戳
+     */
+    public static final int ONE_MS = 1 << 12;
+
+    private final AtomicLong lastTimestamp = new AtomicLong();
+    private final ConcurrentMap<String, LocalRegion> regions = new ConcurrentHashMap<>();
+    private Properties properties = new Properties();
+    private volatile SessionFactoryImplementor sessionFactory;
+
+    public LocalRegionFactory() {
+    }
+
+    /**
+     * hibernate 通过该构造器传入配置属性
+     */
+    public LocalRegionFactory(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 获取 EntityManagerFactory 使用的 LocalRegionFactory，用于查看缓存的统计信息
+     */
+    public static LocalRegionFactory of(EntityManagerFactory entityManagerFactory) {
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor)
+                ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+        RegionFactory regionFactory = sessionFactory.getSettings().getRegionFactory();
+        if (!(regionFactory instanceof LocalRegionFactory)) {
+            throw new IllegalStateException("二级缓存没有使用 LocalRegionFactory: " + regionFactory);
+        }
+        return (LocalRegionFactory) regionFactory;
+    }
+
+    @Override
+    public void start(Settings settings, Properties properties) throws CacheException {
+        this.properties = properties;
+    }
+
+    @Override
+    public void stop() {
+        for (LocalRegion region : regions.values()) {
+            region.destroy();
+        }
+        regions.clear();
+    }
+
+    @Override
+    public boolean isMinimalPutsEnabledByDefault() {
+        return false;
+    }
+
+    @Override
+    public AccessType getDefaultAccessType() {
+        return AccessType.READ_WRITE;
+    }
+
+    /**
+     * 单调递增的时间戳：当前毫秒数左移 12 位，同一毫秒内依次加 1
+     */
+    @Override
+    public long nextTimestamp() {
+        while (true) {
+            long last = lastTimestamp.get();
+            long now = System.currentTimeMillis() << 12;
+            long next = now > last ? now : last + 1;
+            if (lastTimestamp.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    @Override
+    public EntityRegion buildEntityRegion(String regionName, Properties properties,
+                                          CacheDataDescription metadata) throws CacheException {
+        RegionSettings settings = settingsFor(regionName);
+        if (settings.getOffHeapMegabytes() > 0) {
+            return register(new LocalEntityRegion(regionName, this, new OffHeapCache(regionName, settings, this), metadata));
+        }
+        return register(new LocalEntityRegion(regionName, this, settings, metadata));
+    }
+
+    @Override
+    public NaturalIdRegion buildNaturalIdRegion(String regionName, Properties properties,
+                                                CacheDataDescription metadata) throws CacheException {
+        return register(new LocalNaturalIdRegion(regionName, this, settingsFor(regionName), metadata));
+    }
+
+    @Override
+    public CollectionRegion buildCollectionRegion(String regionName, Properties properties,
+                                                  CacheDataDescription metadata) throws CacheException {
+        return register(new LocalCollectionRegion(regionName, this, settingsFor(regionName), metadata));
+    }
+
+    @Override
+    public QueryResultsRegion buildQueryResultsRegion(String regionName, Properties properties) throws CacheException {
+        return register(new LocalGeneralDataRegion(regionName, this, settingsFor(regionName)));
+    }
+
+    /**
+     * UpdateTimestampsCache 中的条目不能被淘汰，否则查询缓存可能返回过期的结果
+     */
+    @Override
+    public TimestampsRegion buildTimestampsRegion(String regionName, Properties properties) throws CacheException {
+        return register(new LocalGeneralDataRegion(regionName, this, RegionSettings.unbounded()));
+    }
+
+    private RegionSettings settingsFor(String regionName) {
+        try {
+            return RegionSettings.forRegion(regionName, properties);
+        } catch (IllegalArgumentException e) {
+            throw new CacheException("缓存区域 " + regionName + " 的配置有误", e);
+        }
+    }
+
+    private <R extends LocalRegion> R register(R region) {
+        regions.put(region.getName(), region);
+        return region;
+    }
+
+    /**
+     * 由 CacheIntegrator 在创建 SessionFactory 时绑定，OffHeapCache 读取时需要实体的元数据
+     */
+    void setSessionFactory(SessionFactoryImplementor sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    SessionFactoryImplementor getSessionFactory() {
+        return sessionFactory;
+    }
+
+    public LocalRegion getRegion(String regionName) {
+        return regions.get(regionName);
+    }
+
+    /**
+     * 所有缓存区域的统计信息
+     */
+    public List<CacheStatistics> getStatistics() {
+        List<CacheStatistics> statistics = new ArrayList<>();
+        for (LocalRegion region : regions.values()) {
+            statistics.add(region.getStatistics());
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,54 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.TransactionalDataRegion;
+import org.hibernate.cache.spi.access.AccessType;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 15:10
+ * @description 保存实体、集合、自然主键的缓存区域
+ */
+public abstract class LocalTransactionalRegion extends LocalRegion implements TransactionalDataRegion {
+
+    private final CacheDataDescription metadata;
+
+    protected LocalTransactionalRegion(String name, LocalRegionFactory regionFactory, RegionSettings settings,
+                                       CacheDataDescription metadata) {
+        super(name, regionFactory, settings);
+        this.metadata = metadata;
+    }
+
+    LocalTransactionalRegion(String name, LocalRegionFactory regionFactory, BoundedCache cache,
+                             CacheDataDescription metadata) {
+        super(name, regionFactory, cache);
+        this.metadata = metadata;
+    }
+
+    @Override
+    public boolean isTransactionAware() {
+        return false;
+    }
+
+    @Override
+    public CacheDataDescription getCacheDataDescription() {
+        return metadata;
+    }
+
+    /**
+     * 根据并发访问策略创建对应的 AccessPolicy，不支持 TRANSACTIONAL（需要 JTA）。
+     */
+    protected AccessPolicy buildPolicy(AccessType accessType) {
+        switch (accessType) {
+            case READ_ONLY:
+                return new ReadOnlyAccessPolicy(this);
+            case READ_WRITE:
+                return new ReadWriteAccessPolicy(this);
+            case NONSTRICT_READ_WRITE:
+                return new NonstrictReadWriteAccessPolicy(this);
+            default:
+                throw new CacheException("缓存区域 " + getName() + " 不支持的并发访问策略: " + accessType);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 15:40
+ * @description nonstrict-read-write：修改数据时直接移除缓存中的条目，不加锁。
+ * 在事务提交前后的短暂时间内，其他事务可能读取到旧数据，适用于很少修改且能容忍短暂不一致的数据。
+ */
+class NonstrictReadWriteAccessPolicy extends AccessPolicy {
+
+    NonstrictReadWriteAccessPolicy(LocalTransactionalRegion region) {
+        super(region);
+    }
+
+    @Override
+    Object get(Object key, long txTimestamp) {
+        return cache.get(key);
+    }
+
+    @Override
+    boolean putFromLoad(Object key, Object value, long txTimestamp, Object version, boolean minimalPutOverride) {
+        if (minimalPutOverride && cache.containsKey(key)) {
+            return false;
+        }
+        cache.put(key, value);
+        return true;
+    }
+
+    @Override
+    SoftLock lockItem(Object key, Object version) {
+        return null;
+    }
+
+    @Override
+    void unlockItem(Object key, SoftLock lock) {
+        cache.remove(key);
+    }
+
+    @Override
+    boolean insert(Object key, Object value, Object version) {
+        return false;
+    }
+
+    @Override
+    boolean afterInsert(Object key, Object value, Object version) {
+        return false;
+    }
+
+    @Override
+    boolean update(Object key, Object value, Object currentVersion, Object previousVersion) {
+        cache.remove(key);
+        return false;
+    }
+
+    @Override
+    boolean afterUpdate(Object key, Object value, Object currentVersion, Object previousVersion, SoftLock lock) {
+        unlockItem(key, lock);
+        return false;
+    }
+
+    @Override
+    void remove(Object key) {
+        cache.remove(key);
+    }
+}
@@ -0,0 +1,422 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.cache.spi.entry.CacheEntry;
+import org.hibernate.cache.spi.entry.StructuredCacheEntry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author xt
+ * @date 2019/2/27 - 16:00
+ * @description 把实体的缓存条目保存在堆外内存中的 BoundedCache，在 RegionSettings 中配置 off_heap_mb 后使用
+ *
+ * 堆内的二级缓存为每个实体保存一个 CacheEntry，其中每个属性都是一个对象（例如 Customer 的 3 个 Date），
+ * 缓存几千万个实体时 GC 的时间和暂停都会很长。这里把 CacheEntry 按紧凑的二进制格式保存到 OffHeapStore 中，
+ * 以 int 类型的 id 为键，堆中不保存任何与条目个数相关的对象，只在读取时重新创建 CacheEntry：
+ *    [类型][写入时间戳][版本]（read-write 策略的 Item）[实体名的编号][lazy 属性是否未加载][版本][属性个数][属性 ...]
+ * 每个属性（拆解后的状态，例如 n-1 关联保存的是 id）为 1 字节的类型加上值，支持 null、基本类型的包装类、
+ * String、Date、Timestamp、java.sql.Date 和 Time。
+ *
+ * 以下条目仍然保存在堆内（容量为 HEAP_ENTRIES 的 LRU 缓存）：read-write 策略的软锁（只在事务提交前后存在）、
+ * id 不是 Integer 的实体、包含其他类型属性的实体、多租户的条目。
+ * 读取时需要通过 SessionFactory 找到实体的属性名，由 CacheIntegrator 绑定到 LocalRegionFactory。
+ */
+class OffHeapCache extends BoundedCache {
+
+    /**
+     * 堆内部分的容量
+     */
+    static final int HEAP_ENTRIES = 10000;
+
+    private static final byte RAW_ENTRY = 0;
+    private static final byte READ_WRITE_ITEM = 1;
+
+    private static final byte NULL = 0;
+    private static final byte INTEGER = 1;
+    private static final byte LONG = 2;
+    private static final byte SHORT = 3;
+    private static final byte BYTE = 4;
+    private static final byte TRUE = 5;
+    private static final byte FALSE = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte FLOAT = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte LATIN1_STRING = 10;
+    private static final byte UTF16_STRING = 11;
+    private static final byte DATE = 12;
+    private static final byte TIMESTAMP = 13;
+    private static final byte SQL_DATE = 14;
+    private static final byte SQL_TIME = 15;
+
+    private final String name;
+    private final long ttlMillis;
+    private final LocalRegionFactory regionFactory;
+    private final OffHeapStore store;
+
+    /**
+     * 实体名的编号，数量等于区域中实体（包括子类）的个数
+     */
+    private final List<String> entityNames = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, StructuredCacheEntry> structures = new ConcurrentHashMap<>();
+    private volatile String rootEntityName;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+
+    private ByteBuffer scratch = ByteBuffer.allocate(512);
+
+    private final OffHeapStore.RecordReader<Object> reader = new OffHeapStore.RecordReader<Object>() {
+        @Override
+        public Object read(ByteBuffer record) {
+            return decode(record);
+        }
+    };
+
+    OffHeapCache(String name, RegionSettings settings, LocalRegionFactory regionFactory) {
+        super(name, new RegionSettings(HEAP_ENTRIES, settings.getTtlMillis(), EvictionPolicy.LRU));
+        this.name = name;
+        this.ttlMillis = settings.getTtlMillis();
+        this.regionFactory = regionFactory;
+        this.store = new OffHeapStore(settings.getOffHeapMegabytes() * 1024L * 1024L, settings.getMaxEntries());
+    }
+
+    @Override
+    Object get(Object key) {
+        Object value = super.peek(key);
+        if (value == null) {
+            Integer id = offHeapKey(key);
+            value = id == null ? null : store.read(id, reader);
+        }
+        (value == null ? misses : hits).incrementAndGet();
+        return value;
+    }
+
+    @Override
+    void markMiss() {
+        hits.decrementAndGet();
+        misses.incrementAndGet();
+    }
+
+    @Override
+    Object peek(Object key) {
+        Object value = super.peek(key);
+        if (value == null) {
+            Integer id = offHeapKey(key);
+            value = id == null ? null : store.read(id, reader);
+        }
+        return value;
+    }
+
+    @Override
+    boolean containsKey(Object key) {
+        if (super.containsKey(key)) {
+            return true;
+        }
+        Integer id = offHeapKey(key);
+        return id != null && store.contains(id);
+    }
+
+    /**
+     * 先写入新的条目再删除另一层中旧的条目：并发的读取只会读到旧的或者新的条目
+     */
+    @Override
+    synchronized void put(Object key, Object value) {
+        puts.incrementAndGet();
+        if (rootEntityName == null && key instanceof CacheKey) {
+            rootEntityName = ((CacheKey) key).getEntityOrRoleName();
+        }
+        Integer id = offHeapKey(key);
+        if (id != null && encode(value)) {
+            scratch.flip();
+            if (store.put(id, ttlMillis == 0 ? 0 : System.currentTimeMillis() + ttlMillis, scratch)) {
+                super.remove(key);
+                return;
+            }
+        }
+        super.put(key, value);
+        if (id != null) {
+            store.remove(id);
+        }
+    }
+
+    @Override
+    synchronized void remove(Object key) {
+        super.remove(key);
+        Integer id = offHeapKey(key);
+        if (id != null) {
+            store.remove(id);
+        }
+    }
+
+    @Override
+    synchronized void clear() {
+        super.clear();
+        store.clear();
+    }
+
+    @Override
+    int size() {
+        return super.size() + store.size();
+    }
+
+    /**
+     * 堆外的条目只保存了实体的 id，按 hibernate 的方式重新构造 CacheKey，与堆内的条目使用同一种键
+     */
+    @Override
+    Map<Object, Object> toMap() {
+        Map<Object, Object> map = super.toMap();
+        SessionFactoryImplementor sessionFactory = regionFactory.getSessionFactory();
+        if (rootEntityName == null || sessionFactory == null) {
+            return map;
+        }
+        EntityPersister persister = sessionFactory.getEntityPersister(rootEntityName);
+        for (int id : store.keys()) {
+            Object value = store.read(id, reader);
+            if (value != null) {
+                map.put(new CacheKey(id, persister.getIdentifierType(), rootEntityName, null, sessionFactory), value);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    CacheStatistics getStatistics() {
+        return new CacheStatistics(name, size(), hits.get(), misses.get(), puts.get(),
+                store.getEvictions(), store.getExpirations());
+    }
+
+    /**
+     * 已经分配的堆外内存（字节）
+     */
+    long getOffHeapBytes() {
+        return store.getAllocatedBytes();
+    }
+
+    /**
+     * 可以保存在堆外的键：区域中的实体、非多租户、id 为 Integer
+     */
+    private Integer offHeapKey(Object key) {
+        if (!(key instanceof CacheKey)) {
+            return null;
+        }
+        CacheKey cacheKey = (CacheKey) key;
+        if (cacheKey.getTenantId() != null || !(cacheKey.getKey() instanceof Integer)
+                || !cacheKey.getEntityOrRoleName().equals(rootEntityName)) {
+            return null;
+        }
+        return (Integer) cacheKey.getKey();
+    }
+
+    /**
+     * 编码到 scratch 中，不支持的条目返回 false
+     */
+    private boolean encode(Object value) {
+        while (true) {
+            scratch.clear();
+            try {
+                return encodeEntry(value);
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+    }
+
+    private boolean encodeEntry(Object value) {
+        Object entry = value;
+        if (value instanceof ReadWriteAccessPolicy.Item) {
+            ReadWriteAccessPolicy.Item item = (ReadWriteAccessPolicy.Item) value;
+            scratch.put(READ_WRITE_ITEM);
+            scratch.putLong(item.getTimestamp());
+            if (!encodeValue(item.getVersion())) {
+                return false;
+            }
+            entry = item.getValue();
+        } else {
+            scratch.put(RAW_ENTRY);
+        }
+        if (!(entry instanceof CacheEntry) || ((CacheEntry) entry).isReferenceEntry()) {
+            return false;
+        }
+
+        CacheEntry cacheEntry = (CacheEntry) entry;
+        int entityName = entityNames.indexOf(cacheEntry.getSubclass());
+        if (entityName < 0) {
+            entityNames.add(cacheEntry.getSubclass());
+            entityName = entityNames.size() - 1;
+        }
+        scratch.putShort((short) entityName);
+        scratch.put(cacheEntry.areLazyPropertiesUnfetched() ? (byte) 1 : (byte) 0);
+        if (!encodeValue(cacheEntry.getVersion())) {
+            return false;
+        }
+        Serializable[] state = cacheEntry.getDisassembledState();
+        scratch.putShort((short) state.length);
+        for (Serializable property : state) {
+            if (!encodeValue(property)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean encodeValue(Object value) {
+        if (value == null) {
+            scratch.put(NULL);
+            return true;
+        }
+        Class<?> type = value.getClass();
+        if (type == Integer.class) {
+            scratch.put(INTEGER).putInt((Integer) value);
+        } else if (type == Long.class) {
+            scratch.put(LONG).putLong((Long) value);
+        } else if (type == String.class) {
+            encodeString((String) value);
+        } else if (type == Date.class) {
+            scratch.put(DATE).putLong(((Date) value).getTime());
+        } else if (type == Timestamp.class) {
+            scratch.put(TIMESTAMP).putLong(((Timestamp) value).getTime()).putInt(((Timestamp) value).getNanos());
+        } else if (type == java.sql.Date.class) {
+            scratch.put(SQL_DATE).putLong(((java.sql.Date) value).getTime());
+        } else if (type == Time.class) {
+            scratch.put(SQL_TIME).putLong(((Time) value).getTime());
+        } else if (type == Boolean.class) {
+            scratch.put((Boolean) value ? TRUE : FALSE);
+        } else if (type == Short.class) {
+            scratch.put(SHORT).putShort((Short) value);
+        } else if (type == Byte.class) {
+            scratch.put(BYTE).put((Byte) value);
+        } else if (type == Double.class) {
+            scratch.put(DOUBLE).putDouble((Double) value);
+        } else if (type == Float.class) {
+            scratch.put(FLOAT).putFloat((Float) value);
+        } else if (type == Character.class) {
+            scratch.put(CHARACTER).putChar((Character) value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 只包含 ISO-8859-1 字符的字符串每个字符 1 字节，否则 2 字节
+     */
+    private void encodeString(String value) {
+        boolean latin1 = true;
+        for (int i = 0; i < value.length() && latin1; i++) {
+            latin1 = value.charAt(i) < 256;
+        }
+        scratch.put(latin1 ? LATIN1_STRING : UTF16_STRING).putInt(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            if (latin1) {
+                scratch.put((byte) value.charAt(i));
+            } else {
+                scratch.putChar(value.charAt(i));
+            }
+        }
+    }
+
+    private Object decode(ByteBuffer record) {
+        byte kind = record.get();
+        long timestamp = 0;
+        Object itemVersion = null;
+        if (kind == READ_WRITE_ITEM) {
+            timestamp = record.getLong();
+            itemVersion = decodeValue(record);
+        }
+        String entityName = entityNames.get(record.getShort());
+        boolean lazyPropertiesUnfetched = record.get() != 0;
+        Object version = decodeValue(record);
+
+        SessionFactoryImplementor sessionFactory = regionFactory.getSessionFactory();
+        if (sessionFactory == null) {
+            throw new CacheException("缓存区域 " + name + " 没有绑定 SessionFactory，请检查 CacheIntegrator 是否被加载");
+        }
+        EntityPersister persister = sessionFactory.getEntityPersister(entityName);
+        String[] propertyNames = persister.getPropertyNames();
+        int count = record.getShort();
+        if (count != propertyNames.length) {
+            return null;
+        }
+        // 与 hibernate.cache.use_structured_entries 的格式相同，由 StructuredCacheEntry 创建 CacheEntry
+        Map<String, Object> structured = new HashMap<>(count * 2);
+        for (String propertyName : propertyNames) {
+            structured.put(propertyName, decodeValue(record));
+        }
+        structured.put("_subclass", entityName);
+        structured.put("_version", version);
+        structured.put("_lazyPropertiesUnfetched", lazyPropertiesUnfetched);
+        Object entry = structure(persister).destructure(structured, sessionFactory);
+        return kind == READ_WRITE_ITEM ? new ReadWriteAccessPolicy.Item(entry, itemVersion, timestamp) : entry;
+    }
+
+    private StructuredCacheEntry structure(EntityPersister persister) {
+        StructuredCacheEntry structure = structures.get(persister.getEntityName());
+        if (structure == null) {
+            structure = new StructuredCacheEntry(persister);
+            structures.put(persister.getEntityName(), structure);
+        }
+        return structure;
+    }
+
+    private static Object decodeValue(ByteBuffer record) {
+        byte type = record.get();
+        switch (type) {
+            case NULL:
+                return null;
+            case INTEGER:
+                return record.getInt();
+            case LONG:
+                return record.getLong();
+            case LATIN1_STRING:
+            case UTF16_STRING:
+                char[] chars = new char[record.getInt()];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = type == LATIN1_STRING ? (char) (record.get() & 0xff) : record.getChar();
+                }
+                return new String(chars);
+            case DATE:
+                return new Date(record.getLong());
+            case TIMESTAMP:
+                Timestamp timestamp = new Timestamp(record.getLong());
+                timestamp.setNanos(record.getInt());
+                return timestamp;
+            case SQL_DATE:
+                return new java.sql.Date(record.getLong());
+            case SQL_TIME:
+                return new Time(record.getLong());
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case SHORT:
+                return record.getShort();
+            case BYTE:
+                return record.get();
+            case DOUBLE:
+                return record.getDouble();
+            case FLOAT:
+                return record.getFloat();
+            case CHARACTER:
+                return record.getChar();
+            default:
+                throw new CacheException("无法识别的堆外缓存数据类型: " + type);
+        }
+    }
+}
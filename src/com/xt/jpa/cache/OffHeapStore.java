@@ -0,0 +1,429 @@
+package com.xt.jpa.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author xt
+ * @date 2019/2/27 - 15:00
+ * @description 保存在堆外内存中、以 int 为键的变长记录
+ *
+ * 索引和数据都在 ByteBuffer.allocateDirect 分配的内存中，条目数量不影响堆的大小和 GC 的时间：
+ * 1. 索引是开放寻址（线性探测）的哈希表，每个槽 12 字节：键、数据段的编号、记录在数据段中的位置；
+ * 2. 数据按写入顺序追加到数据段中（每条记录：键、长度、过期时间、数据），修改和删除只更新索引，旧的记录成为垃圾；
+ * 3. 数据段写满后写入下一个数据段。循环回到一个已经使用过的数据段时先整理它：丢弃垃圾和过期的记录，
+ *    仍然有效的记录移动到数据段的开头；整理后剩余的空间不足 1/4 时，淘汰该数据段中的所有记录（先进先出）；
+ * 4. maxEntries 大于 0 时，条目数达到上限后按时钟指针的顺序淘汰条目。
+ * 读使用读锁，可以并发执行；写和整理使用写锁。
+ */
+final class OffHeapStore {
+
+    private static final int SLOT_BYTES = 12;
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+    private static final int HEADER_BYTES = 16;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_SEGMENT_BYTES = 64 << 20;
+    private static final int MIN_SEGMENT_BYTES = 64 << 10;
+
+    private final int maxEntries;
+    private final int segmentBytes;
+    private final ByteBuffer[] segments;
+    private final int[] used;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong expirations = new AtomicLong();
+
+    private ByteBuffer index;
+    private int capacity;
+    private int size;
+    private int deleted;
+    private int current = -1;
+    private int hand;
+    private long evictions;
+    private byte[] moveBuffer = new byte[256];
+
+    /**
+     * @param maxBytes   数据段最多使用的内存，数据段在需要时才分配
+     * @param maxEntries 最大条目数，0 表示只受 maxBytes 限制
+     */
+    OffHeapStore(long maxBytes, int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.segmentBytes = (int) Math.max(MIN_SEGMENT_BYTES, Math.min(MAX_SEGMENT_BYTES, maxBytes / 16));
+        int segmentCount = (int) Math.max(2, maxBytes / segmentBytes);
+        this.segments = new ByteBuffer[segmentCount];
+        this.used = new int[segmentCount];
+        int expected = maxEntries > 0 ? maxEntries : MIN_CAPACITY;
+        allocateIndex(tableSize(expected));
+    }
+
+    /**
+     * 在读锁中读取记录，reader 不能在返回后继续使用传入的 ByteBuffer
+     *
+     * @return 不存在或者已经过期时返回 null
+     */
+    <T> T read(int key, RecordReader<T> reader) {
+        lock.readLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) {
+                return null;
+            }
+            ByteBuffer segment = segments[segmentOf(slot) - 1];
+            int offset = offsetOf(slot);
+            if (isExpired(segment.getLong(offset + 8))) {
+                expirations.incrementAndGet();
+                return null;
+            }
+            ByteBuffer record = segment.duplicate();
+            record.limit(offset + segment.getInt(offset + 4));
+            record.position(offset + HEADER_BYTES);
+            return reader.read(record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(int key) {
+        lock.readLock().lock();
+        try {
+            int slot = find(key);
+            return slot >= 0 && !isExpired(segments[segmentOf(slot) - 1].getLong(offsetOf(slot) + 8));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 写入 data 中 position 到 limit 之间的数据
+     *
+     * @param expiresAt 过期时间（毫秒），0 表示永不过期
+     * @return 记录比一个数据段还大时返回 false，不会写入
+     */
+    boolean put(int key, long expiresAt, ByteBuffer data) {
+        int length = HEADER_BYTES + data.remaining();
+        if (length > segmentBytes) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            // 整理数据段可能移动或者淘汰该键原来的记录，之后再查找索引
+            reserve(length);
+            int slot = find(key);
+            if (slot < 0) {
+                if (maxEntries > 0 && size >= maxEntries) {
+                    evictOne();
+                }
+                slot = insert(key);
+            }
+
+            ByteBuffer segment = segments[current];
+            int offset = used[current];
+            segment.putInt(offset, key);
+            segment.putInt(offset + 4, length);
+            segment.putLong(offset + 8, expiresAt);
+            ByteBuffer target = segment.duplicate();
+            target.position(offset + HEADER_BYTES);
+            target.put(data);
+            used[current] = offset + length;
+
+            index.putInt(slot * SLOT_BYTES + 4, current + 1);
+            index.putInt(slot * SLOT_BYTES + 8, offset);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int key) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot >= 0) {
+                delete(slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 释放所有数据段（由 GC 回收堆外内存）
+     */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = null;
+                used[i] = 0;
+            }
+            current = -1;
+            int expected = maxEntries > 0 ? maxEntries : MIN_CAPACITY;
+            allocateIndex(tableSize(expected));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 所有的键（包括已经过期、还没有被整理的）
+     */
+    int[] keys() {
+        lock.readLock().lock();
+        try {
+            int[] keys = new int[size];
+            int count = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (segmentOf(slot) > 0) {
+                    keys[count++] = index.getInt(slot * SLOT_BYTES);
+                }
+            }
+            return keys;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getEvictions() {
+        lock.readLock().lock();
+        try {
+            return evictions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getExpirations() {
+        return expirations.get();
+    }
+
+    /**
+     * 已经分配的堆外内存：索引和数据段
+     */
+    long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = index.capacity();
+            for (ByteBuffer segment : segments) {
+                if (segment != null) {
+                    bytes += segment.capacity();
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 保证当前数据段还有 length 字节的空间，否则切换到下一个数据段
+     */
+    private void reserve(int length) {
+        if (current >= 0 && used[current] + length <= segmentBytes) {
+            return;
+        }
+        int next = (current + 1) % segments.length;
+        if (segments[next] == null) {
+            segments[next] = ByteBuffer.allocateDirect(segmentBytes);
+        } else {
+            compact(next);
+            if (segmentBytes - used[next] < Math.max(length, segmentBytes / 4)) {
+                evictSegment(next);
+            }
+        }
+        current = next;
+    }
+
+    /**
+     * 丢弃数据段中的垃圾和过期的记录，有效的记录依次移动到数据段的开头
+     */
+    private void compact(int segmentIndex) {
+        ByteBuffer segment = segments[segmentIndex];
+        int read = 0;
+        int write = 0;
+        while (read < used[segmentIndex]) {
+            int key = segment.getInt(read);
+            int length = segment.getInt(read + 4);
+            int slot = find(key);
+            if (slot >= 0 && segmentOf(slot) == segmentIndex + 1 && offsetOf(slot) == read) {
+                if (isExpired(segment.getLong(read + 8))) {
+                    delete(slot);
+                    expirations.incrementAndGet();
+                } else {
+                    if (write != read) {
+                        move(segment, read, write, length);
+                        index.putInt(slot * SLOT_BYTES + 8, write);
+                    }
+                    write += length;
+                }
+            }
+            read += length;
+        }
+        used[segmentIndex] = write;
+    }
+
+    private void move(ByteBuffer segment, int from, int to, int length) {
+        if (moveBuffer.length < length) {
+            moveBuffer = new byte[Math.max(length, moveBuffer.length * 2)];
+        }
+        ByteBuffer source = segment.duplicate();
+        source.position(from);
+        source.get(moveBuffer, 0, length);
+        ByteBuffer target = segment.duplicate();
+        target.position(to);
+        target.put(moveBuffer, 0, length);
+    }
+
+    private void evictSegment(int segmentIndex) {
+        ByteBuffer segment = segments[segmentIndex];
+        int read = 0;
+        while (read < used[segmentIndex]) {
+            int slot = find(segment.getInt(read));
+            if (slot >= 0 && segmentOf(slot) == segmentIndex + 1 && offsetOf(slot) == read) {
+                delete(slot);
+                evictions++;
+            }
+            read += segment.getInt(read + 4);
+        }
+        used[segmentIndex] = 0;
+    }
+
+    private void evictOne() {
+        while (true) {
+            int slot = hand;
+            hand = (hand + 1) & (capacity - 1);
+            if (segmentOf(slot) > 0) {
+                delete(slot);
+                evictions++;
+                return;
+            }
+        }
+    }
+
+    private int find(int key) {
+        int mask = capacity - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int segment = segmentOf(slot);
+            if (segment == EMPTY) {
+                return -1;
+            }
+            if (segment != DELETED && index.getInt(slot * SLOT_BYTES) == key) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * 为不存在的键分配一个槽，由调用者写入数据段和位置
+     */
+    private int insert(int key) {
+        if (size + deleted + 1 > capacity / 4 * 3) {
+            // 删除标记过多时原地重建，条目过多时扩容
+            rebuildIndex(size + 1 > capacity / 2 ? capacity * 2 : capacity);
+        }
+        int mask = capacity - 1;
+        int slot = hash(key) & mask;
+        while (segmentOf(slot) > 0) {
+            slot = (slot + 1) & mask;
+        }
+        if (segmentOf(slot) == DELETED) {
+            deleted--;
+        }
+        index.putInt(slot * SLOT_BYTES, key);
+        size++;
+        return slot;
+    }
+
+    private void delete(int slot) {
+        index.putInt(slot * SLOT_BYTES + 4, DELETED);
+        size--;
+        deleted++;
+    }
+
+    private void rebuildIndex(int newCapacity) {
+        ByteBuffer old = index;
+        int oldCapacity = capacity;
+        allocateIndex(newCapacity);
+        int mask = capacity - 1;
+        for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            int segment = old.getInt(oldSlot * SLOT_BYTES + 4);
+            if (segment <= 0) {
+                continue;
+            }
+            int key = old.getInt(oldSlot * SLOT_BYTES);
+            int slot = hash(key) & mask;
+            while (segmentOf(slot) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            index.putInt(slot * SLOT_BYTES, key);
+            index.putInt(slot * SLOT_BYTES + 4, segment);
+            index.putInt(slot * SLOT_BYTES + 8, old.getInt(oldSlot * SLOT_BYTES + 8));
+            size++;
+        }
+    }
+
+    private void allocateIndex(int newCapacity) {
+        index = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+        capacity = newCapacity;
+        size = 0;
+        deleted = 0;
+        hand = 0;
+    }
+
+    private int segmentOf(int slot) {
+        return index.getInt(slot * SLOT_BYTES + 4);
+    }
+
+    private int offsetOf(int slot) {
+        return index.getInt(slot * SLOT_BYTES + 8);
+    }
+
+    private static boolean isExpired(long expiresAt) {
+        return expiresAt != 0 && System.currentTimeMillis() > expiresAt;
+    }
+
+    /**
+     * 装载因子不超过 0.75 的 2 的幂
+     */
+    private static int tableSize(int entries) {
+        int size = MIN_CAPACITY;
+        while (size / 4 * 3 < entries) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * 连续的 id 分散到不同的槽中（MurmurHash3 的 fmix32）
+     */
+    private static int hash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * 读取一条记录
+     */
+    interface RecordReader<T> {
+
+        /**
+         * @param record position 到 limit 之间为 put 时写入的数据
+         */
+        T read(ByteBuffer record);
+    }
+}
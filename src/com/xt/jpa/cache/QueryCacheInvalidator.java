@@ -0,0 +1,106 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.engine.spi.CollectionEntry;
+import org.hibernate.event.spi.AbstractCollectionEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Loadable;
+import org.hibernate.persister.entity.Lockable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 16:00
+ * @description 把实体和集合的修改通知给 DependencyTrackingQueryCache，由 CacheIntegrator 负责注册
+ *
+ * 1. 保存实体：实体的表中增加了行；
+ * 2. 修改实体：只有被修改的列（dirty 的属性和版本列）发生了变化；
+ * 3. 删除实体：实体的表中删除了该 ID 对应的行；
+ * 4. 维护关联关系的集合发生变化：集合的表中增加或删除了行。
+ *    mappedBy 的集合不修改数据库，其变化由维护关联关系一方的实体或集合通知。
+ */
+public class QueryCacheInvalidator implements PostInsertEventListener, PostUpdateEventListener,
+        PostDeleteEventListener, PostCollectionRecreateEventListener, PostCollectionUpdateEventListener,
+        PostCollectionRemoveEventListener {
+
+    private final DependencyTrackingQueryCacheFactory queryCacheFactory;
+
+    public QueryCacheInvalidator(DependencyTrackingQueryCacheFactory queryCacheFactory) {
+        this.queryCacheFactory = queryCacheFactory;
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        queryCacheFactory.publish(event.getSession(),
+                TableChange.rowsAdded(Arrays.asList(event.getPersister().getPropertySpaces())));
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        EntityPersister persister = event.getPersister();
+        int[] dirtyProperties = event.getDirtyProperties();
+
+        // 更新游离对象时不知道修改了哪些属性
+        List<String> columns = null;
+        if (dirtyProperties != null && persister instanceof Loadable) {
+            columns = new ArrayList<>();
+            for (int property : dirtyProperties) {
+                columns.addAll(Arrays.asList(((Loadable) persister).getPropertyColumnNames(property)));
+            }
+            if (persister.isVersioned() && persister instanceof Lockable) {
+                columns.add(((Lockable) persister).getVersionColumnName());
+            }
+        }
+        queryCacheFactory.publish(event.getSession(),
+                TableChange.update(Arrays.asList(persister.getPropertySpaces()), columns));
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        EntityPersister persister = event.getPersister();
+        queryCacheFactory.publish(event.getSession(), TableChange.delete(
+                Arrays.asList(persister.getPropertySpaces()), persister.getRootEntityName(), event.getId()));
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+        publishCollectionChange(event);
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+        publishCollectionChange(event);
+    }
+
+    @Override
+    public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+        publishCollectionChange(event);
+    }
+
+    private void publishCollectionChange(AbstractCollectionEvent event) {
+        // 新创建的集合在此时还没有设置 role，需要从持久化上下文的 CollectionEntry 中获取
+        CollectionEntry entry = event.getSession().getPersistenceContext().getCollectionEntry(event.getCollection());
+        CollectionPersister persister = entry == null ? null
+                : entry.getCurrentPersister() != null ? entry.getCurrentPersister() : entry.getLoadedPersister();
+        if (persister == null || persister.isInverse()) {
+            return;
+        }
+        queryCacheFactory.publish(event.getSession(),
+                TableChange.rowsAdded(Arrays.asList(persister.getCollectionSpaces())));
+    }
+}
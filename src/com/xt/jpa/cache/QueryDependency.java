@@ -0,0 +1,191 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 14:30
+ * @description 查询缓存条目所依赖的表、列和实体 ID
+ *
+ * 1. 表：SQL 中出现的所有表。
+ * 2. 列：from 之后（连接条件、where、group by、order by）出现的所有标识符；
+ *    查询结果中含有标量时，还包括 select 列表中的标识符。
+ *    结果只有实体时，缓存的只是实体的 ID，实体其他列的变化不会改变结果集。
+ * 3. ID：只查询单个实体、没有子查询和分组、从第一行开始的简单查询，记录结果中的实体 ID，
+ *    删除不在结果中的实体时不需要使该条目失效。
+ */
+final class QueryDependency {
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[a-z_][a-z0-9_$#]*");
+    private static final Pattern LITERAL = Pattern.compile("'[^']*'");
+    private static final Set<String> NOT_SIMPLE = new HashSet<>(Arrays.asList(
+            "group", "having", "union", "intersect", "except", "minus"));
+
+    private final Set<String> tables;
+    private final Set<String> columns;
+    private final String idBoundEntityName;
+    private final Set<Serializable> ids;
+
+    private QueryDependency(Set<String> tables, Set<String> columns, String idBoundEntityName, Set<Serializable> ids) {
+        this.tables = tables;
+        this.columns = columns;
+        this.idBoundEntityName = idBoundEntityName;
+        this.ids = ids;
+    }
+
+    /**
+     * @param shape       查询 SQL 的解析结果
+     * @param returnTypes 查询结果的类型
+     * @param rows        已经 disassemble 的查询结果，实体对应的是其 ID
+     * @param firstPage   查询是否从第一行开始
+     */
+    static QueryDependency of(SqlShape shape, Type[] returnTypes, List<?> rows, boolean firstPage,
+                              SessionFactoryImplementor factory) {
+        Set<String> columns = shape.conditionColumns;
+        String entityName = null;
+        boolean entityOnly = true;
+        for (Type type : returnTypes) {
+            if (!(type instanceof EntityType)) {
+                entityOnly = false;
+                continue;
+            }
+            String rootEntityName = factory.getEntityPersister(((EntityType) type).getAssociatedEntityName())
+                    .getRootEntityName();
+            if (entityName == null) {
+                entityName = rootEntityName;
+            } else if (!entityName.equals(rootEntityName)) {
+                entityOnly = false;
+            }
+        }
+        if (!entityOnly) {
+            if (shape.selectColumns == null) {
+                columns = null;
+            } else {
+                columns = new HashSet<>(shape.conditionColumns);
+                columns.addAll(shape.selectColumns);
+            }
+        }
+
+        if (entityName == null || !shape.simple || !firstPage
+                || !tablesOf(factory, entityName).containsAll(shape.tables)) {
+            return new QueryDependency(shape.tables, columns, null, Collections.<Serializable>emptySet());
+        }
+        Set<Serializable> ids = new HashSet<>();
+        for (Object row : rows) {
+            if (returnTypes.length == 1) {
+                ids.add((Serializable) row);
+                continue;
+            }
+            Serializable[] values = (Serializable[]) row;
+            for (int i = 0; i < returnTypes.length; i++) {
+                if (returnTypes[i] instanceof EntityType && values[i] != null) {
+                    ids.add(values[i]);
+                }
+            }
+        }
+        return new QueryDependency(shape.tables, columns, entityName, ids);
+    }
+
+    private static Set<String> tablesOf(SessionFactoryImplementor factory, String entityName) {
+        Set<String> tables = new HashSet<>();
+        for (Serializable space : factory.getEntityPersister(entityName).getQuerySpaces()) {
+            tables.add(space.toString().toLowerCase(Locale.ROOT));
+        }
+        return tables;
+    }
+
+    Set<String> getTables() {
+        return tables;
+    }
+
+    /**
+     * 为 null 时表示依赖所有的列
+     */
+    Set<String> getColumns() {
+        return columns;
+    }
+
+    boolean isIdBound(String rootEntityName) {
+        return idBoundEntityName != null && idBoundEntityName.equals(rootEntityName);
+    }
+
+    boolean containsId(Serializable id) {
+        return ids.contains(id);
+    }
+
+    /**
+     * 查询 SQL 中与结果无关的部分：引用的表、select 列表和 from 之后的标识符。
+     * 同一条 SQL 只需要解析一次。
+     */
+    static final class SqlShape {
+        private final Set<String> tables = new HashSet<>();
+        private final Set<String> conditionColumns = new HashSet<>();
+        /**
+         * select 列表中含有 * 时为 null
+         */
+        private Set<String> selectColumns = new HashSet<>();
+        private boolean simple = true;
+
+        static SqlShape parse(String sql, Set<String> knownTables) {
+            SqlShape shape = new SqlShape();
+            String text = LITERAL.matcher(sql.toLowerCase(Locale.ROOT)).replaceAll("''")
+                    .replace('`', ' ').replace('"', ' ');
+
+            Matcher matcher = IDENTIFIER.matcher(text);
+            int position = 0;
+            int depth = 0;
+            int selects = 0;
+            boolean inSelect = true;
+            while (matcher.find()) {
+                for (int i = position; i < matcher.start(); i++) {
+                    char c = text.charAt(i);
+                    if (c == '(') {
+                        depth++;
+                    } else if (c == ')') {
+                        depth--;
+                    } else if (c == '*' && inSelect && depth == 0) {
+                        shape.selectColumns = null;
+                    }
+                }
+                position = matcher.end();
+
+                String word = matcher.group();
+                if (word.equals("select")) {
+                    selects++;
+                    continue;
+                }
+                if (inSelect && depth == 0 && word.equals("from")) {
+                    inSelect = false;
+                    continue;
+                }
+                if (NOT_SIMPLE.contains(word)) {
+                    shape.simple = false;
+                }
+                if (knownTables.contains(word)) {
+                    shape.tables.add(word);
+                }
+                if (!inSelect) {
+                    shape.conditionColumns.add(word);
+                } else if (shape.selectColumns != null) {
+                    shape.selectColumns.add(word);
+                }
+            }
+            if (selects != 1) {
+                shape.simple = false;
+            }
+            return shape;
+        }
+    }
+}
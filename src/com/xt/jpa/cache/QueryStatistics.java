@@ -0,0 +1,66 @@
+package com.xt.jpa.cache;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 15:20
+ * @description 查询缓存中单条查询语句的统计信息（快照）
+ */
+public class QueryStatistics {
+
+    private final String query;
+    private final long hits;
+    private final long misses;
+    private final long puts;
+    private final long invalidations;
+
+    public QueryStatistics(String query, long hits, long misses, long puts, long invalidations) {
+        this.query = query;
+        this.hits = hits;
+        this.misses = misses;
+        this.puts = puts;
+        this.invalidations = invalidations;
+    }
+
+    /**
+     * 查询对应的 SQL
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getPuts() {
+        return puts;
+    }
+
+    /**
+     * 因为数据修改而失效的条目数
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryStatistics{" +
+                "query='" + query + '\'' +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", puts=" + puts +
+                ", invalidations=" + invalidations +
+                ", hitRatio=" + String.format("%.3f", getHitRatio()) +
+                '}';
+    }
+}
@@ -0,0 +1,68 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 15:30
+ * @description read-only：适用于从不修改的数据，更新时抛出异常
+ */
+class ReadOnlyAccessPolicy extends AccessPolicy {
+
+    ReadOnlyAccessPolicy(LocalTransactionalRegion region) {
+        super(region);
+    }
+
+    @Override
+    Object get(Object key, long txTimestamp) {
+        return cache.get(key);
+    }
+
+    @Override
+    boolean putFromLoad(Object key, Object value, long txTimestamp, Object version, boolean minimalPutOverride) {
+        if (minimalPutOverride && cache.containsKey(key)) {
+            return false;
+        }
+        cache.put(key, value);
+        return true;
+    }
+
+    @Override
+    SoftLock lockItem(Object key, Object version) {
+        return null;
+    }
+
+    /**
+     * 只读的实体被删除时会调用该方法
+     */
+    @Override
+    void unlockItem(Object key, SoftLock lock) {
+        cache.remove(key);
+    }
+
+    @Override
+    boolean insert(Object key, Object value, Object version) {
+        return false;
+    }
+
+    @Override
+    boolean afterInsert(Object key, Object value, Object version) {
+        cache.put(key, value);
+        return true;
+    }
+
+    @Override
+    boolean update(Object key, Object value, Object currentVersion, Object previousVersion) {
+        throw new UnsupportedOperationException("不能修改只读缓存区域 " + region.getName() + " 中的数据");
+    }
+
+    @Override
+    boolean afterUpdate(Object key, Object value, Object currentVersion, Object previousVersion, SoftLock lock) {
+        throw new UnsupportedOperationException("不能修改只读缓存区域 " + region.getName() + " 中的数据");
+    }
+
+    @Override
+    void remove(Object key) {
+        cache.remove(key);
+    }
+}
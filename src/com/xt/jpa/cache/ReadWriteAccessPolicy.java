@@ -0,0 +1,299 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.cache.spi.access.SoftLock;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 15:50
+ * @description read-write：使用软锁保证读已提交的一致性
+ *
+ * 1. 修改数据之前对条目加软锁（lockItem），加锁期间其他事务读不到该条目，也不能从数据库加载后放入缓存。
+ * 2. 事务提交后（afterUpdate / unlockItem）释放软锁，放入新的数据或者记录解锁时间。
+ * 3. 只有开始时间晚于条目写入时间的事务才能读到该条目。
+ * 4. 软锁超过 LOCK_TIMEOUT 后失效，避免因为进程崩溃而永久锁住条目。
+ */
+class ReadWriteAccessPolicy extends AccessPolicy {
+
+    private final UUID uuid = UUID.randomUUID();
+    private final AtomicLong nextLockId = new AtomicLong();
+    private final Comparator<Object> versionComparator;
+
+    ReadWriteAccessPolicy(LocalTransactionalRegion region) {
+        super(region);
+        // hibernate 返回原始类型的 Comparator，比较的总是同一个实体的两个版本
+        @SuppressWarnings("unchecked")
+        Comparator<Object> versionComparator = region.getCacheDataDescription().getVersionComparator();
+        this.versionComparator = versionComparator;
+    }
+
+    @Override
+    Object get(Object key, long txTimestamp) {
+        Lockable item = (Lockable) cache.get(key);
+        if (item == null) {
+            return null;
+        }
+        if (!item.isReadable(txTimestamp)) {
+            cache.markMiss();
+            return null;
+        }
+        return item.getValue();
+    }
+
+    @Override
+    synchronized boolean putFromLoad(Object key, Object value, long txTimestamp, Object version,
+                                     boolean minimalPutOverride) {
+        Lockable item = (Lockable) cache.peek(key);
+        boolean writeable = item == null || item.isWriteable(txTimestamp, version, versionComparator);
+        if (writeable) {
+            cache.put(key, new Item(value, version, region.nextTimestamp()));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    synchronized SoftLock lockItem(Object key, Object version) {
+        Lockable item = (Lockable) cache.peek(key);
+        long timeout = region.nextTimestamp() + region.getTimeout();
+        Lock lock = item == null
+                ? new Lock(timeout, uuid, nextLockId.getAndIncrement(), version)
+                : item.lock(timeout, uuid, nextLockId.getAndIncrement());
+        cache.put(key, lock);
+        return lock;
+    }
+
+    @Override
+    synchronized void unlockItem(Object key, SoftLock lock) {
+        Lockable item = (Lockable) cache.peek(key);
+        if (item != null && item.isUnlockable(lock)) {
+            decrementLock(key, (Lock) item);
+        } else {
+            handleLockExpiry(key);
+        }
+    }
+
+    @Override
+    boolean insert(Object key, Object value, Object version) {
+        return false;
+    }
+
+    @Override
+    synchronized boolean afterInsert(Object key, Object value, Object version) {
+        if (cache.peek(key) == null) {
+            cache.put(key, new Item(value, version, region.nextTimestamp()));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    boolean update(Object key, Object value, Object currentVersion, Object previousVersion) {
+        return false;
+    }
+
+    @Override
+    synchronized boolean afterUpdate(Object key, Object value, Object currentVersion, Object previousVersion,
+                                     SoftLock softLock) {
+        Lockable item = (Lockable) cache.peek(key);
+        if (item != null && item.isUnlockable(softLock)) {
+            Lock lock = (Lock) item;
+            if (lock.wasLockedConcurrently()) {
+                decrementLock(key, lock);
+                return false;
+            }
+            cache.put(key, new Item(value, currentVersion, region.nextTimestamp()));
+            return true;
+        }
+        handleLockExpiry(key);
+        return false;
+    }
+
+    /**
+     * 删除实体时通过 lockItem / unlockItem 使条目失效，这里不需要处理
+     */
+    @Override
+    void remove(Object key) {
+    }
+
+    /**
+     * 只移除数据，保留软锁：软锁被移除后，事务提交时 unlockItem 找不到软锁，会把该条目锁住 LOCK_TIMEOUT 的时间
+     */
+    @Override
+    synchronized void evict(Object key) {
+        if (!(cache.peek(key) instanceof Lock)) {
+            cache.remove(key);
+        }
+    }
+
+    private void decrementLock(Object key, Lock lock) {
+        lock.unlock(region.nextTimestamp());
+        cache.put(key, lock);
+    }
+
+    /**
+     * 软锁已经超时或者条目已经被淘汰：放入一个已经解锁的软锁，
+     * 在超时之前阻止其他事务把可能过期的数据放入缓存。
+     */
+    private void handleLockExpiry(Object key) {
+        long timestamp = region.nextTimestamp() + region.getTimeout();
+        Lock lock = new Lock(timestamp, uuid, nextLockId.getAndIncrement(), null);
+        lock.unlock(timestamp);
+        cache.put(key, lock);
+    }
+
+    /**
+     * 缓存中保存的条目：数据（Item）或者软锁（Lock）
+     */
+    interface Lockable {
+
+        boolean isReadable(long txTimestamp);
+
+        boolean isWriteable(long txTimestamp, Object newVersion, Comparator<Object> versionComparator);
+
+        Object getValue();
+
+        boolean isUnlockable(SoftLock lock);
+
+        Lock lock(long timeout, UUID uuid, long lockId);
+    }
+
+    static final class Item implements Lockable, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object value;
+        private final Object version;
+        private final long timestamp;
+
+        Item(Object value, Object version, long timestamp) {
+            this.value = value;
+            this.version = version;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public boolean isReadable(long txTimestamp) {
+            return txTimestamp > timestamp;
+        }
+
+        @Override
+        public boolean isWriteable(long txTimestamp, Object newVersion, Comparator<Object> versionComparator) {
+            return version != null && versionComparator.compare(version, newVersion) < 0;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        Object getVersion() {
+            return version;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean isUnlockable(SoftLock lock) {
+            return false;
+        }
+
+        @Override
+        public Lock lock(long timeout, UUID uuid, long lockId) {
+            return new Lock(timeout, uuid, lockId, version);
+        }
+    }
+
+    static final class Lock implements Lockable, SoftLock, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final UUID sourceUuid;
+        private final long lockId;
+        private final Object version;
+
+        private long timeout;
+        private boolean concurrent;
+        private int multiplicity = 1;
+        private long unlockTimestamp;
+
+        Lock(long timeout, UUID sourceUuid, long lockId, Object version) {
+            this.timeout = timeout;
+            this.sourceUuid = sourceUuid;
+            this.lockId = lockId;
+            this.version = version;
+        }
+
+        @Override
+        public boolean isReadable(long txTimestamp) {
+            return false;
+        }
+
+        @Override
+        public boolean isWriteable(long txTimestamp, Object newVersion, Comparator<Object> versionComparator) {
+            if (txTimestamp > timeout) {
+                // 软锁已经超时
+                return true;
+            }
+            if (multiplicity > 0) {
+                // 软锁还没有释放
+                return false;
+            }
+            return version == null
+                    ? txTimestamp > unlockTimestamp
+                    : versionComparator.compare(version, newVersion) < 0;
+        }
+
+        @Override
+        public Object getValue() {
+            return null;
+        }
+
+        @Override
+        public boolean isUnlockable(SoftLock lock) {
+            return equals(lock);
+        }
+
+        @Override
+        public Lock lock(long timeout, UUID uuid, long lockId) {
+            concurrent = true;
+            multiplicity++;
+            this.timeout = timeout;
+            return this;
+        }
+
+        void unlock(long timestamp) {
+            if (--multiplicity == 0) {
+                unlockTimestamp = timestamp;
+            }
+        }
+
+        boolean wasLockedConcurrently() {
+            return concurrent;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Lock)) {
+                return false;
+            }
+            Lock other = (Lock) o;
+            return lockId == other.lockId && sourceUuid.equals(other.sourceUuid);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = sourceUuid.hashCode();
+            return hash ^ (int) (lockId ^ (lockId >>> 32));
+        }
+    }
+}
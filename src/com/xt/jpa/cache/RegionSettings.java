@@ -0,0 +1,88 @@
+package com.xt.jpa.cache;
+
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import java.util.Properties;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 14:20
+ * @description 缓存区域的配置
+ *
+ * 先读取区域自己的配置，没有配置时使用默认配置：
+ *    xt.cache.region.[区域名].max_entries  /  xt.cache.default.max_entries   最大条目数，0 表示不限制
+ *    xt.cache.region.[区域名].ttl_seconds  /  xt.cache.default.ttl_seconds   存活时间，0 表示永不过期
+ *    xt.cache.region.[区域名].eviction     /  xt.cache.default.eviction      淘汰策略：lru 或 w-tinylfu
+ *    xt.cache.region.[区域名].off_heap_mb  /  xt.cache.default.off_heap_mb   大于 0 时实体保存在堆外内存中（见 OffHeapCache），
+ *                                                                          最多使用的内存（MB），此时 eviction 不起作用
+ * 实体的区域名默认为实体类的全类名，集合的区域名为 全类名.属性名。
+ */
+public class RegionSettings {
+
+    public static final String PREFIX = "xt.cache.";
+    public static final String DEFAULT_PREFIX = PREFIX + "default.";
+    public static final String REGION_PREFIX = PREFIX + "region.";
+
+    public static final String MAX_ENTRIES = "max_entries";
+    public static final String TTL_SECONDS = "ttl_seconds";
+    public static final String EVICTION = "eviction";
+    public static final String OFF_HEAP_MB = "off_heap_mb";
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final EvictionPolicy evictionPolicy;
+    private final int offHeapMegabytes;
+
+    public RegionSettings(int maxEntries, long ttlMillis, EvictionPolicy evictionPolicy) {
+        this(maxEntries, ttlMillis, evictionPolicy, 0);
+    }
+
+    public RegionSettings(int maxEntries, long ttlMillis, EvictionPolicy evictionPolicy, int offHeapMegabytes) {
+        if (maxEntries < 0 || ttlMillis < 0 || offHeapMegabytes < 0) {
+            throw new IllegalArgumentException("max_entries、ttl_seconds 和 off_heap_mb 不能小于 0");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.evictionPolicy = evictionPolicy;
+        this.offHeapMegabytes = offHeapMegabytes;
+    }
+
+    /**
+     * 不限制大小、永不过期的区域，用于 UpdateTimestampsCache：
+     * 该区域中的条目被淘汰会导致查询缓存返回过期的结果。
+     */
+    public static RegionSettings unbounded() {
+        return new RegionSettings(0, 0, EvictionPolicy.LRU);
+    }
+
+    public static RegionSettings forRegion(String regionName, Properties properties) {
+        int maxEntries = ConfigurationHelper.getInt(REGION_PREFIX + regionName + "." + MAX_ENTRIES, properties,
+                ConfigurationHelper.getInt(DEFAULT_PREFIX + MAX_ENTRIES, properties, DEFAULT_MAX_ENTRIES));
+        int ttlSeconds = ConfigurationHelper.getInt(REGION_PREFIX + regionName + "." + TTL_SECONDS, properties,
+                ConfigurationHelper.getInt(DEFAULT_PREFIX + TTL_SECONDS, properties, 0));
+        String eviction = ConfigurationHelper.getString(REGION_PREFIX + regionName + "." + EVICTION, properties,
+                ConfigurationHelper.getString(DEFAULT_PREFIX + EVICTION, properties, EvictionPolicy.W_TINY_LFU.name()));
+        int offHeapMegabytes = ConfigurationHelper.getInt(REGION_PREFIX + regionName + "." + OFF_HEAP_MB, properties,
+                ConfigurationHelper.getInt(DEFAULT_PREFIX + OFF_HEAP_MB, properties, 0));
+        return new RegionSettings(maxEntries, ttlSeconds * 1000L, EvictionPolicy.fromExternalName(eviction),
+                offHeapMegabytes);
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public int getOffHeapMegabytes() {
+        return offHeapMegabytes;
+    }
+}
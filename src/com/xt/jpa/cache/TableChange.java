@@ -0,0 +1,115 @@
+package com.xt.jpa.cache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * @author xt
+ * @date 2019/2/19 - 14:10
+ * @description 一次数据修改影响到的表、列和实体，用于判断哪些查询缓存条目需要失效
+ */
+final class TableChange {
+
+    enum Kind {
+        /**
+         * 插入了新的行，或者不确定修改了哪些行（集合变化、批量删除）
+         */
+        ROWS_ADDED,
+        /**
+         * 修改了已有行的某些列
+         */
+        UPDATE,
+        /**
+         * 删除了一个实体
+         */
+        DELETE
+    }
+
+    private final Kind kind;
+    private final Set<String> tables;
+    /**
+     * 被修改的列，为 null 时表示所有的列
+     */
+    private final Set<String> columns;
+    private final String rootEntityName;
+    private final Serializable id;
+    private final long timestamp;
+
+    private TableChange(Kind kind, Set<String> tables, Set<String> columns, String rootEntityName, Serializable id,
+                        long timestamp) {
+        this.kind = kind;
+        this.tables = tables;
+        this.columns = columns;
+        this.rootEntityName = rootEntityName;
+        this.id = id;
+        this.timestamp = timestamp;
+    }
+
+    static TableChange rowsAdded(Collection<? extends Serializable> tables) {
+        return new TableChange(Kind.ROWS_ADDED, lowerCase(tables), null, null, null, 0);
+    }
+
+    /**
+     * @param columns 被修改的列，为 null 时表示不确定修改了哪些列
+     */
+    static TableChange update(Collection<? extends Serializable> tables, Collection<String> columns) {
+        return new TableChange(Kind.UPDATE, lowerCase(tables), columns == null ? null : lowerCase(columns), null, null, 0);
+    }
+
+    static TableChange delete(Collection<? extends Serializable> tables, String rootEntityName, Serializable id) {
+        return new TableChange(Kind.DELETE, lowerCase(tables), null, rootEntityName, id, 0);
+    }
+
+    /**
+     * 记录修改发生的时间：flush 时和事务结束后各记录一次
+     */
+    TableChange at(long timestamp) {
+        return new TableChange(kind, tables, columns, rootEntityName, id, timestamp);
+    }
+
+    Set<String> getTables() {
+        return tables;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 该修改是否可能改变查询的结果
+     */
+    boolean affects(QueryDependency dependency) {
+        if (Collections.disjoint(tables, dependency.getTables())) {
+            return false;
+        }
+        switch (kind) {
+            case UPDATE:
+                // 没有修改查询条件、排序以及标量结果用到的列，结果集不会改变
+                return columns == null || dependency.getColumns() == null
+                        || !Collections.disjoint(columns, dependency.getColumns());
+            case DELETE:
+                // 只查询单个实体的简单查询：被删除的实体不在结果中，结果集不会改变
+                return !dependency.isIdBound(rootEntityName) || dependency.containsId(id);
+            default:
+                return true;
+        }
+    }
+
+    private static Set<String> lowerCase(Collection<? extends Serializable> names) {
+        Set<String> set = new HashSet<>();
+        for (Serializable name : names) {
+            set.add(name.toString().toLowerCase(Locale.ROOT));
+        }
+        return set;
+    }
+
+    @Override
+    public String toString() {
+        return "TableChange{" + kind + " " + tables + (columns == null ? "" : " " + columns)
+                + (id == null ? "" : " #" + id) + '}';
+    }
+}
@@ -0,0 +1,67 @@
+package com.xt.jpa.context;
+
+/**
+ * @author xt
+ * @date 2019/2/24 - 15:00
+ * @description ManagedUnitOfWork 中一个事务的持久化上下文大小（快照）
+ */
+public class ContextSizeStatistics {
+
+    private final int peakManagedEntities;
+    private final int flushAndClears;
+    private final int reattached;
+    private final double durationMillis;
+    private final boolean committed;
+
+    public ContextSizeStatistics(int peakManagedEntities, int flushAndClears, int reattached, double durationMillis,
+                                 boolean committed) {
+        this.peakManagedEntities = peakManagedEntities;
+        this.flushAndClears = flushAndClears;
+        this.reattached = reattached;
+        this.durationMillis = durationMillis;
+        this.committed = committed;
+    }
+
+    /**
+     * 持久化上下文中实体个数的最大值（在每次操作之后统计）
+     */
+    public int getPeakManagedEntities() {
+        return peakManagedEntities;
+    }
+
+    /**
+     * 达到阈值后自动 flush 和 clear 的次数
+     */
+    public int getFlushAndClears() {
+        return flushAndClears;
+    }
+
+    /**
+     * clear 之后被修改、又重新关联到持久化上下文的实体个数
+     */
+    public int getReattached() {
+        return reattached;
+    }
+
+    public double getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * 还没有结束的事务或者已经回滚的事务为 false
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    @Override
+    public String toString() {
+        return "ContextSizeStatistics{" +
+                "peakManagedEntities=" + peakManagedEntities +
+                ", flushAndClears=" + flushAndClears +
+                ", reattached=" + reattached +
+                ", duration=" + String.format("%.3f", durationMillis) + "ms" +
+                ", committed=" + committed +
+                '}';
+    }
+}
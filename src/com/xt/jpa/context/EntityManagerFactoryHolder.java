@@ -0,0 +1,97 @@
+package com.xt.jpa.context;
+
+import com.xt.jpa.batch.WriteBehindQueue;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author xt
+ * @date 2019/2/21 - 9:40
+ * @description 每个持久化单元只创建一个 EntityManagerFactory，由所有线程共享
+ *
+ * 1. EntityManagerFactory 是线程安全的，创建它的代价很大（映射、连接池、二级缓存），不应该每次请求都创建；
+ * 2. 第一次使用时创建，JVM 退出时关闭，也可以调用 close 提前关闭；
+ * 3. 每个持久化单元对应一个 EntityManagerProvider，为每个线程提供自己的 EntityManager；
+ * 4. getWriteBehindQueue 返回持久化单元共用的 WriteBehindQueue，关闭 EntityManagerFactory 之前先关闭它，
+ *    队列中剩余的写操作在关闭（包括 JVM 退出）时提交。
+ */
+public final class EntityManagerFactoryHolder {
+
+    public static final String DEFAULT_PERSISTENCE_UNIT = "jpa-1";
+
+    private static final Map<String, EntityManagerProvider> PROVIDERS = new HashMap<>();
+    private static final Map<String, WriteBehindQueue> WRITE_BEHIND_QUEUES = new HashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("EntityManagerFactoryHolder-shutdown") {
+            @Override
+            public void run() {
+                closeAll();
+            }
+        });
+    }
+
+    private EntityManagerFactoryHolder() {
+    }
+
+    public static EntityManagerFactory getEntityManagerFactory() {
+        return getEntityManagerFactory(DEFAULT_PERSISTENCE_UNIT);
+    }
+
+    public static EntityManagerFactory getEntityManagerFactory(String persistenceUnitName) {
+        return getEntityManagerProvider(persistenceUnitName).getEntityManagerFactory();
+    }
+
+    public static EntityManagerProvider getEntityManagerProvider() {
+        return getEntityManagerProvider(DEFAULT_PERSISTENCE_UNIT);
+    }
+
+    /**
+     * 持久化单元的 EntityManagerFactory 不存在或者已经关闭时创建新的
+     */
+    public static synchronized EntityManagerProvider getEntityManagerProvider(String persistenceUnitName) {
+        EntityManagerProvider provider = PROVIDERS.get(persistenceUnitName);
+        if (provider == null || !provider.getEntityManagerFactory().isOpen()) {
+            provider = new EntityManagerProvider(Persistence.createEntityManagerFactory(persistenceUnitName));
+            PROVIDERS.put(persistenceUnitName, provider);
+        }
+        return provider;
+    }
+
+    public static WriteBehindQueue getWriteBehindQueue() {
+        return getWriteBehindQueue(DEFAULT_PERSISTENCE_UNIT);
+    }
+
+    /**
+     * 持久化单元的 WriteBehindQueue 不存在或者已经关闭时创建新的
+     */
+    public static synchronized WriteBehindQueue getWriteBehindQueue(String persistenceUnitName) {
+        WriteBehindQueue queue = WRITE_BEHIND_QUEUES.get(persistenceUnitName);
+        if (queue == null || queue.isClosed()) {
+            queue = new WriteBehindQueue(getEntityManagerFactory(persistenceUnitName));
+            WRITE_BEHIND_QUEUES.put(persistenceUnitName, queue);
+        }
+        return queue;
+    }
+
+    public static synchronized void close(String persistenceUnitName) {
+        WriteBehindQueue queue = WRITE_BEHIND_QUEUES.remove(persistenceUnitName);
+        if (queue != null) {
+            // 先提交队列中剩余的写操作
+            queue.close();
+        }
+        EntityManagerProvider provider = PROVIDERS.remove(persistenceUnitName);
+        if (provider != null && provider.getEntityManagerFactory().isOpen()) {
+            provider.getEntityManagerFactory().close();
+        }
+    }
+
+    public static synchronized void closeAll() {
+        for (String persistenceUnitName : PROVIDERS.keySet().toArray(new String[0])) {
+            close(persistenceUnitName);
+        }
+    }
+}
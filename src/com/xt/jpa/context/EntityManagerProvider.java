@@ -0,0 +1,141 @@
+package com.xt.jpa.context;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+/**
+ * @author xt
+ * @date 2019/2/21 - 10:00
+ * @description 为每个线程提供与之绑定的 EntityManager，并提供事务的模板方法
+ *
+ * 1. EntityManager 不是线程安全的，每个线程在 open 和 close 之间使用自己的 EntityManager，
+ *    同一个作用域内的代码通过 current 得到同一个 EntityManager（同一个持久化上下文）；
+ * 2. inTransaction 相当于 Spring 的 PROPAGATION_REQUIRED：当前没有事务时开启事务，结束时提交，
+ *    抛出异常时回滚；已经在事务中时加入该事务，抛出异常时把事务标记为只能回滚，外层提交时抛出 RollbackException；
+ * 3. 最外层的作用域关闭时关闭 EntityManager，并清除 ThreadLocal，线程池中的线程不会留下上一个任务的 EntityManager。
+ *
+ * 例如：
+ *     provider.inTransaction(new JpaCallback<Customer>() {
+ *         public Customer doInJpa(EntityManager entityManager) {
+ *             return entityManager.find(Customer.class, 1);
+ *         }
+ *     });
+ */
+public class EntityManagerProvider {
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final ThreadLocal<Binding> bindings = new ThreadLocal<>();
+
+    public EntityManagerProvider(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
+    /**
+     * 打开作用域：当前线程还没有 EntityManager 时创建并绑定，否则沿用已经绑定的 EntityManager
+     */
+    public EntityManagerScope open() {
+        Binding binding = bindings.get();
+        if (binding == null) {
+            binding = new Binding(entityManagerFactory.createEntityManager());
+            bindings.set(binding);
+        }
+        binding.depth++;
+        return new EntityManagerScope(this);
+    }
+
+    public boolean isBound() {
+        return bindings.get() != null;
+    }
+
+    /**
+     * @throws IllegalStateException 当前线程没有打开作用域
+     */
+    public EntityManager current() {
+        Binding binding = bindings.get();
+        if (binding == null) {
+            throw new IllegalStateException("当前线程没有绑定 EntityManager，请先调用 open 或者使用 execute / inTransaction");
+        }
+        return binding.entityManager;
+    }
+
+    /**
+     * 在作用域内执行操作，不开启事务
+     */
+    public <T> T execute(JpaCallback<T> callback) {
+        try (EntityManagerScope scope = open()) {
+            return callback.doInJpa(scope.getEntityManager());
+        }
+    }
+
+    /**
+     * 在事务中执行操作（加入当前的事务或者开启新的事务）
+     */
+    public <T> T inTransaction(JpaCallback<T> callback) {
+        try (EntityManagerScope scope = open()) {
+            EntityManager entityManager = scope.getEntityManager();
+            EntityTransaction transaction = entityManager.getTransaction();
+            if (transaction.isActive()) {
+                try {
+                    return callback.doInJpa(entityManager);
+                } catch (RuntimeException | Error e) {
+                    transaction.setRollbackOnly();
+                    throw e;
+                }
+            }
+
+            transaction.begin();
+            T result;
+            try {
+                result = callback.doInJpa(entityManager);
+            } catch (RuntimeException | Error e) {
+                rollbackQuietly(transaction);
+                throw e;
+            }
+            // 内层的操作把事务标记为只能回滚时，commit 回滚事务并抛出 RollbackException
+            transaction.commit();
+            return result;
+        }
+    }
+
+    void release() {
+        Binding binding = bindings.get();
+        if (binding == null || --binding.depth > 0) {
+            return;
+        }
+        bindings.remove();
+        EntityManager entityManager = binding.entityManager;
+        try {
+            EntityTransaction transaction = entityManager.getTransaction();
+            if (transaction.isActive()) {
+                // 作用域内开启但没有结束的事务
+                rollbackQuietly(transaction);
+            }
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private static void rollbackQuietly(EntityTransaction transaction) {
+        try {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        } catch (RuntimeException e) {
+            // 保留原来的异常
+        }
+    }
+
+    private static final class Binding {
+        private final EntityManager entityManager;
+        private int depth;
+
+        private Binding(EntityManager entityManager) {
+            this.entityManager = entityManager;
+        }
+    }
+}
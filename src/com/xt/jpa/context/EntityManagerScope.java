@@ -0,0 +1,48 @@
+package com.xt.jpa.context;
+
+import javax.persistence.EntityManager;
+import java.io.Closeable;
+
+/**
+ * @author xt
+ * @date 2019/2/21 - 9:50
+ * @description EntityManagerProvider.open 返回的作用域，配合 try-with-resources 使用
+ *
+ * 嵌套的作用域共享最外层作用域创建的 EntityManager，最外层的作用域关闭时才关闭 EntityManager 并解除与线程的绑定。
+ * 作用域只能在打开它的线程中关闭，并且必须按照打开的相反顺序关闭。
+ */
+public final class EntityManagerScope implements Closeable {
+
+    private final EntityManagerProvider provider;
+    private final Thread thread;
+    private boolean closed;
+
+    EntityManagerScope(EntityManagerProvider provider) {
+        this.provider = provider;
+        this.thread = Thread.currentThread();
+    }
+
+    /**
+     * 作用域绑定的 EntityManager，与 provider.current() 相同
+     *
+     * @throws IllegalStateException 作用域已经关闭
+     */
+    public EntityManager getEntityManager() {
+        if (closed) {
+            throw new IllegalStateException("EntityManagerScope 已经关闭");
+        }
+        return provider.current();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        if (thread != Thread.currentThread()) {
+            throw new IllegalStateException("EntityManagerScope 只能在打开它的线程 " + thread.getName() + " 中关闭");
+        }
+        closed = true;
+        provider.release();
+    }
+}
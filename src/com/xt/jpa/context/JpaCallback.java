@@ -0,0 +1,13 @@
+package com.xt.jpa.context;
+
+import javax.persistence.EntityManager;
+
+/**
+ * @author xt
+ * @date 2019/2/21 - 9:30
+ * @description 使用当前线程绑定的 EntityManager 执行的操作
+ */
+public interface JpaCallback<T> {
+
+    T doInJpa(EntityManager entityManager);
+}
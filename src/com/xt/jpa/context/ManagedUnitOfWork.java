@@ -0,0 +1,444 @@
+package com.xt.jpa.context;
+
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.dirty.DirtyTracking;
+import org.hibernate.HibernateException;
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.OptimisticLockException;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author xt
+ * @date 2019/2/24 - 15:10
+ * @description 限制持久化上下文大小的工作单元，用于在一个事务中处理大量实体的批处理
+ *
+ * 通过 getEntityManager 返回的 EntityManager 操作时：
+ * 1. 每次 persist、merge、find、getReference、refresh、remove、lock 以及执行查询之前，持久化上下文中的实体个数
+ *    达到 maxManagedEntities（xt.context.max_managed_entities，默认 1000）时先 flush 再 clear，
+ *    已经执行的修改写入数据库（但不提交），持久化上下文的大小不会随着数据量增长；
+ * 2. clear 之后调用者手中的实体变为游离状态。为了不丢失对它们的修改，clear 时在这些实体的 DirtyAttributes 上
+ *    注册监听器，只记住 clear 之后 setter 又记录了修改（DirtyTracking）的实体，之后 flush、提交事务、达到阈值时
+ *    把它们重新关联到持久化上下文，修改随之写入数据库。没有被修改的游离实体不会被记住，也不会被反复检查；
+ * 3. 对 clear 之后的游离实体调用 remove、refresh、lock 时先重新关联，不会抛出 IllegalArgumentException；
+ * 4. retain 的实体（例如所有数据共用的 Category）在 clear 之后重新关联，始终处于持久化状态；
+ * 5. 记录每个事务中持久化上下文的最大实体个数、clear 的次数，见 getTransactions。
+ *
+ * 注意：
+ * 1. 还没有初始化的懒加载代理和集合在 clear 之后不能再初始化，需要在达到阈值之前访问，或者重新查询；
+ * 2. 查询不会自动 flush 游离实体上的修改，它们在下一次 flush 时才写入数据库；
+ * 3. 同一行在当前的持久化上下文中已经有另一个对象时，那个对象可能比游离对象更新，所以不会 merge 整个游离对象：
+ *    带有 @Version 的实体版本不同时抛出 OptimisticLockException；DirtyTracking 的实体只把游离对象上被修改的属性
+ *    复制过去，同一个属性在两个对象上都被修改成不同的值时抛出 OptimisticLockException。
+ *
+ * 与 EntityManager 一样不是线程安全的。
+ */
+public class ManagedUnitOfWork {
+
+    public static final String MAX_MANAGED_ENTITIES = "xt.context.max_managed_entities";
+    public static final int DEFAULT_MAX_MANAGED_ENTITIES = 1000;
+
+    /**
+     * 最多保留最近多少个事务的统计信息
+     */
+    private static final int MAX_TRANSACTION_STATISTICS = 100;
+
+    private final EntityManager target;
+    private final EntityManager entityManager;
+    private final EntityTransaction transaction;
+    private final int maxManagedEntities;
+
+    private final Set<Object> retained = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private final List<DirtyTracking> modified = new ArrayList<>();
+    private final Deque<ContextSizeStatistics> transactions = new ArrayDeque<>();
+
+    private long transactionStart = System.nanoTime();
+    private int peakManagedEntities;
+    private int flushAndClears;
+    private int reattached;
+
+    /**
+     * 调用者 clear、close 或者回滚时加 1，之前注册的监听器随之失效
+     */
+    private int generation;
+
+    /**
+     * 阈值取 EntityManagerFactory 的 xt.context.max_managed_entities 属性
+     */
+    public static ManagedUnitOfWork of(EntityManager entityManager) {
+        Object max = entityManager.getEntityManagerFactory().getProperties().get(MAX_MANAGED_ENTITIES);
+        return new ManagedUnitOfWork(entityManager,
+                max == null ? DEFAULT_MAX_MANAGED_ENTITIES : Integer.parseInt(max.toString().trim()));
+    }
+
+    public ManagedUnitOfWork(EntityManager entityManager, int maxManagedEntities) {
+        if (maxManagedEntities < 1) {
+            throw new IllegalArgumentException("maxManagedEntities 必须大于 0");
+        }
+        this.target = entityManager;
+        this.maxManagedEntities = maxManagedEntities;
+        this.entityManager = (EntityManager) Proxy.newProxyInstance(ManagedUnitOfWork.class.getClassLoader(),
+                new Class<?>[]{EntityManager.class}, new EntityManagerHandler());
+        this.transaction = (EntityTransaction) Proxy.newProxyInstance(ManagedUnitOfWork.class.getClassLoader(),
+                new Class<?>[]{EntityTransaction.class}, new TransactionHandler());
+    }
+
+    /**
+     * 限制了持久化上下文大小的 EntityManager，关闭它时关闭被包装的 EntityManager
+     */
+    public EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    /**
+     * 实体在 clear 之后仍然处于持久化状态
+     */
+    public <T> T retain(T entity) {
+        T managed = reattach(entity);
+        retained.add(managed);
+        return managed;
+    }
+
+    /**
+     * 把游离的实体重新关联到持久化上下文
+     *
+     * @return 通常就是 entity 本身；持久化上下文中已经有同一行的另一个对象时，返回那个对象（见类注释的注意 3）
+     * @throws OptimisticLockException 持久化上下文中同一行的对象与 entity 冲突
+     */
+    public <T> T reattach(T entity) {
+        if (target.contains(entity)) {
+            return entity;
+        }
+        SessionImplementor session = session();
+        EntityPersister persister = session.getEntityPersister(null, entity);
+        Serializable id = persister.getIdentifier(entity, session);
+        if (id == null) {
+            throw new IllegalArgumentException("实体还没有保存: " + entity);
+        }
+        if (entity instanceof DirtyTracking) {
+            ((DirtyTracking) entity).dirtyAttributes().setListener(null);
+        }
+        reattached++;
+        Object managed = session.getPersistenceContext().getEntity(session.generateEntityKey(id, persister));
+        if (managed != null) {
+            return copyTo(entity, managed, persister);
+        }
+        if (entity instanceof DirtyTracking && ((DirtyTracking) entity).dirtyAttributes().isEmpty()) {
+            // 没有修改过的实体直接关联，不需要 update。lock 把当前状态作为快照，所以修改过的实体不能使用 lock
+            try {
+                ((Session) session).buildLockRequest(LockOptions.NONE).lock(entity);
+                return entity;
+            } catch (HibernateException e) {
+                // 游离时修改过集合，不能直接关联，改为 update
+                ((Session) session).evict(entity);
+            }
+        }
+        // update 的实体没有快照，flush 时 TrackingDirtinessStrategy 只根据 setter 记录的属性判断是否需要 update
+        ((Session) session).update(entity);
+        return entity;
+    }
+
+    /**
+     * 把游离对象上的修改复制到持久化上下文中同一行的对象上
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T copyTo(T entity, Object managed, EntityPersister persister) {
+        if (persister.isVersioned()
+                && !persister.getVersionType().isEqual(persister.getVersion(entity), persister.getVersion(managed))) {
+            throw new OptimisticLockException("游离对象的版本与持久化上下文中的对象不同: " + entity, null, entity);
+        }
+        if (!(entity instanceof DirtyTracking) || !(managed instanceof DirtyTracking)) {
+            return target.merge(entity);
+        }
+        DirtyAttributes detachedAttributes = ((DirtyTracking) entity).dirtyAttributes();
+        DirtyAttributes managedAttributes = ((DirtyTracking) managed).dirtyAttributes();
+        String[] names = detachedAttributes.names();
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = persister.getPropertyValue(entity, names[i]);
+            if (managedAttributes.contains(names[i])
+                    && !persister.getPropertyType(names[i]).isEqual(values[i], persister.getPropertyValue(managed, names[i]))) {
+                throw new OptimisticLockException("属性 " + names[i] + " 在游离对象和持久化上下文中的对象上都被修改: "
+                        + entity, null, entity);
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            persister.setPropertyValue(managed, persister.getEntityMetamodel().getPropertyIndex(names[i]), values[i]);
+            managedAttributes.mark(names[i]);
+        }
+        detachedAttributes.clear();
+        return (T) managed;
+    }
+
+    public int getManagedEntities() {
+        return session().getPersistenceContext().getNumberOfManagedEntities();
+    }
+
+    public int getMaxManagedEntities() {
+        return maxManagedEntities;
+    }
+
+    /**
+     * 当前事务（或者还没有开启事务时）的统计信息
+     */
+    public ContextSizeStatistics getStatistics() {
+        return snapshot(false);
+    }
+
+    /**
+     * 已经结束的事务的统计信息，按结束的先后顺序排列，最多保留最近的 100 个
+     */
+    public List<ContextSizeStatistics> getTransactions() {
+        return new ArrayList<>(transactions);
+    }
+
+    private SessionImplementor session() {
+        return (SessionImplementor) target.unwrap(Session.class);
+    }
+
+    private void beforeOperation() {
+        if (getManagedEntities() >= maxManagedEntities && target.getTransaction().isActive()) {
+            flushAndClear();
+        }
+    }
+
+    private void afterOperation() {
+        peakManagedEntities = Math.max(peakManagedEntities, getManagedEntities());
+    }
+
+    private void flushAndClear() {
+        reattachModified();
+        target.flush();
+        PersistenceContext persistenceContext = session().getPersistenceContext();
+        for (Object entity : persistenceContext.getEntitiesByKey().values()) {
+            if (entity instanceof DirtyTracking && !retained.contains(entity)) {
+                watch((DirtyTracking) entity);
+            }
+        }
+        target.clear();
+        for (Object entity : retained) {
+            ((Session) session()).buildLockRequest(LockOptions.NONE).lock(entity);
+        }
+        flushAndClears++;
+    }
+
+    /**
+     * 实体游离之后第一次被修改时记住它
+     */
+    private void watch(final DirtyTracking entity) {
+        if (!entity.dirtyAttributes().isEmpty()) {
+            modified.add(entity);
+            return;
+        }
+        final int watchedGeneration = generation;
+        entity.dirtyAttributes().setListener(new DirtyAttributes.Listener() {
+            @Override
+            public void dirtied() {
+                if (watchedGeneration == generation) {
+                    modified.add(entity);
+                }
+            }
+        });
+    }
+
+    /**
+     * 把 clear 之后又被修改的实体重新关联到持久化上下文，之后不再记住它们
+     */
+    private void reattachModified() {
+        if (modified.isEmpty()) {
+            return;
+        }
+        List<DirtyTracking> entities = new ArrayList<>(modified);
+        modified.clear();
+        for (DirtyTracking entity : entities) {
+            if (!entity.dirtyAttributes().isEmpty()) {
+                reattach(entity);
+            }
+        }
+    }
+
+    /**
+     * 不再记住游离的实体，已经注册的监听器失效
+     */
+    private void forgetDetached() {
+        modified.clear();
+        generation++;
+    }
+
+    private void attachIfDetached(Object entity) {
+        if (entity == null || target.contains(entity)) {
+            return;
+        }
+        try {
+            if (target.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity) == null) {
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            // 不是实体，由 EntityManager 抛出异常
+            return;
+        }
+        reattach(entity);
+    }
+
+    private void beginTransaction() {
+        transactionStart = System.nanoTime();
+        peakManagedEntities = getManagedEntities();
+        flushAndClears = 0;
+        reattached = 0;
+    }
+
+    private void endTransaction(boolean committed) {
+        if (!committed) {
+            // 回滚之后游离实体上的修改没有意义
+            forgetDetached();
+        }
+        if (transactions.size() == MAX_TRANSACTION_STATISTICS) {
+            transactions.removeFirst();
+        }
+        transactions.addLast(snapshot(committed));
+    }
+
+    private ContextSizeStatistics snapshot(boolean committed) {
+        return new ContextSizeStatistics(peakManagedEntities, flushAndClears, reattached,
+                (System.nanoTime() - transactionStart) / 1e6, committed);
+    }
+
+    private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final class EntityManagerHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getTransaction":
+                    return transaction;
+                case "remove":
+                case "refresh":
+                case "lock":
+                    beforeOperation();
+                    attachIfDetached(args[0]);
+                    return tracked(method, args);
+                case "persist":
+                case "merge":
+                case "find":
+                case "getReference":
+                    beforeOperation();
+                    return tracked(method, args);
+                case "flush":
+                    reattachModified();
+                    break;
+                case "clear":
+                case "close":
+                    // 调用者主动 clear 时不再跟踪游离的实体
+                    forgetDetached();
+                    retained.clear();
+                    break;
+                case "createQuery":
+                case "createNamedQuery":
+                case "createNativeQuery":
+                    Object query = delegate(target, method, args);
+                    return Proxy.newProxyInstance(ManagedUnitOfWork.class.getClassLoader(),
+                            new Class<?>[]{method.getReturnType()}, new QueryHandler(query));
+            }
+            return delegate(target, method, args);
+        }
+
+        private Object tracked(Method method, Object[] args) throws Throwable {
+            Object result = delegate(target, method, args);
+            afterOperation();
+            return result;
+        }
+    }
+
+    private final class QueryHandler implements InvocationHandler {
+
+        private final Object query;
+
+        private QueryHandler(Object query) {
+            this.query = query;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getResultList":
+                case "getSingleResult":
+                case "executeUpdate":
+                    beforeOperation();
+                    Object result = delegate(query, method, args);
+                    afterOperation();
+                    return result;
+            }
+            Object result = delegate(query, method, args);
+            // setParameter 等方法返回 Query 本身
+            return result == query ? proxy : result;
+        }
+    }
+
+    private final class TransactionHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            EntityTransaction delegate = target.getTransaction();
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "begin":
+                    delegate.begin();
+                    beginTransaction();
+                    return null;
+                case "commit":
+                    reattachModified();
+                    try {
+                        delegate.commit();
+                    } catch (RuntimeException e) {
+                        endTransaction(false);
+                        throw e;
+                    }
+                    endTransaction(true);
+                    return null;
+                case "rollback":
+                    try {
+                        delegate.rollback();
+                    } finally {
+                        endTransaction(false);
+                    }
+                    return null;
+            }
+            return delegate(delegate, method, args);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.xt.jpa.context;
+
+import com.xt.jpa.pool.LatencyHistogram;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author xt
+ * @date 2019/2/21 - 16:10
+ * @description 并发执行相互独立的工作单元（例如按 Customer 处理 orders）
+ *
+ * 1. 每个任务在工作线程中通过 EntityManagerProvider.inTransaction 执行，有自己的 EntityManager 和事务，
+ *    执行结束后关闭 EntityManager、归还连接；
+ * 2. 同时执行的任务数默认根据连接池的最大连接数（hibernate.c3p0.max_size）计算：每个任务持有一个连接，
+ *    领取主键号段时 PooledTableIdGenerator 还要在独立的事务中再占用一个连接，另外给调用者自己的
+ *    EntityManager 留一个连接，所以默认并发数为 (max_size - 1) / 2，至少为 1。
+ *    并发数过大时，所有任务都持有连接并等待第二个连接领取号段，连接池会被耗尽；
+ * 3. 已提交但还没有执行完的任务最多为 concurrency + queueCapacity 个，超过时 submit 阻塞调用者（背压），
+ *    而不是无限地堆积任务；
+ * 4. 统计每个任务的等待时间、执行时间和提交被阻塞的次数。
+ *
+ * 每个任务有自己的持久化上下文，任务之间不能共享实体对象，应该传递 id。
+ */
+public class UnitOfWorkExecutor implements Closeable {
+
+    public static final String MAX_POOL_SIZE = "hibernate.c3p0.max_size";
+
+    private final EntityManagerProvider provider;
+    private final int concurrency;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permits;
+
+    private final LatencyHistogram waitLatency = new LatencyHistogram();
+    private final LatencyHistogram runLatency = new LatencyHistogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    /**
+     * 调用者自己的 EntityManager 预留的连接数
+     */
+    private static final int CALLER_CONNECTIONS = 1;
+
+    /**
+     * 每个任务最多同时占用的连接数：任务本身的连接，加上领取主键号段的独立连接
+     */
+    private static final int CONNECTIONS_PER_TASK = 2;
+
+    /**
+     * 并发数为 (max_size - 1) / 2（见类注释），队列长度与并发数相同
+     */
+    public UnitOfWorkExecutor(EntityManagerProvider provider) {
+        this(provider, defaultConcurrency(provider), defaultConcurrency(provider));
+    }
+
+    /**
+     * @param concurrency   同时执行的任务数。每个任务最多同时占用两个连接（任务本身的连接，
+     *                      以及 PooledTableIdGenerator 领取号段时的独立连接），
+     *                      所以 concurrency * 2 加上调用者自己占用的连接数不应该超过连接池的最大连接数，
+     *                      否则任务之间会在连接池上互相等待
+     * @param queueCapacity 等待执行的任务数的上限
+     */
+    public UnitOfWorkExecutor(EntityManagerProvider provider, int concurrency, int queueCapacity) {
+        if (concurrency < 1 || queueCapacity < 0) {
+            throw new IllegalArgumentException("concurrency 必须大于 0，queueCapacity 不能小于 0");
+        }
+        this.provider = provider;
+        this.concurrency = concurrency;
+        this.permits = new Semaphore(concurrency + queueCapacity);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "unit-of-work-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交任务，已提交的任务达到上限时阻塞，直到有任务执行完
+     *
+     * @throws RejectedExecutionException 已经关闭，或者等待时被中断
+     */
+    public <T> Future<T> submit(JpaCallback<T> task) {
+        if (!permits.tryAcquire()) {
+            long start = System.nanoTime();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("等待提交任务时被中断", e);
+            }
+            throttled.incrementAndGet();
+            throttledNanos.addAndGet(System.nanoTime() - start);
+        }
+        try {
+            return executor.submit(new Task<>(task, System.nanoTime()));
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 提交所有的任务并等待它们执行完，结果的顺序与任务的顺序相同
+     *
+     * @throws ExecutionException 第一个失败的任务抛出的异常（其余的任务仍然会执行完）
+     */
+    public <T> List<T> invokeAll(Collection<? extends JpaCallback<T>> tasks)
+            throws InterruptedException, ExecutionException {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (JpaCallback<T> task : tasks) {
+            futures.add(submit(task));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        ExecutionException failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                results.add(null);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    public UnitOfWorkStatistics getStatistics() {
+        return new UnitOfWorkStatistics(concurrency, executor.getActiveCount(), executor.getQueue().size(),
+                completed.get(), failed.get(), throttled.get(), throttledNanos.get() / 1e6,
+                waitLatency.getMeanMillis(), waitLatency.getPercentileMillis(99),
+                runLatency.getMeanMillis(), runLatency.getPercentileMillis(99), runLatency.getMaxMillis());
+    }
+
+    /**
+     * 不再接受新的任务，等待已提交的任务执行完
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // 继续等待
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int defaultConcurrency(EntityManagerProvider provider) {
+        Object maxSize = provider.getEntityManagerFactory().getProperties().get(MAX_POOL_SIZE);
+        if (maxSize != null) {
+            try {
+                int connections = Integer.parseInt(maxSize.toString().trim()) - CALLER_CONNECTIONS;
+                return Math.max(1, connections / CONNECTIONS_PER_TASK);
+            } catch (NumberFormatException e) {
+                // 使用默认值
+            }
+        }
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    private final class Task<T> implements Callable<T> {
+        private final JpaCallback<T> callback;
+        private final long submitted;
+
+        private Task(JpaCallback<T> callback, long submitted) {
+            this.callback = callback;
+            this.submitted = submitted;
+        }
+
+        @Override
+        public T call() {
+            long start = System.nanoTime();
+            waitLatency.record(start - submitted);
+            try {
+                T result = provider.inTransaction(callback);
+                completed.incrementAndGet();
+                return result;
+            } catch (RuntimeException | Error e) {
+                failed.incrementAndGet();
+                throw e;
+            } finally {
+                runLatency.record(System.nanoTime() - start);
+                permits.release();
+            }
+        }
+    }
+}
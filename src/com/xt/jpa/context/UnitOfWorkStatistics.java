@@ -0,0 +1,123 @@
+package com.xt.jpa.context;
+
+/**
+ * @author xt
+ * @date 2019/2/21 - 16:00
+ * @description UnitOfWorkExecutor 的统计信息（快照）
+ */
+public class UnitOfWorkStatistics {
+
+    private final int concurrency;
+    private final int active;
+    private final int queued;
+    private final long completed;
+    private final long failed;
+    private final long throttled;
+    private final double throttledMillis;
+    private final double waitMeanMillis;
+    private final double waitP99Millis;
+    private final double runMeanMillis;
+    private final double runP99Millis;
+    private final double runMaxMillis;
+
+    public UnitOfWorkStatistics(int concurrency, int active, int queued, long completed, long failed,
+                                long throttled, double throttledMillis, double waitMeanMillis, double waitP99Millis,
+                                double runMeanMillis, double runP99Millis, double runMaxMillis) {
+        this.concurrency = concurrency;
+        this.active = active;
+        this.queued = queued;
+        this.completed = completed;
+        this.failed = failed;
+        this.throttled = throttled;
+        this.throttledMillis = throttledMillis;
+        this.waitMeanMillis = waitMeanMillis;
+        this.waitP99Millis = waitP99Millis;
+        this.runMeanMillis = runMeanMillis;
+        this.runP99Millis = runP99Millis;
+        this.runMaxMillis = runMaxMillis;
+    }
+
+    /**
+     * 同时执行的任务数的上限
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    /**
+     * 已经提交、还没有开始执行的任务数
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * 因为队列已满，提交时被阻塞的次数
+     */
+    public long getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * 提交时被阻塞的总时间
+     */
+    public double getThrottledMillis() {
+        return throttledMillis;
+    }
+
+    /**
+     * 从提交到开始执行的时间
+     */
+    public double getWaitMeanMillis() {
+        return waitMeanMillis;
+    }
+
+    public double getWaitP99Millis() {
+        return waitP99Millis;
+    }
+
+    /**
+     * 执行的时间，包括开启、提交事务
+     */
+    public double getRunMeanMillis() {
+        return runMeanMillis;
+    }
+
+    public double getRunP99Millis() {
+        return runP99Millis;
+    }
+
+    public double getRunMaxMillis() {
+        return runMaxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "UnitOfWorkStatistics{" +
+                "concurrency=" + concurrency +
+                ", active=" + active +
+                ", queued=" + queued +
+                ", completed=" + completed +
+                ", failed=" + failed +
+                ", throttled=" + throttled +
+                ", throttledTime=" + String.format("%.3f", throttledMillis) + "ms" +
+                ", waitMean=" + String.format("%.3f", waitMeanMillis) + "ms" +
+                ", waitP99=" + String.format("%.3f", waitP99Millis) + "ms" +
+                ", runMean=" + String.format("%.3f", runMeanMillis) + "ms" +
+                ", runP99=" + String.format("%.3f", runP99Millis) + "ms" +
+                ", runMax=" + String.format("%.3f", runMaxMillis) + "ms" +
+                '}';
+    }
+}
@@ -0,0 +1,95 @@
+package com.xt.jpa.dirty;
+
+import java.util.Arrays;
+
+/**
+ * @author xt
+ * @date 2019/2/22 - 14:10
+ * @description 实体中被修改过的属性名
+ *
+ * 新值与旧值相同时不记录。一个实体通常只有少数几个属性被修改，所以使用数组而不是 HashSet。
+ * 可以注册一个 Listener，在下一次记录到修改时得到通知（例如 ManagedUnitOfWork 找出游离之后又被修改的实体）。
+ * 与实体一样不是线程安全的。
+ */
+public final class DirtyAttributes {
+
+    private static final String[] NONE = new String[0];
+
+    private String[] names = NONE;
+    private int size;
+    private Listener listener;
+
+    public void track(String attribute, Object oldValue, Object newValue) {
+        if (oldValue == null ? newValue != null : !oldValue.equals(newValue)) {
+            mark(attribute);
+        }
+    }
+
+    public void track(String attribute, int oldValue, int newValue) {
+        if (oldValue != newValue) {
+            mark(attribute);
+        }
+    }
+
+    public void mark(String attribute) {
+        if (contains(attribute)) {
+            return;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, Math.max(4, size * 2));
+        }
+        names[size++] = attribute;
+        if (listener != null) {
+            Listener notified = listener;
+            listener = null;
+            notified.dirtied();
+        }
+    }
+
+    public boolean contains(String attribute) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(attribute)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 被修改过的属性名
+     */
+    public String[] names() {
+        return Arrays.copyOf(names, size);
+    }
+
+    /**
+     * 注册的 listener 只通知一次，之后自动移除；传入 null 时移除已经注册的 listener
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            names[i] = null;
+        }
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(names, size));
+    }
+
+    public interface Listener {
+
+        /**
+         * 注册之后第一次记录到被修改的属性
+         */
+        void dirtied();
+    }
+}
@@ -0,0 +1,14 @@
+package com.xt.jpa.dirty;
+
+/**
+ * @author xt
+ * @date 2019/2/22 - 14:00
+ * @description 自己记录哪些属性被修改过的实体
+ *
+ * 实体在 setter 中调用 DirtyAttributes.track 记录被修改的属性，TrackingDirtinessStrategy 据此进行脏检查。
+ * 方法名不是 getXxx 的形式，不会被当作持久化属性。
+ */
+public interface DirtyTracking {
+
+    DirtyAttributes dirtyAttributes();
+}
@@ -0,0 +1,46 @@
+package com.xt.jpa.dirty;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * @author xt
+ * @date 2019/2/22 - 14:30
+ * @description 实体加载之后清除 DirtyAttributes
+ *
+ * 实体使用属性访问，hibernate 加载实体时通过 setter 设置属性的值，这些调用也会被记录。
+ * 集成时 SessionFactory 还没有创建 CustomEntityDirtinessStrategy，所以总是注册监听器。
+ */
+public class DirtyTrackingIntegrator implements Integrator {
+
+    @Override
+    public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        serviceRegistry.getService(EventListenerRegistry.class)
+                .appendListeners(EventType.POST_LOAD, new PostLoadEventListener() {
+                    @Override
+                    public void onPostLoad(PostLoadEvent event) {
+                        if (event.getEntity() instanceof DirtyTracking) {
+                            ((DirtyTracking) event.getEntity()).dirtyAttributes().clear();
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        // 新的 metamodel 在 hibernate 4.2 中尚未启用
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
@@ -0,0 +1,91 @@
+package com.xt.jpa.dirty;
+
+import org.hibernate.CustomEntityDirtinessStrategy;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * @author xt
+ * @date 2019/2/22 - 14:20
+ * @description 根据实体自己记录的被修改的属性进行脏检查（hibernate.entity_dirtiness_strategy）
+ *
+ * 默认的脏检查在 flush 时把每个实体的每个属性与快照比较。使用该策略时：
+ * 1. 没有被修改过的实体（DirtyAttributes 为空）直接跳过，不进行比较；
+ * 2. 被修改过的实体只比较被修改过的属性，值又被改回原值时不算修改；
+ * 3. 实体使用 @DynamicUpdate 时，update 语句只包含被修改的列。
+ * flush 之后由 hibernate 调用 resetDirty 清除记录，加载之后由 DirtyTrackingIntegrator 注册的监听器清除记录。
+ * 没有实现 DirtyTracking 的实体仍然使用默认的脏检查。
+ *
+ * 限制：
+ * 1. 只有 setter 中调用 DirtyAttributes.track 的修改才会被记录。直接给字段赋值（包括实体自己的方法中）、
+ *    修改可变对象的内容（例如 Date.setTime）都不会被记录：实体没有其它修改时整个被跳过，有其它修改时也不会比较这个属性，
+ *    这些修改不会写入数据库。hibernate 4.2 的字节码增强只支持懒加载的属性，不能代替 setter 记录修改；
+ * 2. findDirty 没有找到被修改的属性时，hibernate 会退回到比较所有的属性。
+ *    因此 isDirty 先比较记录的属性，都被改回原值时返回 false，findDirty 只在确实有修改时才会被调用。
+ */
+public class TrackingDirtinessStrategy implements CustomEntityDirtinessStrategy {
+
+    @Override
+    public boolean canDirtyCheck(Object entity, EntityPersister persister, Session session) {
+        return entity instanceof DirtyTracking;
+    }
+
+    @Override
+    public boolean isDirty(Object entity, EntityPersister persister, Session session) {
+        DirtyAttributes dirtyAttributes = ((DirtyTracking) entity).dirtyAttributes();
+        if (dirtyAttributes.isEmpty()) {
+            return false;
+        }
+        Object[] loadedState = loadedState(entity, session);
+        if (loadedState == null) {
+            return true;
+        }
+        for (String name : dirtyAttributes.names()) {
+            Integer index = persister.getEntityMetamodel().getPropertyIndexOrNull(name);
+            if (index != null && !persister.getPropertyTypes()[index].isSame(
+                    persister.getPropertyValue(entity, index), loadedState[index])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void resetDirty(Object entity, EntityPersister persister, Session session) {
+        ((DirtyTracking) entity).dirtyAttributes().clear();
+    }
+
+    @Override
+    public void findDirty(Object entity, EntityPersister persister, Session session, DirtyCheckContext dirtyCheckContext) {
+        final DirtyAttributes dirtyAttributes = ((DirtyTracking) entity).dirtyAttributes();
+        if (dirtyAttributes.isEmpty()) {
+            return;
+        }
+        final Object[] loadedState = loadedState(entity, session);
+        dirtyCheckContext.doDirtyChecking(new AttributeChecker() {
+            @Override
+            public boolean isDirty(AttributeInformation attributeInformation) {
+                if (!dirtyAttributes.contains(attributeInformation.getName())) {
+                    return false;
+                }
+                if (loadedState == null) {
+                    return true;
+                }
+                // persist 之前调用的 setter 也会被记录，与 insert 时的状态相同的属性不需要 update。
+                // 不使用 AttributeInformation.getLoadedValue，它会查询数据库中的快照
+                Object loadedValue = loadedState[attributeInformation.getAttributeIndex()];
+                return !attributeInformation.getType().isSame(attributeInformation.getCurrentValue(), loadedValue);
+            }
+        });
+    }
+
+    /**
+     * @return 持久化上下文中记录的实体加载（或者上一次 flush）时的状态，没有时返回 null
+     */
+    private static Object[] loadedState(Object entity, Session session) {
+        EntityEntry entry = ((SessionImplementor) session).getPersistenceContext().getEntry(entity);
+        return entry == null ? null : entry.getLoadedState();
+    }
+}
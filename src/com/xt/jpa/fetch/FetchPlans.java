@@ -0,0 +1,122 @@
+package com.xt.jpa.fetch;
+
+import com.xt.jpa.helloworld.Customer;
+import com.xt.jpa.helloworld.Department;
+import com.xt.jpa.helloworld.Item;
+import com.xt.jpa.helloworld.Manager;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * @author xt
+ * @date 2019/2/18 - 9:40
+ * @description 关联关系的加载计划
+ *
+ * 解决懒加载关联关系的 N+1 问题，提供两种方式：
+ * 1. fetch profile：在实体类上使用 @FetchProfile 定义，启用之后 find/getReference 会通过左外连接同时加载关联的对象。
+ *    注意：fetch profile 对 JPQL 查询不起作用。
+ * 2. 批量初始化：对已经加载到持久化上下文中的一批实体，用一条 join fetch 语句初始化它们的关联关系，
+ *    每 chunkSize 个实体只发送一条 SQL 语句。
+ *
+ * 另外，实体类及集合属性上的 @BatchSize 和 hibernate.default_batch_fetch_size
+ * 会在逐个访问懒加载的关联关系时，使用 in (?, ?, ...) 一次初始化多个实体的关联关系。
+ */
+public final class FetchPlans {
+
+    public static final String CUSTOMER_ORDERS = "customer-orders";
+    public static final String ITEM_CATEGORIES = "item-categories";
+    public static final String DEPARTMENT_MGR = "department-mgr";
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private FetchPlans() {
+    }
+
+    /**
+     * 在当前 EntityManager 中启用 fetch profile
+     */
+    public static void enable(EntityManager entityManager, String... profiles) {
+        Session session = entityManager.unwrap(Session.class);
+        for (String profile : profiles) {
+            session.enableFetchProfile(profile);
+        }
+    }
+
+    public static void disable(EntityManager entityManager, String... profiles) {
+        Session session = entityManager.unwrap(Session.class);
+        for (String profile : profiles) {
+            session.disableFetchProfile(profile);
+        }
+    }
+
+    /**
+     * 批量初始化 Customer 的 orders
+     */
+    public static void fetchOrders(EntityManager entityManager, Collection<Customer> customers) {
+        fetch(entityManager, Customer.class, "orders", customers, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 批量初始化 Item 的 categories
+     */
+    public static void fetchCategories(EntityManager entityManager, Collection<Item> items) {
+        fetch(entityManager, Item.class, "categories", items, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 批量初始化 Department 的 mgr
+     */
+    public static void fetchManagers(EntityManager entityManager, Collection<Department> departments) {
+        fetch(entityManager, Department.class, "mgr", departments, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 批量初始化 Manager 的 department（映射为 mappedBy 的集合 departments，见 Manager.getDepartments）
+     */
+    public static void fetchDepartments(EntityManager entityManager, Collection<Manager> managers) {
+        fetch(entityManager, Manager.class, "departments", managers, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 对已经被 entityManager 管理的实体，使用 join fetch 批量初始化指定的关联关系。
+     * 由于实体已经在持久化上下文中，查询结果会复用这些实体，并初始化它们的关联属性。
+     *
+     * @param entityClass 实体的类型，需要有名为 id 的主键属性
+     * @param association 需要初始化的关联属性名
+     * @param entities    已经被管理的实体
+     * @param chunkSize   每条 SQL 语句初始化的实体个数
+     */
+    public static <T> void fetch(EntityManager entityManager, Class<T> entityClass, String association,
+                                 Collection<? extends T> entities, int chunkSize) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize 必须大于 0: " + chunkSize);
+        }
+
+        String jpql = "select distinct e from " + entityClass.getSimpleName() + " e left join fetch e."
+                + association + " where e.id in (:ids)";
+        PersistenceUnitUtil unitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+
+        List<Object> ids = new ArrayList<>(Math.min(chunkSize, entities.size()));
+        Iterator<? extends T> iterator = entities.iterator();
+        while (iterator.hasNext()) {
+            T entity = iterator.next();
+            // 已经初始化过的关联关系不需要再次加载
+            if (!unitUtil.isLoaded(entity, association)) {
+                ids.add(unitUtil.getIdentifier(entity));
+            }
+            if (ids.size() == chunkSize || (!iterator.hasNext() && !ids.isEmpty())) {
+                entityManager.createQuery(jpql).setParameter("ids", ids).getResultList();
+                ids.clear();
+            }
+        }
+    }
+}
@@ -1,5 +1,14 @@
 package com.xt.jpa.helloworld;
 
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.dirty.DirtyTracking;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
@@ -9,15 +18,25 @@ import java.util.Set;
  * @date 2019/2/16 - 15:05
  * @description
  */
+@BatchSize(size = 100)
+@Cacheable(true)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "JPA_CATEGORY")
+@DynamicUpdate
 @Entity
-public class Category {
+public class Category implements DirtyTracking {
 
     private Integer id;
     private String categoryName;
     private Set<Item> items = new HashSet<>();
 
-    @GeneratedValue
+    private final DirtyAttributes dirtyAttributes = new DirtyAttributes();
+
+    @GenericGenerator(name = "CATEGORY_ID_GENERATOR",
+            strategy = "com.xt.jpa.id.PooledTableIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "CATEGORY_ID")
+    )
+    @GeneratedValue(generator = "CATEGORY_ID_GENERATOR")
     @Id
     public Integer getId() {
         return id;
@@ -33,9 +52,12 @@ public class Category {
     }
 
     public void setCategoryName(String categoryName) {
+        dirtyAttributes.track("categoryName", this.categoryName, categoryName);
         this.categoryName = categoryName;
     }
 
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    @BatchSize(size = 100)
     @ManyToMany(mappedBy = "categories")
     public Set<Item> getItems() {
         return items;
@@ -44,4 +66,9 @@ public class Category {
     public void setItems(Set<Item> items) {
         this.items = items;
     }
+
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return dirtyAttributes;
+    }
 }
@@ -1,5 +1,18 @@
 package com.xt.jpa.helloworld;
 
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.dirty.DirtyTracking;
+import com.xt.jpa.fetch.FetchPlans;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.FetchProfile;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Index;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.Date;
 import java.util.HashSet;
@@ -14,12 +27,25 @@ import java.util.Set;
 /**
  * @Entity 指出该 Java 类为实体类，将映射到指定的数据库表。
  * @Table  当实体类与其映射的数据库表名不同名时使用，name 用于指明数据库的表名
+ * @DynamicUpdate update 语句只包含被修改的列。被修改的属性由 setter 记录在 DirtyAttributes 中（见 TrackingDirtinessStrategy）
+ * @org.hibernate.annotations.Table 添加索引。(age, id) 上的索引用于按 age 排序的键集分页（见 KeysetPager），
+ *    LAST_NAME 上的索引由 IndexAdvisor 推荐（testSubQuery 的子查询）
  */
+@FetchProfile(name = FetchPlans.CUSTOMER_ORDERS, fetchOverrides = {
+        @FetchProfile.FetchOverride(entity = Customer.class, association = "orders", mode = FetchMode.JOIN)
+})
+@BatchSize(size = 100)
 @NamedQuery(name = "testNamedQuery", query = "select c from Customer c where c.id = ?")
 @Cacheable(true)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "JPA_CUSTOMERS")
+@org.hibernate.annotations.Table(appliesTo = "JPA_CUSTOMERS", indexes = {
+        @Index(name = "IDX_JPA_CUSTOMERS_AGE_ID", columnNames = {"age", "id"}),
+        @Index(name = "IDX_JPA_CUSTOMERS_LAST_NAME", columnNames = {"LAST_NAME"})
+})
+@DynamicUpdate
 @Entity
-public class Customer {
+public class Customer implements DirtyTracking {
     private Integer id;
     private String lastName;
     private String email;
@@ -28,6 +54,8 @@ public class Customer {
     private Date birth;
     private Date time;
 
+    private final DirtyAttributes dirtyAttributes = new DirtyAttributes();
+
     private Set<Order> orders = new HashSet<>();
 
     public Customer() {
@@ -45,9 +73,14 @@ public class Customer {
      * 可以使用 @OneToMany 的 fetch 属性来修改默认的加载策略
      * 可以通过 @OneToMany 的 cascade 属性来修改默认的删除策略。
      * 注意：若在 1 的一端的 @OneToMany 中使用 mappedBy 属性，则 @OneToMany 端就不能再使用 @JoinColumn 属性了。
+     * 使用 @BatchSize 批量加载集合：初始化一个 Customer 的 orders 时，
+     * 会同时初始化持久化上下文中其他 Customer 未初始化的 orders（where customer_id in (?, ?, ...)），避免 N+1 问题。
+     * 使用 @Cache 缓存集合。orders 是 mappedBy 的集合，Order 的变化由 InverseCollectionCacheInvalidator 清除对应的缓存。
      * @return
      */
 //    @JoinColumn(name="customer_id")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    @BatchSize(size = 100)
     @OneToMany(fetch = FetchType.LAZY, cascade = {CascadeType.REMOVE}, mappedBy = "customer")
     public Set<Order> getOrders() {
         return orders;
@@ -72,17 +105,19 @@ public class Customer {
      *    initialValue表示主键初识值，默认为0。
      *    allocationSize表示每次主键值增加的大小，例如设置成1，则表示每次创建新记录后自动加1，默认为50。
      *
+     * 注意：在 MySQL 上 AUTO 即为 IDENTITY，主键要在 insert 之后才能拿到，hibernate 无法对 insert 进行批处理。
+     * 所以这里使用 PooledTableIdGenerator 按号段领取主键，每个线程持有自己的号段。
+     *
      * @return
      */
-    /*@TableGenerator(name = "ID_GENERATOR",
-            table = "jpa_id_generators",
-            pkColumnName = "PK_NAME",
-            pkColumnValue = "CUSTOMER_ID",
-            valueColumnName = "PK_VALUE",
-            allocationSize = 100
+    @GenericGenerator(name = "CUSTOMER_ID_GENERATOR",
+            strategy = "com.xt.jpa.id.PooledTableIdGenerator",
+            parameters = {
+                    @Parameter(name = "segment_value", value = "CUSTOMER_ID"),
+                    @Parameter(name = "allocation_size", value = "100")
+            }
     )
-    @GeneratedValue(strategy = GenerationType.TABLE, generator = "ID_GENERATOR")*/
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(generator = "CUSTOMER_ID_GENERATOR")
     @Id
     public Integer getId() {
         return id;
@@ -103,6 +138,7 @@ public class Customer {
     }
 
     public void setLastName(String lastName) {
+        dirtyAttributes.track("lastName", this.lastName, lastName);
         this.lastName = lastName;
     }
 
@@ -116,6 +152,7 @@ public class Customer {
     }
 
     public void setEmail(String email) {
+        dirtyAttributes.track("email", this.email, email);
         this.email = email;
     }
 
@@ -124,6 +161,7 @@ public class Customer {
     }
 
     public void setAge(int age) {
+        dirtyAttributes.track("age", this.age, age);
         this.age = age;
     }
 
@@ -138,6 +176,7 @@ public class Customer {
     }
 
     public void setCreatedTime(Date createdTime) {
+        dirtyAttributes.track("createdTime", this.createdTime, createdTime);
         this.createdTime = createdTime;
     }
 
@@ -147,6 +186,7 @@ public class Customer {
     }
 
     public void setBirth(Date birth) {
+        dirtyAttributes.track("birth", this.birth, birth);
         this.birth = birth;
     }
 
@@ -156,6 +196,7 @@ public class Customer {
     }
 
     public void setTime(Date time) {
+        dirtyAttributes.track("time", this.time, time);
         this.time = time;
     }
 
@@ -168,6 +209,11 @@ public class Customer {
         return "lastName: " + lastName + ", email: " + email;
     }
 
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return dirtyAttributes;
+    }
+
     @Override
     public String toString() {
         return "Customer{" +
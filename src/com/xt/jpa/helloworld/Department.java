@@ -1,5 +1,16 @@
 package com.xt.jpa.helloworld;
 
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.dirty.DirtyTracking;
+import com.xt.jpa.fetch.FetchPlans;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.FetchProfile;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 
 /**
@@ -7,15 +18,27 @@ import javax.persistence.*;
  * @date 2019/2/16 - 13:58
  * @description 部门
  */
+@FetchProfile(name = FetchPlans.DEPARTMENT_MGR, fetchOverrides = {
+        @FetchProfile.FetchOverride(entity = Department.class, association = "mgr", mode = FetchMode.JOIN)
+})
+@Cacheable(true)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "JPA_departments")
+@DynamicUpdate
 @Entity
-public class Department {
+public class Department implements DirtyTracking {
 
     private Integer id;
     private String deptName;
     private Manager mgr;
 
-    @GeneratedValue
+    private final DirtyAttributes dirtyAttributes = new DirtyAttributes();
+
+    @GenericGenerator(name = "DEPARTMENT_ID_GENERATOR",
+            strategy = "com.xt.jpa.id.PooledTableIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "DEPARTMENT_ID")
+    )
+    @GeneratedValue(generator = "DEPARTMENT_ID_GENERATOR")
     @Id
     public Integer getId() {
         return id;
@@ -31,6 +54,7 @@ public class Department {
     }
 
     public void setDeptName(String deptName) {
+        dirtyAttributes.track("deptName", this.deptName, deptName);
         this.deptName = deptName;
     }
 
@@ -47,6 +71,12 @@ public class Department {
     }
 
     public void setMgr(Manager mgr) {
+        dirtyAttributes.track("mgr", this.mgr, mgr);
         this.mgr = mgr;
     }
+
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return dirtyAttributes;
+    }
 }
@@ -1,5 +1,17 @@
 package com.xt.jpa.helloworld;
 
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.dirty.DirtyTracking;
+import com.xt.jpa.fetch.FetchPlans;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.FetchProfile;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
@@ -9,15 +21,28 @@ import java.util.Set;
  * @date 2019/2/16 - 15:04
  * @description
  */
+@FetchProfile(name = FetchPlans.ITEM_CATEGORIES, fetchOverrides = {
+        @FetchProfile.FetchOverride(entity = Item.class, association = "categories", mode = FetchMode.JOIN)
+})
+@BatchSize(size = 100)
+@Cacheable(true)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "JPA_ITEM")
+@DynamicUpdate
 @Entity
-public class Item {
+public class Item implements DirtyTracking {
 
     private Integer id;
     private String itemName;
     private Set<Category> categories = new HashSet<>();
 
-    @GeneratedValue
+    private final DirtyAttributes dirtyAttributes = new DirtyAttributes();
+
+    @GenericGenerator(name = "ITEM_ID_GENERATOR",
+            strategy = "com.xt.jpa.id.PooledTableIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "ITEM_ID")
+    )
+    @GeneratedValue(generator = "ITEM_ID_GENERATOR")
     @Id
     public Integer getId() {
         return id;
@@ -33,6 +58,7 @@ public class Item {
     }
 
     public void setItemName(String itemName) {
+        dirtyAttributes.track("itemName", this.itemName, itemName);
         this.itemName = itemName;
     }
 
@@ -44,8 +70,12 @@ public class Item {
      * 2.1 name 指顶外键列的列名
      * 2.2 referencedColumnName 指定外键列关联当前表的哪一列
      * 3. inverseJoinColumn 映射关联的类所在中间表的外键
+     * 使用 @BatchSize 批量初始化多个 Item 的 categories 集合
+     * 使用 @Cache 缓存集合（缓存的是集合中元素的 id，元素本身也需要被缓存）
      * @return
      */
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    @BatchSize(size = 100)
     @JoinTable(name = "item_category",
             joinColumns = {@JoinColumn(name = "item_id", referencedColumnName = "id")},
             inverseJoinColumns = {@JoinColumn(name = "category_id", referencedColumnName = "id")}
@@ -58,4 +88,9 @@ public class Item {
     public void setCategories(Set<Category> categories) {
         this.categories = categories;
     }
+
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return dirtyAttributes;
+    }
 }
@@ -1,20 +1,41 @@
 package com.xt.jpa.helloworld;
 
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.dirty.DirtyTracking;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * @author xt
  * @date 2019/2/16 - 13:57
  * @description 经理
  */
+@BatchSize(size = 100)
+@Cacheable(true)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name="JPA_MANAGER")
+@DynamicUpdate
 @Entity
-public class Manager {
+public class Manager implements DirtyTracking {
     private Integer id;
     private String mgrName;
-    private Department department;
+    private Set<Department> departments = new HashSet<>();
+
+    private final DirtyAttributes dirtyAttributes = new DirtyAttributes();
 
-    @GeneratedValue
+    @GenericGenerator(name = "MANAGER_ID_GENERATOR",
+            strategy = "com.xt.jpa.id.PooledTableIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "MANAGER_ID")
+    )
+    @GeneratedValue(generator = "MANAGER_ID_GENERATOR")
     @Id
     public Integer getId() {
         return id;
@@ -30,19 +51,49 @@ public class Manager {
     }
 
     public void setMgrName(String mgrName) {
+        dirtyAttributes.track("mgrName", this.mgrName, mgrName);
         this.mgrName = mgrName;
     }
 
     /**
      * 对于不维护关联关系，没有外键的一方，使用 @OneToOne 来进行映射，建议设置 mappedBy=true
+     *
+     * 但 hibernate 不能为 mappedBy 的 @OneToOne 创建代理（不查询就不知道关联的对象是否存在），
+     * 即使设置了 LAZY，加载每个 Manager 时都会再发送一条 SQL 查询它的 Department，查询 n 个 Manager 就是 N+1。
+     * 因此映射为 mappedBy 的集合（集合总是可以懒加载），Department 的 mgr_id 列上有 unique 约束，集合最多只有一个元素：
+     * 1. 加载 Manager 时不会查询 Department；
+     * 2. 第一次调用 getDepartment 时，@BatchSize 一次初始化最多 100 个 Manager 的 department；
+     * 3. 需要同时加载时使用 left join fetch m.departments，或者 FetchPlans.fetchDepartments 批量初始化。
      * @return
      */
-    @OneToOne(mappedBy = "mgr")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    @BatchSize(size = 100)
+    @OneToMany(mappedBy = "mgr")
+    protected Set<Department> getDepartments() {
+        return departments;
+    }
+
+    protected void setDepartments(Set<Department> departments) {
+        this.departments = departments;
+    }
+
+    @Transient
     public Department getDepartment() {
-        return department;
+        return departments.isEmpty() ? null : departments.iterator().next();
     }
 
     public void setDepartment(Department department) {
-        this.department = department;
+        if (department == getDepartment()) {
+            return;
+        }
+        departments.clear();
+        if (department != null) {
+            departments.add(department);
+        }
+    }
+
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return dirtyAttributes;
     }
 }
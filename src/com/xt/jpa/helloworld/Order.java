@@ -1,5 +1,13 @@
 package com.xt.jpa.helloworld;
 
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.dirty.DirtyTracking;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 
 /**
@@ -7,14 +15,23 @@ import javax.persistence.*;
  * @date 2019/2/16 - 9:29
  * @description 订单类
  */
+@Cacheable(true)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "JPA_ORDERS")
+@DynamicUpdate
 @Entity
-public class Order {
+public class Order implements DirtyTracking {
     private Integer id;
     private String orderName;
     private Customer customer;
 
-    @GeneratedValue
+    private final DirtyAttributes dirtyAttributes = new DirtyAttributes();
+
+    @GenericGenerator(name = "ORDER_ID_GENERATOR",
+            strategy = "com.xt.jpa.id.PooledTableIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "ORDER_ID")
+    )
+    @GeneratedValue(generator = "ORDER_ID_GENERATOR")
     @Id
     public Integer getId() {
         return id;
@@ -30,6 +47,7 @@ public class Order {
     }
 
     public void setOrderName(String orderName) {
+        dirtyAttributes.track("orderName", this.orderName, orderName);
         this.orderName = orderName;
     }
 
@@ -47,6 +65,12 @@ public class Order {
     }
 
     public void setCustomer(Customer customer) {
+        dirtyAttributes.track("customer", this.customer, customer);
         this.customer = customer;
     }
+
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return dirtyAttributes;
+    }
 }
@@ -0,0 +1,277 @@
+package com.xt.jpa.id;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.Configurable;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.IntegralDataTypeHolder;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.internal.util.JdbcExceptionHelper;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.jdbc.AbstractReturningWork;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * @author xt
+ * @date 2019/2/17 - 10:20
+ * @description 基于表的池化主键生成器（hi/lo 思路）
+ *
+ * 与 GenerationType.AUTO（MySQL 上即 IDENTITY）不同，主键在 insert 之前就已经生成，
+ * 所以 hibernate 可以把 insert 语句放到 JDBC 批处理中执行。
+ *
+ * 1. 每次访问主键表时领取一整段（blockSize 个）连续的主键值，之后在内存中分配。
+ * 2. 每个线程持有自己的号段，分配主键时线程之间没有竞争。
+ * 3. 同一个 segment 在主键表中拆成 stripes 行，线程按 id 散列到不同的行上领取号段，
+ *    避免所有线程都去更新同一行记录。
+ *    第 s 行领取到的第 b 个号段为 [(b * stripes + s) * blockSize + initialValue, ... + blockSize)，
+ *    所以不同行领取到的号段永远不会重叠。
+ *
+ * 参数：
+ *    table: 主键表的表名，默认为 jpa_id_generators
+ *    pk_column_name / value_column_name: 主键表的列名，默认为 PK_NAME / PK_VALUE
+ *    segment_value: 当前生成器在主键表中对应的名称，默认为实体对应的表名
+ *    allocation_size: 号段的大小，默认为 100
+ *    stripes: 主键表中同一个 segment 的行数，默认为 4
+ *    initial_value: 主键初始值，默认为 1
+ *
+ * 实体表中可能已经存在 AUTO_INCREMENT 生成的数据，所以某一行第一次插入主键表时，
+ * 会读取实体表当前的 max(id)，从第一个起点大于 max(id) 的号段开始领取，避免与已有主键冲突。
+ */
+public class PooledTableIdGenerator implements PersistentIdentifierGenerator, Configurable {
+
+    public static final String TABLE_PARAM = "table";
+    public static final String DEF_TABLE = "jpa_id_generators";
+
+    public static final String PK_COLUMN_PARAM = "pk_column_name";
+    public static final String DEF_PK_COLUMN = "PK_NAME";
+
+    public static final String VALUE_COLUMN_PARAM = "value_column_name";
+    public static final String DEF_VALUE_COLUMN = "PK_VALUE";
+
+    public static final String SEGMENT_VALUE_PARAM = "segment_value";
+
+    public static final String ALLOCATION_SIZE_PARAM = "allocation_size";
+    public static final int DEF_ALLOCATION_SIZE = 100;
+
+    public static final String STRIPES_PARAM = "stripes";
+    public static final int DEF_STRIPES = 4;
+
+    public static final String INITIAL_VALUE_PARAM = "initial_value";
+    public static final int DEF_INITIAL_VALUE = 1;
+
+    /**
+     * 插入主键表时遇到唯一约束冲突（其他线程或进程已经插入了该行）的最大重试次数
+     */
+    private static final int MAX_INSERT_RETRIES = 3;
+
+    /**
+     * SQLState 的 23 类：违反完整性约束
+     */
+    private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+    private Type identifierType;
+    private String tableName;
+    private String pkColumnName;
+    private String valueColumnName;
+    private String segmentValue;
+    private int allocationSize;
+    private int stripes;
+    private int initialValue;
+
+    private String selectQuery;
+    private String insertQuery;
+    private String updateQuery;
+    private String maxIdQuery;
+
+    /**
+     * 每个线程当前持有的号段
+     */
+    private final ThreadLocal<Block> currentBlock = new ThreadLocal<>();
+
+    @Override
+    public void configure(Type type, Properties params, Dialect dialect) throws MappingException {
+        this.identifierType = type;
+        this.tableName = ConfigurationHelper.getString(TABLE_PARAM, params, DEF_TABLE);
+        this.pkColumnName = ConfigurationHelper.getString(PK_COLUMN_PARAM, params, DEF_PK_COLUMN);
+        this.valueColumnName = ConfigurationHelper.getString(VALUE_COLUMN_PARAM, params, DEF_VALUE_COLUMN);
+        this.segmentValue = ConfigurationHelper.getString(SEGMENT_VALUE_PARAM, params,
+                params.getProperty(PersistentIdentifierGenerator.TABLE));
+        this.allocationSize = ConfigurationHelper.getInt(ALLOCATION_SIZE_PARAM, params, DEF_ALLOCATION_SIZE);
+        this.stripes = ConfigurationHelper.getInt(STRIPES_PARAM, params, DEF_STRIPES);
+        this.initialValue = ConfigurationHelper.getInt(INITIAL_VALUE_PARAM, params, DEF_INITIAL_VALUE);
+
+        if (segmentValue == null) {
+            throw new MappingException("PooledTableIdGenerator 需要指定 " + SEGMENT_VALUE_PARAM);
+        }
+        if (allocationSize < 1 || stripes < 1) {
+            throw new MappingException("PooledTableIdGenerator 的 " + ALLOCATION_SIZE_PARAM + " 和 "
+                    + STRIPES_PARAM + " 必须大于 0: " + segmentValue);
+        }
+
+        this.selectQuery = "select " + valueColumnName + " from " + tableName
+                + " where " + pkColumnName + " = ?";
+        this.insertQuery = "insert into " + tableName + " (" + pkColumnName + ", " + valueColumnName
+                + ") values (?, ?)";
+        this.updateQuery = "update " + tableName + " set " + valueColumnName + " = ? where "
+                + pkColumnName + " = ? and " + valueColumnName + " = ?";
+
+        String targetTable = params.getProperty(PersistentIdentifierGenerator.TABLE);
+        String targetColumn = params.getProperty(PersistentIdentifierGenerator.PK);
+        if (targetTable != null && targetColumn != null) {
+            this.maxIdQuery = "select max(" + targetColumn + ") from " + targetTable;
+        }
+    }
+
+    @Override
+    public Serializable generate(final SessionImplementor session, Object object) throws HibernateException {
+        Block block = currentBlock.get();
+        if (block == null || block.isExhausted()) {
+            block = nextBlock(session);
+            currentBlock.set(block);
+        }
+        IntegralDataTypeHolder value = IdentifierGeneratorHelper.getIntegralDataTypeHolder(identifierType.getReturnedClass());
+        return value.initialize(block.next()).makeValue();
+    }
+
+    /**
+     * 在独立的事务中领取一个新的号段，不受当前业务事务的提交或回滚影响。
+     */
+    private Block nextBlock(SessionImplementor session) {
+        final int stripe = (int) (Thread.currentThread().getId() % stripes);
+        final String stripeName = stripes == 1 ? segmentValue : segmentValue + "#" + stripe;
+
+        long blockNumber = session.getTransactionCoordinator()
+                .getTransaction()
+                .createIsolationDelegate()
+                .delegateWork(new AbstractReturningWork<Long>() {
+                    @Override
+                    public Long execute(Connection connection) throws SQLException {
+                        return reserveBlockNumber(connection, stripeName, stripe);
+                    }
+                }, true);
+
+        long start = (blockNumber * stripes + stripe) * allocationSize + initialValue;
+        return new Block(start, start + allocationSize);
+    }
+
+    /**
+     * 使用乐观锁的方式更新主键表中对应行的记录，返回领取到的号段序号
+     */
+    private long reserveBlockNumber(Connection connection, String stripeName, int stripe) throws SQLException {
+        int insertRetries = 0;
+        while (true) {
+            Long current = null;
+            try (PreparedStatement select = connection.prepareStatement(selectQuery)) {
+                select.setString(1, stripeName);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        current = rs.getLong(1);
+                    }
+                }
+            }
+
+            if (current == null) {
+                long first = firstBlockNumber(connection, stripe);
+                try (PreparedStatement insert = connection.prepareStatement(insertQuery)) {
+                    insert.setString(1, stripeName);
+                    insert.setLong(2, first + 1);
+                    insert.executeUpdate();
+                    return first;
+                } catch (SQLException e) {
+                    // 只有唯一约束冲突才说明其他线程或进程已经插入了该行，重新读取；其他异常直接抛出
+                    if (!INTEGRITY_CONSTRAINT_VIOLATION.equals(JdbcExceptionHelper.extractSqlStateClassCode(e))
+                            || ++insertRetries > MAX_INSERT_RETRIES) {
+                        throw e;
+                    }
+                    continue;
+                }
+            }
+
+            try (PreparedStatement update = connection.prepareStatement(updateQuery)) {
+                update.setLong(1, current + 1);
+                update.setString(2, stripeName);
+                update.setLong(3, current);
+                if (update.executeUpdate() == 1) {
+                    return current;
+                }
+            }
+        }
+    }
+
+    /**
+     * 主键表中还没有该行时，返回该行第一个起点大于实体表 max(id) 的号段序号
+     */
+    private long firstBlockNumber(Connection connection, int stripe) throws SQLException {
+        if (maxIdQuery == null) {
+            return 0L;
+        }
+        long maxId;
+        try (PreparedStatement select = connection.prepareStatement(maxIdQuery);
+             ResultSet rs = select.executeQuery()) {
+            if (!rs.next()) {
+                return 0L;
+            }
+            maxId = rs.getLong(1);
+            if (rs.wasNull() || maxId < initialValue) {
+                return 0L;
+            }
+        }
+        // 号段 b 的起点为 (b * stripes + stripe) * allocationSize + initialValue
+        long span = (long) stripes * allocationSize;
+        long offset = maxId + 1 - initialValue - (long) stripe * allocationSize;
+        return offset <= 0 ? 0L : (offset + span - 1) / span;
+    }
+
+    @Override
+    public String[] sqlCreateStrings(Dialect dialect) throws HibernateException {
+        return new String[]{
+                dialect.getCreateTableString() + " " + tableName + " ( "
+                        + pkColumnName + " " + dialect.getTypeName(java.sql.Types.VARCHAR, 255, 0, 0) + " not null, "
+                        + valueColumnName + " " + dialect.getTypeName(java.sql.Types.BIGINT) + ", "
+                        + "primary key ( " + pkColumnName + " ) )" + dialect.getTableTypeString()
+        };
+    }
+
+    @Override
+    public String[] sqlDropStrings(Dialect dialect) throws HibernateException {
+        return new String[]{dialect.getDropTableString(tableName)};
+    }
+
+    /**
+     * 多个实体共用同一张主键表，hbm2ddl 根据该值只创建一次
+     */
+    @Override
+    public Object generatorKey() {
+        return tableName;
+    }
+
+    /**
+     * 一个线程持有的号段 [next, end)
+     */
+    private static final class Block {
+        private long next;
+        private final long end;
+
+        Block(long start, long end) {
+            this.next = start;
+            this.end = end;
+        }
+
+        boolean isExhausted() {
+            return next >= end;
+        }
+
+        long next() {
+            return next++;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.xt.jpa.index;
+
+import com.xt.jpa.context.JpaCallback;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.jdbc.Work;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * @author xt
+ * @date 2019/2/23 - 15:30
+ * @description 根据 PredicateRecordingInterceptor 记录的 SQL 推荐索引
+ *
+ * 1. 每条 SQL 中的每张表得到一个候选索引：等值条件和连接条件的列（按列名排序）在前，
+ *    最后加上一个范围条件的列，没有范围条件时加上一个 order by / group by 的列，最多 3 列；
+ * 2. 候选索引的执行次数为对应 SQL 的执行次数之和；
+ * 3. 数据库中已有的索引（包括主键、外键自动创建的索引）的前缀能满足的候选索引被去掉，
+ *    能被另一个候选索引的前缀满足的候选索引合并到那个候选索引中。
+ *
+ * 推荐的结果可以直接执行（apply），也可以把 getAnnotation() 添加到实体类上，由 hbm2ddl 创建。
+ * evaluate 用一组查询比较创建索引前后的延迟，它会在数据库中真正创建索引，不需要保留时用 drop 删除：
+ *    IndexAdvisorReport report = advisor.evaluate(workload, 20);
+ *    advisor.drop(report.getApplied());
+ */
+public class IndexAdvisor {
+
+    private static final int MAX_COLUMNS = 3;
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final PredicateRecordingInterceptor recorder;
+
+    private IndexAdvisor(EntityManagerFactory entityManagerFactory, PredicateRecordingInterceptor recorder) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.recorder = recorder;
+    }
+
+    /**
+     * @param entityManagerFactory 使用 PredicateRecordingInterceptor.properties() 创建的 EntityManagerFactory
+     * @throws IllegalStateException 没有配置 PredicateRecordingInterceptor
+     */
+    public static IndexAdvisor of(EntityManagerFactory entityManagerFactory) {
+        PredicateRecordingInterceptor recorder = PredicateRecordingInterceptor.of(entityManagerFactory);
+        if (recorder == null) {
+            throw new IllegalStateException("没有启用 " + PredicateRecordingInterceptor.class.getName()
+                    + "，创建 EntityManagerFactory 时传入 PredicateRecordingInterceptor.properties()");
+        }
+        return new IndexAdvisor(entityManagerFactory, recorder);
+    }
+
+    public List<IndexRecommendation> recommend() {
+        return recommend(1);
+    }
+
+    /**
+     * @param minExecutions 执行次数少于该值的候选索引不推荐
+     * @return 按执行次数从多到少排序
+     */
+    public List<IndexRecommendation> recommend(long minExecutions) {
+        Map<String, String> entityNames = entityNamesByTable();
+        Map<String, IndexRecommendation> candidates = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> execution : recorder.getExecutions().entrySet()) {
+            for (SqlPredicates.TableUsage usage : SqlPredicates.parse(execution.getKey()).values()) {
+                IndexRecommendation candidate = candidate(usage, entityNames);
+                if (candidate == null) {
+                    continue;
+                }
+                String key = (candidate.getTable() + ":" + candidate.getColumns()).toLowerCase(Locale.ROOT);
+                IndexRecommendation existing = candidates.get(key);
+                if (existing == null) {
+                    candidates.put(key, candidate);
+                    existing = candidate;
+                }
+                existing.addExecutions(execution.getKey(), execution.getValue());
+            }
+        }
+
+        Set<String> tables = new HashSet<>();
+        for (IndexRecommendation candidate : candidates.values()) {
+            tables.add(candidate.getTable());
+        }
+        Map<String, List<List<String>>> indexes = existingIndexes(tables);
+
+        // 列多的候选索引在前，列少的候选索引可以合并到列多的候选索引中
+        List<IndexRecommendation> sorted = new ArrayList<>(candidates.values());
+        Collections.sort(sorted, new Comparator<IndexRecommendation>() {
+            @Override
+            public int compare(IndexRecommendation a, IndexRecommendation b) {
+                return b.getColumns().size() - a.getColumns().size();
+            }
+        });
+        List<IndexRecommendation> recommendations = new ArrayList<>();
+        for (IndexRecommendation candidate : sorted) {
+            if (coveredByExisting(candidate, indexes.get(candidate.getTable().toLowerCase(Locale.ROOT)))) {
+                continue;
+            }
+            IndexRecommendation wider = null;
+            for (IndexRecommendation recommendation : recommendations) {
+                if (recommendation.getTable().equalsIgnoreCase(candidate.getTable())
+                        && covers(recommendation.getColumns(), candidate)) {
+                    wider = recommendation;
+                    break;
+                }
+            }
+            if (wider != null) {
+                wider.merge(candidate);
+            } else {
+                recommendations.add(candidate);
+            }
+        }
+
+        Iterator<IndexRecommendation> iterator = recommendations.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getExecutions() < minExecutions) {
+                iterator.remove();
+            }
+        }
+        Collections.sort(recommendations, new Comparator<IndexRecommendation>() {
+            @Override
+            public int compare(IndexRecommendation a, IndexRecommendation b) {
+                return Long.compare(b.getExecutions(), a.getExecutions());
+            }
+        });
+        return recommendations;
+    }
+
+    /**
+     * 在数据库中创建索引，每个索引在单独的事务中执行
+     *
+     * @return 成功创建的索引
+     * @throws PersistenceException 某个索引创建失败（例如已经存在），在它之前的索引已经创建
+     */
+    public List<IndexRecommendation> apply(List<IndexRecommendation> recommendations) {
+        List<IndexRecommendation> applied = new ArrayList<>();
+        for (IndexRecommendation recommendation : recommendations) {
+            execute(recommendation.getDdl());
+            applied.add(recommendation);
+        }
+        return applied;
+    }
+
+    /**
+     * 删除 apply 或 evaluate 创建的索引。每个索引单独执行，全部执行完后再抛出第一个失败的异常
+     *
+     * @throws PersistenceException 某个索引删除失败
+     */
+    public void drop(List<IndexRecommendation> recommendations) {
+        PersistenceException failure = null;
+        for (IndexRecommendation recommendation : recommendations) {
+            try {
+                execute(dropDdl(recommendation));
+            } catch (PersistenceException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 比较创建索引前后的查询延迟：
+     * 1. 每个查询执行 iterations 次，记录延迟的中位数（不使用二级缓存和查询缓存，每次执行前清空持久化上下文，执行后回滚）；
+     * 2. 根据到目前为止记录的 SQL（包括第 1 步执行的查询）推荐索引，并在数据库中创建，
+     *    创建失败的索引和原因记录在 IndexAdvisorReport.getFailures() 中；
+     * 3. 再次执行每个查询，记录延迟的中位数。第 3 步失败时删除第 2 步创建的索引。
+     *
+     * 创建的索引会保留在数据库中，不需要时调用 drop(report.getApplied())。
+     *
+     * @param workload 查询的名称 -> 查询
+     */
+    public IndexAdvisorReport evaluate(Map<String, ? extends JpaCallback<?>> workload, int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations 必须大于 0");
+        }
+        Map<String, Long> before = measure(workload, iterations);
+        List<IndexRecommendation> recommendations = recommend();
+        List<IndexRecommendation> applied = new ArrayList<>();
+        Map<IndexRecommendation, String> failures = new LinkedHashMap<>();
+        for (IndexRecommendation recommendation : recommendations) {
+            try {
+                execute(recommendation.getDdl());
+                applied.add(recommendation);
+            } catch (PersistenceException e) {
+                failures.put(recommendation, e.getMessage());
+            }
+        }
+
+        Map<String, Long> after;
+        try {
+            after = measure(workload, iterations);
+        } catch (RuntimeException e) {
+            try {
+                drop(applied);
+            } catch (PersistenceException dropFailure) {
+                e.addSuppressed(dropFailure);
+            }
+            throw e;
+        }
+
+        List<QueryLatency> latencies = new ArrayList<>();
+        for (String name : workload.keySet()) {
+            latencies.add(new QueryLatency(name, before.get(name), after.get(name)));
+        }
+        return new IndexAdvisorReport(recommendations, applied, failures, latencies);
+    }
+
+    /**
+     * 在单独的事务中执行一条 DDL
+     */
+    private void execute(final String ddl) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            entityManager.unwrap(Session.class).doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate(ddl);
+                    }
+                }
+            });
+            entityManager.getTransaction().commit();
+        } catch (PersistenceException | org.hibernate.HibernateException e) {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            throw new PersistenceException("执行 DDL 失败: " + ddl + ": " + e.getMessage(), e);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * MySQL 的 drop index 需要指定表名，其他数据库（例如 H2）不允许指定
+     */
+    private String dropDdl(IndexRecommendation recommendation) {
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor)
+                ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+        String ddl = "drop index " + recommendation.getIndexName();
+        if (sessionFactory.getDialect() instanceof MySQLDialect) {
+            ddl += " on " + recommendation.getTable();
+        }
+        return ddl;
+    }
+
+    private Map<String, Long> measure(Map<String, ? extends JpaCallback<?>> workload, int iterations) {
+        Map<String, Long> medians = new HashMap<>();
+        for (Map.Entry<String, ? extends JpaCallback<?>> entry : workload.entrySet()) {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                entityManager.unwrap(Session.class).setCacheMode(CacheMode.IGNORE);
+                entityManager.getTransaction().begin();
+                // 预热：第一次执行需要编译查询、初始化连接的语句缓存
+                entry.getValue().doInJpa(entityManager);
+                long[] elapsed = new long[iterations];
+                for (int i = 0; i < iterations; i++) {
+                    entityManager.clear();
+                    long start = System.nanoTime();
+                    entry.getValue().doInJpa(entityManager);
+                    elapsed[i] = System.nanoTime() - start;
+                }
+                Arrays.sort(elapsed);
+                medians.put(entry.getKey(), elapsed[iterations / 2]);
+            } finally {
+                if (entityManager.getTransaction().isActive()) {
+                    entityManager.getTransaction().rollback();
+                }
+                entityManager.close();
+            }
+        }
+        return medians;
+    }
+
+    private static IndexRecommendation candidate(SqlPredicates.TableUsage usage, Map<String, String> entityNames) {
+        List<String> equality = new ArrayList<>(usage.equality);
+        Collections.sort(equality, String.CASE_INSENSITIVE_ORDER);
+        String tail = null;
+        if (equality.size() > MAX_COLUMNS) {
+            equality = equality.subList(0, MAX_COLUMNS);
+        } else if (equality.size() < MAX_COLUMNS) {
+            tail = firstNotIn(usage.range, equality);
+            if (tail == null) {
+                tail = firstNotIn(usage.order, equality);
+            }
+        }
+        if (equality.isEmpty() && tail == null) {
+            return null;
+        }
+        return new IndexRecommendation(usage.table, equality, tail,
+                entityNames.get(usage.table.toLowerCase(Locale.ROOT)));
+    }
+
+    private static String firstNotIn(Set<String> columns, List<String> excluded) {
+        for (String column : columns) {
+            if (!containsIgnoreCase(excluded, column)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    private static boolean coveredByExisting(IndexRecommendation candidate, List<List<String>> indexes) {
+        if (indexes != null) {
+            for (List<String> index : indexes) {
+                if (covers(index, candidate)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 索引的前 n 列与候选索引的等值条件的列相同（顺序无关），下一列为候选索引的范围条件或者排序的列
+     */
+    private static boolean covers(List<String> index, IndexRecommendation candidate) {
+        List<String> equality = candidate.getEqualityColumns();
+        String range = candidate.getRangeColumn();
+        if (index.size() < equality.size() + (range == null ? 0 : 1)) {
+            return false;
+        }
+        List<String> prefix = index.subList(0, equality.size());
+        for (String column : equality) {
+            if (!containsIgnoreCase(prefix, column)) {
+                return false;
+            }
+        }
+        return range == null || index.get(equality.size()).equalsIgnoreCase(range);
+    }
+
+    private static boolean containsIgnoreCase(List<String> columns, String column) {
+        for (String c : columns) {
+            if (c.equalsIgnoreCase(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 表名（小写）-> 实体名
+     */
+    private Map<String, String> entityNamesByTable() {
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor)
+                ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+        Map<String, String> entityNames = new HashMap<>();
+        for (ClassMetadata metadata : sessionFactory.getAllClassMetadata().values()) {
+            if (metadata instanceof AbstractEntityPersister) {
+                AbstractEntityPersister persister = (AbstractEntityPersister) metadata;
+                entityNames.put(persister.getTableName().toLowerCase(Locale.ROOT), persister.getEntityName());
+            }
+        }
+        return entityNames;
+    }
+
+    /**
+     * 从数据库的元数据中读取已有的索引和主键：表名（小写）-> 每个索引的列
+     */
+    private Map<String, List<List<String>>> existingIndexes(final Set<String> tables) {
+        if (tables.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.unwrap(Session.class).doReturningWork(new ReturningWork<Map<String, List<List<String>>>>() {
+                @Override
+                public Map<String, List<List<String>>> execute(Connection connection) throws SQLException {
+                    DatabaseMetaData metaData = connection.getMetaData();
+                    Map<String, List<List<String>>> indexes = new HashMap<>();
+                    for (String table : tables) {
+                        indexes.put(table.toLowerCase(Locale.ROOT), readIndexes(metaData, table));
+                    }
+                    return indexes;
+                }
+            });
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private static List<List<String>> readIndexes(DatabaseMetaData metaData, String table) throws SQLException {
+        // 数据库保存的表名可能是大写或者小写
+        for (String name : new String[]{table, table.toUpperCase(Locale.ROOT), table.toLowerCase(Locale.ROOT)}) {
+            Map<String, TreeMap<Integer, String>> columnsByIndex = new LinkedHashMap<>();
+            try (ResultSet resultSet = metaData.getIndexInfo(null, null, name, false, true)) {
+                while (resultSet.next()) {
+                    String index = resultSet.getString("INDEX_NAME");
+                    String column = resultSet.getString("COLUMN_NAME");
+                    if (index != null && column != null) {
+                        columns(columnsByIndex, index).put((int) resultSet.getShort("ORDINAL_POSITION"), column);
+                    }
+                }
+            }
+            try (ResultSet resultSet = metaData.getPrimaryKeys(null, null, name)) {
+                while (resultSet.next()) {
+                    columns(columnsByIndex, "\0primary key").put((int) resultSet.getShort("KEY_SEQ"),
+                            resultSet.getString("COLUMN_NAME"));
+                }
+            }
+            if (!columnsByIndex.isEmpty()) {
+                List<List<String>> indexes = new ArrayList<>();
+                for (TreeMap<Integer, String> columns : columnsByIndex.values()) {
+                    indexes.add(new ArrayList<>(columns.values()));
+                }
+                return indexes;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static TreeMap<Integer, String> columns(Map<String, TreeMap<Integer, String>> columnsByIndex, String index) {
+        TreeMap<Integer, String> columns = columnsByIndex.get(index);
+        if (columns == null) {
+            columns = new TreeMap<>();
+            columnsByIndex.put(index, columns);
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,68 @@
+package com.xt.jpa.index;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author xt
+ * @date 2019/2/23 - 15:20
+ * @description IndexAdvisor.evaluate 的结果：推荐的索引、实际创建的索引、创建失败的索引，以及查询在创建索引前后的延迟
+ */
+public class IndexAdvisorReport {
+
+    private final List<IndexRecommendation> recommendations;
+    private final List<IndexRecommendation> applied;
+    private final Map<IndexRecommendation, String> failures;
+    private final List<QueryLatency> latencies;
+
+    IndexAdvisorReport(List<IndexRecommendation> recommendations, List<IndexRecommendation> applied,
+                       Map<IndexRecommendation, String> failures, List<QueryLatency> latencies) {
+        this.recommendations = Collections.unmodifiableList(recommendations);
+        this.applied = Collections.unmodifiableList(applied);
+        this.failures = Collections.unmodifiableMap(failures);
+        this.latencies = Collections.unmodifiableList(latencies);
+    }
+
+    public List<IndexRecommendation> getRecommendations() {
+        return recommendations;
+    }
+
+    public List<IndexRecommendation> getApplied() {
+        return applied;
+    }
+
+    /**
+     * 创建失败的索引 -> 失败的原因
+     */
+    public Map<IndexRecommendation, String> getFailures() {
+        return failures;
+    }
+
+    public List<QueryLatency> getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder("推荐的索引:\n");
+        if (recommendations.isEmpty()) {
+            report.append("  无\n");
+        }
+        for (IndexRecommendation recommendation : recommendations) {
+            report.append(applied.contains(recommendation) ? "  [已创建] " : "  [未创建] ")
+                    .append(recommendation).append('\n');
+            if (failures.containsKey(recommendation)) {
+                report.append("      失败: ").append(failures.get(recommendation)).append('\n');
+            }
+            if (recommendation.getAnnotation() != null) {
+                report.append("      ").append(recommendation.getAnnotation()).append('\n');
+            }
+        }
+        report.append("查询延迟（中位数）:\n");
+        for (QueryLatency latency : latencies) {
+            report.append("  ").append(latency).append('\n');
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,126 @@
+package com.xt.jpa.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * @author xt
+ * @date 2019/2/23 - 15:00
+ * @description IndexAdvisor 推荐的一个索引：先是等值条件的列，最后是一个范围条件或者排序的列
+ */
+public class IndexRecommendation {
+
+    /**
+     * Oracle 等数据库的标识符最长 30 个字符
+     */
+    private static final int MAX_NAME_LENGTH = 30;
+
+    private final String table;
+    private final List<String> equalityColumns;
+    private final String rangeColumn;
+    private final String entityName;
+    private long executions;
+    private String sampleSql;
+    private long sampleExecutions;
+
+    IndexRecommendation(String table, List<String> equalityColumns, String rangeColumn, String entityName) {
+        this.table = table;
+        this.equalityColumns = Collections.unmodifiableList(new ArrayList<>(equalityColumns));
+        this.rangeColumn = rangeColumn;
+        this.entityName = entityName;
+    }
+
+    void addExecutions(String sql, long count) {
+        executions += count;
+        if (count > sampleExecutions) {
+            sampleExecutions = count;
+            sampleSql = sql;
+        }
+    }
+
+    void merge(IndexRecommendation other) {
+        addExecutions(other.sampleSql, other.sampleExecutions);
+        executions += other.executions - other.sampleExecutions;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public List<String> getColumns() {
+        List<String> columns = new ArrayList<>(equalityColumns);
+        if (rangeColumn != null) {
+            columns.add(rangeColumn);
+        }
+        return columns;
+    }
+
+    List<String> getEqualityColumns() {
+        return equalityColumns;
+    }
+
+    String getRangeColumn() {
+        return rangeColumn;
+    }
+
+    /**
+     * 使用该索引的 SQL 的执行次数
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * 执行次数最多的一条使用该索引的 SQL
+     */
+    public String getSampleSql() {
+        return sampleSql;
+    }
+
+    public String getIndexName() {
+        StringBuilder name = new StringBuilder("IDX_").append(table);
+        for (String column : getColumns()) {
+            name.append('_').append(column);
+        }
+        String text = name.toString().toUpperCase(Locale.ROOT);
+        if (text.length() <= MAX_NAME_LENGTH) {
+            return text;
+        }
+        String hash = Integer.toHexString(text.hashCode()).toUpperCase(Locale.ROOT);
+        return text.substring(0, MAX_NAME_LENGTH - hash.length() - 1) + '_' + hash;
+    }
+
+    public String getDdl() {
+        StringBuilder ddl = new StringBuilder("create index ").append(getIndexName())
+                .append(" on ").append(table).append(" (");
+        List<String> columns = getColumns();
+        for (int i = 0; i < columns.size(); i++) {
+            ddl.append(i == 0 ? "" : ", ").append(columns.get(i));
+        }
+        return ddl.append(')').toString();
+    }
+
+    /**
+     * 添加到实体类上的注解。中间表等不属于实体的表返回 null，使用 getDdl()
+     */
+    public String getAnnotation() {
+        if (entityName == null) {
+            return null;
+        }
+        StringBuilder annotation = new StringBuilder("@org.hibernate.annotations.Table(appliesTo = \"")
+                .append(table).append("\", indexes = {@Index(name = \"").append(getIndexName())
+                .append("\", columnNames = {");
+        List<String> columns = getColumns();
+        for (int i = 0; i < columns.size(); i++) {
+            annotation.append(i == 0 ? "\"" : ", \"").append(columns.get(i)).append('"');
+        }
+        return annotation.append("})})  // ").append(entityName).toString();
+    }
+
+    @Override
+    public String toString() {
+        return getDdl() + "  -- " + executions + " 次" + (sampleSql == null ? "" : "，例如: " + sampleSql);
+    }
+}
@@ -0,0 +1,98 @@
+package com.xt.jpa.index;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Interceptor;
+import org.hibernate.ejb.AvailableSettings;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author xt
+ * @date 2019/2/23 - 14:00
+ * @description 记录执行过的 SQL 语句及其执行次数，供 IndexAdvisor 分析查询条件、连接和排序使用的列
+ *
+ * JPQL 查询、集合和关联关系的加载最终都会生成 SQL，hibernate 在每次创建 PreparedStatement 之前调用 onPrepareStatement。
+ * 这里只对 SQL 计数，解析放到 IndexAdvisor.recommend() 中进行，不影响查询的执行。
+ * 不同的 SQL 最多记录 MAX_STATEMENTS 条，超过之后只统计被丢弃的次数。
+ *
+ * 默认不启用：它会占用 EntityManagerFactory 唯一的全局拦截器，并且要为每条 SQL 查找计数。
+ * 需要推荐索引时，用 properties() 另外创建一个 EntityManagerFactory（整个 EntityManagerFactory 共享一个实例）：
+ *    Persistence.createEntityManagerFactory("jpa-1", PredicateRecordingInterceptor.properties());
+ * 不要把 hibernate.ejb.interceptor 写在 persistence.xml 中，否则所有的 EntityManagerFactory 都会记录。
+ */
+public class PredicateRecordingInterceptor extends EmptyInterceptor {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAX_STATEMENTS = 2000;
+
+    private final ConcurrentMap<String, AtomicLong> executions = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @return 创建 EntityManagerFactory 时启用 PredicateRecordingInterceptor 的配置，可以继续添加其它配置
+     */
+    public static Map<String, Object> properties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(AvailableSettings.INTERCEPTOR, PredicateRecordingInterceptor.class.getName());
+        return properties;
+    }
+
+    /**
+     * @return 没有配置 PredicateRecordingInterceptor 时返回 null
+     */
+    public static PredicateRecordingInterceptor of(EntityManagerFactory entityManagerFactory) {
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor)
+                ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+        Interceptor interceptor = sessionFactory.getInterceptor();
+        return interceptor instanceof PredicateRecordingInterceptor ? (PredicateRecordingInterceptor) interceptor : null;
+    }
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        AtomicLong count = executions.get(sql);
+        if (count == null) {
+            if (executions.size() >= MAX_STATEMENTS) {
+                dropped.incrementAndGet();
+                return sql;
+            }
+            AtomicLong created = new AtomicLong();
+            count = executions.putIfAbsent(sql, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        return sql;
+    }
+
+    /**
+     * @return SQL -> 执行次数
+     */
+    public Map<String, Long> getExecutions() {
+        Map<String, Long> snapshot = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : executions.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * 超过 MAX_STATEMENTS 之后没有被记录的执行次数
+     */
+    public long getDroppedExecutions() {
+        return dropped.get();
+    }
+
+    public void reset() {
+        executions.clear();
+        dropped.set(0);
+    }
+}
@@ -0,0 +1,43 @@
+package com.xt.jpa.index;
+
+/**
+ * @author xt
+ * @date 2019/2/23 - 15:10
+ * @description 一个查询在创建索引前后的延迟（中位数）
+ */
+public class QueryLatency {
+
+    private final String name;
+    private final long beforeNanos;
+    private final long afterNanos;
+
+    QueryLatency(String name, long beforeNanos, long afterNanos) {
+        this.name = name;
+        this.beforeNanos = beforeNanos;
+        this.afterNanos = afterNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getBeforeNanos() {
+        return beforeNanos;
+    }
+
+    public long getAfterNanos() {
+        return afterNanos;
+    }
+
+    /**
+     * 大于 1 表示变快了
+     */
+    public double getSpeedup() {
+        return afterNanos == 0 ? 0 : (double) beforeNanos / afterNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %.3f ms -> %.3f ms (x%.2f)", name, beforeNanos / 1e6, afterNanos / 1e6, getSpeedup());
+    }
+}
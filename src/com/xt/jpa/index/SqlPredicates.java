@@ -0,0 +1,212 @@
+package com.xt.jpa.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author xt
+ * @date 2019/2/23 - 14:30
+ * @description 从一条 SQL 中找出每张表在查询条件、连接条件和排序、分组中使用的列
+ *
+ * 只针对 hibernate 生成的 SQL（表都有别名，列都带有别名前缀）和简单的单表原生 SQL，不是完整的 SQL 解析器：
+ * 1. from、join、update、delete from 之后的 "表名 别名" 建立别名到表的映射；
+ * 2. where、on、having 中的 "别名.列 运算符"：=、in、is 为等值条件，<、>、<=、>=、between、like 为范围条件，
+ *    <>、not in、not like 不能使用索引，忽略；"别名.列 = 别名.列" 两边都是等值条件（连接列）；
+ * 3. group by、order by 中的列为排序列。
+ * insert 语句没有查询条件，直接忽略。
+ */
+final class SqlPredicates {
+
+    private static final Pattern CLAUSE = Pattern.compile("(?i)\\b(select|delete\\s+from|from|update|"
+            + "(?:inner\\s+|cross\\s+|left\\s+(?:outer\\s+)?|right\\s+(?:outer\\s+)?|full\\s+(?:outer\\s+)?)?join|"
+            + "where|on|having|group\\s+by|order\\s+by|set|values|limit|offset|for\\s+update|union)\\b");
+
+    private static final String OPERATOR = "(<>|!=|<=|>=|=|<|>|\\bnot\\s+like\\b|\\blike\\b|\\bnot\\s+in\\b|\\bin\\b|"
+            + "\\bbetween\\b|\\bis\\b)";
+
+    private static final Pattern QUALIFIED_PREDICATE = Pattern.compile(
+            "(?i)([A-Za-z_][\\w$]*)\\.([A-Za-z_][\\w$]*)\\s*" + OPERATOR);
+
+    private static final Pattern UNQUALIFIED_PREDICATE = Pattern.compile(
+            "(?i)(?<![\\w$.])([A-Za-z_][\\w$]*)\\s*" + OPERATOR);
+
+    private static final Pattern RIGHT_SIDE_COLUMN = Pattern.compile(
+            "(?i)=\\s*([A-Za-z_][\\w$]*)\\.([A-Za-z_][\\w$]*)(?![\\w$(])");
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][\\w$]*");
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "and", "or", "not", "where", "on", "having", "exists", "case", "when", "then", "else", "end", "null",
+            "as", "select", "from", "join", "inner", "left", "right", "outer", "cross", "full", "set", "by"));
+
+    private SqlPredicates() {
+    }
+
+    /**
+     * @return 表名（小写）-> 该表的列的使用情况。insert 语句返回空
+     */
+    static Map<String, TableUsage> parse(String sql) {
+        Map<String, TableUsage> usages = new LinkedHashMap<>();
+        String text = sql.replaceAll("\\s+", " ").trim();
+        if (text.regionMatches(true, 0, "insert", 0, 6)) {
+            return usages;
+        }
+
+        List<Clause> clauses = clauses(text);
+        Map<String, String> aliases = new HashMap<>();
+        Set<String> tables = new LinkedHashSet<>();
+        for (Clause clause : clauses) {
+            String keyword = clause.keyword;
+            if (keyword.equals("from") || keyword.equals("join") || keyword.equals("update")
+                    || keyword.equals("delete from")) {
+                for (String reference : clause.body.split(",")) {
+                    String[] tokens = reference.trim().split(" ");
+                    if (tokens.length == 0 || !IDENTIFIER.matcher(tokens[0].replace(".", "_")).matches()) {
+                        continue;
+                    }
+                    tables.add(tokens[0]);
+                    aliases.put(tokens[0].toLowerCase(Locale.ROOT), tokens[0]);
+                    String alias = tokens.length > 2 && tokens[1].equalsIgnoreCase("as") ? tokens[2]
+                            : tokens.length > 1 ? tokens[1] : null;
+                    if (alias != null && IDENTIFIER.matcher(alias).matches()
+                            && !KEYWORDS.contains(alias.toLowerCase(Locale.ROOT))) {
+                        aliases.put(alias.toLowerCase(Locale.ROOT), tokens[0]);
+                    }
+                }
+            }
+        }
+        // 单表的原生 SQL 中的列可以不带前缀
+        String singleTable = tables.size() == 1 ? tables.iterator().next() : null;
+
+        for (Clause clause : clauses) {
+            String keyword = clause.keyword;
+            String body = clause.body;
+            if (keyword.equals("where") || keyword.equals("on") || keyword.equals("having")) {
+                Matcher matcher = QUALIFIED_PREDICATE.matcher(body);
+                while (matcher.find()) {
+                    String table = aliases.get(matcher.group(1).toLowerCase(Locale.ROOT));
+                    if (table != null) {
+                        usage(usages, table).add(matcher.group(2), matcher.group(3));
+                    }
+                }
+                matcher = RIGHT_SIDE_COLUMN.matcher(body);
+                while (matcher.find()) {
+                    String table = aliases.get(matcher.group(1).toLowerCase(Locale.ROOT));
+                    if (table != null) {
+                        usage(usages, table).add(matcher.group(2), "=");
+                    }
+                }
+                if (singleTable != null) {
+                    matcher = UNQUALIFIED_PREDICATE.matcher(body);
+                    while (matcher.find()) {
+                        if (!KEYWORDS.contains(matcher.group(1).toLowerCase(Locale.ROOT))) {
+                            usage(usages, singleTable).add(matcher.group(1), matcher.group(2));
+                        }
+                    }
+                }
+            } else if (keyword.equals("group by") || keyword.equals("order by")) {
+                for (String item : body.split(",")) {
+                    String expression = item.trim().split(" ")[0];
+                    int dot = expression.indexOf('.');
+                    if (dot > 0) {
+                        String table = aliases.get(expression.substring(0, dot).toLowerCase(Locale.ROOT));
+                        String column = expression.substring(dot + 1);
+                        if (table != null && IDENTIFIER.matcher(column).matches()) {
+                            usage(usages, table).order.add(column);
+                        }
+                    } else if (singleTable != null && IDENTIFIER.matcher(expression).matches()) {
+                        usage(usages, singleTable).order.add(expression);
+                    }
+                }
+            }
+        }
+        return usages;
+    }
+
+    private static TableUsage usage(Map<String, TableUsage> usages, String table) {
+        String key = table.toLowerCase(Locale.ROOT);
+        TableUsage usage = usages.get(key);
+        if (usage == null) {
+            usage = new TableUsage(table);
+            usages.put(key, usage);
+        }
+        return usage;
+    }
+
+    /**
+     * 按子句的关键字切分 SQL：关键字（小写、单个空格）-> 到下一个关键字之前的内容
+     */
+    private static List<Clause> clauses(String text) {
+        List<Clause> clauses = new ArrayList<>();
+        Matcher matcher = CLAUSE.matcher(text);
+        String keyword = null;
+        int start = 0;
+        while (matcher.find()) {
+            if (keyword != null) {
+                clauses.add(new Clause(keyword, text.substring(start, matcher.start())));
+            }
+            keyword = matcher.group(1).toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+            if (keyword.endsWith("join")) {
+                keyword = "join";
+            }
+            start = matcher.end();
+        }
+        if (keyword != null) {
+            clauses.add(new Clause(keyword, text.substring(start)));
+        }
+        return clauses;
+    }
+
+    /**
+     * 一张表在一条 SQL 中使用的列
+     */
+    static final class TableUsage {
+
+        final String table;
+        final Set<String> equality = new LinkedHashSet<>();
+        final Set<String> range = new LinkedHashSet<>();
+        final Set<String> order = new LinkedHashSet<>();
+
+        TableUsage(String table) {
+            this.table = table;
+        }
+
+        void add(String column, String operator) {
+            String op = operator.toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+            if (op.equals("=") || op.equals("in") || op.equals("is")) {
+                equality.add(column);
+            } else if (op.equals("<") || op.equals(">") || op.equals("<=") || op.equals(">=")
+                    || op.equals("between") || op.equals("like")) {
+                range.add(column);
+            }
+        }
+
+        boolean isEmpty() {
+            return equality.isEmpty() && range.isEmpty() && order.isEmpty();
+        }
+    }
+
+    private static final class Clause {
+
+        /**
+         * 小写、单个空格，各种 join 统一为 join
+         */
+        final String keyword;
+        final String body;
+
+        Clause(String keyword, String body) {
+            this.keyword = keyword;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.xt.jpa.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * @author xt
+ * @date 2019/2/24 - 10:40
+ * @description 包装 Connection：创建的 Statement 都被 MeteredStatement 包装，其余方法直接调用被包装的连接
+ */
+final class MeteredConnection implements InvocationHandler {
+
+    private final StatementMetrics metrics;
+    private final Connection connection;
+
+    MeteredConnection(StatementMetrics metrics, Connection connection) {
+        this.metrics = metrics;
+        this.connection = connection;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Metered[" + connection + "]";
+        }
+        Object result = delegate(connection, method, args);
+        switch (method.getName()) {
+            case "prepareStatement":
+                return wrap(PreparedStatement.class, (Statement) result, (Connection) proxy, (String) args[0]);
+            case "prepareCall":
+                return wrap(CallableStatement.class, (Statement) result, (Connection) proxy, (String) args[0]);
+            case "createStatement":
+                return wrap(Statement.class, (Statement) result, (Connection) proxy, null);
+            default:
+                return result;
+        }
+    }
+
+    private Statement wrap(Class<? extends Statement> type, Statement statement, Connection proxy, String sql) {
+        StatementShape shape = sql == null ? null : metrics.shape(sql);
+        return StatementMetrics.proxy(type, new MeteredStatement(metrics, statement, proxy, shape, sql));
+    }
+
+    static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
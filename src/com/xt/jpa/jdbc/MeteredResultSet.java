@@ -0,0 +1,60 @@
+package com.xt.jpa.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * @author xt
+ * @date 2019/2/24 - 11:00
+ * @description 包装 ResultSet：统计读到的行数，先在本地计数，读完或者关闭时一次性加到统计对象上
+ */
+final class MeteredResultSet implements InvocationHandler {
+
+    private final StatementShape shape;
+    private final ResultSet resultSet;
+    private final Statement statement;
+
+    private long rows;
+    private boolean recorded;
+
+    MeteredResultSet(StatementShape shape, ResultSet resultSet, Statement statement) {
+        this.shape = shape;
+        this.resultSet = resultSet;
+        this.statement = statement;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Metered[" + resultSet + "]";
+            case "getStatement":
+                return statement;
+            case "next":
+                boolean next = resultSet.next();
+                if (next) {
+                    rows++;
+                } else {
+                    record();
+                }
+                return next;
+            case "close":
+                record();
+                break;
+        }
+        return MeteredConnection.delegate(resultSet, method, args);
+    }
+
+    private void record() {
+        if (!recorded) {
+            recorded = true;
+            shape.rowsReturned(rows);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.xt.jpa.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * @author xt
+ * @date 2019/2/24 - 10:50
+ * @description 包装 Statement / PreparedStatement / CallableStatement：记录 execute* 的耗时、影响的行数、批处理的大小，
+ * 需要输出慢查询时记录绑定参数
+ *
+ * Statement 不会被多个线程同时使用，这里的字段不需要同步。
+ */
+final class MeteredStatement implements InvocationHandler {
+
+    private final StatementMetrics metrics;
+    private final Statement statement;
+    private final Connection connection;
+
+    /**
+     * PreparedStatement 在创建时确定；Statement 为 null，每次执行时按传入的 SQL 查找
+     */
+    private final StatementShape preparedShape;
+    private final String preparedSql;
+
+    private StatementShape lastShape;
+    private Object[] parameters;
+    private int parameterCount;
+    private int batchSize;
+    private String batchSql;
+
+    MeteredStatement(StatementMetrics metrics, Statement statement, Connection connection,
+                     StatementShape preparedShape, String preparedSql) {
+        this.metrics = metrics;
+        this.statement = statement;
+        this.connection = connection;
+        this.preparedShape = preparedShape;
+        this.preparedSql = preparedSql;
+        this.lastShape = preparedShape;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        switch (name) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Metered[" + statement + "]";
+            case "getConnection":
+                return connection;
+            case "execute":
+            case "executeQuery":
+            case "executeUpdate":
+            case "executeLargeUpdate":
+                return execute(proxy, method, args);
+            case "executeBatch":
+            case "executeLargeBatch":
+                return executeBatch(method, args);
+            case "addBatch":
+                batchSize++;
+                if (args != null && batchSql == null) {
+                    batchSql = (String) args[0];
+                }
+                break;
+            case "clearBatch":
+                batchSize = 0;
+                batchSql = null;
+                break;
+            case "clearParameters":
+                if (parameters != null) {
+                    Arrays.fill(parameters, null);
+                    parameterCount = 0;
+                }
+                break;
+            case "getResultSet":
+                return wrap(MeteredConnection.delegate(statement, method, args), proxy);
+            default:
+                if (args != null && args.length >= 2 && args[0] instanceof Integer && name.startsWith("set")
+                        && preparedShape != null && metrics.isCapturingParameters()) {
+                    bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                }
+        }
+        return MeteredConnection.delegate(statement, method, args);
+    }
+
+    private Object execute(Object proxy, Method method, Object[] args) throws Throwable {
+        String sql = preparedSql;
+        StatementShape shape = preparedShape;
+        if (args != null && args.length > 0 && args[0] instanceof String) {
+            sql = (String) args[0];
+            shape = metrics.shape(sql);
+        }
+        if (shape == null) {
+            return MeteredConnection.delegate(statement, method, args);
+        }
+        lastShape = shape;
+        Object result;
+        long start = System.nanoTime();
+        try {
+            result = MeteredConnection.delegate(statement, method, args);
+        } catch (Throwable e) {
+            shape.failed();
+            metrics.executed(shape, sql, System.nanoTime() - start, parameters, parameterCount, 0);
+            throw e;
+        }
+        metrics.executed(shape, sql, System.nanoTime() - start, parameters, parameterCount, 0);
+        if (result instanceof Number) {
+            shape.rowsAffected(((Number) result).longValue());
+        }
+        return result instanceof ResultSet ? wrap(result, proxy) : result;
+    }
+
+    private Object executeBatch(Method method, Object[] args) throws Throwable {
+        String sql = preparedSql != null ? preparedSql : batchSql;
+        StatementShape shape = preparedShape != null ? preparedShape : sql == null ? null : metrics.shape(sql);
+        int size = batchSize;
+        batchSize = 0;
+        batchSql = null;
+        if (shape == null) {
+            return MeteredConnection.delegate(statement, method, args);
+        }
+        Object result;
+        long start = System.nanoTime();
+        try {
+            result = MeteredConnection.delegate(statement, method, args);
+        } catch (Throwable e) {
+            shape.failed();
+            metrics.executed(shape, sql, System.nanoTime() - start, null, 0, size);
+            throw e;
+        }
+        metrics.executed(shape, sql, System.nanoTime() - start, null, 0, size);
+        shape.batch(size);
+        long rows = 0;
+        if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                rows += Math.max(0, count);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                rows += Math.max(0, count);
+            }
+        }
+        shape.rowsAffected(rows);
+        return result;
+    }
+
+    private void bind(int index, Object value) {
+        if (parameters == null || index >= parameters.length) {
+            parameters = Arrays.copyOf(parameters == null ? new Object[0] : parameters, Math.max(index + 1, 8));
+        }
+        parameters[index] = value;
+        parameterCount = Math.max(parameterCount, index);
+    }
+
+    private Object wrap(Object resultSet, Object proxy) {
+        if (resultSet == null || lastShape == null) {
+            return resultSet;
+        }
+        return StatementMetrics.proxy(ResultSet.class,
+                new MeteredResultSet(lastShape, (ResultSet) resultSet, (Statement) proxy));
+    }
+}
@@ -0,0 +1,114 @@
+package com.xt.jpa.jdbc;
+
+import org.jboss.logging.Logger;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author xt
+ * @date 2019/2/24 - 10:20
+ * @description 慢查询日志：超过阈值的语句按 sampleRate 抽样，每秒最多输出 maxPerSecond 条
+ *
+ * 与 hibernate 自身的日志一样通过 jboss-logging 输出（类别 com.xt.jpa.jdbc.SlowQueryLog，WARN 级别），
+ * 由应用的日志配置决定输出到哪里。没有超过阈值时只有一次比较，绑定参数只在输出时才格式化。
+ */
+final class SlowQueryLog {
+
+    private static final Logger LOG = Logger.getLogger(SlowQueryLog.class);
+
+    private static final int MAX_PARAMETER_LENGTH = 100;
+
+    private final long thresholdNanos;
+    private final double sampleRate;
+    private final int maxPerSecond;
+
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicLong loggedInWindow = new AtomicLong();
+    private final LongAdder slowQueries = new LongAdder();
+    private final LongAdder logged = new LongAdder();
+
+    /**
+     * @param thresholdMillis 小于等于 0 时不记录慢查询
+     */
+    SlowQueryLog(long thresholdMillis, double sampleRate, int maxPerSecond) {
+        this.thresholdNanos = thresholdMillis <= 0 ? Long.MAX_VALUE : thresholdMillis * 1000000L;
+        this.sampleRate = sampleRate;
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    /**
+     * @param parameters     绑定参数（下标从 1 开始，第 0 个不使用），可以为 null
+     * @param parameterCount 绑定参数的个数
+     * @param batchSize      批处理的语句个数，不是批处理时为 0
+     */
+    void log(String sql, long nanos, Object[] parameters, int parameterCount, int batchSize) {
+        slowQueries.increment();
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        long current = window.get();
+        if (current != second && window.compareAndSet(current, second)) {
+            loggedInWindow.set(0);
+        }
+        if (loggedInWindow.incrementAndGet() > maxPerSecond) {
+            return;
+        }
+        logged.increment();
+        if (!LOG.isEnabled(Logger.Level.WARN)) {
+            return;
+        }
+
+        StringBuilder line = new StringBuilder("慢查询 ").append(String.format("%.3f", nanos / 1e6)).append("ms");
+        if (batchSize > 0) {
+            line.append(" batch=").append(batchSize);
+        }
+        line.append(": ").append(sql);
+        if (parameters != null) {
+            line.append(" 参数: [");
+            for (int i = 1; i <= parameterCount; i++) {
+                line.append(i == 1 ? "" : ", ").append(format(parameters[i]));
+            }
+            line.append(']');
+        }
+        LOG.warn(line);
+    }
+
+    long getSlowQueries() {
+        return slowQueries.sum();
+    }
+
+    long getLogged() {
+        return logged.sum();
+    }
+
+    private static String format(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof byte[]) {
+            return "<byte[" + ((byte[]) value).length + "]>";
+        }
+        if (value instanceof InputStream || value instanceof Reader || value instanceof Blob || value instanceof Clob) {
+            return "<" + value.getClass().getSimpleName() + ">";
+        }
+        if (value instanceof CharSequence) {
+            String text = value.toString();
+            if (text.length() > MAX_PARAMETER_LENGTH) {
+                text = text.substring(0, MAX_PARAMETER_LENGTH) + "...";
+            }
+            return "'" + text.replace("'", "''") + "'";
+        }
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,170 @@
+package com.xt.jpa.jdbc;
+
+import com.xt.jpa.pool.InstrumentedC3P0ConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import javax.persistence.EntityManagerFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * @author xt
+ * @date 2019/2/24 - 10:30
+ * @description 按 SQL 统计执行次数、延迟、返回的行数和批处理的大小，并输出抽样的慢查询日志（代替 hibernate.show_sql）
+ *
+ * 由 InstrumentedC3P0ConnectionProvider 包装借出的连接，通过 JDBC 执行的语句都会被记录：
+ * 1. 同一条 SQL（带 ? 占位符）算作一种语句，最多记录 MAX_SHAPES 种；超过以后把 SQL 中的字面量替换为 ? 再记录，
+ *    再超过 MAX_NORMALIZED_SHAPES 种以后都记录到 OTHER 中，不会无限增长；
+ * 2. 延迟是 execute* 方法的耗时，不包括读取结果集的时间；
+ * 3. 计数器都是 LongAdder / 原子变量，记录时不加锁。PreparedStatement 在创建时就确定了统计对象，执行时不需要查找；
+ * 4. 只有 xt.jdbc.slow_query_threshold_ms 大于 0 时才记录绑定参数，超过阈值的语句按
+ *    xt.jdbc.slow_query_sample_rate 抽样，每秒最多输出 xt.jdbc.slow_query_max_per_second 条。
+ */
+public class StatementMetrics {
+
+    public static final String ENABLED = "xt.jdbc.metrics";
+    public static final String SLOW_QUERY_THRESHOLD = "xt.jdbc.slow_query_threshold_ms";
+    public static final String SLOW_QUERY_SAMPLE_RATE = "xt.jdbc.slow_query_sample_rate";
+    public static final String SLOW_QUERY_MAX_PER_SECOND = "xt.jdbc.slow_query_max_per_second";
+
+    public static final int MAX_SHAPES = 1000;
+    public static final String OTHER = "<其他>";
+
+    private static final int MAX_NORMALIZED_SHAPES = 100;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w$.])-?\\d+(?:\\.\\d+)?");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+
+    private final ConcurrentMap<String, StatementShape> shapes = new ConcurrentHashMap<>();
+    private final SlowQueryLog slowQueryLog;
+    private final boolean captureParameters;
+
+    /**
+     * @param slowQueryThresholdMillis 小于等于 0 时不记录慢查询
+     * @param sampleRate               超过阈值的语句被输出的比例，0 ~ 1
+     * @param maxPerSecond             每秒最多输出的慢查询条数
+     */
+    public StatementMetrics(long slowQueryThresholdMillis, double sampleRate, int maxPerSecond) {
+        this.slowQueryLog = new SlowQueryLog(slowQueryThresholdMillis, sampleRate, maxPerSecond);
+        this.captureParameters = slowQueryThresholdMillis > 0;
+    }
+
+    /**
+     * 根据配置创建，xt.jdbc.metrics=false 时返回 null
+     */
+    public static StatementMetrics configure(Map props) {
+        if (!ConfigurationHelper.getBoolean(ENABLED, props, true)) {
+            return null;
+        }
+        double sampleRate = Double.parseDouble(ConfigurationHelper.getString(SLOW_QUERY_SAMPLE_RATE, props, "1"));
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException(SLOW_QUERY_SAMPLE_RATE + " 必须在 0 ~ 1 之间: " + sampleRate);
+        }
+        return new StatementMetrics(ConfigurationHelper.getInt(SLOW_QUERY_THRESHOLD, props, 1000), sampleRate,
+                ConfigurationHelper.getInt(SLOW_QUERY_MAX_PER_SECOND, props, 10));
+    }
+
+    public static StatementMetrics of(EntityManagerFactory entityManagerFactory) {
+        StatementMetrics metrics = InstrumentedC3P0ConnectionProvider.of(entityManagerFactory).getStatementMetrics();
+        if (metrics == null) {
+            throw new IllegalStateException("没有开启 SQL 统计，设置 " + ENABLED + "=true");
+        }
+        return metrics;
+    }
+
+    /**
+     * 返回包装后的连接，通过它创建的 Statement、ResultSet 都会被记录
+     */
+    public Connection wrap(Connection connection) {
+        return proxy(Connection.class, new MeteredConnection(this, connection));
+    }
+
+    /**
+     * 按执行的总耗时从高到低排列
+     */
+    public List<StatementStatistics> getStatistics() {
+        List<StatementStatistics> statistics = new ArrayList<>(shapes.size());
+        for (StatementShape shape : shapes.values()) {
+            statistics.add(shape.snapshot());
+        }
+        Collections.sort(statistics, new Comparator<StatementStatistics>() {
+            @Override
+            public int compare(StatementStatistics s1, StatementStatistics s2) {
+                return Double.compare(s2.getTotalMillis(), s1.getTotalMillis());
+            }
+        });
+        return statistics;
+    }
+
+    /**
+     * 超过阈值的语句个数（包括因为抽样、限流没有输出的）
+     */
+    public long getSlowQueries() {
+        return slowQueryLog.getSlowQueries();
+    }
+
+    public long getLoggedSlowQueries() {
+        return slowQueryLog.getLogged();
+    }
+
+    public void reset() {
+        shapes.clear();
+    }
+
+    boolean isCapturingParameters() {
+        return captureParameters;
+    }
+
+    StatementShape shape(String sql) {
+        StatementShape shape = shapes.get(sql);
+        if (shape != null) {
+            return shape;
+        }
+        int size = shapes.size();
+        if (size >= MAX_SHAPES) {
+            // 字面量不同的 SQL 先按原样记录，超过上限以后才合并，避免每次执行都做正则替换
+            sql = normalize(sql);
+            shape = shapes.get(sql);
+            if (shape != null) {
+                return shape;
+            }
+            if (size >= MAX_SHAPES + MAX_NORMALIZED_SHAPES) {
+                sql = OTHER;
+            }
+        }
+        StatementShape created = new StatementShape(sql);
+        shape = shapes.putIfAbsent(sql, created);
+        return shape == null ? created : shape;
+    }
+
+    /**
+     * @param sql 实际执行的 SQL，shape 可能是合并以后的
+     */
+    void executed(StatementShape shape, String sql, long nanos, Object[] parameters, int parameterCount,
+                  int batchSize) {
+        shape.executed(nanos);
+        if (slowQueryLog.isSlow(nanos)) {
+            slowQueryLog.log(sql, nanos, parameters, parameterCount, batchSize);
+        }
+    }
+
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StatementMetrics.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    static String normalize(String sql) {
+        String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        return IN_LIST.matcher(normalized).replaceAll("in (?...)");
+    }
+}
@@ -0,0 +1,63 @@
+package com.xt.jpa.jdbc;
+
+import com.xt.jpa.pool.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author xt
+ * @date 2019/2/24 - 10:00
+ * @description 同一条 SQL（语句的形状）的计数器，记录时不加锁
+ */
+final class StatementShape {
+
+    final String sql;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rowsReturned = new LongAdder();
+    private final LongAdder rowsAffected = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedStatements = new LongAdder();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    StatementShape(String sql) {
+        this.sql = sql;
+    }
+
+    void executed(long nanos) {
+        latency.record(nanos);
+    }
+
+    void failed() {
+        errors.increment();
+    }
+
+    void rowsReturned(long rows) {
+        if (rows > 0) {
+            rowsReturned.add(rows);
+        }
+    }
+
+    void rowsAffected(long rows) {
+        if (rows > 0) {
+            rowsAffected.add(rows);
+        }
+    }
+
+    void batch(int size) {
+        batches.increment();
+        batchedStatements.add(size);
+        long max;
+        while (size > (max = maxBatchSize.get()) && !maxBatchSize.compareAndSet(max, size)) {
+            // 重试
+        }
+    }
+
+    StatementStatistics snapshot() {
+        return new StatementStatistics(sql, latency.getCount(), errors.sum(), rowsReturned.sum(), rowsAffected.sum(),
+                batches.sum(), batchedStatements.sum(), maxBatchSize.get(), latency.getTotalMillis(),
+                latency.getMeanMillis(), latency.getPercentileMillis(50), latency.getPercentileMillis(99),
+                latency.getMaxMillis());
+    }
+}
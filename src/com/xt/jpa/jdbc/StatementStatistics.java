@@ -0,0 +1,114 @@
+package com.xt.jpa.jdbc;
+
+/**
+ * @author xt
+ * @date 2019/2/24 - 10:10
+ * @description 一条 SQL 的统计信息（快照）
+ */
+public class StatementStatistics {
+
+    private final String sql;
+    private final long executions;
+    private final long errors;
+    private final long rowsReturned;
+    private final long rowsAffected;
+    private final long batches;
+    private final long batchedStatements;
+    private final long maxBatchSize;
+    private final double totalMillis;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+
+    StatementStatistics(String sql, long executions, long errors, long rowsReturned, long rowsAffected, long batches,
+                        long batchedStatements, long maxBatchSize, double totalMillis, double meanMillis,
+                        double p50Millis, double p99Millis, double maxMillis) {
+        this.sql = sql;
+        this.executions = executions;
+        this.errors = errors;
+        this.rowsReturned = rowsReturned;
+        this.rowsAffected = rowsAffected;
+        this.batches = batches;
+        this.batchedStatements = batchedStatements;
+        this.maxBatchSize = maxBatchSize;
+        this.totalMillis = totalMillis;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * 执行次数（包括失败的次数）。批处理的一次 executeBatch 算一次
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * 查询返回的行数（ResultSet.next() 读到的行数）
+     */
+    public long getRowsReturned() {
+        return rowsReturned;
+    }
+
+    /**
+     * insert/update/delete 影响的行数
+     */
+    public long getRowsAffected() {
+        return rowsAffected;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getBatchedStatements() {
+        return batchedStatements;
+    }
+
+    public double getMeanBatchSize() {
+        return batches == 0 ? 0 : (double) batchedStatements / batches;
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("executions=%d, errors=%d, rows=%d, affected=%d, batches=%d (mean %.1f, max %d), "
+                        + "total=%.1fms, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms: %s",
+                executions, errors, rowsReturned, rowsAffected, batches, getMeanBatchSize(), maxBatchSize,
+                totalMillis, meanMillis, p50Millis, p99Millis, maxMillis, sql);
+    }
+}
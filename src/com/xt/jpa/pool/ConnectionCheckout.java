@@ -0,0 +1,49 @@
+package com.xt.jpa.pool;
+
+/**
+ * @author xt
+ * @date 2019/2/21 - 14:10
+ * @description 借出后超过阈值还没有归还的连接（疑似泄漏）
+ */
+public class ConnectionCheckout {
+
+    private final String threadName;
+    private final long heldMillis;
+    private final StackTraceElement[] stackTrace;
+
+    public ConnectionCheckout(String threadName, long heldMillis, StackTraceElement[] stackTrace) {
+        this.threadName = threadName;
+        this.heldMillis = heldMillis;
+        this.stackTrace = stackTrace;
+    }
+
+    /**
+     * 借出连接的线程
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public long getHeldMillis() {
+        return heldMillis;
+    }
+
+    /**
+     * 借出连接时的调用栈，没有开启 xt.pool.leak_stack_traces 时为空数组
+     */
+    public StackTraceElement[] getStackTrace() {
+        return stackTrace;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("ConnectionCheckout{" +
+                "threadName='" + threadName + '\'' +
+                ", heldMillis=" + heldMillis +
+                '}');
+        for (StackTraceElement element : stackTrace) {
+            text.append("\n\tat ").append(element);
+        }
+        return text.toString();
+    }
+}
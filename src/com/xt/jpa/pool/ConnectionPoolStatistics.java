@@ -0,0 +1,108 @@
+package com.xt.jpa.pool;
+
+import java.util.List;
+
+/**
+ * @author xt
+ * @date 2019/2/21 - 14:20
+ * @description 连接池的统计信息（快照）
+ */
+public class ConnectionPoolStatistics {
+
+    private final int active;
+    private final int idle;
+    private final int pending;
+    private final long acquisitions;
+    private final long acquireFailures;
+    private final double acquireMeanMillis;
+    private final double acquireP50Millis;
+    private final double acquireP99Millis;
+    private final double acquireMaxMillis;
+    private final List<ConnectionCheckout> suspectedLeaks;
+
+    public ConnectionPoolStatistics(int active, int idle, int pending, long acquisitions, long acquireFailures,
+                                    double acquireMeanMillis, double acquireP50Millis, double acquireP99Millis,
+                                    double acquireMaxMillis, List<ConnectionCheckout> suspectedLeaks) {
+        this.active = active;
+        this.idle = idle;
+        this.pending = pending;
+        this.acquisitions = acquisitions;
+        this.acquireFailures = acquireFailures;
+        this.acquireMeanMillis = acquireMeanMillis;
+        this.acquireP50Millis = acquireP50Millis;
+        this.acquireP99Millis = acquireP99Millis;
+        this.acquireMaxMillis = acquireMaxMillis;
+        this.suspectedLeaks = suspectedLeaks;
+    }
+
+    /**
+     * 已经借出的连接数
+     */
+    public int getActive() {
+        return active;
+    }
+
+    /**
+     * 池中空闲的连接数
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * 正在等待借出连接的线程数
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * 借出连接失败（包括超过 checkoutTimeout）的次数
+     */
+    public long getAcquireFailures() {
+        return acquireFailures;
+    }
+
+    public double getAcquireMeanMillis() {
+        return acquireMeanMillis;
+    }
+
+    public double getAcquireP50Millis() {
+        return acquireP50Millis;
+    }
+
+    public double getAcquireP99Millis() {
+        return acquireP99Millis;
+    }
+
+    public double getAcquireMaxMillis() {
+        return acquireMaxMillis;
+    }
+
+    /**
+     * 借出时间超过 xt.pool.leak_detection_threshold_ms 还没有归还的连接
+     */
+    public List<ConnectionCheckout> getSuspectedLeaks() {
+        return suspectedLeaks;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStatistics{" +
+                "active=" + active +
+                ", idle=" + idle +
+                ", pending=" + pending +
+                ", acquisitions=" + acquisitions +
+                ", acquireFailures=" + acquireFailures +
+                ", acquireMean=" + String.format("%.3f", acquireMeanMillis) + "ms" +
+                ", acquireP50=" + String.format("%.3f", acquireP50Millis) + "ms" +
+                ", acquireP99=" + String.format("%.3f", acquireP99Millis) + "ms" +
+                ", acquireMax=" + String.format("%.3f", acquireMaxMillis) + "ms" +
+                ", suspectedLeaks=" + suspectedLeaks.size() +
+                '}';
+    }
+}
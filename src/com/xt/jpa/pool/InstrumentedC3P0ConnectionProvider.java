@@ -0,0 +1,204 @@
+package com.xt.jpa.pool;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+import com.xt.jpa.jdbc.StatementMetrics;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.jdbc.connections.internal.C3P0ConnectionProvider;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+import org.jboss.logging.Logger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author xt
+ * @date 2019/2/21 - 14:30
+ * @description 记录统计信息的 c3p0 连接池
+ *
+ * 连接池本身的配置（hibernate.c3p0.*）见 persistence.xml，在此基础上：
+ * 1. 记录每次借出连接的耗时（直方图）和失败次数；
+ * 2. 记录借出但还没有归还的连接，超过 xt.pool.leak_detection_threshold_ms（默认 60000，0 表示不检测）
+ *    还没有归还时认为可能泄漏，以 WARN 级别输出到日志（每个连接一次）并出现在统计信息中；
+ *    xt.pool.leak_stack_traces=true 时记录借出连接时的调用栈（有一定开销），日志中附带该调用栈；
+ * 3. 借出中、空闲的连接数和等待借出连接的线程数由 c3p0 提供；
+ * 4. xt.jdbc.metrics=true（默认）时借出的连接被 StatementMetrics 包装，按 SQL 记录执行的统计信息和慢查询。
+ */
+public class InstrumentedC3P0ConnectionProvider extends C3P0ConnectionProvider {
+
+    public static final String LEAK_DETECTION_THRESHOLD = "xt.pool.leak_detection_threshold_ms";
+    public static final String LEAK_STACK_TRACES = "xt.pool.leak_stack_traces";
+
+    private static final Logger LOG = Logger.getLogger(InstrumentedC3P0ConnectionProvider.class);
+    private static final StackTraceElement[] NO_STACK_TRACE = new StackTraceElement[0];
+
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final AtomicLong acquireFailures = new AtomicLong();
+    private final Map<Connection, Checkout> checkouts = Collections.synchronizedMap(new IdentityHashMap<Connection, Checkout>());
+
+    private long leakDetectionThresholdMillis;
+    private boolean leakStackTraces;
+    private ScheduledExecutorService leakDetector;
+    private StatementMetrics statementMetrics;
+
+    public static InstrumentedC3P0ConnectionProvider of(EntityManagerFactory entityManagerFactory) {
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor)
+                ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+        ConnectionProvider connectionProvider = sessionFactory.getServiceRegistry().getService(ConnectionProvider.class);
+        if (!(connectionProvider instanceof InstrumentedC3P0ConnectionProvider)) {
+            throw new IllegalStateException("连接池没有使用 InstrumentedC3P0ConnectionProvider: " + connectionProvider);
+        }
+        return (InstrumentedC3P0ConnectionProvider) connectionProvider;
+    }
+
+    @Override
+    public void configure(Map props) {
+        super.configure(props);
+        leakDetectionThresholdMillis = ConfigurationHelper.getInt(LEAK_DETECTION_THRESHOLD, props, 60000);
+        leakStackTraces = ConfigurationHelper.getBoolean(LEAK_STACK_TRACES, props, false);
+        statementMetrics = StatementMetrics.configure(props);
+        if (leakDetectionThresholdMillis > 0) {
+            long period = Math.max(1000, leakDetectionThresholdMillis / 2);
+            leakDetector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "c3p0-leak-detector");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            leakDetector.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    reportLeaks();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection;
+        try {
+            connection = super.getConnection();
+        } catch (SQLException | RuntimeException e) {
+            acquireFailures.incrementAndGet();
+            throw e;
+        }
+        acquireLatency.record(System.nanoTime() - start);
+        if (statementMetrics != null) {
+            connection = statementMetrics.wrap(connection);
+        }
+        checkouts.put(connection, new Checkout(Thread.currentThread().getName(),
+                leakStackTraces ? new Throwable().getStackTrace() : NO_STACK_TRACE));
+        return connection;
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        checkouts.remove(connection);
+        super.closeConnection(connection);
+    }
+
+    @Override
+    public void stop() {
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        checkouts.clear();
+        super.stop();
+    }
+
+    /**
+     * xt.jdbc.metrics=false 时返回 null
+     */
+    public StatementMetrics getStatementMetrics() {
+        return statementMetrics;
+    }
+
+    public ConnectionPoolStatistics getStatistics() {
+        int active = -1;
+        int idle = -1;
+        int pending = -1;
+        DataSource dataSource = unwrap(DataSource.class);
+        if (dataSource instanceof PooledDataSource) {
+            PooledDataSource pool = (PooledDataSource) dataSource;
+            try {
+                active = pool.getNumBusyConnectionsDefaultUser();
+                idle = pool.getNumIdleConnectionsDefaultUser();
+                pending = pool.getNumThreadsAwaitingCheckoutDefaultUser();
+            } catch (SQLException e) {
+                // 连接池已经关闭
+            }
+        }
+        return new ConnectionPoolStatistics(active, idle, pending,
+                acquireLatency.getCount(), acquireFailures.get(), acquireLatency.getMeanMillis(),
+                acquireLatency.getPercentileMillis(50), acquireLatency.getPercentileMillis(99),
+                acquireLatency.getMaxMillis(), suspectedLeaks(false));
+    }
+
+    private void reportLeaks() {
+        for (ConnectionCheckout leak : suspectedLeaks(true)) {
+            if (leak.getStackTrace().length == 0) {
+                LOG.warnf("线程 %s 借出的连接 %dms 还没有归还，可能泄漏（设置 %s=true 可以记录借出连接的位置）",
+                        leak.getThreadName(), leak.getHeldMillis(), LEAK_STACK_TRACES);
+                continue;
+            }
+            // 日志中的调用栈是借出连接的位置，而不是检测线程的
+            Throwable borrowedAt = new Throwable("连接借出的位置");
+            borrowedAt.setStackTrace(leak.getStackTrace());
+            LOG.warnf(borrowedAt, "线程 %s 借出的连接 %dms 还没有归还，可能泄漏",
+                    leak.getThreadName(), leak.getHeldMillis());
+        }
+    }
+
+    /**
+     * @param unreportedOnly 只返回还没有输出过的，并把它们标记为已输出
+     */
+    private List<ConnectionCheckout> suspectedLeaks(boolean unreportedOnly) {
+        List<ConnectionCheckout> leaks = new ArrayList<>();
+        if (leakDetectionThresholdMillis <= 0) {
+            return leaks;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (checkouts) {
+            for (Checkout checkout : checkouts.values()) {
+                long held = now - checkout.time;
+                if (held < leakDetectionThresholdMillis || (unreportedOnly && checkout.reported)) {
+                    continue;
+                }
+                if (unreportedOnly) {
+                    checkout.reported = true;
+                }
+                leaks.add(new ConnectionCheckout(checkout.threadName, held, checkout.stackTrace));
+            }
+        }
+        return leaks;
+    }
+
+    private static final class Checkout {
+        private final String threadName;
+        private final long time = System.currentTimeMillis();
+        private final StackTraceElement[] stackTrace;
+        private boolean reported;
+
+        private Checkout(String threadName, StackTraceElement[] stackTrace) {
+            this.threadName = threadName;
+            this.stackTrace = stackTrace;
+        }
+    }
+}
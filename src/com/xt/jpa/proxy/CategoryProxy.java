@@ -0,0 +1,78 @@
+package com.xt.jpa.proxy;
+
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.helloworld.Category;
+import com.xt.jpa.helloworld.Item;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+
+import java.util.Set;
+
+/**
+ * @author xt
+ * @description Category 的代理，由 ProxySourceGenerator 生成，不要手工修改
+ */
+public class CategoryProxy extends Category implements HibernateProxy {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GeneratedLazyInitializer lazyInitializer;
+
+    public CategoryProxy(GeneratedLazyInitializer lazyInitializer) {
+        this.lazyInitializer = lazyInitializer;
+    }
+
+    private Category target() {
+        return (Category) lazyInitializer.getImplementation();
+    }
+
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return target().dirtyAttributes();
+    }
+
+    @Override
+    public String getCategoryName() {
+        return target().getCategoryName();
+    }
+
+    @Override
+    public Integer getId() {
+        if (lazyInitializer.isUninitialized()) {
+            return (Integer) lazyInitializer.getIdentifier();
+        }
+        return target().getId();
+    }
+
+    @Override
+    public Set<Item> getItems() {
+        return target().getItems();
+    }
+
+    @Override
+    public void setCategoryName(String categoryName) {
+        target().setCategoryName(categoryName);
+    }
+
+    @Override
+    public void setId(Integer id) {
+        lazyInitializer.initialize();
+        lazyInitializer.setIdentifier(id);
+        target().setId(id);
+    }
+
+    @Override
+    public void setItems(Set<Item> items) {
+        target().setItems(items);
+    }
+
+    @Override
+    public Object writeReplace() {
+        return lazyInitializer.writeReplace(this);
+    }
+
+    @Override
+    public LazyInitializer getHibernateLazyInitializer() {
+        return lazyInitializer;
+    }
+}
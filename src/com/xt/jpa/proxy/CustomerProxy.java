@@ -0,0 +1,139 @@
+package com.xt.jpa.proxy;
+
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.helloworld.Customer;
+import com.xt.jpa.helloworld.Order;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * @author xt
+ * @description Customer 的代理，由 ProxySourceGenerator 生成，不要手工修改
+ */
+public class CustomerProxy extends Customer implements HibernateProxy {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GeneratedLazyInitializer lazyInitializer;
+
+    public CustomerProxy(GeneratedLazyInitializer lazyInitializer) {
+        this.lazyInitializer = lazyInitializer;
+    }
+
+    private Customer target() {
+        return (Customer) lazyInitializer.getImplementation();
+    }
+
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return target().dirtyAttributes();
+    }
+
+    @Override
+    public int getAge() {
+        return target().getAge();
+    }
+
+    @Override
+    public Date getBirth() {
+        return target().getBirth();
+    }
+
+    @Override
+    public Date getCreatedTime() {
+        return target().getCreatedTime();
+    }
+
+    @Override
+    public String getEmail() {
+        return target().getEmail();
+    }
+
+    @Override
+    public Integer getId() {
+        if (lazyInitializer.isUninitialized()) {
+            return (Integer) lazyInitializer.getIdentifier();
+        }
+        return target().getId();
+    }
+
+    @Override
+    public String getInfo() {
+        return target().getInfo();
+    }
+
+    @Override
+    public String getLastName() {
+        return target().getLastName();
+    }
+
+    @Override
+    public Set<Order> getOrders() {
+        return target().getOrders();
+    }
+
+    @Override
+    public Date getTime() {
+        return target().getTime();
+    }
+
+    @Override
+    public void setAge(int age) {
+        target().setAge(age);
+    }
+
+    @Override
+    public void setBirth(Date birth) {
+        target().setBirth(birth);
+    }
+
+    @Override
+    public void setCreatedTime(Date createdTime) {
+        target().setCreatedTime(createdTime);
+    }
+
+    @Override
+    public void setEmail(String email) {
+        target().setEmail(email);
+    }
+
+    @Override
+    public void setId(Integer id) {
+        lazyInitializer.initialize();
+        lazyInitializer.setIdentifier(id);
+        target().setId(id);
+    }
+
+    @Override
+    public void setLastName(String lastName) {
+        target().setLastName(lastName);
+    }
+
+    @Override
+    public void setOrders(Set<Order> orders) {
+        target().setOrders(orders);
+    }
+
+    @Override
+    public void setTime(Date time) {
+        target().setTime(time);
+    }
+
+    @Override
+    public String toString() {
+        return target().toString();
+    }
+
+    @Override
+    public Object writeReplace() {
+        return lazyInitializer.writeReplace(this);
+    }
+
+    @Override
+    public LazyInitializer getHibernateLazyInitializer() {
+        return lazyInitializer;
+    }
+}
@@ -0,0 +1,76 @@
+package com.xt.jpa.proxy;
+
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.helloworld.Department;
+import com.xt.jpa.helloworld.Manager;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+
+/**
+ * @author xt
+ * @description Department 的代理，由 ProxySourceGenerator 生成，不要手工修改
+ */
+public class DepartmentProxy extends Department implements HibernateProxy {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GeneratedLazyInitializer lazyInitializer;
+
+    public DepartmentProxy(GeneratedLazyInitializer lazyInitializer) {
+        this.lazyInitializer = lazyInitializer;
+    }
+
+    private Department target() {
+        return (Department) lazyInitializer.getImplementation();
+    }
+
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return target().dirtyAttributes();
+    }
+
+    @Override
+    public String getDeptName() {
+        return target().getDeptName();
+    }
+
+    @Override
+    public Integer getId() {
+        if (lazyInitializer.isUninitialized()) {
+            return (Integer) lazyInitializer.getIdentifier();
+        }
+        return target().getId();
+    }
+
+    @Override
+    public Manager getMgr() {
+        return target().getMgr();
+    }
+
+    @Override
+    public void setDeptName(String deptName) {
+        target().setDeptName(deptName);
+    }
+
+    @Override
+    public void setId(Integer id) {
+        lazyInitializer.initialize();
+        lazyInitializer.setIdentifier(id);
+        target().setId(id);
+    }
+
+    @Override
+    public void setMgr(Manager mgr) {
+        target().setMgr(mgr);
+    }
+
+    @Override
+    public Object writeReplace() {
+        return lazyInitializer.writeReplace(this);
+    }
+
+    @Override
+    public LazyInitializer getHibernateLazyInitializer() {
+        return lazyInitializer;
+    }
+}
@@ -0,0 +1,37 @@
+package com.xt.jpa.proxy;
+
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.proxy.AbstractLazyInitializer;
+
+import java.io.Serializable;
+
+/**
+ * @author xt
+ * @date 2019/2/26 - 14:10
+ * @description 生成的代理使用的 LazyInitializer
+ *
+ * javassist 的代理把每次方法调用交给 MethodHandler，再通过反射调用目标对象的方法；
+ * 生成的代理直接调用 getImplementation() 返回的目标对象，初始化的逻辑与 hibernate 自带的代理相同（见 AbstractLazyInitializer）。
+ */
+public class GeneratedLazyInitializer extends AbstractLazyInitializer implements Serializable {
+
+    private final Class<?> persistentClass;
+
+    public GeneratedLazyInitializer(String entityName, Class<?> persistentClass, Serializable id,
+                                    SessionImplementor session) {
+        super(entityName, id, session);
+        this.persistentClass = persistentClass;
+    }
+
+    @Override
+    public Class getPersistentClass() {
+        return persistentClass;
+    }
+
+    /**
+     * 序列化代理时：已经初始化的代理替换为目标对象，没有初始化的代理序列化它本身（包括 id），反序列化以后仍然可以初始化
+     */
+    public Object writeReplace(Object proxy) {
+        return isUninitialized() ? proxy : getImplementation();
+    }
+}
@@ -0,0 +1,78 @@
+package com.xt.jpa.proxy;
+
+import com.xt.jpa.helloworld.Category;
+import com.xt.jpa.helloworld.Customer;
+import com.xt.jpa.helloworld.Department;
+import com.xt.jpa.helloworld.Item;
+import com.xt.jpa.helloworld.Manager;
+import com.xt.jpa.helloworld.Order;
+import org.hibernate.proxy.HibernateProxy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author xt
+ * @description 生成的代理类，由 ProxySourceGenerator 生成，不要手工修改
+ */
+final class GeneratedProxies {
+
+    private static final Map<Class<?>, Class<?>> PROXY_CLASSES = new HashMap<>();
+    private static final Map<Class<?>, GeneratedProxyFactory.Instantiator> INSTANTIATORS = new HashMap<>();
+
+    static {
+        PROXY_CLASSES.put(Customer.class, CustomerProxy.class);
+        INSTANTIATORS.put(Customer.class, new GeneratedProxyFactory.Instantiator() {
+            @Override
+            public HibernateProxy newProxy(GeneratedLazyInitializer lazyInitializer) {
+                return new CustomerProxy(lazyInitializer);
+            }
+        });
+        PROXY_CLASSES.put(Order.class, OrderProxy.class);
+        INSTANTIATORS.put(Order.class, new GeneratedProxyFactory.Instantiator() {
+            @Override
+            public HibernateProxy newProxy(GeneratedLazyInitializer lazyInitializer) {
+                return new OrderProxy(lazyInitializer);
+            }
+        });
+        PROXY_CLASSES.put(Department.class, DepartmentProxy.class);
+        INSTANTIATORS.put(Department.class, new GeneratedProxyFactory.Instantiator() {
+            @Override
+            public HibernateProxy newProxy(GeneratedLazyInitializer lazyInitializer) {
+                return new DepartmentProxy(lazyInitializer);
+            }
+        });
+        PROXY_CLASSES.put(Manager.class, ManagerProxy.class);
+        INSTANTIATORS.put(Manager.class, new GeneratedProxyFactory.Instantiator() {
+            @Override
+            public HibernateProxy newProxy(GeneratedLazyInitializer lazyInitializer) {
+                return new ManagerProxy(lazyInitializer);
+            }
+        });
+        PROXY_CLASSES.put(Item.class, ItemProxy.class);
+        INSTANTIATORS.put(Item.class, new GeneratedProxyFactory.Instantiator() {
+            @Override
+            public HibernateProxy newProxy(GeneratedLazyInitializer lazyInitializer) {
+                return new ItemProxy(lazyInitializer);
+            }
+        });
+        PROXY_CLASSES.put(Category.class, CategoryProxy.class);
+        INSTANTIATORS.put(Category.class, new GeneratedProxyFactory.Instantiator() {
+            @Override
+            public HibernateProxy newProxy(GeneratedLazyInitializer lazyInitializer) {
+                return new CategoryProxy(lazyInitializer);
+            }
+        });
+    }
+
+    private GeneratedProxies() {
+    }
+
+    static Class<?> getProxyClass(Class<?> entityClass) {
+        return PROXY_CLASSES.get(entityClass);
+    }
+
+    static GeneratedProxyFactory.Instantiator getInstantiator(Class<?> entityClass) {
+        return INSTANTIATORS.get(entityClass);
+    }
+}
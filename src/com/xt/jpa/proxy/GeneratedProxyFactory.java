@@ -0,0 +1,51 @@
+package com.xt.jpa.proxy;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.ProxyFactory;
+import org.hibernate.type.CompositeType;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Set;
+
+/**
+ * @author xt
+ * @date 2019/2/26 - 14:20
+ * @description 使用 ProxySourceGenerator 生成的代理类的 ProxyFactory
+ *
+ * 代理类在编译时已经存在，创建代理只是 new 一个对象，不需要在运行时生成类，也不需要反射。
+ */
+public class GeneratedProxyFactory implements ProxyFactory {
+
+    private final Instantiator instantiator;
+    private String entityName;
+    private Class<?> persistentClass;
+
+    public GeneratedProxyFactory(Instantiator instantiator) {
+        this.instantiator = instantiator;
+    }
+
+    @Override
+    public void postInstantiate(String entityName, Class persistentClass, Set interfaces,
+                                Method getIdentifierMethod, Method setIdentifierMethod,
+                                CompositeType componentIdType) throws HibernateException {
+        // 生成的代理已经知道 id 的 getter 和 setter
+        this.entityName = entityName;
+        this.persistentClass = persistentClass;
+    }
+
+    @Override
+    public HibernateProxy getProxy(Serializable id, SessionImplementor session) throws HibernateException {
+        return instantiator.newProxy(new GeneratedLazyInitializer(entityName, persistentClass, id, session));
+    }
+
+    /**
+     * 创建某个实体的代理对象，由 ProxySourceGenerator 为每个实体生成
+     */
+    public interface Instantiator {
+
+        HibernateProxy newProxy(GeneratedLazyInitializer lazyInitializer);
+    }
+}
@@ -0,0 +1,72 @@
+package com.xt.jpa.proxy;
+
+import org.hibernate.EntityMode;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.jboss.logging.Logger;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+
+/**
+ * @author xt
+ * @date 2019/2/26 - 15:20
+ * @description 把 GeneratedProxyTuplizer 指定给有生成代理的实体，实体类上不需要 @Tuplizer
+ *
+ * 通过 META-INF/services/org.hibernate.integrator.spi.Integrator 被 hibernate 自动加载，
+ * 在 SessionFactoryImpl 创建实体的 persister 之前执行，此时修改映射信息中的 tuplizer 仍然有效。
+ * 这样实体类不依赖 com.xt.jpa.proxy 包，生成的代理类继承实体类时不会产生包之间的循环依赖。
+ *
+ * 1. xt.proxy.generated（默认 true）为 false 时不指定，使用 hibernate 自带的 javassist 代理；
+ * 2. 懒加载但没有生成代理的实体（例如新增的实体）输出警告，使用 javassist 代理；
+ * 3. 代理没有覆盖实体所有的方法（实体修改以后没有重新生成）时同样输出警告，只有这个实体使用 javassist 代理。
+ */
+public class GeneratedProxyIntegrator implements Integrator {
+
+    public static final String ENABLED = "xt.proxy.generated";
+
+    private static final Logger LOG = Logger.getLogger(GeneratedProxyIntegrator.class);
+
+    @Override
+    public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        if (!ConfigurationHelper.getBoolean(ENABLED, sessionFactory.getProperties(), true)) {
+            return;
+        }
+        Iterator<PersistentClass> iterator = configuration.getClassMappings();
+        while (iterator.hasNext()) {
+            PersistentClass persistentClass = iterator.next();
+            Class<?> entityClass = persistentClass.getMappedClass();
+            if (entityClass == null || !persistentClass.isLazy()) {
+                continue;
+            }
+            Class<?> proxyClass = GeneratedProxies.getProxyClass(entityClass);
+            if (proxyClass == null) {
+                LOG.warnf("%s 没有生成的代理，使用 javassist 代理", entityClass.getName());
+                continue;
+            }
+            Method missing = GeneratedProxyTuplizer.missingOverride(entityClass, proxyClass);
+            if (missing != null) {
+                LOG.warnf("%s 没有覆盖 %s，请运行 ProxySourceGenerator 重新生成代理，暂时使用 javassist 代理",
+                        proxyClass.getName(), missing);
+                continue;
+            }
+            persistentClass.addTuplizer(EntityMode.POJO, GeneratedProxyTuplizer.class.getName());
+        }
+    }
+
+    @Override
+    public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        // 新的 metamodel 在 hibernate 4.2 中尚未启用
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
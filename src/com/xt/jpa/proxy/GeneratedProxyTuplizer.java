@@ -0,0 +1,60 @@
+package com.xt.jpa.proxy;
+
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.property.Getter;
+import org.hibernate.property.Setter;
+import org.hibernate.proxy.ProxyFactory;
+import org.hibernate.tuple.entity.EntityMetamodel;
+import org.hibernate.tuple.entity.PojoEntityTuplizer;
+import org.jboss.logging.Logger;
+
+import java.lang.reflect.Method;
+
+/**
+ * @author xt
+ * @date 2019/2/26 - 14:30
+ * @description 用 ProxySourceGenerator 生成的代理代替 javassist 在运行时生成的代理，由 GeneratedProxyIntegrator 指定给实体
+ *
+ * 代理没有覆盖实体所有的方法（实体修改以后没有重新生成）时使用 javassist 代理并输出警告，
+ * 否则没有被覆盖的方法会在未初始化的代理对象本身上执行，返回错误的结果。
+ * GeneratedProxyIntegrator 已经跳过了这样的实体，这里再检查一次，防止通过 @Tuplizer 直接指定。
+ */
+public class GeneratedProxyTuplizer extends PojoEntityTuplizer {
+
+    private static final Logger LOG = Logger.getLogger(GeneratedProxyTuplizer.class);
+
+    public GeneratedProxyTuplizer(EntityMetamodel entityMetamodel, PersistentClass mappedEntity) {
+        super(entityMetamodel, mappedEntity);
+    }
+
+    @Override
+    protected ProxyFactory buildProxyFactoryInternal(PersistentClass persistentClass, Getter idGetter, Setter idSetter) {
+        Class<?> entityClass = persistentClass.getMappedClass();
+        Class<?> proxyClass = GeneratedProxies.getProxyClass(entityClass);
+        if (proxyClass == null) {
+            LOG.warnf("%s 没有生成的代理，使用 javassist 代理", entityClass.getName());
+            return super.buildProxyFactoryInternal(persistentClass, idGetter, idSetter);
+        }
+        Method missing = missingOverride(entityClass, proxyClass);
+        if (missing != null) {
+            LOG.warnf("%s 没有覆盖 %s，请运行 ProxySourceGenerator 重新生成代理，暂时使用 javassist 代理",
+                    proxyClass.getName(), missing);
+            return super.buildProxyFactoryInternal(persistentClass, idGetter, idSetter);
+        }
+        return new GeneratedProxyFactory(GeneratedProxies.getInstantiator(entityClass));
+    }
+
+    /**
+     * @return 生成的代理没有覆盖的第一个方法，都已覆盖时返回 null
+     */
+    static Method missingOverride(Class<?> entityClass, Class<?> proxyClass) {
+        for (Method method : ProxySourceGenerator.proxiedMethods(entityClass)) {
+            try {
+                proxyClass.getDeclaredMethod(method.getName(), method.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                return method;
+            }
+        }
+        return null;
+    }
+}
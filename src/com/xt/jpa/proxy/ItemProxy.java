@@ -0,0 +1,78 @@
+package com.xt.jpa.proxy;
+
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.helloworld.Category;
+import com.xt.jpa.helloworld.Item;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+
+import java.util.Set;
+
+/**
+ * @author xt
+ * @description Item 的代理，由 ProxySourceGenerator 生成，不要手工修改
+ */
+public class ItemProxy extends Item implements HibernateProxy {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GeneratedLazyInitializer lazyInitializer;
+
+    public ItemProxy(GeneratedLazyInitializer lazyInitializer) {
+        this.lazyInitializer = lazyInitializer;
+    }
+
+    private Item target() {
+        return (Item) lazyInitializer.getImplementation();
+    }
+
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return target().dirtyAttributes();
+    }
+
+    @Override
+    public Set<Category> getCategories() {
+        return target().getCategories();
+    }
+
+    @Override
+    public Integer getId() {
+        if (lazyInitializer.isUninitialized()) {
+            return (Integer) lazyInitializer.getIdentifier();
+        }
+        return target().getId();
+    }
+
+    @Override
+    public String getItemName() {
+        return target().getItemName();
+    }
+
+    @Override
+    public void setCategories(Set<Category> categories) {
+        target().setCategories(categories);
+    }
+
+    @Override
+    public void setId(Integer id) {
+        lazyInitializer.initialize();
+        lazyInitializer.setIdentifier(id);
+        target().setId(id);
+    }
+
+    @Override
+    public void setItemName(String itemName) {
+        target().setItemName(itemName);
+    }
+
+    @Override
+    public Object writeReplace() {
+        return lazyInitializer.writeReplace(this);
+    }
+
+    @Override
+    public LazyInitializer getHibernateLazyInitializer() {
+        return lazyInitializer;
+    }
+}
@@ -0,0 +1,76 @@
+package com.xt.jpa.proxy;
+
+import com.xt.jpa.dirty.DirtyAttributes;
+import com.xt.jpa.helloworld.Department;
+import com.xt.jpa.helloworld.Manager;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+
+/**
+ * @author xt
+ * @description Manager 的代理，由 ProxySourceGenerator 生成，不要手工修改
+ */
+public class ManagerProxy extends Manager implements HibernateProxy {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GeneratedLazyInitializer lazyInitializer;
+
+    public ManagerProxy(GeneratedLazyInitializer lazyInitializer) {
+        this.lazyInitializer = lazyInitializer;
+    }
+
+    private Manager target() {
+        return (Manager) lazyInitializer.getImplementation();
+    }
+
+    @Override
+    public DirtyAttributes dirtyAttributes() {
+        return target().dirtyAttributes();
+    }
+
+    @Override
+    public Department getDepartment() {
+        return target().getDepartment();
+    }
+
+    @Override
+    public Integer getId() {
+        if (lazyInitializer.isUninitialized()) {
+            return (Integer) lazyInitializer.getIdentifier();
+        }
+        return target().getId();
+    }
+
+    @Override
+    public String getMgrName() {
+        return target().getMgrName();
+    }
+
+    @Override
+    public void setDepartment(Department department) {
+        target().setDepartment(department);
+    }
+
+    @Override
+    public void setId(Integer id) {
+        lazyInitializer.initialize();
+        lazyInitializer.setIdentifier(id);
+        target().setId(id);
+    }
+
+    @Override
+    public void setMgrName(String mgrName) {
+        target().setMgrName(mgrName);
+    }
+
+    @Override
+    public Object writeReplace() {
+        return lazyInitializer.writeReplace(this);
+    }
+
+    @Override
+    public LazyInitializer getHibernateLazyInitializer() {
+        return lazyInitializer;
+    }
+}
@@ -0,0 +1,417 @@
+package com.xt.jpa.proxy;
+
+import com.xt.jpa.helloworld.Category;
+import com.xt.jpa.helloworld.Customer;
+import com.xt.jpa.helloworld.Department;
+import com.xt.jpa.helloworld.Item;
+import com.xt.jpa.helloworld.Manager;
+import com.xt.jpa.helloworld.Order;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+
+import javax.persistence.Id;
+import java.io.IOException;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * @author xt
+ * @date 2019/2/26 - 14:40
+ * @description 为实体生成 hibernate 代理类的源代码，在编译之前运行（实体的方法修改以后需要重新运行）
+ *
+ *     java com.xt.jpa.proxy.ProxySourceGenerator src
+ *
+ * 为每个实体生成 XxxProxy（继承实体，实现 HibernateProxy）以及注册它们的 GeneratedProxies：
+ * 1. 代理覆盖实体所有 public、非 final 的实例方法，直接调用目标对象的同名方法（第一次调用时初始化），
+ *    javassist 的代理则通过 MethodHandler 和反射调用；
+ * 2. 没有初始化时，@Id 的 getter 直接返回 id，不会初始化代理；@Id 的 setter 与 javassist 的代理一样，先初始化再修改 id；
+ * 3. 实体没有覆盖的 equals、hashCode 不会被代理，与 javassist 的代理一样按对象本身比较。
+ */
+public final class ProxySourceGenerator {
+
+    public static final String PACKAGE = "com.xt.jpa.proxy";
+
+    static final List<Class<?>> ENTITIES = Collections.unmodifiableList(Arrays.<Class<?>>asList(
+            Customer.class, Order.class, Department.class, Manager.class, Item.class, Category.class));
+
+    private static final String INDENT = "    ";
+
+    private ProxySourceGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path sourceRoot = Paths.get(args.length > 0 ? args[0] : "src");
+        Path directory = sourceRoot.resolve(PACKAGE.replace('.', '/'));
+        Files.createDirectories(directory);
+        for (Class<?> entityClass : ENTITIES) {
+            write(directory.resolve(proxyName(entityClass) + ".java"), generateProxy(entityClass));
+        }
+        write(directory.resolve("GeneratedProxies.java"), generateRegistry(ENTITIES));
+    }
+
+    /**
+     * 代理需要覆盖的方法：实体及其父类（不包括 Object）中 public、非 final、非 static 的方法，按名字和参数排序
+     */
+    static List<Method> proxiedMethods(Class<?> entityClass) {
+        Map<String, Method> methods = new LinkedHashMap<>();
+        for (Class<?> type = entityClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Method method : type.getDeclaredMethods()) {
+                int modifiers = method.getModifiers();
+                if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers) || method.isBridge()
+                        || method.isSynthetic()) {
+                    continue;
+                }
+                String signature = method.getName() + Arrays.toString(method.getParameterTypes());
+                if (!methods.containsKey(signature)) {
+                    // 子类中的方法在前，final 的方法也要记下，父类中同名的方法不能再被覆盖
+                    methods.put(signature, method);
+                }
+            }
+        }
+        List<Method> result = new ArrayList<>();
+        for (Method method : methods.values()) {
+            if (!Modifier.isFinal(method.getModifiers())) {
+                result.add(method);
+            }
+        }
+        Collections.sort(result, new Comparator<Method>() {
+            @Override
+            public int compare(Method m1, Method m2) {
+                int result = m1.getName().compareTo(m2.getName());
+                if (result == 0) {
+                    result = Arrays.toString(m1.getParameterTypes()).compareTo(Arrays.toString(m2.getParameterTypes()));
+                }
+                return result;
+            }
+        });
+        return result;
+    }
+
+    static String proxyName(Class<?> entityClass) {
+        return entityClass.getSimpleName() + "Proxy";
+    }
+
+    static String generateProxy(Class<?> entityClass) {
+        Imports imports = new Imports();
+        imports.add(entityClass);
+        imports.add(HibernateProxy.class);
+        imports.add(LazyInitializer.class);
+
+        Method idGetter = findIdGetter(entityClass);
+        Method idSetter = idGetter == null ? null : findSetter(entityClass, idGetter);
+        String entity = entityClass.getSimpleName();
+        String proxy = proxyName(entityClass);
+
+        StringBuilder body = new StringBuilder();
+        line(body, 0, "public class " + proxy + " extends " + entity + " implements HibernateProxy {");
+        line(body, 0, "");
+        line(body, 1, "private static final long serialVersionUID = 1L;");
+        line(body, 0, "");
+        line(body, 1, "private final GeneratedLazyInitializer lazyInitializer;");
+        line(body, 0, "");
+        line(body, 1, "public " + proxy + "(GeneratedLazyInitializer lazyInitializer) {");
+        line(body, 2, "this.lazyInitializer = lazyInitializer;");
+        line(body, 1, "}");
+        line(body, 0, "");
+        line(body, 1, "private " + entity + " target() {");
+        line(body, 2, "return (" + entity + ") lazyInitializer.getImplementation();");
+        line(body, 1, "}");
+
+        for (Method method : proxiedMethods(entityClass)) {
+            String returnType = typeName(method.getGenericReturnType(), imports);
+            List<String> parameterNames = parameterNames(method);
+            StringBuilder parameters = new StringBuilder();
+            Type[] parameterTypes = method.getGenericParameterTypes();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (i > 0) {
+                    parameters.append(", ");
+                }
+                parameters.append(typeName(parameterTypes[i], imports)).append(' ').append(parameterNames.get(i));
+            }
+            StringBuilder throwsClause = new StringBuilder();
+            Type[] exceptionTypes = method.getGenericExceptionTypes();
+            for (int i = 0; i < exceptionTypes.length; i++) {
+                throwsClause.append(i == 0 ? " throws " : ", ").append(typeName(exceptionTypes[i], imports));
+            }
+            String call = method.getName() + "(" + join(parameterNames) + ")";
+            boolean isVoid = method.getReturnType() == void.class;
+
+            line(body, 0, "");
+            line(body, 1, "@Override");
+            line(body, 1, "public " + returnType + " " + method.getName() + "(" + parameters + ")" + throwsClause + " {");
+            if (method.equals(idGetter)) {
+                line(body, 2, "if (lazyInitializer.isUninitialized()) {");
+                line(body, 3, "return (" + typeName(box(method.getReturnType()), imports)
+                        + ") lazyInitializer.getIdentifier();");
+                line(body, 2, "}");
+            } else if (method.equals(idSetter)) {
+                line(body, 2, "lazyInitializer.initialize();");
+                line(body, 2, "lazyInitializer.setIdentifier(" + parameterNames.get(0) + ");");
+            }
+            line(body, 2, (isVoid ? "" : "return ") + "target()." + call + ";");
+            line(body, 1, "}");
+        }
+
+        line(body, 0, "");
+        line(body, 1, "@Override");
+        line(body, 1, "public Object writeReplace() {");
+        line(body, 2, "return lazyInitializer.writeReplace(this);");
+        line(body, 1, "}");
+        line(body, 0, "");
+        line(body, 1, "@Override");
+        line(body, 1, "public LazyInitializer getHibernateLazyInitializer() {");
+        line(body, 2, "return lazyInitializer;");
+        line(body, 1, "}");
+        line(body, 0, "}");
+
+        return header(imports, entity + " 的代理，由 ProxySourceGenerator 生成，不要手工修改") + body;
+    }
+
+    static String generateRegistry(List<Class<?>> entityClasses) {
+        Imports imports = new Imports();
+        imports.add(HibernateProxy.class);
+        imports.add(HashMap.class);
+        imports.add(Map.class);
+        for (Class<?> entityClass : entityClasses) {
+            imports.add(entityClass);
+        }
+
+        StringBuilder body = new StringBuilder();
+        line(body, 0, "final class GeneratedProxies {");
+        line(body, 0, "");
+        line(body, 1, "private static final Map<Class<?>, Class<?>> PROXY_CLASSES = new HashMap<>();");
+        line(body, 1, "private static final Map<Class<?>, GeneratedProxyFactory.Instantiator> INSTANTIATORS = new HashMap<>();");
+        line(body, 0, "");
+        line(body, 1, "static {");
+        for (Class<?> entityClass : entityClasses) {
+            String entity = entityClass.getSimpleName();
+            String proxy = proxyName(entityClass);
+            line(body, 2, "PROXY_CLASSES.put(" + entity + ".class, " + proxy + ".class);");
+            line(body, 2, "INSTANTIATORS.put(" + entity + ".class, new GeneratedProxyFactory.Instantiator() {");
+            line(body, 3, "@Override");
+            line(body, 3, "public HibernateProxy newProxy(GeneratedLazyInitializer lazyInitializer) {");
+            line(body, 4, "return new " + proxy + "(lazyInitializer);");
+            line(body, 3, "}");
+            line(body, 2, "});");
+        }
+        line(body, 1, "}");
+        line(body, 0, "");
+        line(body, 1, "private GeneratedProxies() {");
+        line(body, 1, "}");
+        line(body, 0, "");
+        line(body, 1, "static Class<?> getProxyClass(Class<?> entityClass) {");
+        line(body, 2, "return PROXY_CLASSES.get(entityClass);");
+        line(body, 1, "}");
+        line(body, 0, "");
+        line(body, 1, "static GeneratedProxyFactory.Instantiator getInstantiator(Class<?> entityClass) {");
+        line(body, 2, "return INSTANTIATORS.get(entityClass);");
+        line(body, 1, "}");
+        line(body, 0, "}");
+
+        return header(imports, "生成的代理类，由 ProxySourceGenerator 生成，不要手工修改") + body;
+    }
+
+    private static Method findIdGetter(Class<?> entityClass) {
+        for (Method method : proxiedMethods(entityClass)) {
+            if (method.isAnnotationPresent(Id.class) && method.getParameterTypes().length == 0) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static Method findSetter(Class<?> entityClass, Method getter) {
+        String property = getter.getName().startsWith("is") ? getter.getName().substring(2) : getter.getName().substring(3);
+        for (Method method : proxiedMethods(entityClass)) {
+            if (method.getName().equals("set" + property) && method.getParameterTypes().length == 1
+                    && method.getParameterTypes()[0] == getter.getReturnType()) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 没有 -parameters 编译选项时取不到参数名：setter 使用属性名，其它方法使用 arg0、arg1 ...
+     */
+    private static List<String> parameterNames(Method method) {
+        int count = method.getParameterTypes().length;
+        List<String> names = new ArrayList<>(count);
+        if (count == 1 && method.getName().startsWith("set") && method.getName().length() > 3) {
+            String property = method.getName().substring(3);
+            String name = Character.toLowerCase(property.charAt(0)) + property.substring(1);
+            if (!name.equals("lazyInitializer")) {
+                names.add(name);
+                return names;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            names.add("arg" + i);
+        }
+        return names;
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == char.class) {
+            return Character.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == float.class) {
+            return Float.class;
+        }
+        return Double.class;
+    }
+
+    private static String typeName(Type type, Imports imports) {
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            if (clazz.isArray()) {
+                return typeName(clazz.getComponentType(), imports) + "[]";
+            }
+            imports.add(clazz);
+            return clazz.getSimpleName();
+        }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            StringBuilder name = new StringBuilder(typeName(parameterized.getRawType(), imports)).append('<');
+            Type[] arguments = parameterized.getActualTypeArguments();
+            for (int i = 0; i < arguments.length; i++) {
+                if (i > 0) {
+                    name.append(", ");
+                }
+                name.append(typeName(arguments[i], imports));
+            }
+            return name.append('>').toString();
+        }
+        if (type instanceof WildcardType) {
+            WildcardType wildcard = (WildcardType) type;
+            if (wildcard.getLowerBounds().length > 0) {
+                return "? super " + typeName(wildcard.getLowerBounds()[0], imports);
+            }
+            Type upper = wildcard.getUpperBounds()[0];
+            return upper == Object.class ? "?" : "? extends " + typeName(upper, imports);
+        }
+        if (type instanceof GenericArrayType) {
+            return typeName(((GenericArrayType) type).getGenericComponentType(), imports) + "[]";
+        }
+        // 类型变量
+        return type.toString();
+    }
+
+    private static String header(Imports imports, String description) {
+        StringBuilder header = new StringBuilder();
+        line(header, 0, "package " + PACKAGE + ";");
+        line(header, 0, "");
+        String imported = imports.toString();
+        if (!imported.isEmpty()) {
+            header.append(imported);
+            line(header, 0, "");
+        }
+        line(header, 0, "/**");
+        line(header, 0, " * @author xt");
+        line(header, 0, " * @description " + description);
+        line(header, 0, " */");
+        return header.toString();
+    }
+
+    private static String join(List<String> names) {
+        StringBuilder joined = new StringBuilder();
+        for (String name : names) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(name);
+        }
+        return joined.toString();
+    }
+
+    private static void line(StringBuilder source, int indent, String text) {
+        if (!text.isEmpty()) {
+            for (int i = 0; i < indent; i++) {
+                source.append(INDENT);
+            }
+        }
+        source.append(text).append('\n');
+    }
+
+    private static void write(Path path, String source) throws IOException {
+        Files.write(path, source.getBytes(StandardCharsets.UTF_8));
+        System.out.println("生成 " + path);
+    }
+
+    /**
+     * 按仓库的习惯排列 import：先 com.*、org.* 等，空一行，再 javax.*、java.*
+     */
+    private static final class Imports {
+        private final Set<String> names = new TreeSet<>();
+
+        private void add(Class<?> clazz) {
+            if (clazz.isPrimitive() || clazz.isArray()) {
+                return;
+            }
+            String packageName = clazz.getPackage() == null ? "" : clazz.getPackage().getName();
+            if (packageName.equals("java.lang") || packageName.equals(PACKAGE) || clazz.getEnclosingClass() != null) {
+                return;
+            }
+            names.add(clazz.getName());
+        }
+
+        @Override
+        public String toString() {
+            List<String> others = new ArrayList<>();
+            List<String> javax = new ArrayList<>();
+            List<String> java = new ArrayList<>();
+            for (String name : names) {
+                if (name.startsWith("javax.")) {
+                    javax.add(name);
+                } else if (name.startsWith("java.")) {
+                    java.add(name);
+                } else {
+                    others.add(name);
+                }
+            }
+            StringBuilder imports = new StringBuilder();
+            for (String name : others) {
+                imports.append("import ").append(name).append(";\n");
+            }
+            if (!others.isEmpty() && (!javax.isEmpty() || !java.isEmpty())) {
+                imports.append('\n');
+            }
+            for (String name : javax) {
+                imports.append("import ").append(name).append(";\n");
+            }
+            for (String name : java) {
+                imports.append("import ").append(name).append(";\n");
+            }
+            return imports.toString();
+        }
+    }
+}
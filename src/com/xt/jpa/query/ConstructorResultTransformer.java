@@ -0,0 +1,153 @@
+package com.xt.jpa.query;
+
+import org.hibernate.transform.ResultTransformer;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author xt
+ * @date 2019/2/22 - 10:00
+ * @description 把查询结果的每一行（列的数组）直接传给 DTO 的构造器
+ *
+ * 1. 按列数和第一行的值的类型选择构造器，之后的行使用同一个构造器；
+ * 2. 数值类型按构造器参数的类型转换（例如 count 返回的 Long 传给 int 参数，原生 SQL 返回的 BigInteger/BigDecimal）；
+ * 3. 只有一列并且值的类型与 DTO 的类型相同时，直接返回该值（例如 String）。
+ */
+class ConstructorResultTransformer<T> implements ResultTransformer {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Map<Class<?>, Constructor<?>[]> CONSTRUCTORS = new ConcurrentHashMap<>();
+
+    private final Class<T> type;
+    private transient Constructor<?> constructor;
+
+    ConstructorResultTransformer(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public Object transformTuple(Object[] tuple, String[] aliases) {
+        if (tuple.length == 1 && (tuple[0] == null || type.isInstance(tuple[0]))) {
+            return tuple[0];
+        }
+        if (constructor == null) {
+            constructor = resolve(tuple);
+        }
+        Class<?>[] parameterTypes = constructor.getParameterTypes();
+        Object[] arguments = new Object[tuple.length];
+        for (int i = 0; i < tuple.length; i++) {
+            arguments[i] = convert(tuple[i], parameterTypes[i]);
+        }
+        try {
+            return constructor.newInstance(arguments);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("创建 " + type.getName() + " 失败", e.getCause());
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IllegalStateException("创建 " + type.getName() + " 失败", e);
+        }
+    }
+
+    @Override
+    public List transformList(List collection) {
+        return collection;
+    }
+
+    private Constructor<?> resolve(Object[] tuple) {
+        Constructor<?>[] constructors = CONSTRUCTORS.get(type);
+        if (constructors == null) {
+            List<Constructor<?>> accessible = new ArrayList<>();
+            for (Constructor<?> candidate : type.getDeclaredConstructors()) {
+                if (!Modifier.isPrivate(candidate.getModifiers())) {
+                    candidate.setAccessible(true);
+                    accessible.add(candidate);
+                }
+            }
+            constructors = accessible.toArray(new Constructor<?>[accessible.size()]);
+            CONSTRUCTORS.put(type, constructors);
+        }
+        for (Constructor<?> candidate : constructors) {
+            Class<?>[] parameterTypes = candidate.getParameterTypes();
+            if (parameterTypes.length != tuple.length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < tuple.length && matches; i++) {
+                matches = accepts(parameterTypes[i], tuple[i]);
+            }
+            if (matches) {
+                return candidate;
+            }
+        }
+        throw new IllegalArgumentException(type.getName() + " 没有与查询结果的 " + tuple.length + " 列匹配的构造器");
+    }
+
+    private static boolean accepts(Class<?> parameterType, Object value) {
+        if (value == null) {
+            return !parameterType.isPrimitive();
+        }
+        Class<?> boxed = box(parameterType);
+        if (boxed.isInstance(value)) {
+            return true;
+        }
+        return value instanceof Number && (Number.class.isAssignableFrom(boxed));
+    }
+
+    private static Object convert(Object value, Class<?> parameterType) {
+        if (!(value instanceof Number)) {
+            return value;
+        }
+        Class<?> boxed = box(parameterType);
+        if (boxed.isInstance(value)) {
+            return value;
+        }
+        Number number = (Number) value;
+        if (boxed == Integer.class) {
+            return number.intValue();
+        } else if (boxed == Long.class) {
+            return number.longValue();
+        } else if (boxed == Double.class) {
+            return number.doubleValue();
+        } else if (boxed == Float.class) {
+            return number.floatValue();
+        } else if (boxed == Short.class) {
+            return number.shortValue();
+        } else if (boxed == Byte.class) {
+            return number.byteValue();
+        } else if (boxed == BigDecimal.class) {
+            return new BigDecimal(number.toString());
+        } else if (boxed == BigInteger.class) {
+            return new BigDecimal(number.toString()).toBigInteger();
+        }
+        return value;
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        }
+        return Character.class;
+    }
+}
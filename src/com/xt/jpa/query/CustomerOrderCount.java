@@ -0,0 +1,40 @@
+package com.xt.jpa.query;
+
+/**
+ * @author xt
+ * @date 2019/2/22 - 10:40
+ * @description 报表查询的结果：Customer 及其 Order 的个数
+ */
+public final class CustomerOrderCount {
+
+    private final Integer customerId;
+    private final String lastName;
+    private final long orderCount;
+
+    public CustomerOrderCount(Integer customerId, String lastName, long orderCount) {
+        this.customerId = customerId;
+        this.lastName = lastName;
+        this.orderCount = orderCount;
+    }
+
+    public Integer getCustomerId() {
+        return customerId;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public long getOrderCount() {
+        return orderCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerOrderCount{" +
+                "customerId=" + customerId +
+                ", lastName='" + lastName + '\'' +
+                ", orderCount=" + orderCount +
+                '}';
+    }
+}
@@ -0,0 +1,228 @@
+package com.xt.jpa.query;
+
+import com.xt.jpa.cache.DependencyTrackingNativeQueryPlan;
+import com.xt.jpa.cache.DependencyTrackingQueryCacheFactory;
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.QueryException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.query.spi.NativeSQLQueryPlan;
+import org.hibernate.engine.query.spi.QueryPlanCache;
+import org.hibernate.engine.query.spi.sql.NativeSQLQuerySpecification;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.collections.BoundedConcurrentHashMap;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author xt
+ * @date 2019/2/25 - 10:00
+ * @description 记录命中率和解析时间的 HQL/JPQL 查询计划缓存，由 QueryPlanCacheIntegrator 替换 hibernate 自带的缓存
+ *
+ * 1. 与 hibernate 自带的缓存一样，最多缓存 hibernate.query.plan_cache_max_size（默认 2048）个查询计划，按 LIRS 淘汰；
+ * 2. 记录命中、未命中的次数，解析（生成查询计划）的总时间，以及命中时节省的解析时间（该语句上一次解析所用的时间）；
+ * 3. 启用了过滤器的查询交给 hibernate 自带的缓存，不计入统计；
+ * 4. precompile 预先解析语句，getFrequentQueries 返回命中次数最多的语句，
+ *    QueryPlanCacheIntegrator 在关闭时把它们写入文件，下次启动时预先解析。
+ *    hibernate 关闭时先调用 cleanup 再通知 SessionFactoryObserver，所以 cleanup 不清除这里缓存的查询计划，
+ *    它们随 SessionFactory 一起被回收；
+ * 5. 使用 DependencyTrackingQueryCacheFactory 时，本地 SQL 的查询计划为 DependencyTrackingNativeQueryPlan，
+ *    执行 update/delete 时使查询缓存中相关的条目失效。
+ *
+ * 字面量不同的语句是不同的查询计划，使用 NormalizedQueries 创建查询可以把字面量替换为参数。
+ */
+public class InstrumentedQueryPlanCache extends QueryPlanCache {
+
+    private final SessionFactoryImplementor factory;
+    private final int maxSize;
+    private final BoundedConcurrentHashMap<PlanKey, CachedPlan> plans;
+    private final DependencyTrackingQueryCacheFactory queryCacheFactory;
+    private final BoundedConcurrentHashMap<NativeSQLQuerySpecification, NativeSQLQueryPlan> nativePlans;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder savedParseNanos = new LongAdder();
+    private final LongAdder normalizedQueries = new LongAdder();
+    private final LongAdder normalizedLiterals = new LongAdder();
+
+    public InstrumentedQueryPlanCache(SessionFactoryImplementor factory) {
+        super(factory);
+        this.factory = factory;
+        this.maxSize = ConfigurationHelper.getInt(AvailableSettings.QUERY_PLAN_CACHE_MAX_SIZE,
+                factory.getProperties(), DEFAULT_QUERY_PLAN_MAX_COUNT);
+        this.plans = new BoundedConcurrentHashMap<>(maxSize, 20, BoundedConcurrentHashMap.Eviction.LIRS);
+        this.queryCacheFactory = DependencyTrackingQueryCacheFactory.of(factory);
+        this.nativePlans = new BoundedConcurrentHashMap<>(maxSize, 20, BoundedConcurrentHashMap.Eviction.LIRS);
+    }
+
+    /**
+     * @throws IllegalStateException 没有使用 InstrumentedQueryPlanCache
+     */
+    public static InstrumentedQueryPlanCache of(EntityManagerFactory entityManagerFactory) {
+        InstrumentedQueryPlanCache cache = find(entityManagerFactory);
+        if (cache == null) {
+            throw new IllegalStateException("没有使用 InstrumentedQueryPlanCache，设置 "
+                    + QueryPlanCacheIntegrator.ENABLED + "=true");
+        }
+        return cache;
+    }
+
+    static InstrumentedQueryPlanCache find(EntityManagerFactory entityManagerFactory) {
+        QueryPlanCache cache = ((SessionFactoryImplementor) ((HibernateEntityManagerFactory) entityManagerFactory)
+                .getSessionFactory()).getQueryPlanCache();
+        return cache instanceof InstrumentedQueryPlanCache ? (InstrumentedQueryPlanCache) cache : null;
+    }
+
+    @Override
+    public HQLQueryPlan getHQLQueryPlan(String queryString, boolean shallow, Map enabledFilters)
+            throws QueryException, MappingException {
+        if (!enabledFilters.isEmpty()) {
+            // 过滤器的参数也是缓存键的一部分
+            return super.getHQLQueryPlan(queryString, shallow, enabledFilters);
+        }
+        PlanKey key = new PlanKey(queryString, shallow);
+        CachedPlan cached = plans.get(key);
+        if (cached != null) {
+            cached.hits.increment();
+            hits.increment();
+            savedParseNanos.add(cached.parseNanos);
+            return cached.plan;
+        }
+        long start = System.nanoTime();
+        HQLQueryPlan plan = new HQLQueryPlan(queryString, shallow, enabledFilters, factory);
+        long elapsed = System.nanoTime() - start;
+        misses.increment();
+        parseNanos.add(elapsed);
+        plans.putIfAbsent(key, new CachedPlan(plan, elapsed));
+        return plan;
+    }
+
+    /**
+     * 已经替换了 hibernate 自带的缓存：本地 SQL 的修改从此会通知到查询缓存
+     */
+    void installed() {
+        if (queryCacheFactory != null) {
+            queryCacheFactory.trackNativeUpdates();
+        }
+    }
+
+    @Override
+    public NativeSQLQueryPlan getNativeSQLQueryPlan(NativeSQLQuerySpecification specification) {
+        if (queryCacheFactory == null) {
+            return super.getNativeSQLQueryPlan(specification);
+        }
+        NativeSQLQueryPlan plan = nativePlans.get(specification);
+        if (plan == null) {
+            plan = new DependencyTrackingNativeQueryPlan(specification, factory, queryCacheFactory);
+            nativePlans.putIfAbsent(specification, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * 预先解析语句，已经缓存的语句不会重新解析
+     *
+     * @return 无法解析的语句及其异常
+     */
+    public Map<String, HibernateException> precompile(Collection<String> queryStrings) {
+        Map<String, HibernateException> failures = new LinkedHashMap<>();
+        for (String queryString : queryStrings) {
+            if (plans.containsKey(new PlanKey(queryString, false))) {
+                continue;
+            }
+            try {
+                long start = System.nanoTime();
+                HQLQueryPlan plan = new HQLQueryPlan(queryString, false, Collections.emptyMap(), factory);
+                long elapsed = System.nanoTime() - start;
+                parseNanos.add(elapsed);
+                plans.putIfAbsent(new PlanKey(queryString, false), new CachedPlan(plan, elapsed));
+            } catch (HibernateException e) {
+                failures.put(queryString, e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * 缓存中命中次数最多的语句，按命中次数从高到低排列，只包括至少命中过一次的语句
+     */
+    public List<String> getFrequentQueries(int max) {
+        List<Map.Entry<PlanKey, CachedPlan>> entries = new ArrayList<>();
+        for (Map.Entry<PlanKey, CachedPlan> entry : plans.entrySet()) {
+            if (!entry.getKey().shallow && entry.getValue().hits.sum() > 0) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<PlanKey, CachedPlan>>() {
+            @Override
+            public int compare(Map.Entry<PlanKey, CachedPlan> e1, Map.Entry<PlanKey, CachedPlan> e2) {
+                return Long.compare(e2.getValue().hits.sum(), e1.getValue().hits.sum());
+            }
+        });
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < entries.size() && i < max; i++) {
+            queries.add(entries.get(i).getKey().queryString);
+        }
+        return queries;
+    }
+
+    public QueryPlanStatistics getStatistics() {
+        return new QueryPlanStatistics(plans.size(), maxSize, hits.sum(), misses.sum(), parseNanos.sum() / 1e6,
+                savedParseNanos.sum() / 1e6, normalizedQueries.sum(), normalizedLiterals.sum());
+    }
+
+    void recordNormalized(int literals) {
+        normalizedQueries.increment();
+        normalizedLiterals.add(literals);
+    }
+
+    private static final class PlanKey {
+        private final String queryString;
+        private final boolean shallow;
+
+        private PlanKey(String queryString, boolean shallow) {
+            this.queryString = queryString;
+            this.shallow = shallow;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey that = (PlanKey) o;
+            return shallow == that.shallow && queryString.equals(that.queryString);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * queryString.hashCode() + (shallow ? 1 : 0);
+        }
+    }
+
+    private static final class CachedPlan {
+        private final HQLQueryPlan plan;
+        private final long parseNanos;
+        private final LongAdder hits = new LongAdder();
+
+        private CachedPlan(HQLQueryPlan plan, long parseNanos) {
+            this.plan = plan;
+            this.parseNanos = parseNanos;
+        }
+    }
+}
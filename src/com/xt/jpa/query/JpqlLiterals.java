@@ -0,0 +1,338 @@
+package com.xt.jpa.query;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * @author xt
+ * @date 2019/2/25 - 9:30
+ * @description 把 JPQL 中作为比较条件的字面量替换为命名参数，只是字面量不同的查询得到同一个语句（同一个查询计划）
+ *
+ * 例如 from Customer c where c.age > 25 and c.lastName like 'A%' and c.id in (1, 2, 3)
+ * 替换为 from Customer c where c.age > :xt_literal_0 and c.lastName like :xt_literal_1 and c.id in (:xt_literal_2)，
+ * in 列表中全部是字面量时作为一个集合参数，列表的长度不同也是同一个语句。
+ *
+ * 只替换 where、having、join ... on/with 和 update ... set 中比较运算符（=、<>、<、like、between ... and、in）右边的
+ * 数字和字符串字面量；select、order by、group by 中的字面量，函数参数，枚举、布尔和 {d '...'} 形式的日期字面量保持不变。
+ */
+final class JpqlLiterals {
+
+    static final String PARAMETER_PREFIX = "xt_literal_";
+
+    private final String jpql;
+    private final StringBuilder normalized;
+    private final List<Object> values = new ArrayList<>();
+    private final Deque<Boolean> clauses = new ArrayDeque<>();
+
+    private int position;
+    private int copied;
+    private String previous = "";
+    private boolean active;
+    private boolean betweenPending;
+    private boolean inList;
+
+    private JpqlLiterals(String jpql) {
+        this.jpql = jpql;
+        this.normalized = new StringBuilder(jpql.length() + 16);
+    }
+
+    /**
+     * @return 没有可以替换的字面量时 values 为空，jpql 与原来的相同
+     */
+    static Normalized normalize(String jpql) {
+        JpqlLiterals literals = new JpqlLiterals(jpql);
+        literals.scan();
+        if (literals.values.isEmpty()) {
+            return new Normalized(jpql, Collections.emptyList());
+        }
+        literals.normalized.append(jpql, literals.copied, jpql.length());
+        return new Normalized(literals.normalized.toString(), literals.values);
+    }
+
+    private void scan() {
+        int length = jpql.length();
+        while (position < length) {
+            char c = jpql.charAt(position);
+            if (Character.isWhitespace(c)) {
+                position++;
+            } else if (c == '\'' || Character.isDigit(c) || c == '-' && isNegativeNumber()) {
+                literal();
+            } else if (Character.isJavaIdentifierStart(c)) {
+                word();
+            } else if (c == '?' || c == ':') {
+                position++;
+                while (position < length && Character.isJavaIdentifierPart(jpql.charAt(position))) {
+                    position++;
+                }
+                previous = "?";
+            } else if (c == '{') {
+                int end = jpql.indexOf('}', position);
+                position = end < 0 ? length : end + 1;
+                previous = "{}";
+            } else if (c == '(') {
+                boolean list = previous.equals("in");
+                clauses.push(active);
+                clauses.push(inList);
+                position++;
+                inList = list && !collapseList();
+                previous = "(";
+            } else if (c == ')') {
+                if (clauses.size() >= 2) {
+                    inList = clauses.pop();
+                    active = clauses.pop();
+                }
+                position++;
+                previous = ")";
+            } else {
+                int start = position++;
+                if ((c == '<' || c == '>' || c == '!') && position < length
+                        && (jpql.charAt(position) == '=' || jpql.charAt(position) == '>')) {
+                    position++;
+                }
+                previous = jpql.substring(start, position);
+            }
+        }
+    }
+
+    private void word() {
+        int start = position;
+        while (position < jpql.length() && (Character.isJavaIdentifierPart(jpql.charAt(position))
+                || jpql.charAt(position) == '.')) {
+            position++;
+        }
+        String word = jpql.substring(start, position).toLowerCase();
+        switch (word) {
+            case "where":
+            case "having":
+            case "set":
+            case "on":
+            case "with":
+                active = true;
+                break;
+            case "select":
+            case "from":
+            case "join":
+                active = false;
+                break;
+            case "order":
+            case "group":
+                // Order 也是实体的名字，后面是 by 时才是子句
+                if (nextWord().equals("by")) {
+                    active = false;
+                }
+                break;
+            case "between":
+                betweenPending = true;
+                break;
+            case "and":
+                if (betweenPending) {
+                    betweenPending = false;
+                    word = "between";
+                }
+                break;
+        }
+        previous = word;
+    }
+
+    private void literal() {
+        int start = position;
+        Object value = readLiteral();
+        if (value != null && isComparand()) {
+            replace(start, value);
+        } else if (position == start) {
+            // 不认识的字面量（例如 1e10），跳过整个单词
+            position++;
+            while (position < jpql.length() && (Character.isJavaIdentifierPart(jpql.charAt(position))
+                    || jpql.charAt(position) == '.')) {
+                position++;
+            }
+        }
+        previous = "literal";
+    }
+
+    /**
+     * in 列表中全部是字面量时，整个列表替换为一个集合参数
+     *
+     * @return 是否已经替换
+     */
+    private boolean collapseList() {
+        if (!active) {
+            return false;
+        }
+        int start = position;
+        List<Object> items = new ArrayList<>();
+        while (true) {
+            skipWhitespace();
+            Object value = position < jpql.length() ? readLiteral() : null;
+            if (value == null) {
+                position = start;
+                return false;
+            }
+            items.add(value);
+            skipWhitespace();
+            if (position < jpql.length() && jpql.charAt(position) == ',') {
+                position++;
+            } else if (position < jpql.length() && jpql.charAt(position) == ')') {
+                break;
+            } else {
+                position = start;
+                return false;
+            }
+        }
+        int end = position;
+        position = start;
+        skipWhitespace();
+        replace(position, items);
+        copied = end;
+        position = end;
+        return true;
+    }
+
+    /**
+     * 读取从当前位置开始的数字或者字符串字面量，不是这两种字面量时返回 null 并且不移动位置
+     */
+    private Object readLiteral() {
+        int length = jpql.length();
+        int start = position;
+        char c = jpql.charAt(position);
+        if (c == '\'') {
+            StringBuilder text = new StringBuilder();
+            int i = position + 1;
+            while (i < length) {
+                char ch = jpql.charAt(i);
+                if (ch == '\'') {
+                    if (i + 1 < length && jpql.charAt(i + 1) == '\'') {
+                        text.append('\'');
+                        i += 2;
+                        continue;
+                    }
+                    position = i + 1;
+                    return text.toString();
+                }
+                text.append(ch);
+                i++;
+            }
+            // 没有结束的字符串，交给 hibernate 报错
+            position = length;
+            return null;
+        }
+        int i = position;
+        if (c == '-') {
+            i++;
+        }
+        int digits = i;
+        while (i < length && Character.isDigit(jpql.charAt(i))) {
+            i++;
+        }
+        if (i == digits) {
+            return null;
+        }
+        boolean decimal = false;
+        if (i + 1 < length && jpql.charAt(i) == '.' && Character.isDigit(jpql.charAt(i + 1))) {
+            decimal = true;
+            i++;
+            while (i < length && Character.isDigit(jpql.charAt(i))) {
+                i++;
+            }
+        }
+        String number = jpql.substring(start, i);
+        char suffix = i < length ? Character.toLowerCase(jpql.charAt(i)) : ' ';
+        Object value;
+        if (suffix == 'l' && !decimal) {
+            value = Long.valueOf(number);
+            i++;
+        } else if (suffix == 'f') {
+            value = Float.valueOf(number);
+            i++;
+        } else if (suffix == 'd') {
+            value = Double.valueOf(number);
+            i++;
+        } else if (decimal) {
+            value = Double.valueOf(number);
+        } else {
+            long parsed = Long.parseLong(number);
+            // 不能写成条件表达式：Integer 和 Long 混用时两边都会被转换为 Long
+            if (parsed == (int) parsed) {
+                value = (int) parsed;
+            } else {
+                value = parsed;
+            }
+        }
+        if (i < length && (Character.isJavaIdentifierPart(jpql.charAt(i)) || jpql.charAt(i) == '.')) {
+            // 例如 1e10、1bd 等其它形式，保持不变
+            position = start;
+            return null;
+        }
+        position = i;
+        return value;
+    }
+
+    private boolean isComparand() {
+        if (!active) {
+            return false;
+        }
+        switch (previous) {
+            case "=":
+            case "<>":
+            case "!=":
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+            case "like":
+            case "between":
+                return true;
+            case "(":
+            case ",":
+                return inList;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isNegativeNumber() {
+        return position + 1 < jpql.length() && Character.isDigit(jpql.charAt(position + 1)) && isComparand();
+    }
+
+    private void replace(int start, Object value) {
+        normalized.append(jpql, copied, start).append(':').append(PARAMETER_PREFIX).append(values.size());
+        values.add(value);
+        copied = position;
+    }
+
+    private String nextWord() {
+        int i = position;
+        while (i < jpql.length() && Character.isWhitespace(jpql.charAt(i))) {
+            i++;
+        }
+        int start = i;
+        while (i < jpql.length() && Character.isJavaIdentifierPart(jpql.charAt(i))) {
+            i++;
+        }
+        return jpql.substring(start, i).toLowerCase();
+    }
+
+    private void skipWhitespace() {
+        while (position < jpql.length() && Character.isWhitespace(jpql.charAt(position))) {
+            position++;
+        }
+    }
+
+    static final class Normalized {
+
+        final String jpql;
+        final List<Object> values;
+
+        private Normalized(String jpql, List<Object> values) {
+            this.jpql = jpql;
+            this.values = values;
+        }
+
+        static String parameterName(int index) {
+            return PARAMETER_PREFIX + index;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.xt.jpa.query;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author xt
+ * @date 2019/2/23 - 10:00
+ * @description KeysetPager 查询到的一页数据
+ */
+public class KeysetPage<T> {
+
+    private final List<T> content;
+    private final String nextToken;
+
+    KeysetPage(List<T> content, String nextToken) {
+        this.content = Collections.unmodifiableList(content);
+        this.nextToken = nextToken;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * 下一页的分页标记，传给 KeysetPager.page 查询下一页。没有下一页时为 null
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    @Override
+    public String toString() {
+        return "KeysetPage{" +
+                "size=" + content.size() +
+                ", nextToken='" + nextToken + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,333 @@
+package com.xt.jpa.query;
+
+import org.hibernate.Session;
+import org.hibernate.metadata.ClassMetadata;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author xt
+ * @date 2019/2/23 - 10:30
+ * @description 键集分页（seek method）：按上一页最后一行的排序键查询下一页，代替 setFirstResult 的 offset 分页
+ *
+ * offset 分页需要数据库先读出并丢弃前面所有的行，越往后翻越慢。键集分页把上一页最后一行的排序键作为条件，例如
+ *    order by e.age desc, e.id desc
+ * 的下一页条件为
+ *    e.age <= :age and (e.age < :age or (e.age = :age and e.id < :id))
+ * 其中 e.age <= :age 是多余的，但可以让数据库直接使用 (age, id) 上的索引定位到起始位置，
+ * 再只读取一页的行，第 10000 页与第 1 页的开销相同。
+ *
+ * 1. 排序键的最后总是加上主键作为 tie-breaker（与最后一个排序键的方向相同），保证顺序稳定、不重复不遗漏；
+ * 2. 排序键的值不能为 null；
+ * 3. 分页标记是对查询条件和排序键的值的编码，只能用于同一个 KeysetPager（条件和排序相同）。
+ *
+ * KeysetPager 是不可变的，可以在多个线程中共享。用法：
+ *    KeysetPager<Customer> pager = KeysetPager.of(Customer.class).where("e.age > ?1", 1).orderByDesc("age");
+ *    KeysetPage<Customer> page = pager.page(entityManager, null, 20);
+ *    page = pager.page(entityManager, page.getNextToken(), 20);
+ */
+public final class KeysetPager<T> {
+
+    private static final byte TOKEN_VERSION = 1;
+
+    private final Class<T> entityClass;
+    private final String where;
+    private final List<Object> parameters;
+    private final List<SortKey> sortKeys;
+
+    private KeysetPager(Class<T> entityClass, String where, List<Object> parameters, List<SortKey> sortKeys) {
+        this.entityClass = entityClass;
+        this.where = where;
+        this.parameters = parameters;
+        this.sortKeys = sortKeys;
+    }
+
+    public static <T> KeysetPager<T> of(Class<T> entityClass) {
+        return new KeysetPager<>(entityClass, null, Collections.emptyList(), Collections.<SortKey>emptyList());
+    }
+
+    /**
+     * @param where      JPQL 的条件，实体的别名为 e，参数使用 ?1、?2 ...
+     * @param parameters 按顺序对应 ?1、?2 ...
+     */
+    public KeysetPager<T> where(String where, Object... parameters) {
+        return new KeysetPager<>(entityClass, where, Collections.unmodifiableList(Arrays.asList(parameters.clone())),
+                sortKeys);
+    }
+
+    /**
+     * @param property 实体的属性，也可以是 customer.id 这样的路径
+     */
+    public KeysetPager<T> orderBy(String property) {
+        return addSortKey(property, false);
+    }
+
+    public KeysetPager<T> orderByDesc(String property) {
+        return addSortKey(property, true);
+    }
+
+    private KeysetPager<T> addSortKey(String property, boolean descending) {
+        List<SortKey> keys = new ArrayList<>(sortKeys);
+        keys.add(new SortKey(property, descending));
+        return new KeysetPager<>(entityClass, where, parameters, Collections.unmodifiableList(keys));
+    }
+
+    /**
+     * @param token 上一页的 KeysetPage.getNextToken()，为 null 时查询第一页
+     * @throws IllegalArgumentException 分页标记无效或者不属于该查询
+     */
+    @SuppressWarnings("unchecked")
+    public KeysetPage<T> page(EntityManager entityManager, String token, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize 必须大于 0");
+        }
+        List<SortKey> keys = withTieBreaker(entityManager);
+        Object[] after = token == null ? null : decode(token, keys.size());
+
+        StringBuilder jpql = new StringBuilder("select e");
+        for (SortKey key : keys) {
+            jpql.append(", e.").append(key.property);
+        }
+        jpql.append(" from ").append(entityClass.getName()).append(" e");
+        List<String> conditions = new ArrayList<>();
+        if (where != null) {
+            conditions.add("(" + where + ")");
+        }
+        if (after != null) {
+            conditions.add(seekPredicate(keys));
+        }
+        for (int i = 0; i < conditions.size(); i++) {
+            jpql.append(i == 0 ? " where " : " and ").append(conditions.get(i));
+        }
+        jpql.append(" order by ");
+        for (int i = 0; i < keys.size(); i++) {
+            jpql.append(i == 0 ? "" : ", ").append("e.").append(keys.get(i).property)
+                    .append(keys.get(i).descending ? " desc" : " asc");
+        }
+
+        Query query = entityManager.createQuery(jpql.toString());
+        for (int i = 0; i < parameters.size(); i++) {
+            query.setParameter(i + 1, parameters.get(i));
+        }
+        if (after != null) {
+            for (int i = 0; i < after.length; i++) {
+                query.setParameter("k" + i, after[i]);
+            }
+        }
+        // 多查询一行，用来判断是否还有下一页
+        List<Object[]> rows = query.setMaxResults(pageSize + 1).getResultList();
+
+        boolean hasNext = rows.size() > pageSize;
+        List<T> content = new ArrayList<>(Math.min(rows.size(), pageSize));
+        for (int i = 0; i < rows.size() && i < pageSize; i++) {
+            content.add((T) rows.get(i)[0]);
+        }
+        String nextToken = null;
+        if (hasNext) {
+            Object[] last = rows.get(pageSize - 1);
+            nextToken = encode(Arrays.copyOfRange(last, 1, last.length));
+        }
+        return new KeysetPage<>(content, nextToken);
+    }
+
+    /**
+     * 最后加上主键作为 tie-breaker。排序键中已经包含主键时不再添加
+     */
+    private List<SortKey> withTieBreaker(EntityManager entityManager) {
+        ClassMetadata metadata = entityManager.unwrap(Session.class).getSessionFactory().getClassMetadata(entityClass);
+        if (metadata == null || metadata.getIdentifierPropertyName() == null) {
+            throw new IllegalArgumentException("不是有单一主键属性的实体: " + entityClass.getName());
+        }
+        String id = metadata.getIdentifierPropertyName();
+        List<SortKey> keys = new ArrayList<>(sortKeys);
+        for (SortKey key : keys) {
+            if (key.property.equals(id)) {
+                return keys;
+            }
+        }
+        keys.add(new SortKey(id, !keys.isEmpty() && keys.get(keys.size() - 1).descending));
+        return keys;
+    }
+
+    /**
+     * (k0, k1, k2) 之后的行：
+     * k0 [<=] :k0 and (k0 [<] :k0 or (k0 = :k0 and (k1 [<] :k1 or (k1 = :k1 and k2 [<] :k2))))
+     */
+    private static String seekPredicate(List<SortKey> keys) {
+        StringBuilder predicate = new StringBuilder();
+        SortKey first = keys.get(0);
+        predicate.append("(e.").append(first.property).append(first.descending ? " <= " : " >= ").append(":k0 and ");
+        for (int i = 0; i < keys.size(); i++) {
+            SortKey key = keys.get(i);
+            if (i > 0) {
+                predicate.append(" or (e.").append(keys.get(i - 1).property).append(" = :k").append(i - 1).append(" and ");
+            }
+            predicate.append("(e.").append(key.property).append(key.descending ? " < " : " > ").append(":k").append(i);
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            predicate.append(i == 0 ? ")" : "))");
+        }
+        return predicate.append(")").toString();
+    }
+
+    /**
+     * 查询条件和排序的摘要，用来拒绝其他查询的分页标记
+     */
+    private int fingerprint(int keyCount) {
+        StringBuilder text = new StringBuilder(entityClass.getName()).append('|').append(where).append('|');
+        for (SortKey key : sortKeys) {
+            text.append(key.property).append(key.descending ? " desc," : " asc,");
+        }
+        text.append(keyCount);
+        return Arrays.hashCode(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String encode(Object[] values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(TOKEN_VERSION);
+            out.writeInt(fingerprint(values.length));
+            for (Object value : values) {
+                writeValue(out, value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    private Object[] decode(String token, int keyCount) {
+        String message = "分页标记无效或者不属于该查询: " + token;
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(message, e);
+        }
+        Object[] values = new Object[keyCount];
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            boolean valid = in.readByte() == TOKEN_VERSION && in.readInt() == fingerprint(keyCount);
+            for (int i = 0; valid && i < keyCount; i++) {
+                values[i] = readValue(in);
+            }
+            if (!valid || in.read() != -1) {
+                throw new IllegalArgumentException(message);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(message, e);
+        }
+        return values;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            throw new IllegalStateException("键集分页的排序键不能为 null");
+        }
+        if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte('J');
+            out.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            out.writeByte('S');
+            out.writeShort((Short) value);
+        } else if (value instanceof Double) {
+            out.writeByte('D');
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte('F');
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            out.writeByte('s');
+            out.writeUTF((String) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte('d');
+            out.writeUTF(value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte('i');
+            out.writeUTF(value.toString());
+        } else if (value instanceof Timestamp) {
+            out.writeByte('t');
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Time) {
+            out.writeByte('h');
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte('a');
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Date) {
+            out.writeByte('u');
+            out.writeLong(((Date) value).getTime());
+        } else {
+            throw new IllegalStateException("键集分页不支持该类型的排序键: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case 'I':
+                return in.readInt();
+            case 'J':
+                return in.readLong();
+            case 'S':
+                return in.readShort();
+            case 'D':
+                return in.readDouble();
+            case 'F':
+                return in.readFloat();
+            case 'Z':
+                return in.readBoolean();
+            case 's':
+                return in.readUTF();
+            case 'd':
+                return new BigDecimal(in.readUTF());
+            case 'i':
+                return new BigInteger(in.readUTF());
+            case 't':
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case 'h':
+                return new java.sql.Time(in.readLong());
+            case 'a':
+                return new java.sql.Date(in.readLong());
+            case 'u':
+                return new Date(in.readLong());
+            default:
+                throw new IOException("未知的类型: " + type);
+        }
+    }
+
+    private static final class SortKey {
+
+        private final String property;
+        private final boolean descending;
+
+        SortKey(String property, boolean descending) {
+            this.property = property;
+            this.descending = descending;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.xt.jpa.query;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author xt
+ * @date 2019/2/25 - 11:00
+ * @description 创建查询之前把 JPQL 中的字面量替换为参数，只是过滤条件的值不同的语句共用一个查询计划
+ *
+ * 根据过滤条件拼接的 JPQL（例如 where c.age > 25、where c.age > 26）对 hibernate 来说是不同的语句，
+ * 每个都要解析一次，并且会把常用语句的查询计划挤出缓存。
+ *
+ * 用法：
+ *    List<Customer> customers = NormalizedQueries.createQuery(entityManager,
+ *            "from Customer c where c.age > " + age + " and c.lastName like '" + prefix + "%'", Customer.class)
+ *            .getResultList();
+ *
+ * 返回的查询可以继续设置其它的参数。字面量的值转换为参数期望的类型，例如 c.id = 1 中的 1 转换为 Integer；
+ * 无法转换时（例如与日期属性比较的字符串 c.birth < '1990-01-05'，由数据库转换类型）使用原来的语句。
+ * 替换的规则见 JpqlLiterals。
+ */
+public final class NormalizedQueries {
+
+    private NormalizedQueries() {
+    }
+
+    public static Query createQuery(EntityManager entityManager, String jpql) {
+        JpqlLiterals.Normalized normalized = JpqlLiterals.normalize(jpql);
+        if (!normalized.values.isEmpty()) {
+            Query query = entityManager.createQuery(normalized.jpql);
+            if (bind(query, normalized)) {
+                recordNormalized(entityManager, normalized);
+                return query;
+            }
+        }
+        return entityManager.createQuery(jpql);
+    }
+
+    public static <T> TypedQuery<T> createQuery(EntityManager entityManager, String jpql, Class<T> resultClass) {
+        JpqlLiterals.Normalized normalized = JpqlLiterals.normalize(jpql);
+        if (!normalized.values.isEmpty()) {
+            TypedQuery<T> query = entityManager.createQuery(normalized.jpql, resultClass);
+            if (bind(query, normalized)) {
+                recordNormalized(entityManager, normalized);
+                return query;
+            }
+        }
+        return entityManager.createQuery(jpql, resultClass);
+    }
+
+    /**
+     * 替换字面量以后的语句
+     */
+    public static String normalize(String jpql) {
+        return JpqlLiterals.normalize(jpql).jpql;
+    }
+
+    private static void recordNormalized(EntityManager entityManager, JpqlLiterals.Normalized normalized) {
+        InstrumentedQueryPlanCache cache = InstrumentedQueryPlanCache.find(entityManager.getEntityManagerFactory());
+        if (cache != null) {
+            cache.recordNormalized(normalized.values.size());
+        }
+    }
+
+    /**
+     * @return 有字面量无法转换为参数的类型时返回 false
+     */
+    private static boolean bind(Query query, JpqlLiterals.Normalized normalized) {
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < normalized.values.size(); i++) {
+            Class<?> type = query.getParameter(JpqlLiterals.Normalized.parameterName(i)).getParameterType();
+            Object value = coerce(normalized.values.get(i), type);
+            if (!matches(value, type)) {
+                return false;
+            }
+            values.add(value);
+        }
+        for (int i = 0; i < values.size(); i++) {
+            query.setParameter(JpqlLiterals.Normalized.parameterName(i), values.get(i));
+        }
+        return true;
+    }
+
+    private static boolean matches(Object value, Class<?> type) {
+        if (type == null || type.isInstance(value)) {
+            return true;
+        }
+        if (!(value instanceof Collection)) {
+            return false;
+        }
+        for (Object element : (Collection<?>) value) {
+            if (!type.isInstance(element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object coerce(Object value, Class<?> type) {
+        if (type == null || type.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof Collection) {
+            List<Object> values = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                values.add(coerce(element, type));
+            }
+            return values;
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (type == Integer.class) {
+                return number.intValue();
+            } else if (type == Long.class) {
+                return number.longValue();
+            } else if (type == Short.class) {
+                return number.shortValue();
+            } else if (type == Byte.class) {
+                return number.byteValue();
+            } else if (type == Double.class) {
+                return number.doubleValue();
+            } else if (type == Float.class) {
+                return number.floatValue();
+            } else if (type == BigDecimal.class) {
+                return new BigDecimal(number.toString());
+            } else if (type == BigInteger.class) {
+                return new BigInteger(number.toString());
+            }
+        }
+        if (value instanceof String && type == Character.class && ((String) value).length() == 1) {
+            return ((String) value).charAt(0);
+        }
+        // 无法转换，由调用者使用原来的语句
+        return value;
+    }
+}
@@ -0,0 +1,73 @@
+package com.xt.jpa.query;
+
+import org.hibernate.CacheMode;
+import org.hibernate.SQLQuery;
+import org.hibernate.transform.BasicTransformerAdapter;
+import org.hibernate.type.Type;
+
+import javax.persistence.Query;
+import java.util.List;
+
+/**
+ * @author xt
+ * @date 2019/2/22 - 10:30
+ * @description 只读的投影查询：把 JPQL 或原生 SQL 查询的列直接映射为不可变的 DTO 或者列的数组
+ *
+ * 查询实体时，每一行都会创建实体对象、放入持久化上下文并保存一份快照用于 flush 时的脏检查，关联关系还会创建代理对象。
+ * 投影查询只查询需要的列，结果不是实体，不会进入持久化上下文，也就没有快照、脏检查和代理对象。
+ * select new Customer(c.lastName, c.age) 虽然只查询两列，但创建的仍然是完整的 Customer 对象，
+ * 报表类的查询应该使用只包含所需字段的 DTO。
+ *
+ * 用法：
+ *    Query query = entityManager.createQuery("select c.id, c.lastName, count(o.id) from Order o join o.customer c group by c.id, c.lastName");
+ *    List<CustomerOrderCount> counts = Projections.list(query, CustomerOrderCount.class);
+ */
+public final class Projections {
+
+    private Projections() {
+    }
+
+    /**
+     * 把每一行传给 DTO 的构造器。只有一列时也可以直接指定列的类型，例如 String.class。
+     * 查询的参数需要在调用该方法之前设置好。
+     *
+     * @throws IllegalArgumentException JPQL 查询的结果中包含实体
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> list(Query query, Class<T> type) {
+        return prepare(query).setResultTransformer(new ConstructorResultTransformer<>(type)).list();
+    }
+
+    /**
+     * 每一行是一个列的数组（只有一列时也是数组）
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Object[]> rows(Query query) {
+        return prepare(query).setResultTransformer(ColumnArrayTransformer.INSTANCE).list();
+    }
+
+    private static org.hibernate.Query prepare(Query query) {
+        org.hibernate.Query hibernateQuery = query.unwrap(org.hibernate.Query.class);
+        if (!(hibernateQuery instanceof SQLQuery)) {
+            for (Type type : hibernateQuery.getReturnTypes()) {
+                if (type.isEntityType() || type.isCollectionType()) {
+                    throw new IllegalArgumentException("投影查询只能查询列，不能查询实体: " + hibernateQuery.getQueryString());
+                }
+            }
+        }
+        // 结果不是实体，不需要读写二级缓存
+        return hibernateQuery.setReadOnly(true).setCacheMode(CacheMode.IGNORE);
+    }
+
+    private static final class ColumnArrayTransformer extends BasicTransformerAdapter {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final ColumnArrayTransformer INSTANCE = new ColumnArrayTransformer();
+
+        @Override
+        public Object transformTuple(Object[] tuple, String[] aliases) {
+            return tuple;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.xt.jpa.query;
+
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.query.spi.QueryPlanCache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author xt
+ * @date 2019/2/25 - 10:30
+ * @description 用 InstrumentedQueryPlanCache 替换 hibernate 自带的查询计划缓存，并在启动时预先解析常用的语句
+ *
+ * 通过 META-INF/services/org.hibernate.integrator.spi.Integrator 被 hibernate 自动加载。
+ * hibernate 4.2 没有提供替换查询计划缓存的配置，只能在 SessionFactoryImpl 创建查询计划缓存之后、
+ * 检查 @NamedQuery 之前通过反射替换，@NamedQuery 也会被解析到新的缓存中。
+ * 当前版本的 SessionFactoryImpl 没有该字段或者无法替换时输出警告，继续使用 hibernate 自带的缓存。
+ *
+ * 1. xt.query.plan_cache.enabled：是否替换，默认 true；
+ * 2. xt.query.plan_cache.warmup_file：关闭时把命中次数最多的 xt.query.plan_cache.warmup_size（默认 200）个语句
+ *    写入该文件（每行一个），启动时预先解析文件中的语句。没有配置时不读写文件；
+ *    相对路径相对于 java.io.tmpdir，而不是当前工作目录。
+ */
+public class QueryPlanCacheIntegrator implements Integrator {
+
+    public static final String ENABLED = "xt.query.plan_cache.enabled";
+    public static final String WARMUP_FILE = "xt.query.plan_cache.warmup_file";
+    public static final String WARMUP_SIZE = "xt.query.plan_cache.warmup_size";
+
+    private static final Logger LOG = Logger.getLogger(QueryPlanCacheIntegrator.class);
+    private static final String QUERY_PLAN_CACHE_FIELD = "queryPlanCache";
+
+    @Override
+    public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        Map properties = sessionFactory.getProperties();
+        if (!ConfigurationHelper.getBoolean(ENABLED, properties, true)
+                || !(sessionFactory instanceof SessionFactoryImpl)) {
+            return;
+        }
+        final InstrumentedQueryPlanCache cache = new InstrumentedQueryPlanCache(sessionFactory);
+        if (!replaceQueryPlanCache(sessionFactory, cache)) {
+            return;
+        }
+
+        String warmupFile = ConfigurationHelper.getString(WARMUP_FILE, properties);
+        if (warmupFile == null) {
+            return;
+        }
+        final Path path = Paths.get(System.getProperty("java.io.tmpdir")).resolve(warmupFile);
+        final int warmupSize = ConfigurationHelper.getInt(WARMUP_SIZE, properties, 200);
+        ((SessionFactoryImpl) sessionFactory).addObserver(new SessionFactoryObserver() {
+            @Override
+            public void sessionFactoryCreated(SessionFactory factory) {
+                // 映射信息此时才完整，可以解析语句
+                warmUp(cache, path);
+            }
+
+            @Override
+            public void sessionFactoryClosed(SessionFactory factory) {
+                save(cache, path, warmupSize);
+            }
+        });
+    }
+
+    @Override
+    public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        // 新的 metamodel 在 hibernate 4.2 中尚未启用
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+
+    /**
+     * @return 无法替换时输出警告并返回 false
+     */
+    private static boolean replaceQueryPlanCache(SessionFactoryImplementor sessionFactory,
+                                                 InstrumentedQueryPlanCache cache) {
+        Field field;
+        try {
+            field = SessionFactoryImpl.class.getDeclaredField(QUERY_PLAN_CACHE_FIELD);
+        } catch (NoSuchFieldException e) {
+            LOG.warnf("SessionFactoryImpl 没有 %s 字段（hibernate 版本不同），使用 hibernate 自带的查询计划缓存",
+                    QUERY_PLAN_CACHE_FIELD);
+            return false;
+        }
+        if (field.getType() != QueryPlanCache.class) {
+            LOG.warnf("SessionFactoryImpl.%s 的类型为 %s 而不是 %s，使用 hibernate 自带的查询计划缓存",
+                    QUERY_PLAN_CACHE_FIELD, field.getType().getName(), QueryPlanCache.class.getName());
+            return false;
+        }
+        try {
+            field.setAccessible(true);
+            field.set(sessionFactory, cache);
+            cache.installed();
+        } catch (IllegalAccessException | RuntimeException e) {
+            LOG.warnf(e, "无法替换 SessionFactoryImpl.%s，使用 hibernate 自带的查询计划缓存", QUERY_PLAN_CACHE_FIELD);
+            return false;
+        }
+        return true;
+    }
+
+    private static void warmUp(InstrumentedQueryPlanCache cache, Path path) {
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        List<String> queries = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    queries.add(line);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warnf(e, "无法读取预先解析的语句 %s", path);
+            return;
+        }
+        // 映射修改以后，文件中的语句可能已经无法解析，忽略即可
+        Map<String, HibernateException> failures = cache.precompile(queries);
+        for (Map.Entry<String, HibernateException> failure : failures.entrySet()) {
+            LOG.warnf("无法预先解析语句 %s: %s", failure.getKey(), failure.getValue().getMessage());
+        }
+    }
+
+    private static void save(InstrumentedQueryPlanCache cache, Path path, int warmupSize) {
+        List<String> queries = new ArrayList<>();
+        for (String query : cache.getFrequentQueries(warmupSize)) {
+            // 每行一个语句
+            if (query.indexOf('\n') < 0 && query.indexOf('\r') < 0) {
+                queries.add(query);
+            }
+        }
+        try {
+            Files.write(path, queries, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOG.warnf(e, "无法保存常用的语句到 %s", path);
+        }
+    }
+}
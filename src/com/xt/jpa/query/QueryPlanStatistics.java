@@ -0,0 +1,94 @@
+package com.xt.jpa.query;
+
+/**
+ * @author xt
+ * @date 2019/2/25 - 10:10
+ * @description InstrumentedQueryPlanCache 的统计信息（快照）
+ */
+public class QueryPlanStatistics {
+
+    private final int size;
+    private final int maxSize;
+    private final long hits;
+    private final long misses;
+    private final double parseMillis;
+    private final double savedParseMillis;
+    private final long normalizedQueries;
+    private final long normalizedLiterals;
+
+    public QueryPlanStatistics(int size, int maxSize, long hits, long misses, double parseMillis,
+                               double savedParseMillis, long normalizedQueries, long normalizedLiterals) {
+        this.size = size;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.parseMillis = parseMillis;
+        this.savedParseMillis = savedParseMillis;
+        this.normalizedQueries = normalizedQueries;
+        this.normalizedLiterals = normalizedLiterals;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 命中的次数按查找计算，创建和执行一个查询时 hibernate 通常会查找 2 到 3 次
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * 解析语句（包括预先解析）的总时间
+     */
+    public double getParseMillis() {
+        return parseMillis;
+    }
+
+    /**
+     * 命中缓存节省的解析时间（没有缓存时每次查找都要解析），按每个语句上一次解析所用的时间估算
+     */
+    public double getSavedParseMillis() {
+        return savedParseMillis;
+    }
+
+    /**
+     * 通过 NormalizedQueries 创建、字面量被替换为参数的查询个数
+     */
+    public long getNormalizedQueries() {
+        return normalizedQueries;
+    }
+
+    public long getNormalizedLiterals() {
+        return normalizedLiterals;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlanStatistics{" +
+                "size=" + size +
+                ", maxSize=" + maxSize +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", hitRatio=" + String.format("%.3f", getHitRatio()) +
+                ", parseTime=" + String.format("%.3f", parseMillis) + "ms" +
+                ", savedParseTime=" + String.format("%.3f", savedParseMillis) + "ms" +
+                ", normalizedQueries=" + normalizedQueries +
+                ", normalizedLiterals=" + normalizedLiterals +
+                '}';
+    }
+}
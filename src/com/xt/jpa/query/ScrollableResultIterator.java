@@ -0,0 +1,88 @@
+package com.xt.jpa.query;
+
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * @author xt
+ * @date 2019/2/17 - 16:30
+ * @description 基于 ScrollableResults（只进的服务端游标）的迭代器
+ *
+ * 每次移动到下一行时，会把上一行中的实体从 Session 中移除（evict），
+ * 所以持久化上下文中最多只保留当前行的实体，内存占用不随结果集的大小增长。
+ * 注意：使用完之后必须调用 close 方法关闭游标。
+ */
+public class ScrollableResultIterator<T> implements Iterator<T>, Closeable {
+
+    private final Session session;
+    private final ScrollableResults results;
+
+    private Object[] current;
+    private Boolean hasNext;
+    private boolean closed;
+
+    ScrollableResultIterator(Session session, ScrollableResults results) {
+        this.session = session;
+        this.results = results;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (hasNext == null) {
+            evictCurrent();
+            hasNext = results.next();
+            if (!hasNext) {
+                close();
+            }
+        }
+        return hasNext;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNext = null;
+        current = results.get();
+        return (T) (current.length == 1 ? current[0] : current);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 把上一次返回给调用者的实体从持久化上下文中移除
+     */
+    private void evictCurrent() {
+        if (current == null) {
+            return;
+        }
+        for (Object value : current) {
+            if (value != null && session.contains(value)) {
+                session.evict(value);
+            }
+        }
+        current = null;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        evictCurrent();
+        results.close();
+    }
+}
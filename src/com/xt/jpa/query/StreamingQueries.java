@@ -0,0 +1,74 @@
+package com.xt.jpa.query;
+
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * @author xt
+ * @date 2019/2/17 - 16:45
+ * @description 以流的方式读取大结果集
+ *
+ * Query.getResultList() 会把所有结果一次性加载到持久化上下文中，内存占用随表的大小增长。
+ * 这里使用 hibernate 的 ScrollableResults 打开只进的游标，按 fetchSize 分批从数据库读取数据。
+ * 对于 MySQL，需要在连接 url 中添加 useCursorFetch=true，fetchSize 才会生效（服务端游标）。
+ *
+ * 用法：
+ *    Query query = entityManager.createQuery("from Customer where age > ?").setParameter(1, 1);
+ *    try (Stream<Customer> customers = StreamingQueries.stream(entityManager, query, 500)) {
+ *        customers.forEach(...);
+ *    }
+ */
+public final class StreamingQueries {
+
+    public static final int DEFAULT_FETCH_SIZE = 500;
+
+    private StreamingQueries() {
+    }
+
+    public static <T> ScrollableResultIterator<T> iterate(EntityManager entityManager, Query query) {
+        return iterate(entityManager, query, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * 以迭代器的方式返回查询结果。查询的参数需要在调用该方法之前设置好。
+     */
+    public static <T> ScrollableResultIterator<T> iterate(EntityManager entityManager, Query query, int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize 必须大于 0: " + fetchSize);
+        }
+        Session session = entityManager.unwrap(Session.class);
+        org.hibernate.Query hibernateQuery = query.unwrap(org.hibernate.Query.class)
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .setCacheable(false)
+                // 流式读取的实体不放入二级缓存，避免把缓存冲掉
+                .setCacheMode(CacheMode.IGNORE);
+        return new ScrollableResultIterator<>(session, hibernateQuery.scroll(ScrollMode.FORWARD_ONLY));
+    }
+
+    public static <T> Stream<T> stream(EntityManager entityManager, Query query) {
+        return stream(entityManager, query, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * 以 Stream 的方式返回查询结果，Stream 关闭时会同时关闭游标。
+     */
+    public static <T> Stream<T> stream(EntityManager entityManager, Query query, int fetchSize) {
+        final ScrollableResultIterator<T> iterator = iterate(entityManager, query, fetchSize);
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED);
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                iterator.close();
+            }
+        });
+    }
+}
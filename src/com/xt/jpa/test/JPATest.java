@@ -1,14 +1,56 @@
 package com.xt.jpa.test;
 
+import com.xt.jpa.batch.AssociationWriteResult;
+import com.xt.jpa.batch.AssociationWriter;
+import com.xt.jpa.batch.BulkOperationResult;
+import com.xt.jpa.batch.BulkOperations;
+import com.xt.jpa.batch.BulkPersistResult;
+import com.xt.jpa.batch.BulkPersistService;
+import com.xt.jpa.batch.WriteBehindQueue;
+import com.xt.jpa.cache.CacheStatistics;
+import com.xt.jpa.cache.DependencyTrackingQueryCacheFactory;
+import com.xt.jpa.cache.LocalRegion;
+import com.xt.jpa.cache.LocalRegionFactory;
+import com.xt.jpa.cache.QueryStatistics;
+import com.xt.jpa.context.EntityManagerFactoryHolder;
+import com.xt.jpa.context.EntityManagerProvider;
+import com.xt.jpa.context.JpaCallback;
+import com.xt.jpa.context.ManagedUnitOfWork;
+import com.xt.jpa.context.UnitOfWorkExecutor;
+import com.xt.jpa.fetch.FetchPlans;
 import com.xt.jpa.helloworld.*;
+import com.xt.jpa.index.IndexAdvisor;
+import com.xt.jpa.index.IndexAdvisorReport;
+import com.xt.jpa.index.PredicateRecordingInterceptor;
+import com.xt.jpa.jdbc.StatementMetrics;
+import com.xt.jpa.jdbc.StatementStatistics;
+import com.xt.jpa.pool.ConnectionCheckout;
+import com.xt.jpa.pool.InstrumentedC3P0ConnectionProvider;
+import com.xt.jpa.query.CustomerOrderCount;
+import com.xt.jpa.query.InstrumentedQueryPlanCache;
+import com.xt.jpa.query.KeysetPage;
+import com.xt.jpa.query.KeysetPager;
+import com.xt.jpa.query.NormalizedQueries;
+import com.xt.jpa.query.Projections;
+import com.xt.jpa.query.ScrollableResultIterator;
+import com.xt.jpa.query.StreamingQueries;
+import org.hibernate.Hibernate;
 import org.hibernate.annotations.QueryHints;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author xt
@@ -23,7 +65,8 @@ public class JPATest {
 
     @Before
     public void init() {
-        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1");
+        // 所有的测试方法共享同一个 EntityManagerFactory，JVM 退出时关闭
+        entityManagerFactory = EntityManagerFactoryHolder.getEntityManagerFactory();
         entityManager = entityManagerFactory.createEntityManager();
         transaction = entityManager.getTransaction();
         transaction.begin();
@@ -33,7 +76,43 @@ public class JPATest {
     public void destroy() {
         transaction.commit();
         entityManager.close();
-        entityManagerFactory.close();
+    }
+
+    /**
+     * 多个线程共享同一个 EntityManagerFactory，每个线程使用与之绑定的 EntityManager，
+     * 嵌套的 inTransaction 加入外层的事务，使用同一个 EntityManager。
+     */
+    @Test
+    public void testEntityManagerProvider() throws InterruptedException {
+        final EntityManagerProvider provider = EntityManagerFactoryHolder.getEntityManagerProvider();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread("worker-" + i) {
+                @Override
+                public void run() {
+                    Customer customer = provider.inTransaction(new JpaCallback<Customer>() {
+                        @Override
+                        public Customer doInJpa(EntityManager entityManager) {
+                            Customer customer = entityManager.find(Customer.class, 1);
+                            Customer same = provider.inTransaction(new JpaCallback<Customer>() {
+                                @Override
+                                public Customer doInJpa(EntityManager entityManager) {
+                                    return entityManager.find(Customer.class, 1);
+                                }
+                            });
+                            System.out.println(getName() + ": " + (customer == same));
+                            return customer;
+                        }
+                    });
+                    System.out.println(getName() + ": " + customer + ", bound=" + provider.isBound());
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
     }
 
     /**
@@ -64,6 +143,51 @@ public class JPATest {
         System.out.println(list.size());
     }
 
+    /**
+     * 根据执行过的 SQL 推荐索引，并比较 testSubQuery、testGroupBy、testOrderBy 的查询在创建索引前后的延迟。
+     * 记录 SQL 的 EntityManagerFactory 单独创建，用完关闭；
+     * evaluate 会在数据库中创建索引，结束后删除，不影响其他测试
+     */
+    @Test
+    public void testIndexAdvisor() {
+        Map<String, JpaCallback<?>> workload = new LinkedHashMap<>();
+        workload.put("testSubQuery", new JpaCallback<List<?>>() {
+            @Override
+            public List<?> doInJpa(EntityManager entityManager) {
+                return entityManager.createQuery("select o from Order o where o.customer = "
+                        + "(select c from Customer c where c.lastName=?1)").setParameter(1, "xt3").getResultList();
+            }
+        });
+        workload.put("testGroupBy", new JpaCallback<List<?>>() {
+            @Override
+            public List<?> doInJpa(EntityManager entityManager) {
+                return entityManager.createQuery("select o.customer from Order o group by o.customer "
+                        + "having count(o.id)>=2").getResultList();
+            }
+        });
+        workload.put("testOrderBy", new JpaCallback<List<?>>() {
+            @Override
+            public List<?> doInJpa(EntityManager entityManager) {
+                return entityManager.createQuery("from Customer where age > ?1 order by age desc")
+                        .setParameter(1, 1).getResultList();
+            }
+        });
+
+        EntityManagerFactory recording = Persistence.createEntityManagerFactory(
+                EntityManagerFactoryHolder.DEFAULT_PERSISTENCE_UNIT, PredicateRecordingInterceptor.properties());
+        try {
+            IndexAdvisor advisor = IndexAdvisor.of(recording);
+            IndexAdvisorReport report = advisor.evaluate(workload, 20);
+            try {
+                System.out.println(report);
+            } finally {
+                advisor.drop(report.getApplied());
+            }
+        } finally {
+            recording.close();
+        }
+    }
+
     /**
      * JPQL 的关联查询统 HQL 的关联查询
      */
@@ -90,6 +214,26 @@ public class JPATest {
         System.out.println(customers);
     }
 
+    /**
+     * testGroupBy 和 testJpqlFunction 的投影版本：只查询需要的列，结果为 DTO 或者列的值，
+     * 不会创建实体对象，也不会放入持久化上下文。
+     */
+    @Test
+    public void testProjection() {
+        String jpql = "select c.id, c.lastName, count(o.id) from Order o join o.customer c "
+                + "group by c.id, c.lastName having count(o.id)>=2";
+        List<CustomerOrderCount> counts = Projections.list(entityManager.createQuery(jpql), CustomerOrderCount.class);
+        System.out.println(counts);
+
+        List<String> emails = Projections.list(entityManager.createQuery("select upper(c.email) from Customer c"),
+                String.class);
+        System.out.println(emails);
+
+        for (Object[] row : Projections.rows(entityManager.createQuery("select c.lastName, c.age from Customer c"))) {
+            System.out.println(row[0] + ": " + row[1]);
+        }
+    }
+
     @Test
     public void testOrderBy() {
         String jpql = "from Customer where age > ? order by age desc ";
@@ -101,6 +245,21 @@ public class JPATest {
         System.out.println(customers.size());
     }
 
+    /**
+     * 键集分页：与 testOrderBy 相同的查询，按上一页最后一行的 (age, id) 查询下一页，不使用 offset
+     */
+    @Test
+    public void testKeysetPagination() {
+        KeysetPager<Customer> pager = KeysetPager.of(Customer.class).where("e.age > ?1", 1).orderByDesc("age");
+
+        KeysetPage<Customer> page = pager.page(entityManager, null, 2);
+        System.out.println(page.getContent());
+        while (page.hasNext()) {
+            page = pager.page(entityManager, page.getNextToken(), 2);
+            System.out.println(page.getContent());
+        }
+    }
+
     /**
      * 使用 hibernate 的查询缓存。
      */
@@ -122,6 +281,159 @@ public class JPATest {
         System.out.println(customers.size());
     }
 
+    /**
+     * 按 Customer 并发地处理 orders：每个任务有自己的 EntityManager 和事务，任务之间传递 id 而不是实体对象。
+     * 同时执行的任务数为 (max_size - 1) / 2，给领取主键号段的独立连接和当前的 EntityManager 留出余量，提交得太快时 submit 会阻塞。
+     */
+    @Test
+    public void testUnitOfWorkExecutor() throws Exception {
+        List<Integer> customerIds = entityManager.createQuery("select c.id from Customer c", Integer.class)
+                .getResultList();
+
+        List<JpaCallback<Integer>> tasks = new ArrayList<>();
+        for (final Integer customerId : customerIds) {
+            tasks.add(new JpaCallback<Integer>() {
+                @Override
+                public Integer doInJpa(EntityManager entityManager) {
+                    Customer customer = entityManager.find(Customer.class, customerId);
+                    return customer.getOrders().size();
+                }
+            });
+        }
+
+        try (UnitOfWorkExecutor executor = new UnitOfWorkExecutor(EntityManagerFactoryHolder.getEntityManagerProvider())) {
+            List<Integer> orderCounts = executor.invokeAll(tasks);
+            System.out.println(orderCounts);
+            System.out.println(executor.getStatistics());
+        }
+    }
+
+    /**
+     * 异步写入：persist 放入队列后立即返回，后台线程把多个写操作合并到一个事务中提交。
+     * 需要确认已经写入数据库时等待返回的 future。
+     */
+    @Test
+    public void testWriteBehindQueue() throws Exception {
+        WriteBehindQueue queue = EntityManagerFactoryHolder.getWriteBehindQueue();
+        List<CompletableFuture<Order>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Customer customer = new Customer("WB-" + i, 20 + i % 30);
+            customer.setEmail("wb-" + i + "@163.com");
+            customer.setCreatedTime(new Date());
+            customer.setBirth(new Date());
+            queue.persist(customer);
+
+            Order order = new Order();
+            order.setOrderName("O-WB-" + i);
+            order.setCustomer(customer);
+            futures.add(queue.persist(order));
+        }
+
+        queue.flush().get();
+        System.out.println(futures.get(0).get().getId());
+        System.out.println(queue.getStatistics());
+    }
+
+    /**
+     * 连接池的统计信息：借出中/空闲的连接数、等待的线程数、借出连接的耗时，以及疑似泄漏的连接
+     */
+    @Test
+    public void testConnectionPoolStatistics() {
+        for (int i = 0; i < 10; i++) {
+            EntityManager other = entityManagerFactory.createEntityManager();
+            other.find(Customer.class, 1);
+            other.close();
+        }
+
+        InstrumentedC3P0ConnectionProvider connectionProvider = InstrumentedC3P0ConnectionProvider.of(entityManagerFactory);
+        System.out.println(connectionProvider.getStatistics());
+        for (ConnectionCheckout leak : connectionProvider.getStatistics().getSuspectedLeaks()) {
+            System.out.println(leak);
+        }
+    }
+
+    /**
+     * 在一个事务中处理所有的 Customer：持久化上下文的实体个数达到阈值时自动 flush 和 clear，
+     * clear 之后被修改的游离实体在下一次 flush 时重新关联，修改不会丢失
+     */
+    @Test
+    public void testManagedUnitOfWork() {
+        ManagedUnitOfWork unitOfWork = new ManagedUnitOfWork(entityManagerFactory.createEntityManager(), 100);
+        EntityManager managed = unitOfWork.getEntityManager();
+        managed.getTransaction().begin();
+
+        List<Customer> customers = managed.createQuery("FROM Customer c ORDER BY c.id", Customer.class).getResultList();
+        for (Customer customer : customers) {
+            customer.setEmail("uow-" + customer.getId() + "@163.com");
+            Order order = new Order();
+            order.setOrderName("O-UOW-" + customer.getId());
+            order.setCustomer(customer);
+            managed.persist(order);
+        }
+        System.out.println(unitOfWork.getManagedEntities() + " / " + unitOfWork.getMaxManagedEntities());
+
+        managed.getTransaction().commit();
+        managed.close();
+        System.out.println(unitOfWork.getTransactions());
+    }
+
+    /**
+     * 拼接的 JPQL 中的字面量被替换为参数，只是条件的值不同的语句共用一个查询计划，不需要每次都重新解析
+     */
+    @Test
+    public void testNormalizedQueries() {
+        for (int age = 10; age < 20; age++) {
+            List<Customer> customers = NormalizedQueries.createQuery(entityManager,
+                    "FROM Customer c WHERE c.age > " + age + " AND c.lastName LIKE 'A%'", Customer.class)
+                    .getResultList();
+            System.out.println(age + ": " + customers.size());
+        }
+        System.out.println(NormalizedQueries.normalize("FROM Customer c WHERE c.age > 10 AND c.lastName LIKE 'A%'"));
+        System.out.println(InstrumentedQueryPlanCache.of(entityManagerFactory).getStatistics());
+    }
+
+    /**
+     * 按 SQL 统计执行次数、延迟、返回的行数和批处理的大小，超过 xt.jdbc.slow_query_threshold_ms 的语句输出到慢查询日志
+     */
+    @Test
+    public void testStatementMetrics() {
+        StatementMetrics metrics = StatementMetrics.of(entityManagerFactory);
+        metrics.reset();
+
+        for (int i = 0; i < 10; i++) {
+            entityManager.createQuery("FROM Customer c WHERE c.age > ?1").setParameter(1, i).getResultList();
+        }
+        entityManager.createQuery("UPDATE Customer c SET c.email = ?1 WHERE c.age > ?2")
+                .setParameter(1, "xt@163.com").setParameter(2, 100).executeUpdate();
+
+        for (StatementStatistics statistics : metrics.getStatistics()) {
+            System.out.println(statistics);
+        }
+        System.out.println("慢查询: " + metrics.getSlowQueries() + ", 输出: " + metrics.getLoggedSlowQueries());
+    }
+
+    /**
+     * 查询缓存按依赖关系失效：修改 lastName 不影响 from Customer where age > ? 的结果，缓存仍然有效
+     */
+    @Test
+    public void testQueryCacheInvalidation() {
+        String jpql = "from Customer where age > ?";
+        List<Customer> customers = entityManager.createQuery(jpql).setHint(QueryHints.CACHEABLE, true)
+                .setParameter(1, 1).getResultList();
+        System.out.println(customers.size());
+
+        entityManager.createQuery("UPDATE Customer c SET c.lastName = ?1 WHERE c.id = ?2")
+                .setParameter(1, "lhxt").setParameter(2, 12).executeUpdate();
+
+        customers = entityManager.createQuery(jpql).setHint(QueryHints.CACHEABLE, true)
+                .setParameter(1, 1).getResultList();
+        System.out.println(customers.size());
+
+        for (QueryStatistics statistics : DependencyTrackingQueryCacheFactory.of(entityManagerFactory).getStatistics()) {
+            System.out.println(statistics);
+        }
+    }
+
     /**
      * createNativeQuery 适用于本地 SQL
      */
@@ -166,6 +478,21 @@ public class JPATest {
         System.out.println(customers.size());
     }
 
+    /**
+     * 以流的方式读取大结果集：使用只进的游标分批读取，已经处理过的实体会从持久化上下文中移除。
+     */
+    @Test
+    public void testStreamingQuery() {
+        String jpql = "from Customer where age > ?";
+        Query query = entityManager.createQuery(jpql).setParameter(1, 1);
+
+        try (ScrollableResultIterator<Customer> customers = StreamingQueries.iterate(entityManager, query, 100)) {
+            while (customers.hasNext()) {
+                System.out.println(customers.next().getLastName());
+            }
+        }
+    }
+
     @Test
     public void testSecondeLevelCache() {
         Customer customer1 = entityManager.find(Customer.class, 2);
@@ -178,6 +505,49 @@ public class JPATest {
 
         Customer customer2 = entityManager.find(Customer.class, 2);
 
+        for (CacheStatistics statistics : LocalRegionFactory.of(entityManagerFactory).getStatistics()) {
+            System.out.println(statistics);
+        }
+    }
+
+    /**
+     * Customer 和 Order 的缓存区域配置了 off_heap_mb，缓存条目按二进制格式保存在堆外内存中，
+     * 命中时从堆外内存重新创建 CacheEntry，不会发送 SQL。getSizeInMemory 返回已经分配的堆外内存。
+     */
+    @Test
+    public void testOffHeapCache() {
+        Order order1 = entityManager.find(Order.class, 1);
+        System.out.println(order1.getCustomer().getLastName());
+        transaction.commit();
+        entityManager.close();
+
+        entityManager = entityManagerFactory.createEntityManager();
+        transaction = entityManager.getTransaction();
+        transaction.begin();
+
+        Order order2 = entityManager.find(Order.class, 1);
+        System.out.println(order2.getCustomer().getLastName() + ", " + order2.getCustomer().getBirth());
+
+        LocalRegion region = LocalRegionFactory.of(entityManagerFactory).getRegion(Customer.class.getName());
+        System.out.println(region.getStatistics() + ", " + region.getSizeInMemory() + " bytes");
+    }
+
+    /**
+     * 集合的二级缓存：第二次读取 Item 及其 categories 时不再发送 SQL 语句
+     */
+    @Test
+    public void testCollectionCache() {
+        Item item = entityManager.find(Item.class, 1);
+        System.out.println(item.getCategories().size());
+        transaction.commit();
+        entityManager.close();
+
+        entityManager = entityManagerFactory.createEntityManager();
+        transaction = entityManager.getTransaction();
+        transaction.begin();
+
+        item = entityManager.find(Item.class, 1);
+        System.out.println(item.getCategories().size());
     }
 
     // 多对多关联关系
@@ -231,11 +601,33 @@ public class JPATest {
         entityManager.persist(i2);
     }
 
+    /**
+     * 批量维护多对多的关联关系：按差异直接写中间表，不需要加载 Item 和它的 categories 集合。
+     * 需要插入和删除的 item_category 行按 hibernate.jdbc.batch_size 进行批处理，
+     * 已经初始化的集合（包括 Category.items）同步修改，只清除发生变化的集合的缓存条目。
+     */
+    @Test
+    public void testManyToManySync() {
+        Item item = entityManager.find(Item.class, 1);
+        System.out.println(item.getCategories().size());
+
+        Map<Integer, Set<Integer>> categoryIds = new LinkedHashMap<>();
+        categoryIds.put(1, new HashSet<>(Arrays.asList(1, 2)));
+        categoryIds.put(2, new HashSet<>(Arrays.asList(2)));
+        AssociationWriteResult result = new AssociationWriter(entityManager).sync(Item.class, "categories", categoryIds);
+        System.out.println(result);
+
+        // 不会再查询数据库，提交时也不会再执行 SQL
+        System.out.println(item.getCategories().size());
+    }
+
     // 双向一对一关联关系
     /**
      * 1. 默认情况下，若获取不维护关联关系的一方，则也会通过左外连接获取其关联的对象。
      * 可以通过 @OneToOne 的 fetch 属性来修改加载策略，但依然会再发送 SQL 语句来初始化其关联的对象
      * 这说明在不维护关联关系的一方，不建议修改 fetch属性
+     * 2. Manager.department 因此映射为 mappedBy 的集合（见 Manager.getDepartments），加载 Manager 时不会查询 Department，
+     * 第一次访问时才初始化（@BatchSize 一次初始化多个 Manager 的 department）
      */
     @Test
     public void testOneToOneFind2() {
@@ -245,6 +637,22 @@ public class JPATest {
         System.out.println(manager.getDepartment().getClass().getName());
     }
 
+    /**
+     * 查询所有的 Manager 只发送一条 SQL 语句，需要 department 时用 left join fetch 同时加载（仍然是一条 SQL 语句）
+     */
+    @Test
+    public void testOneToOneFindAll() {
+        List<Manager> managers = entityManager.createQuery("FROM Manager m", Manager.class).getResultList();
+        System.out.println(managers.size());
+
+        managers = entityManager.createQuery(
+                "SELECT DISTINCT m FROM Manager m LEFT JOIN FETCH m.departments", Manager.class).getResultList();
+        for (Manager manager : managers) {
+            Department department = manager.getDepartment();
+            System.out.println(manager.getMgrName() + ": " + (department == null ? null : department.getDeptName()));
+        }
+    }
+
     /**
      * 1. 默认情况下，若获取维护关联关系的一方，则会通过左外连接获取其关联的对象。
      * 但可以通过 @OneToOne 的 fetch 属性来修改加载策略。
@@ -285,6 +693,22 @@ public class JPATest {
         customer.getOrders().iterator().next().setOrderName("XXX");
     }
 
+    /**
+     * 批量删除：Customer 的 orders 使用 delete ... where customer_id in (...) 一次删除，
+     * 只清除被删除的实体和集合的缓存条目。批量更新：修改 Order 的 customer 时，新旧 Customer 的 orders 集合缓存都会被清除。
+     */
+    @Test
+    public void testBulkOperations() {
+        BulkOperations bulkOperations = new BulkOperations(entityManager);
+
+        BulkOperationResult result = bulkOperations.update(Order.class,
+                Collections.singletonMap("customer", entityManager.getReference(Customer.class, 3)), "e.customer.id = ?1", 2);
+        System.out.println(result);
+
+        result = bulkOperations.delete(Customer.class, Collections.singleton(8));
+        System.out.println(result);
+    }
+
     /**
      * 默认情况下，若删除 1 的一端，则会先把关联的 n 的一端的外键置空，然后进行删除。
      * 可以通过 @OneToMany 的 cascade 属性来修改默认的删除策略。
@@ -307,6 +731,27 @@ public class JPATest {
         System.out.println(customer.getOrders().size());
     }
 
+    /**
+     * 避免 N+1 问题：
+     * 1. orders 上的 @BatchSize 使得访问第一个 Customer 的 orders 时，同时初始化其他 Customer 的 orders
+     * 2. FetchPlans.fetchOrders 使用 join fetch 一次性初始化一批 Customer 的 orders
+     * 3. 启用 fetch profile 之后，find 会通过左外连接同时加载 orders
+     */
+    @Test
+    public void testBatchFetch() {
+        List<Customer> customers = entityManager.createQuery("from Customer c order by c.id")
+                .setMaxResults(500).getResultList();
+        FetchPlans.fetchOrders(entityManager, customers);
+        for (Customer customer : customers) {
+            System.out.println(customer.getLastName() + ": " + customer.getOrders().size());
+        }
+
+        entityManager.clear();
+        FetchPlans.enable(entityManager, FetchPlans.CUSTOMER_ORDERS);
+        Customer customer = entityManager.find(Customer.class, 9);
+        System.out.println(customer.getOrders().size());
+    }
+
     /**
      * 若是双向 1-n 的关联关系，执行保存时
      * 若先保存 n 的一端，再保存 1 的一端，默认情况下，会多出 n 条 update 语句。
@@ -346,6 +791,30 @@ public class JPATest {
         entityManager.persist(order2);
     }
 
+    /**
+     * 批量保存 1-n 关联关系：先保存 1 的一端，由 n 的一端维护关联关系，不会多出 update 语句。
+     */
+    @Test
+    public void testBulkPersist() {
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Customer customer = new Customer("bulk-" + i, 30);
+            customer.setEmail("bulk-" + i + "@163.com");
+            customer.setCreatedTime(new Date());
+
+            for (int j = 0; j < 3; j++) {
+                Order order = new Order();
+                order.setOrderName("O-B-" + i + "-" + j);
+                order.setCustomer(customer);
+                customer.getOrders().add(order);
+            }
+            customers.add(customer);
+        }
+
+        BulkPersistResult result = new BulkPersistService(entityManagerFactory).persistAll(customers);
+        System.out.println(result);
+    }
+
     // 多对一关联关系
     /*@Test
     public void testManyToOneUpdate() {
@@ -429,6 +898,23 @@ public class JPATest {
 
         entityManager.flush();
     }
+
+    /**
+     * setter 记录被修改的属性：flush 时只比较被修改的属性，update 语句只包含被修改的列（@DynamicUpdate）。
+     * 值被改回原值时不会 update。
+     */
+    @Test
+    public void testDirtyTracking() {
+        Customer customer = entityManager.find(Customer.class, 2);
+        System.out.println(customer.dirtyAttributes());
+
+        customer.setAge(customer.getAge() + 1);
+        customer.setLastName(customer.getLastName());
+        System.out.println(customer.dirtyAttributes());
+
+        entityManager.flush();
+        System.out.println(customer.dirtyAttributes());
+    }
     /**
      * 若传入的是一个游离对象，即传入的对象有OID
      * 1. 若在 EntityManager 缓存中有对应的对象
@@ -533,6 +1019,20 @@ public class JPATest {
         entityManager.remove(customer);
     }
 
+    /**
+     * 主键由 PooledTableIdGenerator 按号段预先分配，persist 时不会立即发送 insert 语句，
+     * 提交事务时 insert 语句按 hibernate.jdbc.batch_size 进行批处理。
+     */
+    @Test
+    public void testPooledIdGenerator() {
+        for (int i = 0; i < 100; i++) {
+            Customer customer = new Customer("pooled-" + i, 20);
+            customer.setEmail("pooled-" + i + "@163.com");
+            entityManager.persist(customer);
+            System.out.println(customer.getId());
+        }
+    }
+
     // 类似于 hibernate 中 Session 的 save 方法。 使对象由临时状态变为持久化状态。
     // 和 hibernate 的save 方法的不同之处：若对象有id，则不能执行 insert 操作，而会抛出异常。
     @Test
@@ -562,6 +1062,20 @@ public class JPATest {
         System.out.println(customer.toString());
     }
 
+    /**
+     * 懒加载的代理是 ProxySourceGenerator 生成的 CustomerProxy：调用 getId 不会初始化代理，
+     * 其它方法直接调用目标对象，而不是像 javassist 的代理那样通过反射调用。
+     */
+    @Test
+    public void testGeneratedProxy() {
+        Order order = entityManager.find(Order.class, 1);
+        Customer customer = order.getCustomer();
+        System.out.println(customer.getClass().getName());
+
+        System.out.println(customer.getId() + ", " + Hibernate.isInitialized(customer));
+        System.out.println(customer.getLastName() + ", " + Hibernate.isInitialized(customer));
+    }
+
     // 类似于 hibernate 中 Session 的 get 方法。
     @Test
     public void testFind() {